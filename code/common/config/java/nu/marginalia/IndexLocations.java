@@ -32,6 +32,12 @@ public class IndexLocations {
         return getStorage(fileStorage, FileStorageBaseType.CURRENT, "ir");
     }
 
+    /** Return the path to the delta index, which holds documents loaded since the current index was constructed.
+     * The directory is created when the first delta index is constructed, and may not exist. */
+    public static Path getDeltaIndex(FileStorageService fileStorage) {
+        return getCurrentIndex(fileStorage).resolve("delta");
+    }
+
     /** Return the path to the designated index construction area */
     public static Path getIndexConstructionArea(FileStorageService fileStorage) {
         return getStorage(fileStorage, FileStorageBaseType.CURRENT, "iw");
@@ -0,0 +1,63 @@
+package nu.marginalia.linkdb.docs;
+
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+
+/** Layout of the columnar document database file.
+ * <p></p>
+ * The file starts with a fixed size header, containing a magic number, the format version,
+ * the number of documents, and the file offset of each section.  Sections are 8-byte aligned.
+ * <p></p>
+ * The fixed width sections hold one value per document, in ascending document id order,
+ * so the position of a document id in the {@link #SECTION_IDS} section is its row number
+ * in all other columns.
+ * <p></p>
+ * The string columns (path, param, title, description) are each stored as an offsets section
+ * with <code>count + 1</code> longs and a heap section of UTF-8 bytes, where row <code>i</code>
+ * spans <code>[offsets[i], offsets[i+1])</code> of the heap.  A null value has {@link #NULL_FLAG}
+ * set in its start offset.
+ * <p></p>
+ * The origin of each URL (protocol, domain and port) as well as the language and format are
+ * dictionary encoded, with the column holding an index into a dictionary section.  Dictionary
+ * sections start with an int count, followed by the entries.  Strings in dictionaries
+ * are written as an int length followed by UTF-8 bytes.  Origin entries are protocol, domain
+ * and an int port, which is zero when the URL has no explicit port.
+ * */
+final class DocumentDbColumnarFormat {
+    static final long MAGIC = 0x4d5244434f4c3031L; // "MRDCOL01"
+    static final int VERSION = 1;
+
+    static final int SECTION_IDS = 0;
+    static final int SECTION_QUALITY = 1;
+    static final int SECTION_DATA_HASH = 2;
+    static final int SECTION_FEATURES = 3;
+    static final int SECTION_WORDS_TOTAL = 4;
+    static final int SECTION_PUB_YEAR = 5;
+    static final int SECTION_ORIGIN = 6;
+    static final int SECTION_LANGUAGE = 7;
+    static final int SECTION_FORMAT = 8;
+    static final int SECTION_PATH_OFFSETS = 9;
+    static final int SECTION_PATH_HEAP = 10;
+    static final int SECTION_PARAM_OFFSETS = 11;
+    static final int SECTION_PARAM_HEAP = 12;
+    static final int SECTION_TITLE_OFFSETS = 13;
+    static final int SECTION_TITLE_HEAP = 14;
+    static final int SECTION_DESCRIPTION_OFFSETS = 15;
+    static final int SECTION_DESCRIPTION_HEAP = 16;
+    static final int SECTION_ORIGIN_DICT = 17;
+    static final int SECTION_LANGUAGE_DICT = 18;
+    static final int SECTION_FORMAT_DICT = 19;
+
+    static final int SECTION_COUNT = 20;
+
+    /** magic, version + padding, count, section offsets */
+    static final int HEADER_SIZE = 8 + 8 + 8 + 8 * SECTION_COUNT;
+
+    static final long NULL_FLAG = 1L << 63;
+
+    static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    static final ValueLayout.OfDouble DOUBLE = ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private DocumentDbColumnarFormat() {}
+}
@@ -0,0 +1,194 @@
+package nu.marginalia.linkdb.docs;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongList;
+import nu.marginalia.linkdb.model.DocdbUrlDetail;
+import nu.marginalia.model.EdgeDomain;
+import nu.marginalia.model.EdgeUrl;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static nu.marginalia.linkdb.docs.DocumentDbColumnarFormat.*;
+
+/** Reads the columnar document database, see {@link DocumentDbColumnarFormat} for the layout.
+ * <p></p>
+ * The file is memory mapped, and lookups binary search the id column and then read the
+ * row directly from each column.  The dictionaries are decoded when the file is opened,
+ * so the origin of each URL is shared between documents and URLs don't need to be parsed.
+ * <p></p>
+ * The mapping is owned by an automatic arena, so it is released once the reader is no
+ * longer reachable.  This lets lookups in progress finish safely after the reader has been
+ * replaced.  This class is thread-safe.
+ * */
+public class DocumentDbColumnarReader {
+    private final MemorySegment data;
+    private final long count;
+    private final long[] sectionOffsets = new long[SECTION_COUNT];
+
+    private final String[] originProtos;
+    private final EdgeDomain[] originDomains;
+    private final Integer[] originPorts;
+
+    private final String[] languages;
+    private final String[] formats;
+
+    public DocumentDbColumnarReader(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto());
+        }
+
+        if (data.byteSize() < HEADER_SIZE || data.get(LONG, 0) != MAGIC) {
+            throw new IOException("Not a columnar document database: " + file);
+        }
+
+        int version = data.get(INT, 8);
+        if (version != VERSION) {
+            throw new IOException("Unsupported columnar document database version " + version + " in " + file);
+        }
+
+        count = data.get(LONG, 16);
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            sectionOffsets[i] = data.get(LONG, 24 + 8L * i);
+        }
+
+        // Decode the origin dictionary
+        long pos = sectionOffsets[SECTION_ORIGIN_DICT];
+        int originCount = data.get(INT, pos);
+        pos += 4;
+
+        originProtos = new String[originCount];
+        originDomains = new EdgeDomain[originCount];
+        originPorts = new Integer[originCount];
+
+        for (int i = 0; i < originCount; i++) {
+            int len = data.get(INT, pos);
+            originProtos[i] = readString(pos + 4, len).intern();
+            pos += 4 + len;
+
+            len = data.get(INT, pos);
+            originDomains[i] = new EdgeDomain(readString(pos + 4, len));
+            pos += 4 + len;
+
+            int port = data.get(INT, pos);
+            originPorts[i] = port == 0 ? null : port;
+            pos += 4;
+        }
+
+        languages = readDictionary(sectionOffsets[SECTION_LANGUAGE_DICT]);
+        formats = readDictionary(sectionOffsets[SECTION_FORMAT_DICT]);
+    }
+
+    private String[] readDictionary(long pos) {
+        int n = data.get(INT, pos);
+        pos += 4;
+
+        String[] ret = new String[n];
+        for (int i = 0; i < n; i++) {
+            int len = data.get(INT, pos);
+            ret[i] = readString(pos + 4, len);
+            pos += 4 + len;
+        }
+        return ret;
+    }
+
+    /** Returns the number of documents in the file */
+    public long size() {
+        return count;
+    }
+
+    /** Returns the document id at the given row, in ascending id order */
+    public long getId(long row) {
+        return data.get(LONG, sectionOffsets[SECTION_IDS] + 8 * row);
+    }
+
+    /** Returns the URL details for the given document ids, ids that are not
+     * present in the file are omitted from the result */
+    public Long2ObjectMap<DocdbUrlDetail> getUrlDetails(LongList ids) {
+        Long2ObjectMap<DocdbUrlDetail> ret = new Long2ObjectOpenHashMap<>(ids.size());
+
+        for (int i = 0; i < ids.size(); i++) {
+            long id = ids.getLong(i);
+
+            long row = findRow(id);
+            if (row < 0)
+                continue;
+
+            ret.put(id, readRow(id, row));
+        }
+
+        return ret;
+    }
+
+    /** Binary search the id column for the row of the document id, or -1 if it is not present */
+    long findRow(long id) {
+        final long base = sectionOffsets[SECTION_IDS];
+
+        long low = 0;
+        long high = count - 1;
+
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            long midVal = data.get(LONG, base + 8 * mid);
+
+            if (midVal < id) low = mid + 1;
+            else if (midVal > id) high = mid - 1;
+            else return mid;
+        }
+
+        return -1;
+    }
+
+    private DocdbUrlDetail readRow(long id, long row) {
+        int origin = data.get(INT, sectionOffsets[SECTION_ORIGIN] + 4 * row);
+
+        var url = new EdgeUrl(
+                originProtos[origin],
+                originDomains[origin],
+                originPorts[origin],
+                readStringColumn(SECTION_PATH_OFFSETS, SECTION_PATH_HEAP, row),
+                readStringColumn(SECTION_PARAM_OFFSETS, SECTION_PARAM_HEAP, row)
+        );
+
+        return new DocdbUrlDetail(
+                id,
+                url,
+                readStringColumn(SECTION_TITLE_OFFSETS, SECTION_TITLE_HEAP, row),
+                readStringColumn(SECTION_DESCRIPTION_OFFSETS, SECTION_DESCRIPTION_HEAP, row),
+                languages[data.get(INT, sectionOffsets[SECTION_LANGUAGE] + 4 * row)],
+                data.get(DOUBLE, sectionOffsets[SECTION_QUALITY] + 8 * row),
+                formats[data.get(INT, sectionOffsets[SECTION_FORMAT] + 4 * row)],
+                data.get(INT, sectionOffsets[SECTION_FEATURES] + 4 * row),
+                data.get(INT, sectionOffsets[SECTION_PUB_YEAR] + 4 * row),
+                data.get(LONG, sectionOffsets[SECTION_DATA_HASH] + 8 * row),
+                data.get(INT, sectionOffsets[SECTION_WORDS_TOTAL] + 4 * row)
+        );
+    }
+
+    private String readStringColumn(int offsetsSection, int heapSection, long row) {
+        long offsetsBase = sectionOffsets[offsetsSection];
+
+        long start = data.get(LONG, offsetsBase + 8 * row);
+        if ((start & NULL_FLAG) != 0)
+            return null;
+
+        long end = data.get(LONG, offsetsBase + 8 * (row + 1)) & ~NULL_FLAG;
+
+        return readString(sectionOffsets[heapSection] + start, (int) (end - start));
+    }
+
+    private String readString(long pos, int len) {
+        if (len == 0)
+            return "";
+
+        byte[] bytes = data.asSlice(pos, len).toArray(ValueLayout.JAVA_BYTE);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
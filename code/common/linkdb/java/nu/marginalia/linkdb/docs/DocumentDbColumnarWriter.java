@@ -0,0 +1,317 @@
+package nu.marginalia.linkdb.docs;
+
+import it.unimi.dsi.fastutil.objects.Object2IntLinkedOpenHashMap;
+import nu.marginalia.linkdb.model.DocdbUrlDetail;
+import nu.marginalia.model.EdgeUrl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import static nu.marginalia.linkdb.docs.DocumentDbColumnarFormat.*;
+
+/** Writes the columnar document database, see {@link DocumentDbColumnarFormat} for the layout.
+ * <p></p>
+ * Documents must be added in ascending document id order.  Each section is written to its own
+ * temporary file as the documents are added, and the sections are concatenated into the
+ * output file when the writer is closed.  Only the dictionaries are kept in memory.
+ * <p></p>
+ * The file is typically created from the SQLite document database with
+ * {@link DocumentDbWriter#writeColumnar(Path)}, or {@link #export(Path, Path)}
+ * for an existing database.
+ * */
+public class DocumentDbColumnarWriter implements AutoCloseable {
+    private final Path outputFile;
+    private final Path tempFile;
+
+    private final SectionOutput[] sections = new SectionOutput[SECTION_COUNT];
+
+    private final Object2IntLinkedOpenHashMap<Origin> origins = new Object2IntLinkedOpenHashMap<>();
+    private final Object2IntLinkedOpenHashMap<String> languages = new Object2IntLinkedOpenHashMap<>();
+    private final Object2IntLinkedOpenHashMap<String> formats = new Object2IntLinkedOpenHashMap<>();
+
+    private final long[] heapSizes = new long[SECTION_COUNT];
+
+    private long count = 0;
+    private long lastId = Long.MIN_VALUE;
+
+    private record Origin(String proto, String domain, int port) {}
+
+    public DocumentDbColumnarWriter(Path outputFile) throws IOException {
+        this.outputFile = outputFile;
+
+        Path dir = outputFile.toAbsolutePath().getParent();
+        this.tempFile = Files.createTempFile(dir, outputFile.getFileName().toString(), ".tmp");
+
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            sections[i] = new SectionOutput(Files.createTempFile(dir, outputFile.getFileName().toString(), ".s" + i));
+        }
+    }
+
+    /** Export an existing SQLite document database to a columnar file */
+    public static void export(Path sqliteFile, Path outputFile) throws SQLException, IOException {
+        try (var connection = DriverManager.getConnection("jdbc:sqlite:" + sqliteFile)) {
+            export(connection, outputFile);
+        }
+    }
+
+    /** Export the documents of a SQLite document database to a columnar file.
+     * <p></p>
+     * The URLs are parsed once here, so that the reader of the columnar
+     * file can construct them directly without parsing.
+     * */
+    static void export(Connection connection, Path outputFile) throws SQLException, IOException {
+        try (var stmt = connection.createStatement();
+             var writer = new DocumentDbColumnarWriter(outputFile))
+        {
+            stmt.setFetchSize(1000);
+
+            var rs = stmt.executeQuery("""
+                SELECT ID, URL, TITLE, DESCRIPTION, LANGUAGE, WORDS_TOTAL, FORMAT, FEATURES, DATA_HASH, QUALITY, PUB_YEAR
+                FROM DOCUMENT ORDER BY ID
+                """);
+
+            while (rs.next()) {
+                var urlMaybe = EdgeUrl.parse(rs.getString("URL"));
+                if (urlMaybe.isEmpty()) {
+                    continue;
+                }
+
+                writer.add(new DocdbUrlDetail(
+                        rs.getLong("ID"),
+                        urlMaybe.get(),
+                        rs.getString("TITLE"),
+                        rs.getString("DESCRIPTION"),
+                        rs.getString("LANGUAGE"),
+                        rs.getDouble("QUALITY"),
+                        rs.getString("FORMAT"),
+                        rs.getInt("FEATURES"),
+                        rs.getInt("PUB_YEAR"),
+                        rs.getLong("DATA_HASH"),
+                        rs.getInt("WORDS_TOTAL")
+                ));
+            }
+        }
+    }
+
+    public void add(DocdbUrlDetail document) throws IOException {
+        if (count > 0 && document.urlId() <= lastId) {
+            throw new IllegalArgumentException("Documents must be added in ascending id order, "
+                    + document.urlId() + " after " + lastId);
+        }
+
+        lastId = document.urlId();
+
+        EdgeUrl url = document.url();
+
+        sections[SECTION_IDS].putLong(document.urlId());
+        sections[SECTION_QUALITY].putDouble(document.urlQuality());
+        sections[SECTION_DATA_HASH].putLong(document.dataHash());
+        sections[SECTION_FEATURES].putInt(document.features());
+        sections[SECTION_WORDS_TOTAL].putInt(document.wordsTotal());
+        sections[SECTION_PUB_YEAR].putInt(document.pubYear() == null ? 0 : document.pubYear());
+
+        var origin = new Origin(url.proto, url.domain.toString(), url.port == null ? 0 : url.port);
+        sections[SECTION_ORIGIN].putInt(dictionaryIndex(origins, origin));
+        sections[SECTION_LANGUAGE].putInt(dictionaryIndex(languages, document.language()));
+        sections[SECTION_FORMAT].putInt(dictionaryIndex(formats, document.format()));
+
+        putString(SECTION_PATH_OFFSETS, SECTION_PATH_HEAP, url.path);
+        putString(SECTION_PARAM_OFFSETS, SECTION_PARAM_HEAP, url.param);
+        putString(SECTION_TITLE_OFFSETS, SECTION_TITLE_HEAP, document.title());
+        putString(SECTION_DESCRIPTION_OFFSETS, SECTION_DESCRIPTION_HEAP, document.description());
+
+        count++;
+    }
+
+    private static <T> int dictionaryIndex(Object2IntLinkedOpenHashMap<T> dictionary, T value) {
+        int idx = dictionary.getOrDefault(value, -1);
+        if (idx < 0) {
+            idx = dictionary.size();
+            dictionary.put(value, idx);
+        }
+        return idx;
+    }
+
+    private void putString(int offsetsSection, int heapSection, String value) throws IOException {
+        if (value == null) {
+            sections[offsetsSection].putLong(heapSizes[heapSection] | NULL_FLAG);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        sections[offsetsSection].putLong(heapSizes[heapSection]);
+        sections[heapSection].putBytes(bytes);
+        heapSizes[heapSection] += bytes.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            // Terminate the string offsets, so that each row's end is the start of the next row
+            sections[SECTION_PATH_OFFSETS].putLong(heapSizes[SECTION_PATH_HEAP]);
+            sections[SECTION_PARAM_OFFSETS].putLong(heapSizes[SECTION_PARAM_HEAP]);
+            sections[SECTION_TITLE_OFFSETS].putLong(heapSizes[SECTION_TITLE_HEAP]);
+            sections[SECTION_DESCRIPTION_OFFSETS].putLong(heapSizes[SECTION_DESCRIPTION_HEAP]);
+
+            var originDict = sections[SECTION_ORIGIN_DICT];
+            originDict.putInt(origins.size());
+            for (var origin : origins.keySet()) {
+                originDict.putString(origin.proto());
+                originDict.putString(origin.domain());
+                originDict.putInt(origin.port());
+            }
+
+            writeDictionary(sections[SECTION_LANGUAGE_DICT], languages);
+            writeDictionary(sections[SECTION_FORMAT_DICT], formats);
+
+            assemble();
+
+            Files.move(tempFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            for (var section : sections) {
+                section.delete();
+            }
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private void writeDictionary(SectionOutput output, Object2IntLinkedOpenHashMap<String> dictionary) throws IOException {
+        output.putInt(dictionary.size());
+        for (var value : dictionary.keySet()) {
+            output.putString(value);
+        }
+    }
+
+    /** Write the header and concatenate the sections into the temp file */
+    private void assemble() throws IOException {
+        long[] sectionOffsets = new long[SECTION_COUNT];
+
+        long offset = HEADER_SIZE;
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            sections[i].flush();
+
+            sectionOffsets[i] = offset;
+            offset = align(offset + sections[i].size());
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(0);
+        header.putLong(count);
+        for (long sectionOffset : sectionOffsets) {
+            header.putLong(sectionOffset);
+        }
+        header.flip();
+
+        try (var out = FileChannel.open(tempFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+
+            for (int i = 0; i < SECTION_COUNT; i++) {
+                out.position(sectionOffsets[i]);
+                sections[i].transferTo(out);
+            }
+
+            // Pad the file to the aligned end of the last section
+            if (out.size() < offset) {
+                out.write(ByteBuffer.allocate((int) (offset - out.size())), out.size());
+            }
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    /** Buffered little-endian output to a section's temporary file */
+    private static class SectionOutput {
+        private final Path file;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        private long size = 0;
+
+        SectionOutput(Path file) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        void putLong(long value) throws IOException {
+            ensureRemaining(8);
+            buffer.putLong(value);
+            size += 8;
+        }
+
+        void putInt(int value) throws IOException {
+            ensureRemaining(4);
+            buffer.putInt(value);
+            size += 4;
+        }
+
+        void putDouble(double value) throws IOException {
+            ensureRemaining(8);
+            buffer.putDouble(value);
+            size += 8;
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            putBytes(bytes);
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            int pos = 0;
+            while (pos < bytes.length) {
+                ensureRemaining(1);
+                int n = Math.min(buffer.remaining(), bytes.length - pos);
+                buffer.put(bytes, pos, n);
+                pos += n;
+            }
+            size += bytes.length;
+        }
+
+        long size() {
+            return size;
+        }
+
+        private void ensureRemaining(int n) throws IOException {
+            if (buffer.remaining() < n) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void transferTo(FileChannel out) throws IOException {
+            long pos = 0;
+            while (pos < size) {
+                pos += channel.transferTo(pos, size - pos, out);
+            }
+        }
+
+        void delete() throws IOException {
+            channel.close();
+            Files.deleteIfExists(file);
+        }
+    }
+}
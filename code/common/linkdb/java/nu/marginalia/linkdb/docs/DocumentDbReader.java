@@ -6,49 +6,99 @@ import com.google.inject.name.Named;
 import it.unimi.dsi.fastutil.longs.*;
 import nu.marginalia.linkdb.model.DocdbUrlDetail;
 import nu.marginalia.model.EdgeUrl;
+import org.sqlite.SQLiteConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.*;
-import java.util.stream.Collectors;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static nu.marginalia.linkdb.LinkdbFileNames.DOCDB_COLUMNAR_FILE_NAME;
 
 /** Reads the document database, which is a SQLite database
  * containing the URLs and metadata of the documents in the
  * index.
  * <p></p>
+ * Lookups go through a pool of read-only connections, so that
+ * concurrent queries don't serialize on a single connection.
+ * When the database is switched, a new pool is opened for the new file
+ * and the old pool is retired once the lookups using it have finished.
+ * <p></p>
+ * If a columnar export of the database is present next to the database file,
+ * lookups are served from it instead, see {@link DocumentDbColumnarReader}.
+ * This can be disabled with <code>-Ddocdb.disableColumnar=true</code>.
+ * <p></p>
  * The database is created by the DocumentDbWriter class.
  * */
 @Singleton
 public class DocumentDbReader {
     private final Path dbFile;
-    private volatile Connection connection;
+    private final Path columnarFile;
+    private volatile ConnectionPool pool;
+    private final boolean useColumnar;
+    private volatile DocumentDbColumnarReader columnarReader;
+
+    private static final int poolSize = Integer.getInteger("docdb.readConnections",
+            Math.clamp(Runtime.getRuntime().availableProcessors(), 2, 16));
+
+    /** Number of ids bound per executed statement, shorter batches are padded */
+    private static final int LOOKUP_BATCH_SIZE = 64;
 
-    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private static final String LOOKUP_SQL = """
+                SELECT ID, URL, TITLE, DESCRIPTION, LANGUAGE, WORDS_TOTAL, FORMAT, FEATURES, DATA_HASH, QUALITY, PUB_YEAR
+                FROM DOCUMENT WHERE ID IN
+                """ + "(" + String.join(",", Collections.nCopies(LOOKUP_BATCH_SIZE, "?")) + ")";
+
+    private static final Logger logger = LoggerFactory.getLogger(DocumentDbReader.class);
 
     @Inject
     public DocumentDbReader(@Named("docdb-file") Path dbFile) throws SQLException {
+        this(dbFile, !Boolean.getBoolean("docdb.disableColumnar"));
+    }
+
+    /**
+     * @param useColumnar whether to serve lookups from the columnar file when it is present
+     */
+    public DocumentDbReader(Path dbFile, boolean useColumnar) throws SQLException {
         this.dbFile = dbFile;
+        this.useColumnar = useColumnar;
+        this.columnarFile = dbFile.resolveSibling(DOCDB_COLUMNAR_FILE_NAME);
 
         if (Files.exists(dbFile)) {
-            connection = createConnection();
+            pool = createPool();
+            columnarReader = openColumnar();
         }
         else {
             logger.warn("No docdb file {}", dbFile);
         }
     }
 
-    private Connection createConnection() throws SQLException {
+    private DocumentDbColumnarReader openColumnar() {
+        if (!useColumnar || !Files.exists(columnarFile))
+            return null;
+
+        try {
+            return new DocumentDbColumnarReader(columnarFile);
+        }
+        catch (IOException ex) {
+            logger.error("Failed to open columnar docdb " + columnarFile + ", falling back to SQLite", ex);
+            return null;
+        }
+    }
+
+    private ConnectionPool createPool() {
         try {
-            String connStr = "jdbc:sqlite:" + dbFile.toString();
-            return DriverManager.getConnection(connStr);
+            return new ConnectionPool(dbFile, poolSize);
         }
         catch (SQLException ex) {
             logger.error("Failed to connect to link database " + dbFile, ex);
@@ -59,7 +109,9 @@ public class DocumentDbReader {
     /** Switches the input database file to a new file.
      * <p></p>
      * This is used to switch over to a new database file
-     * when the index is re-indexed.
+     * when the index is re-indexed.  Lookups that are in progress
+     * finish against the old file, which stays readable through
+     * its open connections until they are returned to the old pool.
      * */
     public void switchInput(Path newDbFile) throws IOException, SQLException {
         if (!Files.isRegularFile(newDbFile)) {
@@ -67,24 +119,51 @@ public class DocumentDbReader {
             return;
         }
 
-        if (connection != null) {
-            connection.close();
-        }
-
         logger.info("Moving {} to {}", newDbFile, dbFile);
 
         Files.move(newDbFile, dbFile, StandardCopyOption.REPLACE_EXISTING);
 
-        connection = createConnection();
+        // The columnar file must match the database, so remove a stale one
+        // if the new database comes without a columnar export
+        Path newColumnarFile = newDbFile.resolveSibling(DOCDB_COLUMNAR_FILE_NAME);
+        if (Files.isRegularFile(newColumnarFile)) {
+            Files.move(newColumnarFile, columnarFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        else {
+            Files.deleteIfExists(columnarFile);
+        }
+
+        ConnectionPool oldPool = pool;
+        pool = createPool();
+        columnarReader = openColumnar();
+
+        if (oldPool != null) {
+            oldPool.retire();
+        }
     }
 
-    /** Re-establishes the connection, useful in tests and not
+    /** Re-establishes the connections, useful in tests and not
      * much else */
     public void reconnect() throws SQLException {
-        if (connection != null)
-            connection.close();
+        ConnectionPool oldPool = pool;
+        pool = createPool();
+        columnarReader = openColumnar();
 
-        connection = createConnection();
+        if (oldPool != null) {
+            oldPool.retire();
+        }
+    }
+
+    /** Close the connections once lookups in progress have finished.
+     * Further lookups will fail. */
+    public void close() {
+        ConnectionPool oldPool = pool;
+        pool = null;
+        columnarReader = null;
+
+        if (oldPool != null) {
+            oldPool.retire();
+        }
     }
 
     /** Returns the URL details for the given document ids.
@@ -96,30 +175,52 @@ public class DocumentDbReader {
         if (ids.isEmpty())
             return Long2ObjectMaps.emptyMap();
 
-        if (connection == null || connection.isClosed()) {
-            logger.error("URL query temporarily unavailable due to database switch");
-            // This shouldn't be possible unless something has gone wrong with the mutex handling
-            // but we catch it anyway to get better tracking in case something does go wrong...
-            throw new RuntimeException("URL query temporarily unavailable due to database switch");
-        }
+        DocumentDbColumnarReader columnar = columnarReader;
+        if (columnar != null)
+            return columnar.getUrlDetails(ids);
 
-        Long2ObjectMap ret = new Long2ObjectOpenHashMap(ids.size());
+        Long2ObjectMap<DocdbUrlDetail> ret = new Long2ObjectOpenHashMap<>(ids.size());
 
-        try (var stmt = connection.createStatement()) {
-            String docIds = ids
-                    .longStream()
-                    .mapToObj(Long::toString)
-                    .collect(Collectors.joining(",", "(", ")"));;
+        for (;;) {
+            ConnectionPool currentPool = pool;
 
-            // NOTE: This looks skethcy, but the injection risk of
-            // query concatenation is entirely mitigated through docIds
-            // being constructed from an input of longs.
+            if (currentPool == null) {
+                logger.error("URL query temporarily unavailable due to database switch");
+                throw new RuntimeException("URL query temporarily unavailable due to database switch");
+            }
 
-            var rs = stmt.executeQuery("""
-                SELECT ID, URL, TITLE, DESCRIPTION, LANGUAGE, WORDS_TOTAL, FORMAT, FEATURES, DATA_HASH, QUALITY, PUB_YEAR
-                FROM DOCUMENT WHERE ID IN 
-                """ + docIds);
+            PooledConnection connection = currentPool.acquire();
+            if (connection == null) {
+                // The pool was retired while we waited, retry against the new pool
+                continue;
+            }
+
+            try {
+                for (int start = 0; start < ids.size(); start += LOOKUP_BATCH_SIZE) {
+                    int end = Math.min(ids.size(), start + LOOKUP_BATCH_SIZE);
+                    lookup(connection.lookupStatement(), ids, start, end, ret);
+                }
+            }
+            finally {
+                currentPool.release(connection);
+            }
+
+            return ret;
+        }
+    }
 
+    private void lookup(PreparedStatement stmt,
+                        LongList ids,
+                        int start,
+                        int end,
+                        Long2ObjectMap<DocdbUrlDetail> ret) throws SQLException
+    {
+        // Pad the batch by repeating the last id, which doesn't change the result
+        for (int i = 0; i < LOOKUP_BATCH_SIZE; i++) {
+            stmt.setLong(i + 1, ids.getLong(Math.min(start + i, end - 1)));
+        }
+
+        try (var rs = stmt.executeQuery()) {
             while (rs.next()) {
                 var urlMaybe = EdgeUrl.parse(rs.getString("URL"));
                 if (urlMaybe.isEmpty()) {
@@ -146,7 +247,104 @@ public class DocumentDbReader {
                 ret.put(id, details);
             }
         }
+    }
+
+    /** A read-only connection along with its prepared lookup statement */
+    private record PooledConnection(Connection connection, PreparedStatement lookupStatement) {
+        static PooledConnection open(Path dbFile) throws SQLException {
+            SQLiteConfig config = new SQLiteConfig();
+            config.setReadOnly(true);
+
+            Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile, config.toProperties());
+            try {
+                return new PooledConnection(connection, connection.prepareStatement(LOOKUP_SQL));
+            }
+            catch (SQLException ex) {
+                connection.close();
+                throw ex;
+            }
+        }
 
-        return ret;
+        void close() {
+            try {
+                lookupStatement.close();
+                connection.close();
+            }
+            catch (SQLException ex) {
+                logger.warn("Failed to close docdb connection", ex);
+            }
+        }
+    }
+
+    /** A fixed set of connections to one database file */
+    private static class ConnectionPool {
+        private final BlockingQueue<PooledConnection> idle;
+        private volatile boolean retired = false;
+
+        ConnectionPool(Path dbFile, int size) throws SQLException {
+            idle = new ArrayBlockingQueue<>(size);
+
+            try {
+                for (int i = 0; i < size; i++) {
+                    idle.add(PooledConnection.open(dbFile));
+                }
+            }
+            catch (SQLException ex) {
+                idle.forEach(PooledConnection::close);
+                throw ex;
+            }
+        }
+
+        /** Take a connection from the pool, waiting for one to become available.
+         *
+         * @return the connection, or null if the pool has been retired
+         */
+        PooledConnection acquire() throws SQLException {
+            try {
+                for (;;) {
+                    if (retired)
+                        return null;
+
+                    PooledConnection connection = idle.poll(100, TimeUnit.MILLISECONDS);
+                    if (connection == null)
+                        continue;
+
+                    if (retired) {
+                        connection.close();
+                        return null;
+                    }
+
+                    return connection;
+                }
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a docdb connection", ex);
+            }
+        }
+
+        void release(PooledConnection connection) {
+            if (retired) {
+                connection.close();
+                return;
+            }
+
+            idle.add(connection);
+
+            // The pool may have been retired between the check and the add
+            if (retired && idle.remove(connection)) {
+                connection.close();
+            }
+        }
+
+        /** Stop handing out connections, and close them as they are returned */
+        void retire() {
+            retired = true;
+
+            PooledConnection connection;
+            while ((connection = idle.poll()) != null) {
+                connection.close();
+            }
+        }
     }
 }
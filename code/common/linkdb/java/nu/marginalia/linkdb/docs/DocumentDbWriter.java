@@ -12,6 +12,9 @@ import java.util.List;
 /** Writes the document database, which is a SQLite database
  * containing the URLs and metadata of the documents in the
  * index.
+ * <p></p>
+ * Once all documents are added, the database can also be exported
+ * to the columnar format read by {@link DocumentDbColumnarReader}.
  * */
 public class DocumentDbWriter {
 
@@ -78,6 +81,29 @@ public class DocumentDbWriter {
         }
     }
 
+    /** Copy all documents from another document database into this one,
+     * replacing any documents with the same id */
+    public void addAll(Path otherDbFile) throws SQLException {
+        try (var stmt = connection.createStatement()) {
+            stmt.execute("ATTACH DATABASE '" + otherDbFile.toString().replace("'", "''") + "' AS OTHER");
+            try {
+                stmt.executeUpdate("""
+                        INSERT OR REPLACE INTO DOCUMENT(ID, URL, TITLE, DESCRIPTION, LANGUAGE, WORDS_TOTAL, FORMAT, FEATURES, DATA_HASH, QUALITY, PUB_YEAR)
+                        SELECT ID, URL, TITLE, DESCRIPTION, LANGUAGE, WORDS_TOTAL, FORMAT, FEATURES, DATA_HASH, QUALITY, PUB_YEAR
+                        FROM OTHER.DOCUMENT
+                        """);
+            }
+            finally {
+                stmt.execute("DETACH DATABASE OTHER");
+            }
+        }
+    }
+
+    /** Export the documents added so far to a columnar document database file */
+    public void writeColumnar(Path outputFile) throws SQLException, IOException {
+        DocumentDbColumnarWriter.export(connection, outputFile);
+    }
+
     public void close() throws SQLException {
         connection.close();
     }
@@ -0,0 +1,139 @@
+package nu.marginalia.linkdb;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import nu.marginalia.linkdb.docs.DocumentDbColumnarReader;
+import nu.marginalia.linkdb.docs.DocumentDbColumnarWriter;
+import nu.marginalia.linkdb.docs.DocumentDbReader;
+import nu.marginalia.linkdb.docs.DocumentDbWriter;
+import nu.marginalia.linkdb.model.DocdbUrlDetail;
+import nu.marginalia.model.EdgeDomain;
+import nu.marginalia.model.EdgeUrl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocumentDbColumnarTest {
+    Path tempDir;
+    Path dbFile;
+    Path columnarFile;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory(getClass().getSimpleName());
+        dbFile = tempDir.resolve(LinkdbFileNames.DOCDB_FILE_NAME);
+        columnarFile = tempDir.resolve(LinkdbFileNames.DOCDB_COLUMNAR_FILE_NAME);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (var files = Files.list(tempDir)) {
+            for (var file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(tempDir);
+    }
+
+    private static DocdbUrlDetail document(long id, String url, String title, String language) throws Exception {
+        return new DocdbUrlDetail(id, new EdgeUrl(url), title, "Description of " + title,
+                language, -1.5 * id, "HTML5", (int) id, 2000 + (int) id, 31 * id, 100 + (int) id);
+    }
+
+    @Test
+    public void testMatchesSqlite() throws Exception {
+        List<DocdbUrlDetail> documents = List.of(
+                document(7, "https://www.example.com/", "Start", "en"),
+                document(3, "https://www.example.com/a/b.html?q=1", "Query", "en"),
+                document(1L << 40, "http://example.com:8080/path", "Port", "sv"),
+                document(12, "https://www.marginalia.nu/log/åäö/", "Unicode åäö", "sv"),
+                document(5, "https://www.example.com/empty", "", "en")
+        );
+
+        var writer = new DocumentDbWriter(dbFile);
+        writer.add(documents);
+        writer.writeColumnar(columnarFile);
+        writer.close();
+
+        var sqliteReader = new DocumentDbReader(dbFile, false);
+        var columnarReader = new DocumentDbColumnarReader(columnarFile);
+
+        assertEquals(documents.size(), columnarReader.size());
+
+        LongArrayList ids = new LongArrayList(new long[] { 3, 5, 7, 12, 1L << 40, 4, 100 });
+
+        var expected = sqliteReader.getUrlDetails(ids);
+        var actual = columnarReader.getUrlDetails(ids);
+
+        assertEquals(documents.size(), actual.size());
+        assertEquals(expected, actual);
+
+        for (var id : expected.keySet()) {
+            assertTrue(expected.get(id).url().equalsExactly(actual.get(id).url()), "URL of " + id);
+        }
+
+        // Lookups through the document db reader go to the columnar file when it is present
+        var reader = new DocumentDbReader(dbFile, true);
+        assertEquals(expected, reader.getUrlDetails(ids));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        try (var writer = new DocumentDbColumnarWriter(columnarFile)) {
+            // no documents
+        }
+
+        var reader = new DocumentDbColumnarReader(columnarFile);
+        assertEquals(0, reader.size());
+        assertTrue(reader.getUrlDetails(new LongArrayList(new long[] { 1, 2 })).isEmpty());
+    }
+
+    @Test
+    public void testRequiresAscendingIds() throws IOException {
+        try (var writer = new DocumentDbColumnarWriter(columnarFile)) {
+            var url = new EdgeUrl("https", new EdgeDomain("www.example.com"), null, "/", null);
+            writer.add(new DocdbUrlDetail(2, url, "", "", "en", 0., "HTML5", 0, 0, 0, 0));
+
+            assertThrows(IllegalArgumentException.class,
+                    () -> writer.add(new DocdbUrlDetail(1, url, "", "", "en", 0., "HTML5", 0, 0, 0, 0)));
+        }
+    }
+
+    @Test
+    public void testSwitchInputMovesColumnarFile() throws Exception {
+        var writer = new DocumentDbWriter(dbFile);
+        writer.add(document(1, "https://www.example.com/old", "Old", "en"));
+        writer.writeColumnar(columnarFile);
+        writer.close();
+
+        Path newDir = Files.createTempDirectory(getClass().getSimpleName());
+        try {
+            Path newDbFile = newDir.resolve(LinkdbFileNames.DOCDB_FILE_NAME);
+
+            var newWriter = new DocumentDbWriter(newDbFile);
+            newWriter.add(document(1, "https://www.example.com/new", "New", "en"));
+            newWriter.writeColumnar(newDir.resolve(LinkdbFileNames.DOCDB_COLUMNAR_FILE_NAME));
+            newWriter.close();
+
+            var reader = new DocumentDbReader(dbFile, true);
+            assertEquals("Old", reader.getUrlDetails(new LongArrayList(new long[] { 1 })).get(1).title());
+
+            reader.switchInput(newDbFile);
+            assertEquals("New", reader.getUrlDetails(new LongArrayList(new long[] { 1 })).get(1).title());
+        }
+        finally {
+            try (var files = Files.list(newDir)) {
+                for (var file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(newDir);
+        }
+    }
+}
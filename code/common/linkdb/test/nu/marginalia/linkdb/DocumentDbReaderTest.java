@@ -0,0 +1,116 @@
+package nu.marginalia.linkdb;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import nu.marginalia.linkdb.docs.DocumentDbReader;
+import nu.marginalia.linkdb.docs.DocumentDbWriter;
+import nu.marginalia.linkdb.model.DocdbUrlDetail;
+import nu.marginalia.model.EdgeDomain;
+import nu.marginalia.model.EdgeUrl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DocumentDbReaderTest {
+    Path dbFile;
+    Path newDbFile;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dbFile = Files.createTempFile("docdb", ".db");
+        newDbFile = Files.createTempFile("docdb-new", ".db");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dbFile);
+        Files.deleteIfExists(newDbFile);
+    }
+
+    private void writeDocuments(Path file, String title, int count) throws SQLException {
+        var writer = new DocumentDbWriter(file);
+        List<DocdbUrlDetail> docs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            docs.add(new DocdbUrlDetail(
+                    i,
+                    new EdgeUrl("https", new EdgeDomain("www.example.com"), null, "/" + i, null),
+                    title,
+                    "Description " + i,
+                    "en",
+                    -4.,
+                    "HTML5",
+                    0,
+                    2020,
+                    i,
+                    100
+            ));
+        }
+        writer.add(docs);
+        writer.close();
+    }
+
+    @Test
+    public void testLookupAcrossBatches() throws SQLException {
+        writeDocuments(dbFile, "Old", 200);
+
+        var reader = new DocumentDbReader(dbFile);
+
+        LongArrayList ids = new LongArrayList();
+        for (int i = 0; i < 150; i += 2) {
+            ids.add(i);
+        }
+        ids.add(10_000); // not present
+
+        var details = reader.getUrlDetails(ids);
+
+        assertEquals(75, details.size());
+        assertEquals("/42", details.get(42).url().path);
+        assertEquals("Description 148", details.get(148).description());
+    }
+
+    @Test
+    public void testConcurrentLookupsDuringSwitch() throws Exception {
+        writeDocuments(dbFile, "Old", 100);
+        writeDocuments(newDbFile, "New", 100);
+
+        var reader = new DocumentDbReader(dbFile);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int offset = t;
+                tasks.add(executor.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        var details = reader.getUrlDetails(new LongArrayList(new long[] { offset, offset + 10, offset + 20 }));
+                        assertEquals(3, details.size());
+                    }
+                    return null;
+                }));
+            }
+
+            reader.switchInput(newDbFile);
+
+            for (var task : tasks) {
+                task.get();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        var details = reader.getUrlDetails(new LongArrayList(new long[] { 5 }));
+        assertEquals("New", details.get(5).title());
+    }
+}
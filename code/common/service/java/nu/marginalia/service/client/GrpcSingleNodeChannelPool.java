@@ -175,6 +175,10 @@ public class GrpcSingleNodeChannelPool<STUB> extends ServiceChangeMonitor {
             }
         }
 
+        public InstanceAddress getAddress() {
+            return address;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -70,6 +70,16 @@ public class ExecutorCrawlClient {
                         .build());
     }
 
+    /** Load processed data in addition to the data already loaded, making it searchable
+     * through a delta index instead of reconstructing the index */
+    public void loadProcessedDataAsDelta(int node, List<FileStorageId> ids) {
+        channelPool.call(ExecutorCrawlApiBlockingStub::loadProcessedDataAsDelta)
+                .forNode(node)
+                .run(RpcFileStorageIds.newBuilder()
+                        .addAllFileStorageIds(ids.stream().map(FileStorageId::id).toList())
+                        .build());
+    }
+
     public void createCrawlSpecFromDownload(int node, String description, String url) {
         channelPool.call(ExecutorCrawlApiBlockingStub::createCrawlSpecFromDownload)
                 .forNode(node)
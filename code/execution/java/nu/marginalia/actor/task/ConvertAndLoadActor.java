@@ -73,6 +73,21 @@ public class ConvertAndLoadActor extends RecordActorPrototype {
     public record ReindexPrio(long id) implements ActorStep {  public ReindexPrio() { this(-1); } }
     public record SwitchIndex() implements ActorStep {}
 
+    /** Load processed data in addition to the data already loaded, and make it searchable
+     * through a delta index instead of reconstructing the index.  Started by a delta load from
+     * the control service.
+     * <p></p>
+     * The delta is not merged into the index on its own.  Its documents move into the index the
+     * next time the processed data is loaded in full, which replaces the delta, so the processed
+     * data is not cleaned up after a delta load. */
+    @Resume(behavior = ActorResumeBehavior.RETRY)
+    public record LoadDelta(List<FileStorageId> processedIds, long msgId) implements ActorStep {
+        public LoadDelta(List<FileStorageId> processedIds) { this(processedIds, -1); }
+    }
+    @Resume(behavior = ActorResumeBehavior.RETRY)
+    public record ReindexDelta(long id) implements ActorStep {  public ReindexDelta() { this(-1); } }
+    public record SwitchDelta() implements ActorStep {}
+
     @Override
     public ActorStep transition(ActorStep self) throws Exception {
         logger.info("{}", self);
@@ -200,6 +215,33 @@ public class ConvertAndLoadActor extends RecordActorPrototype {
                 yield new End();
             }
 
+
+            // The delta load does not clear the staging area, as the new index journal
+            // pages are appended to the ones of the current index
+            case LoadDelta(List<FileStorageId> processedIds, long msgId) when msgId < 0 ->
+                    new LoadDelta(processedIds, mqLoaderOutbox.sendAsync(new LoadRequest(processedIds)));
+            case LoadDelta(List<FileStorageId> processedIds, long msgId) -> {
+                var rsp = processWatcher.waitResponse(mqLoaderOutbox, ProcessSpawnerService.ProcessId.LOADER, msgId);
+
+                if (rsp.state() != MqMessageState.OK)
+                    yield new Error("Loader failed");
+                else
+                    yield new ReindexDelta();
+            }
+            case ReindexDelta(long id) when id < 0 -> new ReindexDelta(createIndex(IndexName.DELTA));
+            case ReindexDelta(long id) -> {
+                var rsp = processWatcher.waitResponse(mqIndexConstructorOutbox, ProcessSpawnerService.ProcessId.INDEX_CONSTRUCTOR, id);
+
+                if (rsp.state() != MqMessageState.OK)
+                    yield new Error("Delta index construction failed");
+                else
+                    yield new SwitchDelta();
+            }
+            case SwitchDelta() -> {
+                indexOutbox.sendNotice(IndexMqEndpoints.SWITCH_DELTA, "here");
+                yield new End();
+            }
+
             default -> new Error();
         };
     }
@@ -101,4 +101,77 @@ public class AggregateLinkGraphService
         responseObserver.onCompleted();
     }
 
+    @Override
+    public void getLinksFromDomains(RpcDomainIds request,
+                                    StreamObserver<RpcDomainAdjacencies> responseObserver) {
+
+        client.getChannelPool().call(PartitionLinkGraphApiBlockingStub::getLinksFromDomains)
+                .run(request)
+                .forEach(iter -> iter.forEachRemaining(responseObserver::onNext));
+
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void getLinksToDomains(RpcDomainIds request,
+                                  StreamObserver<RpcDomainAdjacencies> responseObserver) {
+
+        client.getChannelPool().call(PartitionLinkGraphApiBlockingStub::getLinksToDomains)
+                .run(request)
+                .forEach(iter -> iter.forEachRemaining(responseObserver::onNext));
+
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void countLinksFromDomains(RpcDomainIds request,
+                                      StreamObserver<RpcDomainIdCounts> responseObserver) {
+        var partitionCounts = client.getChannelPool().call(PartitionLinkGraphApiBlockingStub::countLinksFromDomains)
+                .run(request);
+
+        responseObserver.onNext(sumCounts(request.getDomainIdsCount(), partitionCounts));
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void countLinksToDomains(RpcDomainIds request,
+                                    StreamObserver<RpcDomainIdCounts> responseObserver) {
+        var partitionCounts = client.getChannelPool().call(PartitionLinkGraphApiBlockingStub::countLinksToDomains)
+                .run(request);
+
+        responseObserver.onNext(sumCounts(request.getDomainIdsCount(), partitionCounts));
+        responseObserver.onCompleted();
+    }
+
+    /** Add up the counts of each domain from each partition */
+    private RpcDomainIdCounts sumCounts(int n, List<RpcDomainIdCounts> partitionCounts) {
+        int[] sums = new int[n];
+
+        for (var counts : partitionCounts) {
+            for (int i = 0; i < n && i < counts.getIdCountsCount(); i++) {
+                sums[i] += counts.getIdCounts(i);
+            }
+        }
+
+        var rspBuilder = RpcDomainIdCounts.newBuilder();
+        for (int sum : sums) {
+            rspBuilder.addIdCounts(sum);
+        }
+        return rspBuilder.build();
+    }
+
+    @Override
+    public void getLinkGraphVersion(Empty request,
+                                    StreamObserver<RpcLinkGraphVersion> responseObserver) {
+        // The sum changes whenever any of the partitions switches to a new file
+        long version = client.getChannelPool().call(PartitionLinkGraphApiBlockingStub::getLinkGraphVersion)
+                .run(request)
+                .stream()
+                .mapToLong(RpcLinkGraphVersion::getVersion)
+                .sum();
+
+        responseObserver.onNext(RpcLinkGraphVersion.newBuilder().setVersion(version).build());
+        responseObserver.onCompleted();
+    }
+
 }
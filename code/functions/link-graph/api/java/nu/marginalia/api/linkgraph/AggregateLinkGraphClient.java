@@ -1,5 +1,7 @@
 package nu.marginalia.api.linkgraph;
 
+import com.google.common.primitives.ImmutableIntArray;
+import com.google.common.primitives.Ints;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import nu.marginalia.service.client.GrpcChannelPoolFactory;
@@ -12,7 +14,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
-import java.util.List;
+import java.util.*;
+import java.util.function.BiFunction;
 
 import static nu.marginalia.api.linkgraph.AggregateLinkGraphApiGrpc.*;
 
@@ -21,12 +24,19 @@ public class AggregateLinkGraphClient {
     private static final Logger logger = LoggerFactory.getLogger(AggregateLinkGraphClient.class);
 
     private final GrpcSingleNodeChannelPool<AggregateLinkGraphApiBlockingStub> channelPool;
+    private final LinkGraphCache cache;
 
     @Inject
     public AggregateLinkGraphClient(GrpcChannelPoolFactory factory) {
         this.channelPool = factory.createSingle(
                 ServiceKey.forGrpcApi(AggregateLinkGraphApiGrpc.class, ServicePartition.any()),
                 AggregateLinkGraphApiGrpc::newBlockingStub);
+
+        this.cache = new LinkGraphCache(
+                Long.getLong("linkgraph.clientCacheNeighbors", 2_000_000),
+                Integer.getInteger("linkgraph.clientCacheCounts", 100_000),
+                Duration.ofSeconds(Integer.getInteger("linkgraph.clientCacheCheckSeconds", 60)),
+                this::fetchVersion);
     }
 
 
@@ -45,61 +55,132 @@ public class AggregateLinkGraphClient {
     }
 
     public List<Integer> getLinksToDomain(int domainId) {
+        return getLinksToDomains(List.of(domainId)).getOrDefault(domainId, List.of());
+    }
+
+    public List<Integer> getLinksFromDomain(int domainId) {
+        return getLinksFromDomains(List.of(domainId)).getOrDefault(domainId, List.of());
+    }
+
+    public int countLinksToDomain(int domainId) {
+        return countLinksToDomains(List.of(domainId)).getOrDefault(domainId, 0);
+    }
+
+    public int countLinksFromDomain(int domainId) {
+        return countLinksFromDomains(List.of(domainId)).getOrDefault(domainId, 0);
+    }
+
+    /** Returns the sorted ids of the domains linking to each of the given domains.
+     * Domains that aren't cached are fetched with a single request. */
+    public Map<Integer, List<Integer>> getLinksToDomains(Collection<Integer> domainIds) {
         try {
-            return channelPool.call(AggregateLinkGraphApiBlockingStub::getLinksToDomain)
-                    .run(RpcDomainId.newBuilder().setDomainId(domainId).build())
-                    .getDomainIdList()
-                    .stream()
-                    .sorted()
-                    .toList();
+            return asLists(cache.getLinksTo(domainIds,
+                    missing -> fetchAdjacencies(AggregateLinkGraphApiBlockingStub::getLinksToDomains, missing)));
         }
         catch (Exception e) {
             logger.error("API Exception", e);
-            return List.of();
+            return Map.of();
         }
     }
 
-    public List<Integer> getLinksFromDomain(int domainId) {
+    /** Returns the sorted ids of the domains each of the given domains link to.
+     * Domains that aren't cached are fetched with a single request. */
+    public Map<Integer, List<Integer>> getLinksFromDomains(Collection<Integer> domainIds) {
         try {
-            return channelPool.call(AggregateLinkGraphApiBlockingStub::getLinksFromDomain)
-                    .run(RpcDomainId.newBuilder().setDomainId(domainId).build())
-                    .getDomainIdList()
-                    .stream()
-                    .sorted()
-                    .toList();
-
+            return asLists(cache.getLinksFrom(domainIds,
+                    missing -> fetchAdjacencies(AggregateLinkGraphApiBlockingStub::getLinksFromDomains, missing)));
         }
         catch (Exception e) {
             logger.error("API Exception", e);
-            return List.of();
+            return Map.of();
         }
     }
 
-    public int countLinksToDomain(int domainId) {
+    /** Returns the number of links to each of the given domains.
+     * Domains that aren't cached are fetched with a single request. */
+    public Map<Integer, Integer> countLinksToDomains(Collection<Integer> domainIds) {
         try {
-            return channelPool.call(AggregateLinkGraphApiBlockingStub::countLinksToDomain)
-                    .run(RpcDomainId.newBuilder().setDomainId(domainId).build())
-                    .getIdCount();
-
+            return cache.countLinksTo(domainIds,
+                    missing -> fetchCounts(AggregateLinkGraphApiBlockingStub::countLinksToDomains, missing));
         }
         catch (Exception e) {
             logger.error("API Exception", e);
-            return 0;
+            return Map.of();
         }
     }
 
-    public int countLinksFromDomain(int domainId) {
+    /** Returns the number of links from each of the given domains.
+     * Domains that aren't cached are fetched with a single request. */
+    public Map<Integer, Integer> countLinksFromDomains(Collection<Integer> domainIds) {
         try {
-            return channelPool.call(AggregateLinkGraphApiBlockingStub::countLinksFromDomain)
-                    .run(RpcDomainId.newBuilder().setDomainId(domainId).build())
-                    .getIdCount();
+            return cache.countLinksFrom(domainIds,
+                    missing -> fetchCounts(AggregateLinkGraphApiBlockingStub::countLinksFromDomains, missing));
         }
         catch (Exception e) {
             logger.error("API Exception", e);
-            return 0;
+            return Map.of();
         }
     }
 
+    /** Drop all cached neighborhoods and counts */
+    public void invalidateCache() {
+        cache.invalidateAll();
+    }
+
+    private long fetchVersion() {
+        return channelPool.call(AggregateLinkGraphApiBlockingStub::getLinkGraphVersion)
+                .run(Empty.getDefaultInstance())
+                .getVersion();
+    }
+
+    private Map<Integer, int[]> fetchAdjacencies(BiFunction<AggregateLinkGraphApiBlockingStub, RpcDomainIds, java.util.Iterator<RpcDomainAdjacencies>> method,
+                                                 List<Integer> domainIds) {
+        Map<Integer, ImmutableIntArray.Builder> builders = new HashMap<>();
+
+        channelPool.call(method)
+                .run(RpcDomainIds.newBuilder().addAllDomainIds(domainIds).build())
+                .forEachRemaining(adjacencies -> {
+                    int pos = 0;
+
+                    // Each partition sends its own part of a domain's links
+                    for (int i = 0; i < adjacencies.getDomainIdsCount(); i++) {
+                        var builder = builders.computeIfAbsent(adjacencies.getDomainIds(i), id -> ImmutableIntArray.builder());
+
+                        int end = pos + adjacencies.getNeighborCounts(i);
+                        for (; pos < end; pos++) {
+                            builder.add(adjacencies.getNeighborIds(pos));
+                        }
+                    }
+                });
+
+        Map<Integer, int[]> ret = new HashMap<>(builders.size());
+        builders.forEach((id, builder) -> {
+            int[] neighbors = builder.build().toArray();
+            Arrays.sort(neighbors);
+            ret.put(id, neighbors);
+        });
+
+        return ret;
+    }
+
+    private Map<Integer, Integer> fetchCounts(BiFunction<AggregateLinkGraphApiBlockingStub, RpcDomainIds, RpcDomainIdCounts> method,
+                                              List<Integer> domainIds) {
+        var counts = channelPool.call(method)
+                .run(RpcDomainIds.newBuilder().addAllDomainIds(domainIds).build());
+
+        Map<Integer, Integer> ret = new HashMap<>(domainIds.size());
+        for (int i = 0; i < domainIds.size() && i < counts.getIdCountsCount(); i++) {
+            ret.put(domainIds.get(i), counts.getIdCounts(i));
+        }
+        return ret;
+    }
+
+    private static Map<Integer, List<Integer>> asLists(Map<Integer, int[]> neighbors) {
+        Map<Integer, List<Integer>> ret = new HashMap<>(neighbors.size());
+        neighbors.forEach((id, ids) -> ret.put(id, Collections.unmodifiableList(Ints.asList(ids))));
+        return ret;
+    }
+
     public boolean waitReady(Duration duration) throws InterruptedException {
         return channelPool.awaitChannel(duration);
     }
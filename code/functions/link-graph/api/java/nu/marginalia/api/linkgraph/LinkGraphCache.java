@@ -0,0 +1,177 @@
+package nu.marginalia.api.linkgraph;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/** Client side cache of the link graph neighborhoods and link counts of domains.
+ * <p></p>
+ * Lookups for several domains fetch all the domains that aren't cached with
+ * a single call.  The neighborhoods are bounded by the total number of
+ * neighbor ids, so that a few heavily linked domains can't push out everything else.
+ * <p></p>
+ * The cache is invalidated when the version of the link graph changes, which
+ * happens when any partition switches to a new link database.  The version is checked
+ * at most once per check interval, by whichever lookup comes first after the interval
+ * has passed.
+ */
+class LinkGraphCache {
+    private static final Logger logger = LoggerFactory.getLogger(LinkGraphCache.class);
+
+    private final Cache<Integer, int[]> linksFrom;
+    private final Cache<Integer, int[]> linksTo;
+    private final Cache<Integer, Integer> countsFrom;
+    private final Cache<Integer, Integer> countsTo;
+
+    private final LongSupplier versionSource;
+    private final long checkIntervalNanos;
+
+    private final AtomicLong nextVersionCheck = new AtomicLong(System.nanoTime());
+    private volatile long version = 0;
+
+    /**
+     * @param maxNeighbors the maximum number of neighbor ids to keep across all neighborhoods
+     * @param maxCounts the maximum number of link counts to keep for each direction
+     * @param checkInterval how often to check the link graph version
+     * @param versionSource fetches the current link graph version
+     */
+    LinkGraphCache(long maxNeighbors, int maxCounts, Duration checkInterval, LongSupplier versionSource) {
+        this.linksFrom = neighborCache(maxNeighbors / 2);
+        this.linksTo = neighborCache(maxNeighbors / 2);
+        this.countsFrom = CacheBuilder.newBuilder().maximumSize(maxCounts).build();
+        this.countsTo = CacheBuilder.newBuilder().maximumSize(maxCounts).build();
+
+        this.versionSource = versionSource;
+        this.checkIntervalNanos = checkInterval.toNanos();
+    }
+
+    private static Cache<Integer, int[]> neighborCache(long maxNeighbors) {
+        return CacheBuilder.newBuilder()
+                .maximumWeight(maxNeighbors)
+                .<Integer, int[]>weigher((id, neighbors) -> 1 + neighbors.length)
+                .build();
+    }
+
+    /** Returns the domains that link to each of the given domains
+     *
+     * @param fetch fetches the neighborhoods of the domains that aren't cached,
+     *              domains that are absent from its result have no neighbors
+     */
+    Map<Integer, int[]> getLinksTo(Collection<Integer> domainIds, Function<List<Integer>, Map<Integer, int[]>> fetch) {
+        checkVersion();
+        return getAll(linksTo, domainIds, fetch, new int[0]);
+    }
+
+    /** Returns the domains that each of the given domains link to
+     *
+     * @param fetch fetches the neighborhoods of the domains that aren't cached,
+     *              domains that are absent from its result have no neighbors
+     */
+    Map<Integer, int[]> getLinksFrom(Collection<Integer> domainIds, Function<List<Integer>, Map<Integer, int[]>> fetch) {
+        checkVersion();
+        return getAll(linksFrom, domainIds, fetch, new int[0]);
+    }
+
+    /** Returns the number of links to each of the given domains
+     *
+     * @param fetch fetches the counts of the domains that aren't cached
+     */
+    Map<Integer, Integer> countLinksTo(Collection<Integer> domainIds, Function<List<Integer>, Map<Integer, Integer>> fetch) {
+        checkVersion();
+        copyNeighborCounts(linksTo, countsTo, domainIds);
+        return getAll(countsTo, domainIds, fetch, 0);
+    }
+
+    /** Returns the number of links from each of the given domains
+     *
+     * @param fetch fetches the counts of the domains that aren't cached
+     */
+    Map<Integer, Integer> countLinksFrom(Collection<Integer> domainIds, Function<List<Integer>, Map<Integer, Integer>> fetch) {
+        checkVersion();
+        copyNeighborCounts(linksFrom, countsFrom, domainIds);
+        return getAll(countsFrom, domainIds, fetch, 0);
+    }
+
+    /** Populate the count cache from the cached neighborhoods, which are the links themselves */
+    private static void copyNeighborCounts(Cache<Integer, int[]> neighbors,
+                                           Cache<Integer, Integer> counts,
+                                           Collection<Integer> domainIds) {
+        for (var entry : neighbors.getAllPresent(domainIds).entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().length);
+        }
+    }
+
+    private <T> Map<Integer, T> getAll(Cache<Integer, T> cache,
+                                       Collection<Integer> domainIds,
+                                       Function<List<Integer>, Map<Integer, T>> fetch,
+                                       T defaultValue) {
+        Map<Integer, T> ret = new HashMap<>(cache.getAllPresent(domainIds));
+
+        List<Integer> missing = new ArrayList<>();
+        for (Integer id : domainIds) {
+            if (!ret.containsKey(id)) {
+                missing.add(id);
+            }
+        }
+
+        if (missing.isEmpty())
+            return ret;
+
+        long versionBefore = version;
+
+        Map<Integer, T> fetched = fetch.apply(missing);
+
+        // Don't cache the fetched values if the cache was invalidated while they were
+        // being fetched, as they may be from the old link graph
+        boolean cacheable = versionBefore == version;
+
+        for (Integer id : missing) {
+            T value = fetched.getOrDefault(id, defaultValue);
+            ret.put(id, value);
+
+            if (cacheable) {
+                cache.put(id, value);
+            }
+        }
+
+        return ret;
+    }
+
+    /** Check the link graph version if the check interval has passed, and
+     * invalidate the cache if it has changed */
+    void checkVersion() {
+        long now = System.nanoTime();
+        long next = nextVersionCheck.get();
+
+        if (now - next < 0 || !nextVersionCheck.compareAndSet(next, now + checkIntervalNanos))
+            return;
+
+        try {
+            long newVersion = versionSource.getAsLong();
+
+            if (newVersion != version) {
+                // Update the version before invalidating, so that lookups already in flight
+                // don't cache what they fetched from the old link graph
+                version = newVersion;
+                invalidateAll();
+            }
+        }
+        catch (Exception ex) {
+            logger.warn("Failed to check link graph version", ex);
+        }
+    }
+
+    void invalidateAll() {
+        linksFrom.invalidateAll();
+        linksTo.invalidateAll();
+        countsFrom.invalidateAll();
+        countsTo.invalidateAll();
+    }
+}
@@ -0,0 +1,96 @@
+package nu.marginalia.api.linkgraph;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+class LinkGraphCacheTest {
+
+    private final List<List<Integer>> fetches = new ArrayList<>();
+
+    private Map<Integer, int[]> fetchNeighbors(List<Integer> domainIds) {
+        fetches.add(List.copyOf(domainIds));
+
+        Map<Integer, int[]> ret = new HashMap<>();
+        for (int id : domainIds) {
+            // Odd domains have no links, and are left out like the service does
+            if (id % 2 == 0) {
+                ret.put(id, new int[] { id + 1, id + 2 });
+            }
+        }
+        return ret;
+    }
+
+    private Map<Integer, Integer> fetchCounts(List<Integer> domainIds) {
+        fetches.add(List.copyOf(domainIds));
+
+        Map<Integer, Integer> ret = new HashMap<>();
+        for (int id : domainIds) {
+            ret.put(id, 100 + id);
+        }
+        return ret;
+    }
+
+    @Test
+    void testMissesAreFetchedTogether() {
+        var cache = new LinkGraphCache(1000, 1000, Duration.ofHours(1), () -> 1);
+
+        var result = cache.getLinksTo(List.of(2, 3, 4), this::fetchNeighbors);
+
+        Assertions.assertArrayEquals(new int[] { 3, 4 }, result.get(2));
+        Assertions.assertArrayEquals(new int[0], result.get(3));
+        Assertions.assertArrayEquals(new int[] { 5, 6 }, result.get(4));
+
+        result = cache.getLinksTo(List.of(2, 4, 6), this::fetchNeighbors);
+        Assertions.assertArrayEquals(new int[] { 7, 8 }, result.get(6));
+
+        Assertions.assertEquals(List.of(List.of(2, 3, 4), List.of(6)), fetches);
+
+        // The directions are cached separately
+        cache.getLinksFrom(List.of(2), this::fetchNeighbors);
+        Assertions.assertEquals(List.of(2), fetches.getLast());
+    }
+
+    @Test
+    void testCountsUseCachedNeighbors() {
+        var cache = new LinkGraphCache(1000, 1000, Duration.ofHours(1), () -> 1);
+
+        cache.getLinksFrom(List.of(2), this::fetchNeighbors);
+        var counts = cache.countLinksFrom(List.of(2, 3), this::fetchCounts);
+
+        Assertions.assertEquals(2, counts.get(2));
+        Assertions.assertEquals(103, counts.get(3));
+        Assertions.assertEquals(List.of(List.of(2), List.of(3)), fetches);
+    }
+
+    @Test
+    void testVersionChangeInvalidates() {
+        AtomicLong version = new AtomicLong(1);
+        var cache = new LinkGraphCache(1000, 1000, Duration.ZERO, version::get);
+
+        cache.getLinksTo(List.of(2), this::fetchNeighbors);
+        cache.getLinksTo(List.of(2), this::fetchNeighbors);
+        Assertions.assertEquals(1, fetches.size());
+
+        version.set(2);
+
+        cache.getLinksTo(List.of(2), this::fetchNeighbors);
+        Assertions.assertEquals(2, fetches.size());
+    }
+
+    @Test
+    void testVersionCheckFailureKeepsCache() {
+        var cache = new LinkGraphCache(1000, 1000, Duration.ZERO, () -> { throw new RuntimeException("unavailable"); });
+
+        cache.getLinksTo(List.of(2), this::fetchNeighbors);
+        cache.getLinksTo(List.of(2), this::fetchNeighbors);
+
+        Assertions.assertEquals(1, fetches.size());
+    }
+}
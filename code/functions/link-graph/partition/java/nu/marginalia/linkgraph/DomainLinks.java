@@ -3,9 +3,10 @@ package nu.marginalia.linkgraph;
 import gnu.trove.list.array.TIntArrayList;
 
 import java.nio.file.Path;
+import java.util.function.IntConsumer;
 
-/** A repository of source-destination pairs of domain IDs.  The database is loaded into memory from
- * a source.  The data is then kept in memory, reloading it upon switchInput().
+/** A repository of source-destination pairs of domain IDs.  The database is loaded from
+ * a source.  The data is then kept available, reloading it upon switchInput().
  */
 public interface DomainLinks {
     /** Replace the current db file with the provided file.  The provided file will be deleted.
@@ -14,18 +15,55 @@ public interface DomainLinks {
     void switchInput(Path filename) throws Exception;
 
     /** Find all destinations for the given source. */
-    TIntArrayList findDestinations(int source);
+    default TIntArrayList findDestinations(int source) {
+        int[] buffer = new int[countDestinations(source)];
+        int n = findDestinations(source, buffer);
+
+        TIntArrayList ret = new TIntArrayList(n);
+        ret.add(buffer, 0, n);
+        return ret;
+    }
+
+    /** Copy the destinations for the given source into the buffer, in ascending order.
+     * Use countDestinations() to size the buffer.
+     *
+     * @return the number of destinations copied, at most the length of the buffer
+     */
+    int findDestinations(int source, int[] buffer);
+
+    /** Pass each destination for the given source to the consumer, in ascending order. */
+    void forEachDestination(int source, IntConsumer consumer);
 
     /** Count the number of destinations for the given source. */
     int countDestinations(int source);
 
     /** Find all sources for the given destination. */
-    TIntArrayList findSources(int dest);
+    default TIntArrayList findSources(int dest) {
+        int[] buffer = new int[countSources(dest)];
+        int n = findSources(dest, buffer);
 
+        TIntArrayList ret = new TIntArrayList(n);
+        ret.add(buffer, 0, n);
+        return ret;
+    }
+
+    /** Copy the sources for the given destination into the buffer, in ascending order.
+     * Use countSources() to size the buffer.
+     *
+     * @return the number of sources copied, at most the length of the buffer
+     */
+    int findSources(int dest, int[] buffer);
+
+    /** Pass each source for the given destination to the consumer, in ascending order. */
+    void forEachSource(int dest, IntConsumer consumer);
 
     /** Count the number of sources for the given destination. */
     int countSources(int source);
 
+    /** Returns a value that changes whenever different data is loaded, or 0 if no data is loaded.
+     * This lets clients know when cached lookups are stale. */
+    long version();
+
     /** Iterate over all source-destination pairs. */
     void forEach(SourceDestConsumer consumer);
 
@@ -5,6 +5,8 @@ import io.grpc.stub.StreamObserver;
 import nu.marginalia.api.linkgraph.*;
 import nu.marginalia.service.server.DiscoverableService;
 
+import java.util.function.IntConsumer;
+
 /**  GRPC service for interrogating domain links for a single partition.  For accessing the data
  * in the application, the AggregateLinkGraphService should be used instead via the
  * AggregateLinkGraphClient.
@@ -15,6 +17,9 @@ public class PartitionLinkGraphService
 {
     private final DomainLinks domainLinks;
 
+    /** Soft limit on the number of neighbor ids in each message of a batched response */
+    private static final int MAX_NEIGHBORS_PER_MESSAGE = 10_000;
+
     @Inject
     public PartitionLinkGraphService(DomainLinks domainLinks) {
         this.domainLinks = domainLinks;
@@ -63,12 +68,9 @@ public class PartitionLinkGraphService
     public void getLinksFromDomain(RpcDomainId request,
                                    StreamObserver<RpcDomainIdList> responseObserver) {
 
-        var links = domainLinks.findDestinations(request.getDomainId());
-
         var rspBuilder = RpcDomainIdList.newBuilder();
-        for (int i = 0; i < links.size(); i++) {
-            rspBuilder.addDomainId(links.get(i));
-        }
+        domainLinks.forEachDestination(request.getDomainId(), rspBuilder::addDomainId);
+
         responseObserver.onNext(rspBuilder.build());
 
         responseObserver.onCompleted();
@@ -78,12 +80,9 @@ public class PartitionLinkGraphService
     public void getLinksToDomain(RpcDomainId request,
                                  StreamObserver<RpcDomainIdList> responseObserver) {
 
-        var links = domainLinks.findSources(request.getDomainId());
-
         var rspBuilder = RpcDomainIdList.newBuilder();
-        for (int i = 0; i < links.size(); i++) {
-            rspBuilder.addDomainId(links.get(i));
-        }
+        domainLinks.forEachSource(request.getDomainId(), rspBuilder::addDomainId);
+
         responseObserver.onNext(rspBuilder.build());
 
         responseObserver.onCompleted();
@@ -104,4 +103,85 @@ public class PartitionLinkGraphService
                 .build());
         responseObserver.onCompleted();
     }
+
+    @Override
+    public void getLinksFromDomains(RpcDomainIds request,
+                                    StreamObserver<RpcDomainAdjacencies> responseObserver) {
+        sendAdjacencies(request, domainLinks::forEachDestination, responseObserver);
+    }
+
+    @Override
+    public void getLinksToDomains(RpcDomainIds request,
+                                  StreamObserver<RpcDomainAdjacencies> responseObserver) {
+        sendAdjacencies(request, domainLinks::forEachSource, responseObserver);
+    }
+
+    @Override
+    public void countLinksFromDomains(RpcDomainIds request,
+                                      StreamObserver<RpcDomainIdCounts> responseObserver) {
+        var rspBuilder = RpcDomainIdCounts.newBuilder();
+        for (int i = 0; i < request.getDomainIdsCount(); i++) {
+            rspBuilder.addIdCounts(domainLinks.countDestinations(request.getDomainIds(i)));
+        }
+        responseObserver.onNext(rspBuilder.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void countLinksToDomains(RpcDomainIds request,
+                                    StreamObserver<RpcDomainIdCounts> responseObserver) {
+        var rspBuilder = RpcDomainIdCounts.newBuilder();
+        for (int i = 0; i < request.getDomainIdsCount(); i++) {
+            rspBuilder.addIdCounts(domainLinks.countSources(request.getDomainIds(i)));
+        }
+        responseObserver.onNext(rspBuilder.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void getLinkGraphVersion(Empty request,
+                                    StreamObserver<RpcLinkGraphVersion> responseObserver) {
+        responseObserver.onNext(RpcLinkGraphVersion.newBuilder()
+                .setVersion(domainLinks.version())
+                .build());
+        responseObserver.onCompleted();
+    }
+
+    private interface NeighborLookup {
+        void forEach(int domainId, IntConsumer consumer);
+    }
+
+    /** Stream the neighbors of each requested domain, grouping the domains into
+     * messages of roughly MAX_NEIGHBORS_PER_MESSAGE neighbors.  Domains without
+     * neighbors are omitted. */
+    private void sendAdjacencies(RpcDomainIds request,
+                                 NeighborLookup lookup,
+                                 StreamObserver<RpcDomainAdjacencies> responseObserver) {
+        var rspBuilder = RpcDomainAdjacencies.newBuilder();
+
+        for (int i = 0; i < request.getDomainIdsCount(); i++) {
+            int domainId = request.getDomainIds(i);
+            int countBefore = rspBuilder.getNeighborIdsCount();
+
+            lookup.forEach(domainId, rspBuilder::addNeighborIds);
+
+            int count = rspBuilder.getNeighborIdsCount() - countBefore;
+            if (count == 0)
+                continue;
+
+            rspBuilder.addDomainIds(domainId);
+            rspBuilder.addNeighborCounts(count);
+
+            if (rspBuilder.getNeighborIdsCount() >= MAX_NEIGHBORS_PER_MESSAGE) {
+                responseObserver.onNext(rspBuilder.build());
+                rspBuilder = RpcDomainAdjacencies.newBuilder();
+            }
+        }
+
+        if (rspBuilder.getDomainIdsCount() > 0) {
+            responseObserver.onNext(rspBuilder.build());
+        }
+
+        responseObserver.onCompleted();
+    }
 }
@@ -1,7 +1,6 @@
 package nu.marginalia.linkgraph.impl;
 
 import com.google.inject.name.Named;
-import gnu.trove.list.array.TIntArrayList;
 import nu.marginalia.linkgraph.DomainLinks;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,6 +9,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.function.IntConsumer;
 
 /** DomainLinkDb that delegates a FileDomainLinkDb, but handles the case where the database
  * is not yet loaded.  This speeds up the startup of the index service, as the database is
@@ -53,14 +53,22 @@ public class DelayingDomainLinks implements DomainLinks {
     }
 
     @Override
-    public TIntArrayList findDestinations(int source) {
+    public int findDestinations(int source, int[] buffer) {
         // A race condition is not possible here, as the nullity of currentDb only changes from
         // null to non-null
 
         if (currentDb == null)
-            return new TIntArrayList();
+            return 0;
 
-        return currentDb.findDestinations(source);
+        return currentDb.findDestinations(source, buffer);
+    }
+
+    @Override
+    public void forEachDestination(int source, IntConsumer consumer) {
+        if (currentDb == null)
+            return;
+
+        currentDb.forEachDestination(source, consumer);
     }
 
     @Override
@@ -72,11 +80,19 @@ public class DelayingDomainLinks implements DomainLinks {
     }
 
     @Override
-    public TIntArrayList findSources(int dest) {
+    public int findSources(int dest, int[] buffer) {
+        if (currentDb == null)
+            return 0;
+
+        return currentDb.findSources(dest, buffer);
+    }
+
+    @Override
+    public void forEachSource(int dest, IntConsumer consumer) {
         if (currentDb == null)
-            return new TIntArrayList();
+            return;
 
-        return currentDb.findSources(dest);
+        currentDb.forEachSource(dest, consumer);
     }
 
     @Override
@@ -87,6 +103,14 @@ public class DelayingDomainLinks implements DomainLinks {
         return currentDb.countSources(source);
     }
 
+    @Override
+    public long version() {
+        if (currentDb == null)
+            return 0;
+
+        return currentDb.version();
+    }
+
     @Override
     public void forEach(SourceDestConsumer consumer) {
         if (currentDb == null)
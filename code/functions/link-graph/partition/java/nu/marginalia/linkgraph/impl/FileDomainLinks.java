@@ -1,9 +1,9 @@
 package nu.marginalia.linkgraph.impl;
 
 import com.google.inject.name.Named;
-import gnu.trove.list.array.TIntArrayList;
 import nu.marginalia.linkgraph.DomainLinks;
-import nu.marginalia.linkgraph.io.DomainLinksLoader;
+import nu.marginalia.linkgraph.io.DomainLinksReader;
+import nu.marginalia.linkgraph.io.DomainLinksWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,16 +11,19 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.util.Arrays;
+import java.util.function.IntConsumer;
 
-/** Canonical DomainLinkDb implementation.  The database is loaded into memory from
- * a file.  The database is then kept in memory, reloading it upon switchInput().
+/** Canonical DomainLinkDb implementation.  The database is memory mapped from
+ * a file, which is already sorted and indexed in both directions, so loading it
+ * upon switchInput() is nearly instant, and doesn't take up heap.
+ * <p></p>
+ * Files in the legacy format, a flat list of link pairs, are converted when loaded.
   */
 public class FileDomainLinks implements DomainLinks {
     private static final Logger logger = LoggerFactory.getLogger(FileDomainLinks.class);
     private final Path filename;
-    private volatile long[] sourceToDest = new long[0];
-    private volatile long[] destToSource = new long[0];
+    private volatile DomainLinksReader reader = null;
+    private volatile long version = 0;
 
     public FileDomainLinks(@Named("domain-linkdb-file") Path filename) throws IOException {
         this.filename = filename;
@@ -37,92 +40,84 @@ public class FileDomainLinks implements DomainLinks {
     }
 
     public void loadInput(Path filename) throws IOException {
-        try (var loader = new DomainLinksLoader(filename)) {
-            int size = loader.size();
+        if (!DomainLinksReader.isReadable(filename)) {
+            logger.info("Converting {} from the legacy format", filename);
 
-            var newSourceToDest = new long[size];
-            var newDestToSource = new long[size];
-
-            int i = 0;
-            while (loader.next()) {
-                long source = loader.getSource();
-                long dest = loader.getDest();
-
-                newSourceToDest[i] = (source << 32) | dest;
-                newDestToSource[i] = (dest << 32) | source;
-
-                i++;
-            }
+            Path convertedFile = filename.resolveSibling(filename.getFileName() + ".converted");
+            DomainLinksWriter.convert(filename, convertedFile);
+            Files.move(convertedFile, filename, StandardCopyOption.REPLACE_EXISTING);
+        }
 
-            Arrays.sort(newSourceToDest);
-            Arrays.sort(newDestToSource);
+        var newReader = new DomainLinksReader(filename);
+        logger.info("Loaded {} domain links from {}", newReader.linkCount(), filename);
 
-            sourceToDest = newSourceToDest;
-            destToSource = newDestToSource;
-        }
+        reader = newReader;
+        version = Files.getLastModifiedTime(filename).toMillis();
     }
 
     @Override
-    public TIntArrayList findDestinations(int source) {
-        return findRelated(sourceToDest, source);
+    public long version() {
+        return version;
     }
 
     @Override
-    public TIntArrayList findSources(int dest) {
-        return findRelated(destToSource, dest);
+    public int findDestinations(int source, int[] buffer) {
+        var currentReader = reader;
+        if (currentReader == null)
+            return 0;
+
+        return currentReader.findDestinations(source, buffer);
     }
 
     @Override
-    public int countDestinations(int source) {
-        return countRelated(sourceToDest, source);
+    public void forEachDestination(int source, IntConsumer consumer) {
+        var currentReader = reader;
+        if (currentReader != null) {
+            currentReader.forEachDestination(source, consumer);
+        }
     }
 
     @Override
-    public int countSources(int dest) {
-        return countRelated(destToSource, dest);
+    public int findSources(int dest, int[] buffer) {
+        var currentReader = reader;
+        if (currentReader == null)
+            return 0;
+
+        return currentReader.findSources(dest, buffer);
     }
 
     @Override
-    public void forEach(SourceDestConsumer consumer) {
-        for (long val : sourceToDest) {
-            consumer.accept((int) (val >>> 32), (int) (val & 0xFFFF_FFFFL));
+    public void forEachSource(int dest, IntConsumer consumer) {
+        var currentReader = reader;
+        if (currentReader != null) {
+            currentReader.forEachSource(dest, consumer);
         }
     }
 
-    private TIntArrayList findRelated(long[] range, int key) {
-        long keyLong = Integer.toUnsignedLong(key) << 32;
-        long nextKeyLong = Integer.toUnsignedLong(key + 1) << 32;
-
-        int start = Arrays.binarySearch(range, keyLong);
-
-        if (start < 0) {
-            // Key is not found, get the insertion point
-            start = -start - 1;
-        }
-
-        TIntArrayList result = new TIntArrayList();
-
-        for (int i = start; i < range.length && range[i] < nextKeyLong; i++) {
-            result.add((int) (range[i] & 0xFFFF_FFFFL));
-        }
+    @Override
+    public int countDestinations(int source) {
+        var currentReader = reader;
+        if (currentReader == null)
+            return 0;
 
-        return result;
+        return currentReader.countDestinations(source);
     }
 
-    private int countRelated(long[] range, int key) {
-        long keyLong = Integer.toUnsignedLong(key) << 32;
-        long nextKeyLong = Integer.toUnsignedLong(key + 1) << 32;
+    @Override
+    public int countSources(int dest) {
+        var currentReader = reader;
+        if (currentReader == null)
+            return 0;
 
-        int start = Arrays.binarySearch(range, keyLong);
+        return currentReader.countSources(dest);
+    }
 
-        if (start < 0) {
-            // Key is not found, get the insertion point
-            start = -start - 1;
+    @Override
+    public void forEach(SourceDestConsumer consumer) {
+        var currentReader = reader;
+        if (currentReader != null) {
+            currentReader.forEach(consumer);
         }
-
-        int num = 0;
-        for (int i = start; i < range.length && range[i] < nextKeyLong; i++, num++);
-        return num;
     }
 
 }
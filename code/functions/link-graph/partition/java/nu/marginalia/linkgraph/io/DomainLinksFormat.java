@@ -0,0 +1,72 @@
+package nu.marginalia.linkgraph.io;
+
+import java.io.IOException;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** Layout of the domain links file.
+ * <p></p>
+ * The file holds the link graph in compressed sparse row form, once indexed by source
+ * and once indexed by destination, so that both directions can be looked up directly
+ * from a memory mapping without any sorting when the file is loaded.
+ * <p></p>
+ * The file starts with a fixed size header, containing a magic number, the format version,
+ * and a directory for each of the two directions.  The directory holds the number of keys,
+ * the number of links, and the file offset of each of the direction's sections.  Sections
+ * are 8-byte aligned.
+ * <p></p>
+ * Each direction has a keys section of sorted int domain ids that have at least one neighbor,
+ * a degrees section with the int number of neighbors of each key, and an offsets section with
+ * <code>keyCount + 1</code> longs, where the neighbors of key <code>i</code> span
+ * <code>[offsets[i], offsets[i+1])</code> of the data section.  The neighbors of each key are
+ * sorted and distinct, and are stored as varint encoded deltas from the previous neighbor,
+ * with the first neighbor stored as a delta from zero.  Domain ids are non-negative.
+ * */
+final class DomainLinksFormat {
+    static final long MAGIC = 0x4d52444c4e4b3031L; // "MRDLNK01"
+    static final int VERSION = 1;
+
+    static final int DIRECTION_FORWARD = 0;
+    static final int DIRECTION_REVERSE = 1;
+    static final int DIRECTION_COUNT = 2;
+
+    static final int DIR_KEY_COUNT = 0;
+    static final int DIR_LINK_COUNT = 1;
+    static final int DIR_KEYS = 2;
+    static final int DIR_DEGREES = 3;
+    static final int DIR_OFFSETS = 4;
+    static final int DIR_DATA = 5;
+    static final int DIR_SIZE = 6;
+
+    /** magic, version + padding, directories */
+    static final int HEADER_SIZE = 8 + 8 + 8 * DIR_SIZE * DIRECTION_COUNT;
+
+    static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    /** Returns the file offset of the given directory entry */
+    static long directoryOffset(int direction, int entry) {
+        return 16 + 8L * (direction * DIR_SIZE + entry);
+    }
+
+    /** Returns true if the file starts with the magic number of this format.  Files
+     * written before this format was introduced are a flat list of source-dest pairs,
+     * and need to be converted with {@link DomainLinksWriter#convert(Path, Path)}. */
+    static boolean isFormatted(Path file) throws IOException {
+        if (Files.size(file) < HEADER_SIZE)
+            return false;
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0);
+            return buffer.getLong(0) == MAGIC;
+        }
+    }
+
+    private DomainLinksFormat() {}
+}
@@ -1,10 +1,15 @@
 package nu.marginalia.linkgraph.io;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
+/** Reads a flat list of source-dest pairs, which is the format the links are spooled in
+ * by {@link DomainLinksWriter}, as well as the format of domain links files written before
+ * the current compressed format.
+ */
 public class DomainLinksLoader implements AutoCloseable {
     private final DataInputStream stream;
     private final Path filename;
@@ -12,7 +17,7 @@ public class DomainLinksLoader implements AutoCloseable {
     private long nextVal;
 
     public DomainLinksLoader(Path filename) throws IOException {
-        this.stream = new DataInputStream(Files.newInputStream(filename));
+        this.stream = new DataInputStream(new BufferedInputStream(Files.newInputStream(filename), 64 * 1024));
         this.filename = filename;
     }
 
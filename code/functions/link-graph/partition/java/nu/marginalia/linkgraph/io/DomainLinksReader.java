@@ -0,0 +1,213 @@
+package nu.marginalia.linkgraph.io;
+
+import nu.marginalia.linkgraph.DomainLinks;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntConsumer;
+
+import static nu.marginalia.linkgraph.io.DomainLinksFormat.*;
+
+/** Reads the domain links file, see {@link DomainLinksFormat} for the layout.
+ * <p></p>
+ * The file is memory mapped, and lookups binary search the keys of the requested direction,
+ * and then decode the neighbors directly from the mapping into the caller's buffer or consumer,
+ * without allocating.
+ * <p></p>
+ * The mapping is owned by an automatic arena, so it is released once the reader is no
+ * longer reachable.  This lets lookups in progress finish safely after the reader has been
+ * replaced.  This class is thread-safe.
+ * */
+public class DomainLinksReader {
+    private final MemorySegment data;
+
+    private final Direction forward;
+    private final Direction reverse;
+
+    public DomainLinksReader(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto());
+        }
+
+        if (data.byteSize() < HEADER_SIZE || data.get(LONG, 0) != MAGIC) {
+            throw new IOException("Not a domain links file: " + file);
+        }
+
+        int version = data.get(INT, 8);
+        if (version != VERSION) {
+            throw new IOException("Unsupported domain links file version " + version + " in " + file);
+        }
+
+        forward = new Direction(DIRECTION_FORWARD);
+        reverse = new Direction(DIRECTION_REVERSE);
+    }
+
+    /** Returns true if the file is in the format this class reads, and false if it
+     * is in the legacy format and needs to be converted with {@link DomainLinksWriter#convert(Path, Path)} */
+    public static boolean isReadable(Path file) throws IOException {
+        return DomainLinksFormat.isFormatted(file);
+    }
+
+    /** Returns the number of distinct links in the file */
+    public long linkCount() {
+        return forward.linkCount;
+    }
+
+    public int countDestinations(int source) {
+        return forward.count(source);
+    }
+
+    public int countSources(int dest) {
+        return reverse.count(dest);
+    }
+
+    /** Copy the destinations of the source into the buffer, in ascending order.
+     *
+     * @return the number of destinations copied, which is at most the length of the buffer
+     */
+    public int findDestinations(int source, int[] buffer) {
+        return forward.fill(source, buffer);
+    }
+
+    /** Copy the sources of the destination into the buffer, in ascending order.
+     *
+     * @return the number of sources copied, which is at most the length of the buffer
+     */
+    public int findSources(int dest, int[] buffer) {
+        return reverse.fill(dest, buffer);
+    }
+
+    /** Pass each destination of the source to the consumer, in ascending order */
+    public void forEachDestination(int source, IntConsumer consumer) {
+        forward.forEach(source, consumer);
+    }
+
+    /** Pass each source of the destination to the consumer, in ascending order */
+    public void forEachSource(int dest, IntConsumer consumer) {
+        reverse.forEach(dest, consumer);
+    }
+
+    /** Pass every link to the consumer, ordered by source and then destination */
+    public void forEach(DomainLinks.SourceDestConsumer consumer) {
+        forward.forEach(consumer);
+    }
+
+    /** One of the two directions of the graph */
+    private class Direction {
+        private final long keyCount;
+        private final long linkCount;
+        private final long keysBase;
+        private final long degreesBase;
+        private final long offsetsBase;
+        private final long dataBase;
+
+        Direction(int direction) {
+            keyCount = data.get(LONG, directoryOffset(direction, DIR_KEY_COUNT));
+            linkCount = data.get(LONG, directoryOffset(direction, DIR_LINK_COUNT));
+            keysBase = data.get(LONG, directoryOffset(direction, DIR_KEYS));
+            degreesBase = data.get(LONG, directoryOffset(direction, DIR_DEGREES));
+            offsetsBase = data.get(LONG, directoryOffset(direction, DIR_OFFSETS));
+            dataBase = data.get(LONG, directoryOffset(direction, DIR_DATA));
+        }
+
+        /** Binary search the keys for the row of the key, or -1 if it is not present */
+        private long findRow(int key) {
+            long low = 0;
+            long high = keyCount - 1;
+
+            while (low <= high) {
+                long mid = (low + high) >>> 1;
+                int midVal = data.get(INT, keysBase + 4 * mid);
+
+                if (midVal < key) low = mid + 1;
+                else if (midVal > key) high = mid - 1;
+                else return mid;
+            }
+
+            return -1;
+        }
+
+        private int degree(long row) {
+            return data.get(INT, degreesBase + 4 * row);
+        }
+
+        private long dataStart(long row) {
+            return dataBase + data.get(LONG, offsetsBase + 8 * row);
+        }
+
+        int count(int key) {
+            long row = findRow(key);
+            if (row < 0)
+                return 0;
+
+            return degree(row);
+        }
+
+        int fill(int key, int[] buffer) {
+            long row = findRow(key);
+            if (row < 0)
+                return 0;
+
+            int n = Math.min(degree(row), buffer.length);
+            long pos = dataStart(row);
+            int value = 0;
+
+            for (int i = 0; i < n; i++) {
+                // Decode the varint delta from the previous neighbor
+                int b;
+                int delta = 0;
+                int shift = 0;
+                do {
+                    b = data.get(ValueLayout.JAVA_BYTE, pos++);
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+
+                value += delta;
+                buffer[i] = value;
+            }
+
+            return n;
+        }
+
+        void forEach(int key, IntConsumer consumer) {
+            long row = findRow(key);
+            if (row < 0)
+                return;
+
+            decodeRow(row, consumer);
+        }
+
+        void forEach(DomainLinks.SourceDestConsumer consumer) {
+            for (long row = 0; row < keyCount; row++) {
+                int key = data.get(INT, keysBase + 4 * row);
+                decodeRow(row, neighbor -> consumer.accept(key, neighbor));
+            }
+        }
+
+        private void decodeRow(long row, IntConsumer consumer) {
+            int n = degree(row);
+            long pos = dataStart(row);
+            int value = 0;
+
+            for (int i = 0; i < n; i++) {
+                int b;
+                int delta = 0;
+                int shift = 0;
+                do {
+                    b = data.get(ValueLayout.JAVA_BYTE, pos++);
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+
+                value += delta;
+                consumer.accept(value);
+            }
+        }
+    }
+}
@@ -1,29 +1,314 @@
 package nu.marginalia.linkgraph.io;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static nu.marginalia.linkgraph.io.DomainLinksFormat.*;
 
+/** Writes the domain links file, see {@link DomainLinksFormat} for the layout.
+ * <p></p>
+ * Links may be written in any order.  They are spooled to a temporary file as they
+ * are written, and the file is built from the spool when the writer is closed, one direction
+ * at a time, with a counting sort over the domain ids.  This needs about four bytes of heap
+ * per link and per domain id, but means the reader never has to sort anything.
+ * */
 public class DomainLinksWriter implements AutoCloseable {
-    private final DataOutputStream stream;
+    private static final Logger logger = LoggerFactory.getLogger(DomainLinksWriter.class);
+
+    private final Path outputFile;
+    private final Path spoolFile;
+    private final DataOutputStream spool;
+
+    private long linkCount = 0;
+    private long skippedCount = 0;
+    private int maxId = -1;
 
     public DomainLinksWriter(Path fileName) throws IOException {
-        this.stream = new DataOutputStream(Files.newOutputStream(fileName,
-                StandardOpenOption.CREATE,
+        this.outputFile = fileName;
+        this.spoolFile = Files.createTempFile(fileName.toAbsolutePath().getParent(), fileName.getFileName().toString(), ".spool");
+        this.spool = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spoolFile,
                 StandardOpenOption.WRITE,
-                StandardOpenOption.TRUNCATE_EXISTING)
+                StandardOpenOption.TRUNCATE_EXISTING),
+                64 * 1024)
         );
     }
 
+    /** Convert a file written before the current format, which is a flat list of
+     * source-dest pairs, to the current format */
+    public static void convert(Path legacyFile, Path outputFile) throws IOException {
+        try (var loader = new DomainLinksLoader(legacyFile);
+             var writer = new DomainLinksWriter(outputFile))
+        {
+            while (loader.next()) {
+                writer.write(loader.getSource(), loader.getDest());
+            }
+        }
+    }
+
     public void write(int sourceDomainId, int destDomainId) throws IOException {
-        stream.writeLong(Integer.toUnsignedLong(sourceDomainId) << 32
+        if (sourceDomainId < 0 || destDomainId < 0) {
+            skippedCount++;
+            return;
+        }
+
+        spool.writeLong(Integer.toUnsignedLong(sourceDomainId) << 32
                           | Integer.toUnsignedLong(destDomainId));
+
+        maxId = Math.max(maxId, Math.max(sourceDomainId, destDomainId));
+        linkCount++;
     }
 
     @Override
     public void close() throws IOException {
-        stream.close();
+        spool.close();
+
+        try {
+            if (skippedCount > 0) {
+                logger.warn("Skipped {} links with invalid domain ids", skippedCount);
+            }
+
+            if (linkCount > Integer.MAX_VALUE - 8) {
+                throw new IOException("Too many links: " + linkCount);
+            }
+
+            build();
+        }
+        finally {
+            Files.deleteIfExists(spoolFile);
+        }
+    }
+
+    /** Build the output file from the spool */
+    private void build() throws IOException {
+        Path tempFile = Files.createTempFile(outputFile.toAbsolutePath().getParent(), outputFile.getFileName().toString(), ".tmp");
+
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(0);
+
+            try (var out = new ChannelOutput(FileChannel.open(tempFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+                out.skipTo(HEADER_SIZE);
+
+                writeDirection(out, header, false);
+                writeDirection(out, header, true);
+
+                out.flush();
+                header.flip();
+                out.writeAt(header, 0);
+            }
+
+            Files.move(tempFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /** Write the sections of one direction, and add its directory to the header
+     *
+     * @param reverse if true, the links are indexed by destination instead of by source
+     */
+    private void writeDirection(ChannelOutput out, ByteBuffer header, boolean reverse) throws IOException {
+        // rowStart[id]..rowStart[id+1] is the range of the neighbors of id
+        int[] rowStart = new int[maxId + 2];
+
+        try (var loader = new DomainLinksLoader(spoolFile)) {
+            while (loader.next()) {
+                rowStart[(reverse ? loader.getDest() : loader.getSource()) + 1]++;
+            }
+        }
+
+        for (int id = 0; id <= maxId; id++) {
+            rowStart[id + 1] += rowStart[id];
+        }
+
+        int[] neighbors = new int[(int) linkCount];
+        int[] fillPos = Arrays.copyOf(rowStart, maxId + 1);
+
+        try (var loader = new DomainLinksLoader(spoolFile)) {
+            while (loader.next()) {
+                if (reverse) neighbors[fillPos[loader.getDest()]++] = loader.getSource();
+                else neighbors[fillPos[loader.getSource()]++] = loader.getDest();
+            }
+        }
+
+        fillPos = null;
+
+        int keyCount = 0;
+        for (int id = 0; id <= maxId; id++) {
+            if (rowStart[id + 1] > rowStart[id])
+                keyCount++;
+        }
+
+        // Sort and deduplicate the neighbors of each key, compacting the neighbors array,
+        // and calculate where each key's neighbors will end up in the data section
+
+        int[] keys = new int[keyCount];
+        int[] degrees = new int[keyCount];
+        long[] offsets = new long[keyCount + 1];
+
+        int row = 0;
+        int writePos = 0;
+        long dataSize = 0;
+
+        for (int id = 0; id <= maxId; id++) {
+            int start = rowStart[id];
+            int end = rowStart[id + 1];
+
+            if (start == end)
+                continue;
+
+            Arrays.sort(neighbors, start, end);
+
+            int rowBegin = writePos;
+            int prev = 0;
+
+            for (int i = start; i < end; i++) {
+                if (i > start && neighbors[i] == neighbors[i - 1])
+                    continue;
+
+                dataSize += varintSize(neighbors[i] - prev);
+                prev = neighbors[i];
+
+                neighbors[writePos++] = neighbors[i];
+            }
+
+            keys[row] = id;
+            degrees[row] = writePos - rowBegin;
+            offsets[row + 1] = dataSize;
+            row++;
+        }
+
+        rowStart = null;
+
+        // Write the sections
+
+        header.putLong(keyCount);
+        header.putLong(writePos);
+
+        header.putLong(out.align());
+        for (int key : keys) {
+            out.putInt(key);
+        }
+
+        header.putLong(out.align());
+        for (int degree : degrees) {
+            out.putInt(degree);
+        }
+
+        header.putLong(out.align());
+        for (long offset : offsets) {
+            out.putLong(offset);
+        }
+
+        header.putLong(out.align());
+        int pos = 0;
+        for (int degree : degrees) {
+            int prev = 0;
+            for (int i = 0; i < degree; i++, pos++) {
+                out.putVarint(neighbors[pos] - prev);
+                prev = neighbors[pos];
+            }
+        }
+
+        out.align();
+    }
+
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    /** Buffered sequential little-endian output to a file channel */
+    private static class ChannelOutput implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        private long position = 0;
+
+        ChannelOutput(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            ensureRemaining(4);
+            buffer.putInt(value);
+            position += 4;
+        }
+
+        void putLong(long value) throws IOException {
+            ensureRemaining(8);
+            buffer.putLong(value);
+            position += 8;
+        }
+
+        void putVarint(int value) throws IOException {
+            ensureRemaining(5);
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+                position++;
+            }
+            buffer.put((byte) value);
+            position++;
+        }
+
+        /** Pad the output to the next 8-byte boundary, and return the new position */
+        long align() throws IOException {
+            while ((position & 7) != 0) {
+                ensureRemaining(1);
+                buffer.put((byte) 0);
+                position++;
+            }
+            return position;
+        }
+
+        void skipTo(long newPosition) throws IOException {
+            flush();
+            channel.position(newPosition);
+            position = newPosition;
+        }
+
+        void writeAt(ByteBuffer data, long at) throws IOException {
+            while (data.hasRemaining()) {
+                at += channel.write(data, at);
+            }
+        }
+
+        private void ensureRemaining(int n) throws IOException {
+            if (buffer.remaining() < n) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            channel.close();
+        }
     }
 }
@@ -1,52 +1,219 @@
 package nu.marginalia.linkgraph;
 
+import nu.marginalia.linkgraph.impl.FileDomainLinks;
 import nu.marginalia.linkgraph.io.DomainLinksLoader;
+import nu.marginalia.linkgraph.io.DomainLinksReader;
 import nu.marginalia.linkgraph.io.DomainLinksWriter;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 public class DomainLinkDbTest {
+    Path tempDir;
     Path fileName;
+
     @BeforeEach
     public void setUp() throws IOException {
-        fileName = Files.createTempFile("test", ".db");
+        tempDir = Files.createTempDirectory("test");
+        fileName = tempDir.resolve("domain-links.dat");
     }
     @AfterEach
     public void tearDown() throws IOException {
-        Files.deleteIfExists(fileName);
+        try (var files = Files.list(tempDir)) {
+            for (var file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(tempDir);
     }
 
     @Test
-    public void testWriteRead() {
+    public void testWriteRead() throws IOException {
         try (var writer = new DomainLinksWriter(fileName)) {
             writer.write(1, 2);
             writer.write(2, 3);
             writer.write(3, 4);
         }
-        catch (IOException ex) {
-            throw new RuntimeException(ex);
+
+        var reader = new DomainLinksReader(fileName);
+
+        Assertions.assertEquals(3, reader.linkCount());
+
+        Assertions.assertEquals(1, reader.countDestinations(1));
+        Assertions.assertEquals(0, reader.countSources(1));
+        Assertions.assertEquals(1, reader.countSources(4));
+        Assertions.assertEquals(0, reader.countDestinations(4));
+        Assertions.assertEquals(0, reader.countDestinations(5));
+
+        int[] buffer = new int[4];
+        Assertions.assertEquals(1, reader.findDestinations(2, buffer));
+        Assertions.assertEquals(3, buffer[0]);
+        Assertions.assertEquals(1, reader.findSources(2, buffer));
+        Assertions.assertEquals(1, buffer[0]);
+
+        // The spool file should be cleaned up
+        try (var files = Files.list(tempDir)) {
+            Assertions.assertEquals(List.of(fileName), files.toList());
         }
+    }
 
-        try (var reader = new DomainLinksLoader(fileName)) {
-            Assertions.assertTrue(reader.next());
-            Assertions.assertEquals(1, reader.getSource());
-            Assertions.assertEquals(2, reader.getDest());
-            Assertions.assertTrue(reader.next());
-            Assertions.assertEquals(2, reader.getSource());
-            Assertions.assertEquals(3, reader.getDest());
-            Assertions.assertTrue(reader.next());
-            Assertions.assertEquals(3, reader.getSource());
-            Assertions.assertEquals(4, reader.getDest());
-            Assertions.assertFalse(reader.next());
+    @Test
+    public void testEmpty() throws IOException {
+        try (var writer = new DomainLinksWriter(fileName)) {
+            // no links
+        }
+
+        var reader = new DomainLinksReader(fileName);
+        Assertions.assertEquals(0, reader.linkCount());
+        Assertions.assertEquals(0, reader.countDestinations(0));
+        Assertions.assertEquals(0, reader.findSources(0, new int[4]));
+    }
+
+    @Test
+    public void testSortedAndDeduplicated() throws IOException {
+        try (var writer = new DomainLinksWriter(fileName)) {
+            writer.write(10, 300);
+            writer.write(10, 5);
+            writer.write(10, 1_000_000);
+            writer.write(10, 5);
+            writer.write(7, 5);
+            writer.write(0, 5);
         }
-        catch (IOException ex) {
-            throw new RuntimeException(ex);
+
+        var reader = new DomainLinksReader(fileName);
+
+        Assertions.assertEquals(5, reader.linkCount());
+        Assertions.assertEquals(3, reader.countDestinations(10));
+
+        int[] buffer = new int[3];
+        Assertions.assertEquals(3, reader.findDestinations(10, buffer));
+        Assertions.assertArrayEquals(new int[] { 5, 300, 1_000_000 }, buffer);
+
+        List<Integer> sources = new ArrayList<>();
+        reader.forEachSource(5, sources::add);
+        Assertions.assertEquals(List.of(0, 7, 10), sources);
+
+        // A short buffer gets the first neighbors
+        int[] shortBuffer = new int[2];
+        Assertions.assertEquals(2, reader.findDestinations(10, shortBuffer));
+        Assertions.assertArrayEquals(new int[] { 5, 300 }, shortBuffer);
+
+        List<String> all = new ArrayList<>();
+        reader.forEach((source, dest) -> all.add(source + "->" + dest));
+        Assertions.assertEquals(List.of("0->5", "7->5", "10->5", "10->300", "10->1000000"), all);
+    }
+
+    @Test
+    public void testRandomGraph() throws IOException {
+        Random r = new Random(1234);
+
+        int n = 500;
+        boolean[][] links = new boolean[n][n];
+
+        try (var writer = new DomainLinksWriter(fileName)) {
+            for (int i = 0; i < 10_000; i++) {
+                int source = r.nextInt(n);
+                int dest = r.nextInt(n);
+
+                links[source][dest] = true;
+                writer.write(source, dest);
+            }
         }
+
+        var reader = new DomainLinksReader(fileName);
+        int[] buffer = new int[n];
+
+        for (int id = 0; id < n; id++) {
+            List<Integer> expectedDests = new ArrayList<>();
+            List<Integer> expectedSources = new ArrayList<>();
+
+            for (int other = 0; other < n; other++) {
+                if (links[id][other]) expectedDests.add(other);
+                if (links[other][id]) expectedSources.add(other);
+            }
+
+            Assertions.assertEquals(expectedDests.size(), reader.countDestinations(id));
+            Assertions.assertEquals(expectedSources.size(), reader.countSources(id));
+
+            int count = reader.findDestinations(id, buffer);
+            List<Integer> dests = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                dests.add(buffer[i]);
+            }
+            Assertions.assertEquals(expectedDests, dests);
+
+            List<Integer> sources = new ArrayList<>();
+            reader.forEachSource(id, sources::add);
+            Assertions.assertEquals(expectedSources, sources);
+        }
+    }
+
+    @Test
+    public void testLegacyFileIsConverted() throws IOException {
+        try (var out = new DataOutputStream(Files.newOutputStream(fileName))) {
+            out.writeLong(3L << 32 | 4);
+            out.writeLong(1L << 32 | 2);
+            out.writeLong(1L << 32 | 3);
+        }
+
+        Assertions.assertFalse(DomainLinksReader.isReadable(fileName));
+
+        var links = new FileDomainLinks(fileName);
+
+        Assertions.assertTrue(DomainLinksReader.isReadable(fileName));
+        Assertions.assertEquals(List.of(2, 3), toList(links.findDestinations(1).toArray()));
+        Assertions.assertEquals(List.of(1), toList(links.findSources(3).toArray()));
+        Assertions.assertEquals(1, links.countSources(4));
+    }
+
+    @Test
+    public void testSwitchInput() throws IOException {
+        var links = new FileDomainLinks(fileName);
+        Assertions.assertEquals(0, links.countDestinations(1));
+
+        Path newFile = tempDir.resolve("new-domain-links.dat");
+        try (var writer = new DomainLinksWriter(newFile)) {
+            writer.write(1, 2);
+        }
+
+        links.switchInput(newFile);
+
+        Assertions.assertFalse(Files.exists(newFile));
+        Assertions.assertEquals(1, links.countDestinations(1));
+        Assertions.assertEquals(List.of(2), toList(links.findDestinations(1).toArray()));
+    }
+
+    @Test
+    public void testLoaderReadsPairs() throws IOException {
+        try (var out = new DataOutputStream(Files.newOutputStream(fileName))) {
+            out.writeLong(1L << 32 | 2);
+            out.writeLong(2L << 32 | 3);
+        }
+
+        try (var loader = new DomainLinksLoader(fileName)) {
+            Assertions.assertEquals(2, loader.size());
+            Assertions.assertTrue(loader.next());
+            Assertions.assertEquals(1, loader.getSource());
+            Assertions.assertEquals(2, loader.getDest());
+            Assertions.assertTrue(loader.next());
+            Assertions.assertEquals(2, loader.getSource());
+            Assertions.assertEquals(3, loader.getDest());
+            Assertions.assertFalse(loader.next());
+        }
+    }
+
+    private static List<Integer> toList(int[] values) {
+        List<Integer> ret = new ArrayList<>();
+        for (int v : values) ret.add(v);
+        return ret;
     }
 }
@@ -0,0 +1,118 @@
+package nu.marginalia.functions.searchquery;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Singleton;
+import io.prometheus.metrics.core.metrics.Counter;
+import nu.marginalia.api.searchquery.RpcDecoratedResultItem;
+import nu.marginalia.api.searchquery.RpcIndexQuery;
+import nu.marginalia.index.api.IndexClient;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.List;
+
+/** Keeps the merged results of recent queries, so that following pages
+ * can be served without querying the index partitions again.
+ * <p></p>
+ * The first page of a query fetches the results for the first {@link #depth()} results
+ * from the index, and stores them here.  Later pages within that depth are served from the
+ * stored results for as long as they remain in the cache.
+ * <p></p>
+ * Only complete responses are stored, as partial results from failed or timed out
+ * partitions would otherwise be served for every page of the query until they expire.
+ * */
+@Singleton
+public class PaginationCache {
+    private static final Counter wmsa_qs_pagination_cache = Counter.builder()
+            .name("wmsa_qs_pagination_cache")
+            .help("Pagination cache lookups for pages after the first")
+            .labelNames("outcome")
+            .register();
+
+    private record CachedResults(List<RpcDecoratedResultItem> results, int totalResults) {}
+
+    private final int depth;
+    private final Cache<RpcIndexQuery, CachedResults> cache;
+
+    public PaginationCache() {
+        this(Integer.getInteger("search.paginationCacheDepth", 100),
+             Integer.getInteger("search.paginationCacheResults", 50_000),
+             Duration.ofSeconds(Integer.getInteger("search.paginationCacheTtlSeconds", 600)));
+    }
+
+    /**
+     * @param depth the number of results to keep for each query
+     * @param maxResults the maximum number of results to keep across all queries
+     * @param ttl how long to keep the results of a query
+     */
+    public PaginationCache(int depth, int maxResults, Duration ttl) {
+        this.depth = depth;
+        this.cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumWeight(maxResults)
+                .<RpcIndexQuery, CachedResults>weigher((query, results) -> 1 + results.results().size())
+                .build();
+    }
+
+    /** Returns the number of results fetched and cached when a query is first executed */
+    public int depth() {
+        return depth;
+    }
+
+    public boolean isEnabled() {
+        return depth > 0;
+    }
+
+    /** Returns true if the page falls within the cached depth */
+    public boolean isCacheable(IndexClient.Pagination pagination) {
+        return isEnabled() && pageEnd(pagination) <= depth;
+    }
+
+    /** Returns the page from the cached results of the query, or null if the query is not cached */
+    @Nullable
+    public IndexClient.AggregateQueryResponse get(RpcIndexQuery query, IndexClient.Pagination pagination) {
+        CachedResults cached = cache.getIfPresent(query);
+
+        if (cached == null) {
+            wmsa_qs_pagination_cache.labelValues("miss").inc();
+            return null;
+        }
+
+        wmsa_qs_pagination_cache.labelValues("hit").inc();
+        return page(cached.results(), cached.totalResults(), true, pagination);
+    }
+
+    /** Store the response to a query, which is expected to hold the first {@link #depth()} results in order.
+     * Incomplete responses are not stored. */
+    public void put(RpcIndexQuery query, IndexClient.AggregateQueryResponse response) {
+        if (!response.complete())
+            return;
+
+        cache.put(query, new CachedResults(List.copyOf(response.results()), response.totalResults()));
+    }
+
+    /** Cut out the requested page from the first results of a query */
+    public static IndexClient.AggregateQueryResponse page(List<RpcDecoratedResultItem> results,
+                                                          int totalResults,
+                                                          boolean complete,
+                                                          IndexClient.Pagination pagination)
+    {
+        int start = pageStart(pagination);
+        int end = Math.min(results.size(), pageEnd(pagination));
+
+        List<RpcDecoratedResultItem> page;
+        if (start < end) page = results.subList(start, end);
+        else page = List.of();
+
+        return new IndexClient.AggregateQueryResponse(page, pagination.page(), totalResults, complete);
+    }
+
+    private static int pageStart(IndexClient.Pagination pagination) {
+        return Math.max(0, (pagination.page() - 1) * pagination.pageSize());
+    }
+
+    private static int pageEnd(IndexClient.Pagination pagination) {
+        return pageStart(pagination) + Math.max(0, pagination.pageSize());
+    }
+}
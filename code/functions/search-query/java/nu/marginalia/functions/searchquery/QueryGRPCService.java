@@ -44,18 +44,21 @@ public class QueryGRPCService
     private final NsfwDomainFilter nsfwDomainFilter;
     private final IndexClient indexClient;
     private final SearchFilterCache searchFilterCache;
+    private final PaginationCache paginationCache;
 
     @Inject
     public QueryGRPCService(QueryFactory queryFactory,
                             NsfwDomainFilter nsfwDomainFilter,
                             IndexClient indexClient,
                             SearchFilterStore searchFilterStore,
-                            SearchFilterCache searchFilterCache)
+                            SearchFilterCache searchFilterCache,
+                            PaginationCache paginationCache)
     {
         this.queryFactory = queryFactory;
         this.nsfwDomainFilter = nsfwDomainFilter;
         this.indexClient = indexClient;
         this.searchFilterCache = searchFilterCache;
+        this.paginationCache = paginationCache;
         searchFilterStore.loadDefaultConfigs();
     }
 
@@ -140,7 +143,7 @@ public class QueryGRPCService
                         ProcessedQuery query = maybeQuery.get();
 
                         // Execute the query on the index partitions
-                        IndexClient.AggregateQueryResponse response = indexClient.executeQueries(query.indexQuery, pagination);
+                        IndexClient.AggregateQueryResponse response = executePaginated(query.indexQuery, pagination);
 
                         // Convert results to response and send it back
                         var responseBuilder = RpcQsResponse.newBuilder()
@@ -167,6 +170,27 @@ public class QueryGRPCService
         }
     }
 
+    /** Execute the query on the index partitions, serving pages after the first from
+     * the pagination cache when the results of an earlier page are still available */
+    private IndexClient.AggregateQueryResponse executePaginated(RpcIndexQuery indexQuery, IndexClient.Pagination pagination) {
+        if (!paginationCache.isCacheable(pagination)) {
+            return indexClient.executeQueries(indexQuery, pagination);
+        }
+
+        // The first page is always fetched from the index, so that repeating a search gives fresh results
+        if (pagination.page() > 1) {
+            var cached = paginationCache.get(indexQuery, pagination);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        var response = indexClient.executeQueries(indexQuery, new IndexClient.Pagination(1, paginationCache.depth()));
+        paginationCache.put(indexQuery, response);
+
+        return PaginationCache.page(response.results(), response.totalResults(), response.complete(), pagination);
+    }
+
     public record DetailedDirectResult(ProcessedQuery processedQuery,
                                        List<DecoratedSearchResultItem> result,
                                        int totalResults) {
@@ -229,7 +253,7 @@ public class QueryGRPCService
         ProcessedQuery query = maybeQuery.get();
 
         IndexClient.AggregateQueryResponse response
-                = indexClient.executeQueries(query.indexQuery, pagination);
+                = executePaginated(query.indexQuery, pagination);
 
         return new DetailedDirectResult(query,
                 Lists.transform(response.results(), QueryProtobufCodec::convertQueryResult),
@@ -0,0 +1,91 @@
+package nu.marginalia.functions.searchquery;
+
+import nu.marginalia.api.searchquery.RpcDecoratedResultItem;
+import nu.marginalia.api.searchquery.RpcIndexQuery;
+import nu.marginalia.api.searchquery.RpcQueryTerms;
+import nu.marginalia.index.api.IndexClient;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaginationCacheTest {
+
+    private final RpcIndexQuery query = RpcIndexQuery.newBuilder()
+            .setTerms(RpcQueryTerms.newBuilder().addTermsQuery("hello"))
+            .build();
+
+    private final RpcIndexQuery otherQuery = RpcIndexQuery.newBuilder()
+            .setTerms(RpcQueryTerms.newBuilder().addTermsQuery("world"))
+            .build();
+
+    private List<RpcDecoratedResultItem> results(int n) {
+        List<RpcDecoratedResultItem> ret = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            ret.add(RpcDecoratedResultItem.newBuilder().setUrl("https://www.example.com/" + i).build());
+        }
+        return ret;
+    }
+
+    @Test
+    void testServesLaterPages() {
+        var cache = new PaginationCache(50, 1000, Duration.ofMinutes(1));
+        var results = results(35);
+
+        cache.put(query, new IndexClient.AggregateQueryResponse(results, 1, 120, true));
+
+        var page2 = cache.get(query, new IndexClient.Pagination(2, 10));
+        assertNotNull(page2);
+        assertEquals(results.subList(10, 20), page2.results());
+        assertEquals(2, page2.page());
+        assertEquals(120, page2.totalResults());
+
+        var page4 = cache.get(query, new IndexClient.Pagination(4, 10));
+        assertNotNull(page4);
+        assertEquals(results.subList(30, 35), page4.results());
+
+        var page5 = cache.get(query, new IndexClient.Pagination(5, 10));
+        assertNotNull(page5);
+        assertEquals(List.of(), page5.results());
+
+        assertNull(cache.get(otherQuery, new IndexClient.Pagination(2, 10)));
+    }
+
+    @Test
+    void testIncompleteResponsesAreNotStored() {
+        var cache = new PaginationCache(50, 1000, Duration.ofMinutes(1));
+
+        // e.g. a partition timed out, or the quorum was reached before all partitions responded
+        cache.put(query, new IndexClient.AggregateQueryResponse(results(35), 1, 120, false));
+        assertNull(cache.get(query, new IndexClient.Pagination(2, 10)));
+
+        // e.g. every partition failed
+        cache.put(query, new IndexClient.AggregateQueryResponse(List.of(), 1, 0, false));
+        assertNull(cache.get(query, new IndexClient.Pagination(2, 10)));
+    }
+
+    @Test
+    void testIsCacheable() {
+        var cache = new PaginationCache(50, 1000, Duration.ofMinutes(1));
+
+        assertTrue(cache.isCacheable(new IndexClient.Pagination(1, 10)));
+        assertTrue(cache.isCacheable(new IndexClient.Pagination(5, 10)));
+        assertFalse(cache.isCacheable(new IndexClient.Pagination(6, 10)));
+
+        var disabled = new PaginationCache(0, 1000, Duration.ofMinutes(1));
+        assertFalse(disabled.isCacheable(new IndexClient.Pagination(1, 10)));
+    }
+
+    @Test
+    void testExpiry() throws InterruptedException {
+        var cache = new PaginationCache(50, 1000, Duration.ofMillis(1));
+
+        cache.put(query, new IndexClient.AggregateQueryResponse(results(10), 1, 10, true));
+        Thread.sleep(10);
+
+        assertNull(cache.get(query, new IndexClient.Pagination(2, 5)));
+    }
+}
@@ -75,7 +75,8 @@ class QueryGRPCServiceTest {
                 new NsfwDomainFilter(dataSource, List.of(), List.of()),
                 null,
                 filterStore,
-                new SearchFilterCache(filterStore, domainQueries)
+                new SearchFilterCache(filterStore, domainQueries),
+                new PaginationCache()
         );
 
     }
@@ -0,0 +1,184 @@
+package nu.marginalia.index.api;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/** A request to one of several replicas, which is sent to a second replica if the first
+ * has not responded within a delay, or fails.  The first successful response wins, and the
+ * other attempt is cancelled.
+ * <p></p>
+ * The replicas are tried in the order given, so the caller should put the one expected to be
+ * the fastest first.
+ *
+ * @param <R> the replica type
+ * @param <T> the response type
+ * */
+class HedgedRequest<R, T> {
+    private final List<R> replicas;
+    private final Function<R, ListenableFuture<T>> sender;
+    private final Listener<R> listener;
+
+    private final SettableFuture<T> result = SettableFuture.create();
+
+    // Guarded by this
+    private final List<ListenableFuture<T>> attempts = new ArrayList<>(2);
+    private int failedAttempts = 0;
+
+    /** Callbacks for the outcome of each attempt */
+    interface Listener<R> {
+        /** The attempt responded.  Hedged is true if it was sent because the previous attempt was slow */
+        void onSuccess(R replica, long elapsedNanos, boolean hedged);
+        /** The attempt failed while the request was still waiting for a response */
+        void onFailure(R replica, Throwable t, long elapsedNanos);
+        /** The attempt was cancelled before responding, because another attempt won or the caller gave up */
+        void onAbandoned(R replica, long elapsedNanos);
+        /** A second attempt is sent because the first has not responded within the hedge delay */
+        void onHedge(R replica);
+    }
+
+    /**
+     * @param replicas the replicas to send the request to, in order of preference.  At most the first two are used.
+     * @param sender sends the request to a replica, may return null if the replica is not available
+     */
+    HedgedRequest(List<R> replicas,
+                  Function<R, ListenableFuture<T>> sender,
+                  Listener<R> listener)
+    {
+        this.replicas = replicas.subList(0, Math.min(2, replicas.size()));
+        this.sender = sender;
+        this.listener = listener;
+
+        // Cancel the outstanding attempts if the caller gives up on the result
+        result.addListener(() -> {
+            if (result.isCancelled()) {
+                cancelAttempts();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /** Send the request to the first replica, and schedule the hedged attempt
+     *
+     * @param hedgeDelayMs delay before the second replica is tried, negative to disable hedging
+     * @return the response from whichever replica responds successfully first
+     */
+    ListenableFuture<T> start(ScheduledExecutorService scheduler, long hedgeDelayMs) {
+        if (replicas.isEmpty()) {
+            result.setException(new IllegalStateException("No replicas available"));
+            return result;
+        }
+
+        sendNext(false);
+
+        if (hedgeDelayMs >= 0 && replicas.size() > 1) {
+            scheduler.schedule(() -> sendNext(true), hedgeDelayMs, TimeUnit.MILLISECONDS);
+        }
+
+        return result;
+    }
+
+    /** Send the request to the next replica that has not been tried, if any */
+    private void sendNext(boolean isHedge) {
+        final R replica;
+        final int attemptIdx;
+
+        synchronized (this) {
+            if (result.isDone() || attempts.size() >= replicas.size())
+                return;
+
+            attemptIdx = attempts.size();
+            replica = replicas.get(attemptIdx);
+
+            // Reserve the slot, so that a concurrent hedge and failover don't pick the same replica
+            attempts.add(null);
+        }
+
+        if (isHedge) {
+            listener.onHedge(replica);
+        }
+
+        final long start = System.nanoTime();
+
+        ListenableFuture<T> attempt;
+        try {
+            attempt = sender.apply(replica);
+        }
+        catch (Exception ex) {
+            attempt = Futures.immediateFailedFuture(ex);
+        }
+
+        if (attempt == null) {
+            attempt = Futures.immediateFailedFuture(new IllegalStateException("Replica not available"));
+        }
+
+        synchronized (this) {
+            attempts.set(attemptIdx, attempt);
+        }
+
+        // The result may have been completed by another attempt, or cancelled, while this attempt
+        // was being sent, in which case cancelAttempts() may have missed it
+        if (result.isDone()) {
+            attempt.cancel(true);
+            return;
+        }
+
+        Futures.addCallback(attempt, new FutureCallback<>() {
+            @Override
+            public void onSuccess(T response) {
+                listener.onSuccess(replica, System.nanoTime() - start, isHedge);
+
+                if (result.set(response)) {
+                    cancelAttempts();
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                long elapsedNanos = System.nanoTime() - start;
+
+                if (result.isDone()) {
+                    // Most likely cancelled because the other attempt won
+                    listener.onAbandoned(replica, elapsedNanos);
+                    return;
+                }
+
+                listener.onFailure(replica, t, elapsedNanos);
+
+                boolean allFailed;
+                synchronized (HedgedRequest.this) {
+                    failedAttempts++;
+                    allFailed = failedAttempts == replicas.size();
+                }
+
+                if (allFailed) {
+                    result.setException(t);
+                }
+                else {
+                    // Fail over to the next replica right away rather than waiting for the hedge delay
+                    sendNext(false);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void cancelAttempts() {
+        List<ListenableFuture<T>> toCancel;
+        synchronized (this) {
+            toCancel = new ArrayList<>(attempts);
+        }
+
+        for (var attempt : toCancel) {
+            if (attempt != null && !attempt.isDone()) {
+                attempt.cancel(true);
+            }
+        }
+    }
+}
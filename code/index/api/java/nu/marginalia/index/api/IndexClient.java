@@ -1,6 +1,7 @@
 package nu.marginalia.index.api;
 
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import io.grpc.ManagedChannel;
@@ -17,6 +18,7 @@ import nu.marginalia.service.client.GrpcChannelPoolFactoryIf;
 import nu.marginalia.service.client.GrpcSingleNodeChannelPool;
 import nu.marginalia.service.discovery.property.ServiceKey;
 import nu.marginalia.service.discovery.property.ServicePartition;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,13 +27,13 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
 
 @Singleton
 public class IndexClient {
     private static final Logger logger = LoggerFactory.getLogger(IndexClient.class);
-    private final List<GrpcSingleNodeChannelPool<IndexApiGrpc.IndexApiFutureStub>> channelPools;
+    private final List<Partition> partitions;
     private final DomainBlacklistImpl blacklist;
     private final NsfwDomainFilter nsfwDomainFilter;
     private final NsfwDocumentFilter nsfwDocumentFilter;
@@ -43,6 +45,40 @@ public class IndexClient {
             .register();
 
 
+    private static final Counter wmsa_index_client_quorum_returns = Counter.builder()
+            .name("wmsa_index_client_quorum_returns")
+            .help("Count of queries returned before all index partitions responded, in quorum mode")
+            .register();
+
+    /** Fraction of the partitions that must have responded before the query may return early, 1.0 disables quorum mode */
+    private static final double quorumFraction = Double.parseDouble(System.getProperty("index.client.quorumFraction", "1.0"));
+
+    /** Fraction of the time budget of the partition requests that must remain for the query to return early */
+    static final double quorumRemainingBudget = Double.parseDouble(System.getProperty("index.client.quorumRemainingBudget", "0.25"));
+
+    private static final Counter wmsa_index_client_hedged_requests = Counter.builder()
+            .name("wmsa_index_client_hedged_requests")
+            .help("Count of index queries sent to a second replica, because the first was slow or failed")
+            .labelNames("node")
+            .register();
+
+    private static final Counter wmsa_index_client_hedge_wins = Counter.builder()
+            .name("wmsa_index_client_hedge_wins")
+            .help("Count of hedged index queries where the second replica responded first")
+            .labelNames("node")
+            .register();
+
+    /** The percentile of the recent response times of a partition to wait for before hedging */
+    private static final double hedgePercentile = Double.parseDouble(System.getProperty("index.client.hedgePercentile", "0.95"));
+    private static final long hedgeMinDelayMs = Long.getLong("index.client.hedgeMinDelayMs", 5);
+    private static final boolean disableHedging = Boolean.getBoolean("index.client.disableHedging");
+
+    private static final IndexLatencyTracker latencyTracker = new IndexLatencyTracker(
+            Double.parseDouble(System.getProperty("index.client.latencyEwmaAlpha", "0.1")));
+
+    private static final ScheduledExecutorService hedgeScheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("IndexClientHedging").daemon().factory());
+
     private static final boolean useLoom = Boolean.getBoolean("system.experimentalUseLoom");
     private static final ExecutorService executor = useLoom ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newCachedThreadPool();
 
@@ -54,16 +90,18 @@ public class IndexClient {
                        NodeConfigurationWatcherIf nodeConfigurationWatcher
                        ) {
         this.nsfwDocumentFilter = nsfwDocumentFilter;
-        channelPools = new ArrayList<>();
+        partitions = new ArrayList<>();
 
         for (int node: nodeConfigurationWatcher.getQueryNodes()) {
-            channelPools.add(channelPoolFactory.createSingle(ServiceKey.forGrpcApi(IndexApiGrpc.class, ServicePartition.partition(node)), IndexApiGrpc::newFutureStub));
+            partitions.add(new Partition(node, channelPoolFactory.createSingle(ServiceKey.forGrpcApi(IndexApiGrpc.class, ServicePartition.partition(node)), IndexApiGrpc::newFutureStub)));
         }
 
         this.blacklist = blacklist;
         this.nsfwDomainFilter = nsfwDomainFilter;
     }
 
+    private record Partition(int node, GrpcSingleNodeChannelPool<IndexApiGrpc.IndexApiFutureStub> pool) {}
+
     private static final Comparator<RpcDecoratedResultItem> comparator =
             Comparator.comparing(RpcDecoratedResultItem::getRankingScore);
 
@@ -74,105 +112,271 @@ public class IndexClient {
 
     }
 
+    /**
+     * @param complete true if every partition responded successfully, false if the results are
+     *                 missing partitions because they failed, timed out or were cut off by the quorum
+     */
     public record AggregateQueryResponse(List<RpcDecoratedResultItem> results,
                                          int page,
-                                         int totalResults
+                                         int totalResults,
+                                         boolean complete
                                      ) {}
 
-    /** Execute a query on the index partitions and return the combined results. */
+    /** Execute a query on the index partitions and return the combined results.
+     * <p></p>
+     * The partition responses are merged in the order they complete.  Normally all partitions
+     * are waited for until the bail instant, but if quorum mode is enabled, the query returns
+     * early once enough of the partitions have responded and little of the time budget remains.
+     * */
     public AggregateQueryResponse executeQueries(RpcIndexQuery indexRequest, Pagination pagination) {
 
-        final int requestedMaxResults = indexRequest.getQueryLimits().getResultsTotal();
         int filterTier = indexRequest.getNsfwFilterTierValue();
 
-        Instant bailInstant  = Instant.now().plusMillis((int) (2 * indexRequest.getQueryLimits().getTimeoutMs()));
+        final long timeoutMs = indexRequest.getQueryLimits().getTimeoutMs();
+        final QueryDeadlines deadlines = QueryDeadlines.of(Instant.now(), timeoutMs, quorumRemainingBudget);
 
-        List<RpcDecoratedResultItem> results = new ArrayList<>();
-        List<Map.Entry<GrpcSingleNodeChannelPool.ConnectionHolder, ListenableFuture<RpcIndexQueryResponse>>> futures
-                = new ArrayList<>(channelPools.size());
+        int sublistStart = Math.max(0, (pagination.page - 1) * pagination.pageSize);
+        int sublistEnd = sublistStart + Math.max(0, pagination.pageSize);
 
-        for (var pool: channelPools) {
-            GrpcSingleNodeChannelPool.ConnectionHolder holder = null;
-            ManagedChannel channel = null;
+        TopResultsMerger<RpcDecoratedResultItem> merger = new TopResultsMerger<>(sublistEnd, comparator);
 
-            for (var h : pool.getConnectionHolders()) {
-                if (h.hasErrorSince(Duration.ofSeconds(5)))
-                    continue;
-                holder = h;
-                channel = h.get();
-            }
+        // Futures are put on this queue as they complete
+        BlockingQueue<PendingResponse> completed = new LinkedBlockingQueue<>();
+        List<PendingResponse> pending = new ArrayList<>(partitions.size());
+        List<PendingResponse> received = new ArrayList<>(partitions.size());
+
+        int unavailable = 0;
+
+        for (var partition : partitions) {
+            var replicas = selectReplicas(partition);
 
-            if (null == channel)
+            if (replicas.isEmpty()) {
+                unavailable++;
                 continue;
+            }
 
-            var fut = IndexApiGrpc.newFutureStub(channel)
-                            .withExecutor(executor)
-                            .withDeadlineAfter(Duration.ofMillis((int) (1.5 * indexRequest.getQueryLimits().getTimeoutMs())))
-                        .query(indexRequest);
+            var fut = new HedgedRequest<>(replicas,
+                    holder -> sendQuery(holder, indexRequest, deadlines.request()),
+                    new HedgingListener(partition.node()))
+                    .start(hedgeScheduler, hedgeDelayMs(partition.node(), timeoutMs));
 
-            futures.add(Map.entry(holder, fut));
+            PendingResponse response = new PendingResponse(fut);
+            pending.add(response);
+            fut.addListener(() -> completed.add(response), MoreExecutors.directExecutor());
         }
 
-        for (var holderAndFuture: futures) {
-            var holder = holderAndFuture.getKey();
-            var future = holderAndFuture.getValue();
-            try {
-                Instant now = Instant.now();
-                if (now.isAfter(bailInstant)) {
-                    if (future.isDone()) {
-                        results.addAll(future.resultNow().getResultsList());
-                    }
-                }
-                else {
-                    results.addAll(future.get(Duration.between(now, bailInstant).toMillis(), TimeUnit.MILLISECONDS).getResultsList());
-                }
-            }
-            catch (ExecutionException ex) {
+        final int quorum = (int) Math.ceil(quorumFraction * pending.size());
 
-                if (ex.getCause() instanceof StatusRuntimeException sre) {
-                    if (sre.getStatus() == Status.DEADLINE_EXCEEDED) {
-                        logger.warn("Timeout: {}", sre.getMessage());
-                    }
-                    else if (sre.getStatus() == Status.UNAVAILABLE) {
-                        holder.flagError();
-                        logger.warn("Unavailable: {}", sre.getMessage());
-                    }
-                    else if (sre.getStatus() == Status.INTERNAL) {
-                        logger.warn("Internal Error in index: {}", sre);
-                    }
-                    else {
-                        logger.error("Error while fetching results", ex.getCause());
+        try {
+            awaitResponses(completed, pending.size(), quorum, deadlines, response -> {
+                received.add(response);
+
+                for (var item : response.getResults()) {
+                    if (!isExcluded(item, filterTier)) {
+                        merger.add(item);
                     }
                 }
-                else {
-                    holder.flagError();
-                    logger.error("Error while fetching results", ex.getCause());
-                }
+            });
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while fetching results", e);
+        }
+
+        if (received.size() < pending.size()) {
+            if (received.size() >= quorum && quorum < pending.size()) {
+                wmsa_index_client_quorum_returns.inc();
             }
-            catch (TimeoutException e) {
-                future.cancel(true);
+            else {
                 logger.error("Index request timeout");
             }
-            catch (Exception e) {
-                future.cancel(true);
-                logger.error("Error while fetching results", e);
+
+            for (var response : pending) {
+                response.future.cancel(true);
             }
         }
 
-        results.removeIf(item -> isExcluded(item, filterTier));
-        results.sort(comparator);
+        boolean complete = !pending.isEmpty()
+                && unavailable == 0
+                && received.size() == pending.size()
+                && received.stream().allMatch(PendingResponse::isSuccessful);
 
-        int totalNumResults = results.size();
+        return new AggregateQueryResponse(merger.window(sublistStart, sublistEnd), pagination.page(), merger.totalResults(), complete);
+    }
 
-        int sublistStart = Math.max(0, (pagination.page - 1) * pagination.pageSize);
-        int sublistEnd = Math.min(results.size(), sublistStart + pagination.pageSize);
+    /** The instants a query waits for its partitions until
+     *
+     * @param request when the requests to the partitions time out
+     * @param quorum when the query returns in quorum mode, once enough partitions have responded
+     * @param bail when the query stops waiting for the partitions
+     */
+    record QueryDeadlines(Instant request, Instant quorum, Instant bail) {
+        static QueryDeadlines of(Instant now, long timeoutMs, double quorumRemainingBudget) {
+            long requestMs = (long) (1.5 * timeoutMs);
+
+            return new QueryDeadlines(
+                    now.plusMillis(requestMs),
+                    now.plusMillis(requestMs - (long) (requestMs * quorumRemainingBudget)),
+                    now.plusMillis(2 * timeoutMs));
+        }
+    }
+
+    /** Wait for count responses to be put on the completed queue, passing each to onResponse as it
+     * arrives.  Once quorum responses have arrived, the wait ends at the quorum instant rather than
+     * the bail instant.
+     *
+     * @return the number of responses received
+     */
+    static <T> int awaitResponses(BlockingQueue<T> completed,
+                                  int count,
+                                  int quorum,
+                                  QueryDeadlines deadlines,
+                                  Consumer<T> onResponse) throws InterruptedException
+    {
+        int received = 0;
+
+        while (received < count) {
+            Instant deadline = received >= quorum ? deadlines.quorum() : deadlines.bail();
+            long waitMs = Duration.between(Instant.now(), deadline).toMillis();
+
+            T response = waitMs > 0 ? completed.poll(waitMs, TimeUnit.MILLISECONDS) : completed.poll();
+            if (response == null)
+                break;
+
+            received++;
+            onResponse.accept(response);
+        }
+
+        return received;
+    }
 
-        List<RpcDecoratedResultItem> ret;
+    /** Returns the healthy connections for the partition, with the ones that have recently been
+     * the fastest first */
+    private List<GrpcSingleNodeChannelPool<IndexApiGrpc.IndexApiFutureStub>.ConnectionHolder> selectReplicas(Partition partition) {
+        List<GrpcSingleNodeChannelPool<IndexApiGrpc.IndexApiFutureStub>.ConnectionHolder> replicas = new ArrayList<>();
 
-        if (sublistStart < sublistEnd) ret = results.subList(sublistStart, sublistEnd);
-        else ret = List.of();
+        for (var holder : partition.pool().getConnectionHolders()) {
+            if (!holder.hasErrorSince(Duration.ofSeconds(5))) {
+                replicas.add(holder);
+            }
+        }
 
-        return new AggregateQueryResponse(ret, pagination.page(), totalNumResults);
+        replicas.sort(Comparator.comparingDouble(holder -> latencyTracker.averageNanos(partition.node(), instanceName(holder))));
+
+        return replicas;
+    }
+
+    @Nullable
+    private ListenableFuture<RpcIndexQueryResponse> sendQuery(GrpcSingleNodeChannelPool<?>.ConnectionHolder holder,
+                                                              RpcIndexQuery indexRequest,
+                                                              Instant deadline)
+    {
+        ManagedChannel channel = holder.get();
+        if (null == channel)
+            return null;
+
+        return IndexApiGrpc.newFutureStub(channel)
+                .withExecutor(executor)
+                .withDeadlineAfter(Math.max(1, Duration.between(Instant.now(), deadline).toMillis()), TimeUnit.MILLISECONDS)
+                .query(indexRequest);
+    }
+
+    /** Returns the time to wait for a partition before sending the query to another replica,
+     * or -1 if hedging is disabled */
+    private long hedgeDelayMs(int node, long timeoutMs) {
+        if (disableHedging)
+            return -1;
+
+        long percentileMs = latencyTracker.percentileMillis(node, hedgePercentile);
+        if (percentileMs < 0) {
+            // Too little data for a meaningful estimate, only hedge requests that are very slow
+            return timeoutMs / 2;
+        }
+
+        return Math.clamp(percentileMs, hedgeMinDelayMs, Math.max(hedgeMinDelayMs, timeoutMs / 2));
+    }
+
+    private static String instanceName(GrpcSingleNodeChannelPool<?>.ConnectionHolder holder) {
+        var address = holder.getAddress();
+        return address.host() + ":" + address.port();
+    }
+
+    private static class HedgingListener implements HedgedRequest.Listener<GrpcSingleNodeChannelPool<IndexApiGrpc.IndexApiFutureStub>.ConnectionHolder> {
+        private final int node;
+        private final String nodeName;
+
+        HedgingListener(int node) {
+            this.node = node;
+            this.nodeName = Integer.toString(node);
+        }
+
+        @Override
+        public void onSuccess(GrpcSingleNodeChannelPool<IndexApiGrpc.IndexApiFutureStub>.ConnectionHolder holder, long elapsedNanos, boolean hedged) {
+            latencyTracker.record(node, instanceName(holder), elapsedNanos);
+
+            if (hedged) {
+                wmsa_index_client_hedge_wins.labelValues(nodeName).inc();
+            }
+        }
+
+        @Override
+        public void onHedge(GrpcSingleNodeChannelPool<IndexApiGrpc.IndexApiFutureStub>.ConnectionHolder holder) {
+            wmsa_index_client_hedged_requests.labelValues(nodeName).inc();
+        }
+
+        @Override
+        public void onAbandoned(GrpcSingleNodeChannelPool<IndexApiGrpc.IndexApiFutureStub>.ConnectionHolder holder, long elapsedNanos) {
+            latencyTracker.recordLowerBound(node, instanceName(holder), elapsedNanos);
+        }
+
+        @Override
+        public void onFailure(GrpcSingleNodeChannelPool<IndexApiGrpc.IndexApiFutureStub>.ConnectionHolder holder, Throwable t, long elapsedNanos) {
+            latencyTracker.recordLowerBound(node, instanceName(holder), elapsedNanos);
+
+            if (t instanceof StatusRuntimeException sre) {
+                if (sre.getStatus().getCode() == Status.Code.DEADLINE_EXCEEDED) {
+                    logger.warn("Timeout: {}", sre.getMessage());
+                }
+                else if (sre.getStatus().getCode() == Status.Code.UNAVAILABLE) {
+                    holder.flagError();
+                    logger.warn("Unavailable: {}", sre.getMessage());
+                }
+                else if (sre.getStatus().getCode() == Status.Code.INTERNAL) {
+                    logger.warn("Internal Error in index: {}", sre);
+                }
+                else if (sre.getStatus().getCode() != Status.Code.CANCELLED) {
+                    logger.error("Error while fetching results", t);
+                }
+            }
+            else if (!(t instanceof CancellationException)) {
+                holder.flagError();
+                logger.error("Error while fetching results", t);
+            }
+        }
+    }
+
+    /** A request to an index partition that may or may not have completed */
+    private record PendingResponse(ListenableFuture<RpcIndexQueryResponse> future)
+    {
+        /** Returns true if the request completed with a response */
+        boolean isSuccessful() {
+            return future.state() == Future.State.SUCCESS;
+        }
+
+        /** Returns the results of a completed request, or an empty list if the request failed.
+         * Failures are logged by the {@link HedgingListener}. */
+        List<RpcDecoratedResultItem> getResults() {
+            try {
+                return future.get().getResultsList();
+            }
+            catch (ExecutionException | CancellationException ex) {
+                return List.of();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return List.of();
+            }
+        }
     }
 
     static String[] tierNames = {
@@ -0,0 +1,139 @@
+package nu.marginalia.index.api;
+
+import io.prometheus.metrics.core.metrics.Gauge;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Keeps track of the response times of the index partitions, for replica selection and hedging.
+ * <p></p>
+ * Each instance gets an exponentially weighted moving average of its response time, which is used
+ * to pick the fastest replica of a partition.  Each partition also keeps a window of its most recent
+ * response times across all its replicas, from which the delay before sending a hedged request is derived.
+ * */
+class IndexLatencyTracker {
+    private static final Gauge wmsa_index_client_latency_ewma = Gauge.builder()
+            .name("wmsa_index_client_latency_ewma_seconds")
+            .help("Moving average of the index query response time, by partition and instance")
+            .labelNames("node", "instance")
+            .register();
+
+    private static final int WINDOW_SIZE = 128;
+
+    /** Percentiles are not estimated from fewer samples than this */
+    private static final int MIN_SAMPLES = 16;
+
+    private final double alpha;
+
+    private final Map<String, InstanceLatency> latencyByInstance = new ConcurrentHashMap<>();
+    private final Map<Integer, LatencyWindow> windowByNode = new ConcurrentHashMap<>();
+
+    /**
+     * @param alpha the weight of the most recent response time in the moving average
+     */
+    IndexLatencyTracker(double alpha) {
+        this.alpha = alpha;
+    }
+
+    /** Record a successful response from an instance of a partition */
+    void record(int node, String instance, long nanos) {
+        latencyByInstance
+                .computeIfAbsent(node + "/" + instance, k -> new InstanceLatency(Integer.toString(node), instance))
+                .update(nanos);
+
+        windowByNode
+                .computeIfAbsent(node, k -> new LatencyWindow())
+                .add(nanos);
+    }
+
+    /** Record that an instance of a partition took at least this long to not respond, because the
+     * request failed or was cancelled.  This only ever raises the moving average, so that a replica
+     * that has become slow loses its rank even though its slow attempts are the ones that get cancelled.
+     * The hedge delay window is left alone, as it is meant to reflect actual response times.
+     */
+    void recordLowerBound(int node, String instance, long nanos) {
+        latencyByInstance
+                .computeIfAbsent(node + "/" + instance, k -> new InstanceLatency(Integer.toString(node), instance))
+                .updateLowerBound(nanos);
+    }
+
+    /** Returns the moving average response time of the instance in nanoseconds,
+     * or zero if no responses have been recorded, so that new instances get tried */
+    double averageNanos(int node, String instance) {
+        InstanceLatency latency = latencyByInstance.get(node + "/" + instance);
+        if (latency == null)
+            return 0.;
+        return latency.average;
+    }
+
+    /** Returns the given percentile of the recent response times of the partition in milliseconds,
+     * or -1 if too few responses have been recorded */
+    long percentileMillis(int node, double percentile) {
+        LatencyWindow window = windowByNode.get(node);
+        if (window == null)
+            return -1;
+
+        long nanos = window.percentile(percentile);
+        if (nanos < 0)
+            return -1;
+
+        return nanos / 1_000_000;
+    }
+
+    private class InstanceLatency {
+        private final String nodeLabel;
+        private final String instanceLabel;
+
+        private volatile double average = Double.NaN;
+
+        InstanceLatency(String nodeLabel, String instanceLabel) {
+            this.nodeLabel = nodeLabel;
+            this.instanceLabel = instanceLabel;
+        }
+
+        synchronized void update(long nanos) {
+            if (Double.isNaN(average)) {
+                average = nanos;
+            }
+            else {
+                average = (1 - alpha) * average + alpha * nanos;
+            }
+
+            wmsa_index_client_latency_ewma.labelValues(nodeLabel, instanceLabel).set(average / 1e9);
+        }
+
+        synchronized void updateLowerBound(long nanos) {
+            if (Double.isNaN(average) || nanos > average) {
+                update(nanos);
+            }
+        }
+    }
+
+    private static class LatencyWindow {
+        private final long[] samples = new long[WINDOW_SIZE];
+        private int count = 0;
+        private int pos = 0;
+
+        synchronized void add(long nanos) {
+            samples[pos] = nanos;
+            pos = (pos + 1) % WINDOW_SIZE;
+            count = Math.min(count + 1, WINDOW_SIZE);
+        }
+
+        long percentile(double percentile) {
+            long[] sorted;
+
+            synchronized (this) {
+                if (count < MIN_SAMPLES)
+                    return -1;
+                sorted = Arrays.copyOf(samples, count);
+            }
+
+            Arrays.sort(sorted);
+
+            int idx = (int) Math.clamp(Math.ceil(percentile * count) - 1, 0, count - 1);
+            return sorted[idx];
+        }
+    }
+}
@@ -5,5 +5,6 @@ public class IndexMqEndpoints {
     public static final String INDEX_RERANK = "INDEX-RERANK";
     public static final String INDEX_REPARTITION = "INDEX-REPARTITION";
     public static final String SWITCH_INDEX = "SWITCH-INDEX";
+    public static final String SWITCH_DELTA = "SWITCH-DELTA";
     public static final String SWITCH_LINKDB = "SWITCH_LINKDB";
 }
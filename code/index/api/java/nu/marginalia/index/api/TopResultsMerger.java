@@ -0,0 +1,63 @@
+package nu.marginalia.index.api;
+
+import java.util.*;
+
+/** Incrementally merges result lists from several index partitions, keeping only
+ * the best results needed to fill the requested page.
+ * <p></p>
+ * Results are kept in a bounded heap with the worst retained result at the top,
+ * so each added result costs O(log limit) regardless of how many results the partitions return,
+ * and results that can never make it onto the page are discarded as they arrive.
+ * <p></p>
+ * This class is not thread-safe.
+ * */
+class TopResultsMerger<T> {
+    private final int limit;
+    private final Comparator<T> comparator;
+    private final PriorityQueue<T> heap;
+
+    private int totalResults = 0;
+
+    /**
+     * @param limit the number of best results to retain
+     * @param comparator the result order, with the best results first
+     */
+    TopResultsMerger(int limit, Comparator<T> comparator) {
+        this.limit = limit;
+        this.comparator = comparator;
+        this.heap = new PriorityQueue<>(Math.clamp(limit, 1, 1024), comparator.reversed());
+    }
+
+    void add(T item) {
+        totalResults++;
+
+        if (limit <= 0)
+            return;
+
+        if (heap.size() < limit) {
+            heap.add(item);
+        }
+        else if (comparator.compare(item, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(item);
+        }
+    }
+
+    /** Returns the number of results added, including the ones that were discarded */
+    int totalResults() {
+        return totalResults;
+    }
+
+    /** Returns the retained results in [start, end) of the merged result order */
+    List<T> window(int start, int end) {
+        List<T> sorted = new ArrayList<>(heap);
+        sorted.sort(comparator);
+
+        end = Math.min(end, sorted.size());
+
+        if (start >= end)
+            return List.of();
+
+        return sorted.subList(start, end);
+    }
+}
@@ -0,0 +1,152 @@
+package nu.marginalia.index.api;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgedRequestTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private final Map<String, SettableFuture<String>> attempts = new ConcurrentHashMap<>();
+    private final AtomicInteger hedges = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final Map<String, Long> abandoned = new ConcurrentHashMap<>();
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private HedgedRequest<String, String> request(List<String> replicas) {
+        return new HedgedRequest<>(replicas,
+                replica -> {
+                    SettableFuture<String> future = SettableFuture.create();
+                    attempts.put(replica, future);
+                    return future;
+                },
+                new HedgedRequest.Listener<>() {
+                    public void onSuccess(String replica, long elapsedNanos, boolean hedged) {}
+                    public void onFailure(String replica, Throwable t, long elapsedNanos) { failures.incrementAndGet(); }
+                    public void onAbandoned(String replica, long elapsedNanos) { abandoned.put(replica, elapsedNanos); }
+                    public void onHedge(String replica) { hedges.incrementAndGet(); }
+                });
+    }
+
+    @Test
+    void testFastPrimaryIsNotHedged() throws Exception {
+        ListenableFuture<String> result = request(List.of("a", "b")).start(scheduler, 200);
+
+        attempts.get("a").set("from a");
+
+        assertEquals("from a", result.get(1, TimeUnit.SECONDS));
+
+        Thread.sleep(300);
+        assertFalse(attempts.containsKey("b"));
+        assertEquals(0, hedges.get());
+    }
+
+    @Test
+    void testSlowPrimaryIsHedgedAndCancelled() throws Exception {
+        ListenableFuture<String> result = request(List.of("a", "b")).start(scheduler, 10);
+
+        for (int i = 0; i < 100 && !attempts.containsKey("b"); i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, hedges.get());
+
+        attempts.get("b").set("from b");
+
+        assertEquals("from b", result.get(1, TimeUnit.SECONDS));
+        assertTrue(attempts.get("a").isCancelled());
+        assertEquals(0, failures.get());
+
+        // The cancelled attempt is reported with at least the hedge delay as its elapsed time
+        assertEquals(Set.of("a"), abandoned.keySet());
+        assertTrue(abandoned.get("a") >= TimeUnit.MILLISECONDS.toNanos(10));
+    }
+
+    @Test
+    void testFailureFailsOver() throws Exception {
+        ListenableFuture<String> result = request(List.of("a", "b")).start(scheduler, 10_000);
+
+        attempts.get("a").setException(new RuntimeException("boom"));
+        attempts.get("b").set("from b");
+
+        assertEquals("from b", result.get(1, TimeUnit.SECONDS));
+        assertEquals(1, failures.get());
+
+        // A failover is not a hedge
+        assertEquals(0, hedges.get());
+    }
+
+    @Test
+    void testAllFail() {
+        ListenableFuture<String> result = request(List.of("a", "b")).start(scheduler, 10_000);
+
+        attempts.get("a").setException(new RuntimeException("boom"));
+        attempts.get("b").setException(new RuntimeException("boom"));
+
+        assertThrows(ExecutionException.class, () -> result.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testSingleReplica() throws Exception {
+        ListenableFuture<String> result = request(List.of("a")).start(scheduler, 0);
+
+        Thread.sleep(50);
+        assertEquals(0, hedges.get());
+
+        attempts.get("a").set("from a");
+        assertEquals("from a", result.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testCancelResultCancelsAttempts() {
+        ListenableFuture<String> result = request(List.of("a", "b")).start(scheduler, 10_000);
+
+        result.cancel(true);
+
+        assertTrue(attempts.get("a").isCancelled());
+        assertEquals(Set.of("a"), abandoned.keySet());
+    }
+
+    @Test
+    void testAttemptSentAsOtherAttemptWinsIsCancelled() throws Exception {
+        SettableFuture<String> fromA = SettableFuture.create();
+        SettableFuture<String> fromB = SettableFuture.create();
+
+        ListenableFuture<String> result = new HedgedRequest<String, String>(List.of("a", "b"),
+                replica -> {
+                    if (replica.equals("a"))
+                        return fromA;
+
+                    // The first attempt responds while the hedged attempt is being sent
+                    fromA.set("from a");
+                    return fromB;
+                },
+                new HedgedRequest.Listener<>() {
+                    public void onSuccess(String replica, long elapsedNanos, boolean hedged) {}
+                    public void onFailure(String replica, Throwable t, long elapsedNanos) {}
+                    public void onAbandoned(String replica, long elapsedNanos) {}
+                    public void onHedge(String replica) {}
+                }).start(scheduler, 0);
+
+        assertEquals("from a", result.get(1, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 100 && !fromB.isDone(); i++) {
+            Thread.sleep(10);
+        }
+
+        assertTrue(fromB.isCancelled());
+    }
+}
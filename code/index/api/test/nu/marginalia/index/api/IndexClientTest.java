@@ -0,0 +1,55 @@
+package nu.marginalia.index.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexClientTest {
+
+    @Test
+    void testQuorumDeadlineWithDefaults() {
+        Instant now = Instant.now();
+        var deadlines = IndexClient.QueryDeadlines.of(now, 1000, IndexClient.quorumRemainingBudget);
+
+        assertEquals(now.plusMillis(1500), deadlines.request());
+        assertEquals(now.plusMillis(1125), deadlines.quorum());
+        assertEquals(now.plusMillis(2000), deadlines.bail());
+    }
+
+    @Test
+    void testQuorumReturnsBeforeRequestDeadline() throws InterruptedException {
+        Instant start = Instant.now();
+        var deadlines = IndexClient.QueryDeadlines.of(start, 400, IndexClient.quorumRemainingBudget);
+
+        // Two out of three partitions respond, the third never does
+        BlockingQueue<String> completed = new LinkedBlockingQueue<>(List.of("a", "b"));
+        List<String> received = new ArrayList<>();
+
+        assertEquals(2, IndexClient.awaitResponses(completed, 3, 2, deadlines, received::add));
+        assertEquals(List.of("a", "b"), received);
+
+        // The query returns at the quorum instant, while the third request is still running
+        Instant end = Instant.now();
+        assertFalse(end.isBefore(deadlines.quorum().minusMillis(5)));
+        assertTrue(end.isBefore(deadlines.request()), "returned at " + Duration.between(start, end));
+    }
+
+    @Test
+    void testNoQuorumWaitsUntilBail() throws InterruptedException {
+        Instant start = Instant.now();
+        var deadlines = IndexClient.QueryDeadlines.of(start, 100, IndexClient.quorumRemainingBudget);
+
+        BlockingQueue<String> completed = new LinkedBlockingQueue<>(List.of("a", "b"));
+
+        // With a quorum of all partitions, the query waits until the bail instant
+        assertEquals(2, IndexClient.awaitResponses(completed, 3, 3, deadlines, s -> {}));
+        assertFalse(Instant.now().isBefore(deadlines.bail().minusMillis(5)));
+    }
+}
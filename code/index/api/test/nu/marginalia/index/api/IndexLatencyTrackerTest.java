@@ -0,0 +1,60 @@
+package nu.marginalia.index.api;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexLatencyTrackerTest {
+
+    @Test
+    void testAverage() {
+        var tracker = new IndexLatencyTracker(0.5);
+
+        assertEquals(0., tracker.averageNanos(1, "a"));
+
+        tracker.record(1, "a", 10_000_000);
+        assertEquals(10_000_000., tracker.averageNanos(1, "a"));
+
+        tracker.record(1, "a", 20_000_000);
+        assertEquals(15_000_000., tracker.averageNanos(1, "a"));
+
+        // Other instances and partitions are tracked separately
+        assertEquals(0., tracker.averageNanos(1, "b"));
+        assertEquals(0., tracker.averageNanos(2, "a"));
+    }
+
+    @Test
+    void testLowerBoundOnlyRaisesAverage() {
+        var tracker = new IndexLatencyTracker(0.5);
+
+        tracker.record(1, "a", 10_000_000);
+
+        // A cancelled attempt that was faster than the average says nothing new
+        tracker.recordLowerBound(1, "a", 5_000_000);
+        assertEquals(10_000_000., tracker.averageNanos(1, "a"));
+
+        tracker.recordLowerBound(1, "a", 30_000_000);
+        assertEquals(20_000_000., tracker.averageNanos(1, "a"));
+
+        // Lower bounds are not response times, and stay out of the hedge delay estimate
+        for (int i = 0; i < 100; i++) {
+            tracker.recordLowerBound(1, "b", 1_000_000_000);
+        }
+        assertEquals(-1, tracker.percentileMillis(1, 0.5));
+    }
+
+    @Test
+    void testPercentile() {
+        var tracker = new IndexLatencyTracker(0.1);
+
+        assertEquals(-1, tracker.percentileMillis(1, 0.95));
+
+        for (int i = 1; i <= 100; i++) {
+            tracker.record(1, i % 2 == 0 ? "a" : "b", i * 1_000_000L);
+        }
+
+        assertEquals(95, tracker.percentileMillis(1, 0.95));
+        assertEquals(50, tracker.percentileMillis(1, 0.5));
+        assertEquals(-1, tracker.percentileMillis(2, 0.95));
+    }
+}
@@ -0,0 +1,59 @@
+package nu.marginalia.index.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopResultsMergerTest {
+
+    @Test
+    void testMatchesFullSort() {
+        Random r = new Random(1);
+        List<Integer> all = new ArrayList<>();
+
+        var merger = new TopResultsMerger<Integer>(30, Comparator.naturalOrder());
+
+        // Simulate several partitions responding in arbitrary order
+        for (int partition = 0; partition < 5; partition++) {
+            for (int i = 0; i < 100; i++) {
+                int value = r.nextInt(10_000);
+                all.add(value);
+                merger.add(value);
+            }
+        }
+
+        all.sort(Comparator.naturalOrder());
+
+        assertEquals(500, merger.totalResults());
+        assertEquals(all.subList(0, 10), merger.window(0, 10));
+        assertEquals(all.subList(20, 30), merger.window(20, 30));
+    }
+
+    @Test
+    void testWindowPastEnd() {
+        var merger = new TopResultsMerger<Integer>(20, Comparator.naturalOrder());
+
+        for (int i = 0; i < 15; i++) {
+            merger.add(i);
+        }
+
+        assertEquals(List.of(10, 11, 12, 13, 14), merger.window(10, 20));
+        assertEquals(List.of(), merger.window(20, 30));
+    }
+
+    @Test
+    void testZeroLimit() {
+        var merger = new TopResultsMerger<Integer>(0, Comparator.naturalOrder());
+
+        merger.add(1);
+        merger.add(2);
+
+        assertEquals(2, merger.totalResults());
+        assertEquals(List.of(), merger.window(0, 10));
+    }
+}
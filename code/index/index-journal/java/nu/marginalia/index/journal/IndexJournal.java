@@ -8,7 +8,13 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 
-public record IndexJournal(Path journalDir) {
+/** A journal of documents to be indexed, one directory per language, split into pages.
+ *
+ * @param journalDir the journal directory
+ * @param firstPage the first page to include, pages before it are ignored.  This is used
+ *                  to construct a delta index from the pages loaded after the main index was built.
+ */
+public record IndexJournal(Path journalDir, int firstPage) {
 
     public static final String JOURNAL_FILE_NAME = "index-journal";
 
@@ -42,14 +48,31 @@ public record IndexJournal(Path journalDir) {
         if (!journalDir.toFile().isDirectory()) {
             throw new IllegalArgumentException("Invalid journal directory: " + journalDir);
         }
+        if (firstPage < 0) {
+            throw new IllegalArgumentException("Invalid first page: " + firstPage);
+        }
+    }
+
+    public IndexJournal(Path journalDir) {
+        this(journalDir, 0);
+    }
+
+    /** Returns a view of this journal that only includes the pages from firstPage and on */
+    public IndexJournal fromPage(int firstPage) {
+        return new IndexJournal(journalDir, firstPage);
+    }
+
+    /** Returns the number of pages in the journal, including any pages before firstPage */
+    public int numPages() {
+        return numPages(journalDir);
     }
 
     public List<IndexJournalPage> pages() {
         int pages = numPages(journalDir);
 
-        List<IndexJournalPage> instances = new ArrayList<>(pages);
+        List<IndexJournalPage> instances = new ArrayList<>(Math.max(0, pages - firstPage));
 
-        for (int version = 0; version < pages; version++) {
+        for (int version = firstPage; version < pages; version++) {
             instances.add(new IndexJournalPage(journalDir, version));
         }
 
@@ -0,0 +1,183 @@
+package nu.marginalia.index.journal;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import nu.marginalia.model.id.UrlIdCodec;
+import nu.marginalia.slop.SlopTable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/** The pages of the index journals, grouped by the load that appended them.
+ * <p></p>
+ * The loader replaces whole domains, so a domain that is loaded again supersedes the documents
+ * it had in earlier loads, even though their pages remain in the journal.  Document ordinals are
+ * reassigned on reload, so the superseded documents may share ids with the new ones, and must not
+ * be indexed alongside them.
+ *
+ * @param loadEnds for each load in the order they were made, the first page per language after the load
+ */
+public record IndexJournalLoads(List<Map<String, Integer>> loadEnds) {
+
+    public IndexJournalLoads {
+        loadEnds = loadEnds.stream().map(IndexJournalLoads::normalize).toList();
+    }
+
+    /** A single load covering the journals as they are */
+    public static IndexJournalLoads of(Map<String, IndexJournal> journalsByLanguage) {
+        return new IndexJournalLoads(List.of(numPages(journalsByLanguage)));
+    }
+
+    /** Returns these loads followed by a load ending at the current end of the journals,
+     * unless no pages have been added since the last load */
+    public IndexJournalLoads withLoad(Map<String, IndexJournal> journalsByLanguage) {
+        Map<String, Integer> ends = normalize(numPages(journalsByLanguage));
+
+        if (!loadEnds.isEmpty() && ends.equals(loadEnds.getLast())) {
+            return this;
+        }
+
+        List<Map<String, Integer>> newLoadEnds = new ArrayList<>(loadEnds);
+        newLoadEnds.add(ends);
+        return new IndexJournalLoads(newLoadEnds);
+    }
+
+    /** Returns true if the first loads of this are the loads of other */
+    public boolean startsWith(IndexJournalLoads other) {
+        return loadEnds.size() >= other.loadEnds.size()
+            && loadEnds.subList(0, other.loadEnds.size()).equals(other.loadEnds);
+    }
+
+    /** Returns the first page per language after the last load */
+    public Map<String, Integer> lastLoadEnd() {
+        return loadEnds.isEmpty() ? Map.of() : loadEnds.getLast();
+    }
+
+    /** Returns the load that appended a page.  Pages appended after the last
+     * recorded load are considered to belong to one further load. */
+    public int loadOf(String languageIsoCode, int page) {
+        for (int i = 0; i < loadEnds.size(); i++) {
+            if (page < loadEnds.get(i).getOrDefault(languageIsoCode, 0))
+                return i;
+        }
+        return loadEnds.size();
+    }
+
+    /** Copy the journal pages to new journals in outputDir, leaving out the documents of the domains
+     * that a later load loaded again.  If no domain was loaded again, the journals are returned as they are.
+     *
+     * @return the journals with only the latest documents of each domain, by language
+     */
+    public Map<String, IndexJournal> copyLatest(Map<String, IndexJournal> journalsByLanguage, Path outputDir) throws IOException {
+        Int2IntOpenHashMap latestLoad = new Int2IntOpenHashMap();
+        latestLoad.defaultReturnValue(-1);
+
+        boolean anySuperseded = false;
+
+        for (var entry : journalsByLanguage.entrySet()) {
+            for (IndexJournalPage page : entry.getValue().pages()) {
+                int load = loadOf(entry.getKey(), page.page());
+
+                try (var slopTable = new SlopTable(page.baseDir(), page.page())) {
+                    var combinedIdReader = page.openCombinedId(slopTable);
+
+                    while (combinedIdReader.hasRemaining()) {
+                        int domainId = UrlIdCodec.getDomainId(combinedIdReader.get());
+                        int previousLoad = latestLoad.put(domainId, Math.max(load, latestLoad.get(domainId)));
+
+                        anySuperseded |= (previousLoad >= 0 && previousLoad != load);
+                    }
+                }
+            }
+        }
+
+        if (!anySuperseded) {
+            return journalsByLanguage;
+        }
+
+        Map<String, IndexJournal> ret = new HashMap<>();
+
+        for (var entry : journalsByLanguage.entrySet()) {
+            String languageIsoCode = entry.getKey();
+            Path outputJournal = IndexJournal.allocateName(outputDir, languageIsoCode);
+
+            int outputPage = 0;
+            for (IndexJournalPage page : entry.getValue().pages()) {
+                int load = loadOf(languageIsoCode, page.page());
+
+                try (var writer = new IndexJournalSlopWriter(outputJournal, outputPage++)) {
+                    writer.putAll(page, id -> latestLoad.get(UrlIdCodec.getDomainId(id)) == load);
+                }
+            }
+
+            if (outputPage > 0) {
+                ret.put(languageIsoCode, new IndexJournal(outputJournal));
+            }
+        }
+
+        return ret;
+    }
+
+    /** Read the loads from a file, where each language is mapped to a
+     * comma separated list of the first page after each load */
+    public static IndexJournalLoads read(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (var in = Files.newBufferedReader(file)) {
+            properties.load(in);
+        }
+
+        List<Map<String, Integer>> loadEnds = new ArrayList<>();
+
+        for (String languageIsoCode : properties.stringPropertyNames()) {
+            String[] ends = properties.getProperty(languageIsoCode).split(",");
+
+            for (int i = 0; i < ends.length; i++) {
+                if (loadEnds.size() <= i) {
+                    loadEnds.add(new HashMap<>());
+                }
+                loadEnds.get(i).put(languageIsoCode, Integer.parseInt(ends[i].trim()));
+            }
+        }
+
+        return new IndexJournalLoads(loadEnds);
+    }
+
+    public void write(Path file) throws IOException {
+        Set<String> languages = new TreeSet<>();
+        for (var ends : loadEnds) {
+            languages.addAll(ends.keySet());
+        }
+
+        Properties properties = new Properties();
+        for (String languageIsoCode : languages) {
+            StringJoiner joiner = new StringJoiner(",");
+            for (var ends : loadEnds) {
+                joiner.add(Integer.toString(ends.getOrDefault(languageIsoCode, 0)));
+            }
+            properties.setProperty(languageIsoCode, joiner.toString());
+        }
+
+        try (var out = Files.newBufferedWriter(file)) {
+            properties.store(out, null);
+        }
+    }
+
+    /** A language without pages is left out, so that loads compare equal regardless of
+     * whether the language's journal existed at the time */
+    private static Map<String, Integer> normalize(Map<String, Integer> ends) {
+        Map<String, Integer> ret = new HashMap<>();
+        ends.forEach((languageIsoCode, end) -> {
+            if (end > 0) ret.put(languageIsoCode, end);
+        });
+        return Collections.unmodifiableMap(ret);
+    }
+
+    private static Map<String, Integer> numPages(Map<String, IndexJournal> journalsByLanguage) {
+        Map<String, Integer> ret = new HashMap<>();
+        for (var entry : journalsByLanguage.entrySet()) {
+            ret.put(entry.getKey(), entry.getValue().numPages());
+        }
+        return ret;
+    }
+}
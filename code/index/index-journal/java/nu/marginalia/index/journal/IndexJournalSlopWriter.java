@@ -14,6 +14,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.function.LongPredicate;
 
 public class IndexJournalSlopWriter extends SlopTable {
 
@@ -82,6 +83,60 @@ public class IndexJournalSlopWriter extends SlopTable {
         spansWriter.put(keywordsProjection.spans());
     }
 
+    /** Copy the documents of a journal page whose ids are accepted by the filter
+     *
+     * @return the number of documents copied
+     */
+    public int putAll(IndexJournalPage page, LongPredicate filter) throws IOException {
+        int copied = 0;
+
+        try (var slopTable = new SlopTable(page.baseDir(), page.page())) {
+            var combinedIdReader = page.openCombinedId(slopTable);
+            var featuresReader = page.openFeatures(slopTable);
+            var sizeReader = page.openSize(slopTable);
+            var documentMetaReader = page.openDocumentMeta(slopTable);
+            var languagesReader = page.openLanguageIsoCode(slopTable);
+            var termIdsReader = page.openTermIds(slopTable);
+            var termMetadataReader = page.openTermMetadata(slopTable);
+            var termPositionsReader = page.openTermPositions(slopTable);
+            var spanCodesReader = page.openSpanCodes(slopTable);
+            var spansReader = page.openSpans(slopTable);
+
+            while (combinedIdReader.hasRemaining()) {
+                long combinedId = combinedIdReader.get();
+
+                // Every column is read, as the readers need to advance past the document either way
+                int features = featuresReader.get();
+                int size = sizeReader.get();
+                long documentMeta = documentMetaReader.get();
+                String languageIsoCode = languagesReader.get();
+                long[] termIds = termIdsReader.get();
+                long[] termMetadata = termMetadataReader.get();
+                var termPositions = termPositionsReader.get();
+                byte[] spanCodes = spanCodesReader.get();
+                var spans = spansReader.get();
+
+                if (!filter.test(combinedId))
+                    continue;
+
+                combinedIdWriter.put(combinedId);
+                featuresWriter.put(features);
+                sizeWriter.put(size);
+                documentMetaWriter.put(documentMeta);
+                languagesWriter.put(languageIsoCode);
+                termIdsWriter.put(termIds);
+                termMetadataWriter.put(termMetadata);
+                termPositionsWriter.put(termPositions);
+                spanCodesWriter.put(spanCodes);
+                spansWriter.put(spans);
+
+                copied++;
+            }
+        }
+
+        return copied;
+    }
+
     public void close() throws IOException {
         featuresWriter.close();
         sizeWriter.close();
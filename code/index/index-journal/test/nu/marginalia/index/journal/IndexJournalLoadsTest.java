@@ -0,0 +1,169 @@
+package nu.marginalia.index.journal;
+
+import nu.marginalia.language.keywords.KeywordHasher;
+import nu.marginalia.model.id.UrlIdCodec;
+import nu.marginalia.model.processed.SlopDocumentRecord;
+import nu.marginalia.slop.SlopTable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexJournalLoadsTest {
+    Path workDir;
+    Path outputDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        workDir = Files.createTempDirectory(getClass().getSimpleName());
+        outputDir = Files.createTempDirectory(getClass().getSimpleName());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (Path dir : List.of(workDir, outputDir)) {
+            try (var pathsStream = Files.walk(dir)) {
+                for (Path path : pathsStream.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testDomainLoadedInTwoDeltas() throws IOException {
+        // The load of the main index
+        writePage("en", 0, new Doc(1, 0, 0), new Doc(1, 1, 0), new Doc(2, 0, 0));
+        writePage("sv", 0, new Doc(5, 0, 0));
+
+        var loads = IndexJournalLoads.of(journals());
+
+        // The first delta
+        writePage("en", 1, new Doc(3, 0, 1), new Doc(3, 1, 1), new Doc(3, 2, 1), new Doc(4, 0, 1));
+        writePage("sv", 1, new Doc(6, 0, 1));
+        loads = loads.withLoad(journals());
+
+        // The second delta loads domain 3 again with fewer documents, and domain 6 in another language
+        writePage("en", 2, new Doc(3, 0, 2), new Doc(3, 1, 2), new Doc(6, 0, 2));
+        writePage("sv", 2);
+        loads = loads.withLoad(journals());
+
+        assertEquals(3, loads.loadEnds().size());
+        assertEquals(0, loads.loadOf("en", 0));
+        assertEquals(1, loads.loadOf("en", 1));
+        assertEquals(2, loads.loadOf("en", 2));
+        assertEquals(3, loads.loadOf("en", 3));
+
+        Map<String, IndexJournal> deltaJournals = new HashMap<>();
+        for (var entry : journals().entrySet()) {
+            deltaJournals.put(entry.getKey(), entry.getValue().fromPage(loads.loadEnds().getFirst().get(entry.getKey())));
+        }
+
+        var latest = loads.copyLatest(deltaJournals, outputDir);
+
+        // Only the second delta's documents of domain 3 remain, so none of the ids appear twice
+        assertEquals(Set.of(new Doc(3, 0, 2), new Doc(3, 1, 2), new Doc(4, 0, 1), new Doc(6, 0, 2)),
+                read(latest.get("en")));
+        assertEquals(Set.of(), read(latest.get("sv")));
+    }
+
+    @Test
+    void testNothingSuperseded() throws IOException {
+        writePage("en", 0, new Doc(1, 0, 0));
+        var loads = IndexJournalLoads.of(journals());
+
+        writePage("en", 1, new Doc(2, 0, 1));
+        loads = loads.withLoad(journals());
+
+        writePage("en", 2, new Doc(3, 0, 2));
+        loads = loads.withLoad(journals());
+
+        var deltaJournals = Map.of("en", journals().get("en").fromPage(1));
+
+        assertSame(deltaJournals, loads.copyLatest(deltaJournals, outputDir));
+    }
+
+    @Test
+    void testReadWrite() throws IOException {
+        writePage("en", 0, new Doc(1, 0, 0));
+        var indexLoads = IndexJournalLoads.of(journals());
+
+        writePage("en", 1, new Doc(2, 0, 1));
+        writePage("sv", 0, new Doc(3, 0, 1));
+        var loads = indexLoads.withLoad(journals());
+
+        // Nothing was loaded since the last load
+        assertSame(loads, loads.withLoad(journals()));
+
+        Path file = outputDir.resolve("journal-pages.properties");
+        loads.write(file);
+
+        var readLoads = IndexJournalLoads.read(file);
+        assertEquals(List.of(Map.of("en", 1), Map.of("en", 2, "sv", 1)), readLoads.loadEnds());
+        assertTrue(readLoads.startsWith(indexLoads));
+        assertFalse(indexLoads.startsWith(readLoads));
+
+        // A single load, as recorded by the main index
+        Files.writeString(file, "en=7\n");
+        assertEquals(List.of(Map.of("en", 7)), IndexJournalLoads.read(file).loadEnds());
+    }
+
+    record Doc(int domainId, int ordinal, long documentMeta) {}
+
+    private Map<String, IndexJournal> journals() {
+        Map<String, IndexJournal> ret = new HashMap<>();
+        for (String languageIsoCode : List.of("en", "sv")) {
+            Path dir = IndexJournal.allocateName(workDir, languageIsoCode);
+            if (Files.isDirectory(dir)) {
+                ret.put(languageIsoCode, new IndexJournal(dir));
+            }
+        }
+        return ret;
+    }
+
+    private void writePage(String languageIsoCode, int page, Doc... docs) throws IOException {
+        try (var writer = new IndexJournalSlopWriter(IndexJournal.allocateName(workDir, languageIsoCode), page)) {
+            for (Doc doc : docs) {
+                writer.put(UrlIdCodec.encodeId(doc.domainId(), doc.ordinal()),
+                        new SlopDocumentRecord.KeywordsProjection(
+                                "",
+                                doc.ordinal(),
+                                0,
+                                doc.documentMeta(),
+                                15,
+                                languageIsoCode,
+                                List.of(),
+                                new long[0],
+                                List.of(),
+                                new byte[0],
+                                List.of()
+                        ),
+                        new KeywordHasher.AsciiIsh());
+            }
+        }
+    }
+
+    private Set<Doc> read(IndexJournal journal) throws IOException {
+        Set<Doc> ret = new HashSet<>();
+
+        for (IndexJournalPage page : journal.pages()) {
+            try (var slopTable = new SlopTable(page.baseDir(), page.page())) {
+                var combinedIdReader = page.openCombinedId(slopTable);
+                var documentMetaReader = page.openDocumentMeta(slopTable);
+
+                while (combinedIdReader.hasRemaining()) {
+                    long id = combinedIdReader.get();
+                    assertTrue(ret.add(new Doc(UrlIdCodec.getDomainId(id), UrlIdCodec.getDocumentOrdinal(id), documentMetaReader.get())));
+                }
+            }
+        }
+
+        return ret;
+    }
+}
@@ -26,11 +26,17 @@ import nu.marginalia.index.searchset.SearchSetAny;
 import nu.marginalia.language.config.LanguageConfigLocation;
 import nu.marginalia.language.config.LanguageConfiguration;
 import nu.marginalia.language.keywords.KeywordHasher;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import nu.marginalia.linkdb.LinkdbFileNames;
+import nu.marginalia.linkdb.docs.DocumentDbColumnarReader;
+import nu.marginalia.linkdb.docs.DocumentDbColumnarWriter;
 import nu.marginalia.linkdb.docs.DocumentDbReader;
 import nu.marginalia.segmentation.NgramLexicon;
 import nu.marginalia.term_frequency_dict.TermFrequencyDict;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -40,6 +46,7 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 public class PerfTestMain {
     static Duration warmupTime = Duration.ofMinutes(1);
@@ -65,6 +72,8 @@ public class PerfTestMain {
                 case "valuation" -> runValuation(indexDir, homeDir, query);
                 case "lookup" -> runLookup(indexDir, homeDir, query);
                 case "execution" -> runExecution(indexDir, homeDir, query);
+                case "allocation" -> runAllocation(indexDir, homeDir, query);
+                case "docdb" -> runDocdb(indexDir, homeDir, query);
             }
 
             System.exit(0);
@@ -86,6 +95,7 @@ public class PerfTestMain {
         return new CombinedIndexReader(
                 new ForwardIndexReader(
                         indexDir.resolve("ir/fwd-doc-id.dat"),
+                        indexDir.resolve("ir/fwd-doc-id-hash.dat"),
                         indexDir.resolve("ir/fwd-doc-data.dat"),
                         indexDir.resolve("ir/fwd-spans.dat")
                 ),
@@ -264,6 +274,151 @@ public class PerfTestMain {
         System.out.println("Main sum: " + sum2);
     }
 
+    /** Measure the heap allocation rate of query execution, in bytes per ranked document.
+     * Compare against the same scenario on an earlier revision, or with
+     * -Dindex.rankingBatchPoolSize=0 to disable the batch pool.
+     */
+    public static void runAllocation(Path homeDir,
+                                     Path indexDir,
+                                     String rawQuery) throws Exception {
+
+        CombinedIndexReader indexReader = createCombinedIndexReader(indexDir);
+        QueryFactory queryFactory = createQueryFactory(homeDir);
+        IndexResultRankingService rankingService = createIndexResultRankingService(indexDir, indexReader);
+        DocumentDbReader documentDbReader = new DocumentDbReader(indexDir.resolve("ldbr/documents.db"));
+
+        RpcIndexQuery parsedQuery = queryFactory.createQuery(
+                RpcQsQuery.newBuilder()
+                        .setHumanQuery(rawQuery)
+                        .setLangIsoCode("en")
+                        .setQueryLimits(
+                                RpcQueryLimits.newBuilder()
+                                        .setTimeoutMs(50)
+                                        .setResultsTotal(1000)
+                                        .setResultsByDomain(10)
+                        )
+                        .build(),
+                CompiledSearchFilterSpec.builder("test", "test").build(),
+                PrototypeRankingParameters.sensibleDefaults()).indexQuery;
+
+        System.out.println("Query compiled to: " + parsedQuery.getTerms().getCompiledQuery());
+
+        var threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        Instant warmupEndTime = Instant.now().plus(warmupTime);
+        Instant runEndTime = warmupEndTime.plus(runTime);
+
+        boolean warm = false;
+        long allocatedAtStart = 0;
+        long itemsProcessed = 0;
+        long timeSpentNanos = 0;
+
+        for (int iter = 0;; iter++) {
+            var execution = new IndexQueryExecution(indexReader, documentDbReader, rankingService,
+                    SearchContext.create(indexReader, new KeywordHasher.AsciiIsh(), parsedQuery, new SearchSetAny(), ConnectivityView.empty()), 1);
+
+            long start = System.nanoTime();
+            execution.run();
+            long end = System.nanoTime();
+
+            indexReader.reset();
+
+            if (!warm) {
+                if (Instant.now().isAfter(warmupEndTime)) {
+                    System.out.println("Warmup complete after " + iter + " iters");
+                    warm = true;
+                    allocatedAtStart = threadMXBean.getTotalThreadAllocatedBytes();
+                }
+                continue;
+            }
+
+            itemsProcessed += execution.itemsProcessed();
+            timeSpentNanos += end - start;
+
+            if ((iter % 100) == 0) {
+                long allocated = threadMXBean.getTotalThreadAllocatedBytes() - allocatedAtStart;
+                System.out.format("%d items, %.1f bytes/item, %.1f MB/s\n",
+                        itemsProcessed,
+                        allocated / (double) Math.max(1, itemsProcessed),
+                        allocated / 1e6 / (timeSpentNanos / 1e9));
+
+                if (Instant.now().isAfter(runEndTime)) {
+                    break;
+                }
+            }
+        }
+
+        long allocated = threadMXBean.getTotalThreadAllocatedBytes() - allocatedAtStart;
+        System.out.println("Benchmark complete!");
+        System.out.format("Allocated %.1f bytes per ranked item\n", allocated / (double) Math.max(1, itemsProcessed));
+    }
+
+    /** Compare URL detail lookups from the SQLite document database against the columnar file.
+     * The columnar file is created from the SQLite database if it is not present.  The query
+     * argument is the number of ids to look up per call.
+     */
+    public static void runDocdb(Path homeDir,
+                                Path indexDir,
+                                String batchSizeArg) throws Exception {
+        Path sqliteFile = indexDir.resolve("ldbr/documents.db");
+        Path columnarFile = sqliteFile.resolveSibling(LinkdbFileNames.DOCDB_COLUMNAR_FILE_NAME);
+
+        if (!Files.exists(columnarFile)) {
+            System.out.println("Creating " + columnarFile);
+            DocumentDbColumnarWriter.export(sqliteFile, columnarFile);
+        }
+
+        int batchSize = Integer.parseInt(batchSizeArg);
+
+        DocumentDbColumnarReader columnarReader = new DocumentDbColumnarReader(columnarFile);
+        DocumentDbReader sqliteReader = new DocumentDbReader(sqliteFile, false);
+        DocumentDbReader columnarDbReader = new DocumentDbReader(sqliteFile, true);
+
+        System.out.println(columnarReader.size() + " documents");
+
+        // Sample random ids from the document database, as a search result page would
+        Random random = new Random(42);
+        List<LongList> batches = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            LongArrayList batch = new LongArrayList(batchSize);
+            for (int j = 0; j < batchSize; j++) {
+                batch.add(columnarReader.getId(random.nextLong(columnarReader.size())));
+            }
+            batches.add(batch);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            System.out.format("sqlite:   %.1f us/batch\n", timeDocdbLookups(sqliteReader, batches));
+            System.out.format("columnar: %.1f us/batch\n", timeDocdbLookups(columnarDbReader, batches));
+        }
+
+        System.out.println("Benchmark complete!");
+    }
+
+    private static double timeDocdbLookups(DocumentDbReader reader, List<LongList> batches) throws SQLException {
+        Instant endTime = Instant.now().plus(Duration.ofSeconds(30));
+
+        long lookups = 0;
+        long found = 0;
+        long start = System.nanoTime();
+
+        while (Instant.now().isBefore(endTime)) {
+            for (var batch : batches) {
+                found += reader.getUrlDetails(batch).size();
+                lookups++;
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        if (found != lookups * batches.getFirst().size()) {
+            System.out.println("Some ids were not found: " + found + " of " + lookups * batches.getFirst().size());
+        }
+
+        return elapsed / 1000. / lookups;
+    }
+
     public static void runLookup(Path homeDir,
                                     Path indexDir,
                                     String rawQuery) throws Exception
@@ -1,28 +1,29 @@
 package nu.marginalia.domainranking;
 
-import gnu.trove.list.TIntList;
-import gnu.trove.list.array.TIntArrayList;
 import nu.marginalia.domainranking.accumulator.RankingResultAccumulator;
+import nu.marginalia.domainranking.csr.CsrGraph;
+import nu.marginalia.domainranking.csr.CsrPageRank;
+import nu.marginalia.domainranking.csr.TopScores;
 import nu.marginalia.domainranking.data.GraphSource;
-import nu.marginalia.domainranking.jgrapht.PersonalizedPageRank;
-import org.jgrapht.Graph;
-import org.jgrapht.alg.interfaces.VertexScoringAlgorithm;
-import org.jgrapht.alg.scoring.PageRank;
 
-import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 import java.util.function.Supplier;
 
 public class PageRankDomainRanker implements RankingAlgorithm {
     private final List<Integer> influenceSet;
-    private final Graph<Integer, ?> graph;
+    private final CsrGraph graph;
 
     public PageRankDomainRanker(GraphSource source,
                                 List<Integer> influenceSet)
+    {
+        this(source.getCsrGraph(), influenceSet);
+    }
+
+    public PageRankDomainRanker(CsrGraph graph,
+                                List<Integer> influenceSet)
     {
         this.influenceSet = influenceSet;
-        this.graph = source.getGraph();
+        this.graph = graph;
     }
 
     public static PageRankDomainRanker forDomainNames(GraphSource source,
@@ -33,26 +34,38 @@ public class PageRankDomainRanker implements RankingAlgorithm {
 
     @Override
     public <T> T calculate(int resultCount, Supplier<RankingResultAccumulator<T>> accumulatorP) {
-        VertexScoringAlgorithm<Integer, Double> pageRank;
+        CsrPageRank pageRank = new CsrPageRank(graph);
 
+        double[] scores;
         if (influenceSet != null && !influenceSet.isEmpty()) {
-            pageRank = new PersonalizedPageRank<>(graph, influenceSet);
+            scores = pageRank.personalizedPageRank(influenceSet);
         }
         else {
-            pageRank = new PageRank<>(graph);
+            scores = pageRank.pageRank();
         }
 
-        TIntList results = new TIntArrayList(resultCount);
-        pageRank.getScores().entrySet()
-                .stream()
-                .sorted(Comparator.comparing((Map.Entry<Integer, Double> e) -> -e.getValue()))
-                .limit(resultCount)
-                .map(Map.Entry::getKey)
-                .forEach(results::add);
+        return accumulate(graph, scores, resultCount, accumulatorP);
+    }
+
+    /** Calculate the Personalized PageRank for several influence sets over the same graph,
+     * in a single batched calculation, returning the scores of each set indexed by vertex.
+     * Use accumulate() to turn them into rankings.
+     */
+    public static double[][] calculateScores(CsrGraph graph, List<List<Integer>> influenceSets) {
+        return new CsrPageRank(graph).personalizedPageRanks(influenceSets);
+    }
+
+    /** Add the domains with the resultCount best scores to the accumulator, best first */
+    public static <T> T accumulate(CsrGraph graph,
+                                   double[] scores,
+                                   int resultCount,
+                                   Supplier<RankingResultAccumulator<T>> accumulatorP)
+    {
+        int[] results = TopScores.topK(scores, resultCount);
 
         var accumulator = accumulatorP.get();
-        for (int i = 0; i < results.size(); i++) {
-            accumulator.add(results.get(i), i);
+        for (int i = 0; i < results.length; i++) {
+            accumulator.add(graph.vertexId(results[i]), i);
         }
         return accumulator.get();
     }
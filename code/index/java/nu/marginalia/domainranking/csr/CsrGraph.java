@@ -0,0 +1,230 @@
+package nu.marginalia.domainranking.csr;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import org.jetbrains.annotations.Nullable;
+import org.jgrapht.Graph;
+
+import java.util.Arrays;
+
+/** A directed graph over domain ids in compressed sparse row form,
+ * indexed by destination, so that the incoming edges of each vertex are
+ * stored contiguously.  This is the layout the power iteration in
+ * {@link CsrPageRank} wants, and takes a few bytes per edge,
+ * instead of an object per edge and vertex as in JGraphT.
+ * <p></p>
+ * Vertices are numbered 0..n-1 in the order of their domain ids.  Duplicate edges
+ * are collapsed, and edges to or from domain ids that aren't vertices are dropped.
+ */
+public class CsrGraph {
+    /** Sorted domain ids, indexed by vertex */
+    private final int[] vertexIds;
+
+    /** inOffsets[v]..inOffsets[v+1] is the range in inSources of the incoming edges of v */
+    private final int[] inOffsets;
+    private final int[] inSources;
+
+    /** Edge weights, in the same order as inSources, or null if the graph is unweighted */
+    @Nullable
+    private final float[] inWeights;
+
+    /** The number of outgoing edges of each vertex, or the sum of their weights if the graph is weighted */
+    private final double[] outWeights;
+
+    private CsrGraph(int[] vertexIds, int[] inOffsets, int[] inSources, @Nullable float[] inWeights) {
+        this.vertexIds = vertexIds;
+        this.inOffsets = inOffsets;
+        this.inSources = inSources;
+        this.inWeights = inWeights;
+
+        outWeights = new double[vertexIds.length];
+        for (int i = 0; i < inSources.length; i++) {
+            outWeights[inSources[i]] += inWeights == null ? 1. : inWeights[i];
+        }
+    }
+
+    /** Receives the edges of a graph */
+    public interface EdgeConsumer {
+        void accept(int sourceId, int destId, double weight);
+    }
+
+    /** A source of edges that can be traversed repeatedly, yielding the same edges each time */
+    public interface EdgeSource {
+        void forEachEdge(EdgeConsumer consumer) throws Exception;
+    }
+
+    /** Build a graph from the given vertices and edges.  The edge source is traversed twice,
+     * first to count the edges of each vertex, and then to fill them in, so that the edges
+     * never need to be buffered.
+     *
+     * @param vertexIds the domain ids of the vertices, in any order
+     * @param weighted whether the weights passed by the edge source are to be retained
+     */
+    public static CsrGraph build(int[] vertexIds, boolean weighted, EdgeSource edges) throws Exception {
+        int[] ids = Arrays.stream(vertexIds).sorted().distinct().toArray();
+        int n = ids.length;
+
+        // First pass: count the incoming edges of each vertex
+
+        int[] inOffsets = new int[n + 1];
+
+        edges.forEachEdge((sourceId, destId, weight) -> {
+            int source = Arrays.binarySearch(ids, sourceId);
+            int dest = Arrays.binarySearch(ids, destId);
+
+            if (source >= 0 && dest >= 0) {
+                inOffsets[dest + 1]++;
+            }
+        });
+
+        for (int i = 0; i < n; i++) {
+            inOffsets[i + 1] += inOffsets[i];
+        }
+
+        // Second pass: fill in the edges
+
+        int[] inSources = new int[inOffsets[n]];
+        float[] inWeights = weighted ? new float[inOffsets[n]] : null;
+        int[] fillPos = Arrays.copyOf(inOffsets, n);
+
+        edges.forEachEdge((sourceId, destId, weight) -> {
+            int source = Arrays.binarySearch(ids, sourceId);
+            int dest = Arrays.binarySearch(ids, destId);
+
+            if (source < 0 || dest < 0) {
+                return;
+            }
+
+            int pos = fillPos[dest]++;
+            if (pos >= inOffsets[dest + 1]) {
+                throw new IllegalStateException("Edge source yielded different edges on the second pass");
+            }
+
+            inSources[pos] = source;
+            if (inWeights != null) {
+                inWeights[pos] = (float) weight;
+            }
+        });
+
+        // Slots left unfilled would read as edges from vertex 0
+        for (int v = 0; v < n; v++) {
+            if (fillPos[v] != inOffsets[v + 1]) {
+                throw new IllegalStateException("Edge source yielded different edges on the second pass");
+            }
+        }
+
+        return deduplicated(ids, inOffsets, inSources, inWeights);
+    }
+
+    /** Build a graph from a JGraphT graph.  Undirected edges are added in both directions. */
+    public static CsrGraph fromGraph(Graph<Integer, ?> graph) throws Exception {
+        int[] vertexIds = graph.vertexSet().stream().mapToInt(Integer::intValue).toArray();
+
+        return build(vertexIds, graph.getType().isWeighted(), consumer -> forEachEdge(graph, consumer));
+    }
+
+    private static <E> void forEachEdge(Graph<Integer, E> graph, EdgeConsumer consumer) {
+        boolean undirected = graph.getType().isUndirected();
+
+        for (E edge : graph.edgeSet()) {
+            int source = graph.getEdgeSource(edge);
+            int dest = graph.getEdgeTarget(edge);
+            double weight = graph.getEdgeWeight(edge);
+
+            consumer.accept(source, dest, weight);
+
+            if (undirected && source != dest) {
+                consumer.accept(dest, source, weight);
+            }
+        }
+    }
+
+    /** Sort the incoming edges of each vertex and remove duplicates, compacting the arrays */
+    private static CsrGraph deduplicated(int[] ids, int[] inOffsets, int[] inSources, @Nullable float[] inWeights) {
+        int n = ids.length;
+        int writePos = 0;
+
+        for (int v = 0; v < n; v++) {
+            int start = inOffsets[v];
+            int end = inOffsets[v + 1];
+
+            if (inWeights == null) {
+                Arrays.sort(inSources, start, end);
+            }
+            else {
+                it.unimi.dsi.fastutil.Arrays.quickSort(start, end,
+                        (a, b) -> Integer.compare(inSources[a], inSources[b]),
+                        (a, b) -> {
+                            IntArrays.swap(inSources, a, b);
+
+                            float tmp = inWeights[a];
+                            inWeights[a] = inWeights[b];
+                            inWeights[b] = tmp;
+                        });
+            }
+
+            inOffsets[v] = writePos;
+
+            for (int i = start; i < end; i++) {
+                if (i > start && inSources[i] == inSources[i - 1])
+                    continue;
+
+                inSources[writePos] = inSources[i];
+                if (inWeights != null) {
+                    inWeights[writePos] = inWeights[i];
+                }
+                writePos++;
+            }
+        }
+        inOffsets[n] = writePos;
+
+        if (writePos == inSources.length) {
+            return new CsrGraph(ids, inOffsets, inSources, inWeights);
+        }
+
+        return new CsrGraph(ids, inOffsets,
+                Arrays.copyOf(inSources, writePos),
+                inWeights == null ? null : Arrays.copyOf(inWeights, writePos));
+    }
+
+    public int vertexCount() {
+        return vertexIds.length;
+    }
+
+    public int edgeCount() {
+        return inSources.length;
+    }
+
+    /** Returns the domain id of the vertex */
+    public int vertexId(int vertex) {
+        return vertexIds[vertex];
+    }
+
+    /** Returns the vertex of the domain id, or a negative value if it isn't in the graph */
+    public int vertexOf(int domainId) {
+        return Arrays.binarySearch(vertexIds, domainId);
+    }
+
+    public boolean isWeighted() {
+        return inWeights != null;
+    }
+
+    int inStart(int vertex) {
+        return inOffsets[vertex];
+    }
+
+    int inEnd(int vertex) {
+        return inOffsets[vertex + 1];
+    }
+
+    int inSource(int edge) {
+        return inSources[edge];
+    }
+
+    float inWeight(int edge) {
+        return inWeights == null ? 1.f : inWeights[edge];
+    }
+
+    double outWeight(int vertex) {
+        return outWeights[vertex];
+    }
+}
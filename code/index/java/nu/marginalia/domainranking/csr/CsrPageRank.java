@@ -0,0 +1,354 @@
+package nu.marginalia.domainranking.csr;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/** PageRank and Personalized PageRank over a {@link CsrGraph}.
+ * <p></p>
+ * This is a power iteration like the one in JGraphT, and the personalized variant
+ * in {@link nu.marginalia.domainranking.jgrapht.PersonalizedPageRank}, and it is
+ * expected to produce the same scores.  The difference is that it works on primitive
+ * arrays, and each iteration is split into vertex ranges that are run on a fork/join pool.
+ * <p></p>
+ * Several Personalized PageRank vectors can be calculated together, in which case
+ * the scores are interleaved so that each iteration is a single sweep over the edges.
+ * Each vector stops being updated once it has converged, so the results are the same
+ * as when they are calculated one at a time.
+ */
+public class CsrPageRank {
+    public static final int MAX_ITERATIONS_DEFAULT = 100;
+    public static final double TOLERANCE_DEFAULT = 0.0001;
+    public static final double DAMPING_FACTOR_DEFAULT = 0.85d;
+
+    /** Number of vertices below which a range is not split further */
+    private static final int SPLIT_THRESHOLD = 8192;
+
+    private final CsrGraph graph;
+    private final ForkJoinPool pool;
+    private final double dampingFactor;
+    private final int maxIterations;
+    private final double tolerance;
+
+    public CsrPageRank(CsrGraph graph) {
+        this(graph, ForkJoinPool.commonPool(), DAMPING_FACTOR_DEFAULT, MAX_ITERATIONS_DEFAULT, TOLERANCE_DEFAULT);
+    }
+
+    public CsrPageRank(CsrGraph graph, ForkJoinPool pool, double dampingFactor, int maxIterations, double tolerance) {
+        if (maxIterations <= 0) {
+            throw new IllegalArgumentException("Maximum iterations must be positive");
+        }
+        if (dampingFactor < 0.0 || dampingFactor > 1.0) {
+            throw new IllegalArgumentException("Damping factor not valid");
+        }
+        if (tolerance <= 0.0) {
+            throw new IllegalArgumentException("Tolerance not valid, must be positive");
+        }
+
+        this.graph = graph;
+        this.pool = pool;
+        this.dampingFactor = dampingFactor;
+        this.maxIterations = maxIterations;
+        this.tolerance = tolerance;
+    }
+
+    /** Calculate the PageRank of each vertex, indexed by vertex */
+    public double[] pageRank() {
+        return new Iteration(null, null).run()[0];
+    }
+
+    /** Calculate the Personalized PageRank of each vertex, indexed by vertex,
+     * where random jumps only go to the vertices of the given domain ids.
+     * Domain ids that aren't in the graph receive no random jumps, but as in
+     * PersonalizedPageRank, they still count towards the size of the influence set.
+     */
+    public double[] personalizedPageRank(Collection<Integer> influenceDomainIds) {
+        return personalizedPageRanks(List.of(influenceDomainIds))[0];
+    }
+
+    /** Calculate the Personalized PageRank for each of the influence sets in a single
+     * batched power iteration, returning a score vector per influence set.
+     */
+    public double[][] personalizedPageRanks(List<? extends Collection<Integer>> influenceDomainIds) {
+        int k = influenceDomainIds.size();
+        BitSet[] influence = new BitSet[k];
+        int[] influenceSize = new int[k];
+
+        for (int s = 0; s < k; s++) {
+            influence[s] = new BitSet(graph.vertexCount());
+            influenceSize[s] = influenceDomainIds.get(s).size();
+
+            for (int domainId : influenceDomainIds.get(s)) {
+                int vertex = graph.vertexOf(domainId);
+                if (vertex >= 0) {
+                    influence[s].set(vertex);
+                }
+            }
+        }
+
+        if (k == 0)
+            return new double[0][];
+
+        return new Iteration(influence, influenceSize).run();
+    }
+
+    /** The state of a single calculation of k score vectors */
+    private class Iteration {
+        private final int n = graph.vertexCount();
+        private final int k;
+
+        /** The vertices random jumps go to for each vector, or null if they go to all vertices */
+        private final BitSet[] influence;
+        /** The number of vertices the score of random jumps is divided among for each vector */
+        private final int[] influenceCount;
+
+        /** Vectors that have not yet converged */
+        private final boolean[] active;
+
+        /** Scores, interleaved so that the scores of vertex v are at v*k..v*k+k-1 */
+        private double[] curScore;
+        private double[] nextScore;
+
+        /** dampingFactor * curScore / outWeight, the share of its score that a vertex passes along each edge */
+        private final double[] outShare;
+
+        Iteration(BitSet[] influence, int[] influenceSize) {
+            this.influence = influence;
+            this.k = influence == null ? 1 : influence.length;
+
+            influenceCount = influence == null ? new int[] { n } : influenceSize;
+            active = new boolean[k];
+
+            for (int s = 0; s < k; s++) {
+                // With nothing to jump to, no rank flows into the graph, and the vector is all zeroes
+                active[s] = influence == null ? n > 0 : !influence[s].isEmpty();
+            }
+
+            curScore = new double[n * k];
+            nextScore = new double[n * k];
+            outShare = new double[n * k];
+
+            for (int v = 0; v < n; v++) {
+                for (int s = 0; s < k; s++) {
+                    curScore[v * k + s] = active[s] ? 1.0d / n : 0.;
+                }
+            }
+        }
+
+        double[][] run() {
+            if (n == 0)
+                return new double[k][0];
+
+            for (int iterations = maxIterations; iterations > 0 && isAnyActive(); iterations--) {
+                double[] r = teleport();
+
+                pool.invoke(new OutShareTask(0, n));
+                double[] maxChange = pool.invoke(new ScoreTask(0, n, r));
+
+                double[] tmp = curScore;
+                curScore = nextScore;
+                nextScore = tmp;
+
+                for (int s = 0; s < k; s++) {
+                    if (maxChange[s] < tolerance) {
+                        active[s] = false;
+                    }
+                }
+            }
+
+            double[][] ret = new double[k][n];
+
+            if (influence != null) {
+                // remove the influence factor from the scores, as in PersonalizedPageRank
+                double[] r = teleport();
+
+                for (int s = 0; s < k; s++) {
+                    for (int v = influence[s].nextSetBit(0); v >= 0; v = influence[s].nextSetBit(v + 1)) {
+                        curScore[v * k + s] -= r[s];
+                    }
+                }
+            }
+
+            for (int v = 0; v < n; v++) {
+                for (int s = 0; s < k; s++) {
+                    ret[s][v] = curScore[v * k + s];
+                }
+            }
+
+            return ret;
+        }
+
+        private boolean isAnyActive() {
+            for (boolean a : active) {
+                if (a) return true;
+            }
+            return false;
+        }
+
+        /** Returns the score each influence vertex receives through random jumps, for each vector */
+        private double[] teleport() {
+            double[] r = pool.invoke(new TeleportTask(0, n));
+
+            for (int s = 0; s < k; s++) {
+                r[s] = influenceCount[s] > 0 ? r[s] / influenceCount[s] : 0.;
+            }
+
+            return r;
+        }
+
+        private boolean isInfluence(int s, int v) {
+            return influence == null || influence[s].get(v);
+        }
+
+        /** Sums the score that is redistributed through random jumps */
+        private class TeleportTask extends RecursiveTask<double[]> {
+            private final int start;
+            private final int end;
+
+            TeleportTask(int start, int end) {
+                this.start = start;
+                this.end = end;
+            }
+
+            @Override
+            protected double[] compute() {
+                if (end - start > SPLIT_THRESHOLD) {
+                    int mid = (start + end) >>> 1;
+                    var left = new TeleportTask(start, mid);
+                    left.fork();
+                    double[] right = new TeleportTask(mid, end).compute();
+                    double[] ret = left.join();
+                    for (int s = 0; s < k; s++) {
+                        ret[s] += right[s];
+                    }
+                    return ret;
+                }
+
+                double[] r = new double[k];
+
+                if (influence == null) {
+                    // Regular PageRank: every vertex jumps with probability 1-d, and dangling vertices always jump
+                    for (int v = start; v < end; v++) {
+                        if (graph.outWeight(v) > 0)
+                            r[0] += (1d - dampingFactor) * curScore[v];
+                        else
+                            r[0] += curScore[v];
+                    }
+                }
+                else {
+                    // Personalized PageRank, as modified in PersonalizedPageRank
+                    for (int s = 0; s < k; s++) {
+                        BitSet set = influence[s];
+
+                        for (int v = set.nextSetBit(start); v >= 0 && v < end; v = set.nextSetBit(v + 1)) {
+                            if (graph.outWeight(v) > 0)
+                                r[s] += (1d - dampingFactor);
+                            else
+                                r[s] += curScore[v * k + s];
+                        }
+                    }
+                }
+
+                return r;
+            }
+        }
+
+        private class OutShareTask extends RecursiveAction {
+            private final int start;
+            private final int end;
+
+            OutShareTask(int start, int end) {
+                this.start = start;
+                this.end = end;
+            }
+
+            @Override
+            protected void compute() {
+                if (end - start > SPLIT_THRESHOLD) {
+                    int mid = (start + end) >>> 1;
+                    invokeAll(new OutShareTask(start, mid), new OutShareTask(mid, end));
+                    return;
+                }
+
+                for (int v = start; v < end; v++) {
+                    double outWeight = graph.outWeight(v);
+
+                    for (int s = 0, i = v * k; s < k; s++, i++) {
+                        outShare[i] = outWeight > 0 ? dampingFactor * curScore[i] / outWeight : 0.;
+                    }
+                }
+            }
+        }
+
+        /** Calculates the next scores, and returns the largest change of each vector */
+        private class ScoreTask extends RecursiveTask<double[]> {
+            private final int start;
+            private final int end;
+            private final double[] r;
+
+            ScoreTask(int start, int end, double[] r) {
+                this.start = start;
+                this.end = end;
+                this.r = r;
+            }
+
+            @Override
+            protected double[] compute() {
+                if (end - start > SPLIT_THRESHOLD) {
+                    int mid = (start + end) >>> 1;
+                    var left = new ScoreTask(start, mid, r);
+                    left.fork();
+                    double[] right = new ScoreTask(mid, end, r).compute();
+                    double[] ret = left.join();
+                    for (int s = 0; s < k; s++) {
+                        ret[s] = Math.max(ret[s], right[s]);
+                    }
+                    return ret;
+                }
+
+                double[] maxChange = new double[k];
+                double[] contribution = new double[k];
+                boolean weighted = graph.isWeighted();
+
+                for (int v = start; v < end; v++) {
+                    Arrays.fill(contribution, 0.);
+
+                    int edgeEnd = graph.inEnd(v);
+                    for (int e = graph.inStart(v); e < edgeEnd; e++) {
+                        int sourceBase = graph.inSource(e) * k;
+
+                        if (weighted) {
+                            float weight = graph.inWeight(e);
+                            for (int s = 0; s < k; s++) {
+                                contribution[s] += outShare[sourceBase + s] * weight;
+                            }
+                        }
+                        else {
+                            for (int s = 0; s < k; s++) {
+                                contribution[s] += outShare[sourceBase + s];
+                            }
+                        }
+                    }
+
+                    for (int s = 0, i = v * k; s < k; s++, i++) {
+                        if (!active[s]) {
+                            // Converged, keep the scores as they are
+                            nextScore[i] = curScore[i];
+                            continue;
+                        }
+
+                        double newValue = (isInfluence(s, v) ? r[s] : 0) + contribution[s];
+                        maxChange[s] = Math.max(maxChange[s], Math.abs(newValue - curScore[i]));
+                        nextScore[i] = newValue;
+                    }
+                }
+
+                return maxChange;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package nu.marginalia.domainranking.csr;
+
+/** Selects the highest scoring vertices with a bounded min-heap over primitive arrays,
+ * which takes O(n log k) time and O(k) memory, instead of sorting all the scores. */
+public class TopScores {
+
+    /** Returns the indexes of the k highest scores, in descending order of score */
+    public static int[] topK(double[] scores, int k) {
+        k = Math.min(k, scores.length);
+        if (k <= 0)
+            return new int[0];
+
+        // Min-heap of the best k indexes seen so far, ordered by score,
+        // so that the root is the one to be displaced by a better score
+        int[] heap = new int[k];
+        int size = 0;
+
+        for (int i = 0; i < scores.length; i++) {
+            if (size < k) {
+                heap[size] = i;
+                siftUp(heap, scores, size++);
+            }
+            else if (scores[i] > scores[heap[0]]) {
+                heap[0] = i;
+                siftDown(heap, scores, 0, size);
+            }
+        }
+
+        // Pop the heap from the back, which leaves it sorted in descending order
+        for (int end = size - 1; end > 0; end--) {
+            int tmp = heap[0];
+            heap[0] = heap[end];
+            heap[end] = tmp;
+
+            siftDown(heap, scores, 0, end);
+        }
+
+        return heap;
+    }
+
+    private static void siftUp(int[] heap, double[] scores, int pos) {
+        int val = heap[pos];
+
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (scores[heap[parent]] <= scores[val])
+                break;
+
+            heap[pos] = heap[parent];
+            pos = parent;
+        }
+
+        heap[pos] = val;
+    }
+
+    private static void siftDown(int[] heap, double[] scores, int pos, int size) {
+        int val = heap[pos];
+
+        for (;;) {
+            int child = 2 * pos + 1;
+            if (child >= size)
+                break;
+
+            if (child + 1 < size && scores[heap[child + 1]] < scores[heap[child]])
+                child++;
+
+            if (scores[val] <= scores[heap[child]])
+                break;
+
+            heap[pos] = heap[child];
+            pos = child;
+        }
+
+        heap[pos] = val;
+    }
+}
@@ -1,6 +1,7 @@
 package nu.marginalia.domainranking.data;
 
 import com.zaxxer.hikari.HikariDataSource;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import org.jgrapht.Graph;
 
 import java.sql.SQLException;
@@ -18,6 +19,15 @@ public abstract class AbstractGraphSource implements GraphSource {
 
     /** Adds all indexed domain ids as vertices to the graph. */
     protected void addVertices(Graph<Integer, ?> graph) throws SQLException {
+        for (int id : getVertexIds()) {
+            graph.addVertex(id);
+        }
+    }
+
+    /** Returns the ids of all indexed domains, which are the vertices of the graph. */
+    protected int[] getVertexIds() throws SQLException {
+        IntArrayList ids = new IntArrayList();
+
         try (var conn = dataSource.getConnection();
              var stmt = conn.prepareStatement("""
                 SELECT ID 
@@ -27,28 +37,34 @@ public abstract class AbstractGraphSource implements GraphSource {
              var rs = stmt.executeQuery())
         {
             while (rs.next()) {
-                graph.addVertex(rs.getInt(1));
+                ids.add(rs.getInt(1));
             }
         }
+
+        return ids.toIntArray();
     }
 
     @Override
     public List<Integer> domainIds(List<String> domainNameList) {
+        if (domainNameList.isEmpty())
+            return List.of();
+
+        // Match all the patterns in a single query, as each pattern with a leading wildcard is a table scan
+        String sql = "SELECT ID FROM EC_DOMAIN WHERE "
+                + String.join(" OR ", Collections.nCopies(domainNameList.size(), "DOMAIN_NAME LIKE ?"));
+
         try (var conn = dataSource.getConnection();
-             var stmt = conn.prepareStatement("""
-                SELECT ID 
-                FROM EC_DOMAIN 
-                WHERE DOMAIN_NAME LIKE ?
-                """))
+             var stmt = conn.prepareStatement(sql))
         {
             Set<Integer> retSet = new HashSet<>();
 
-            for (String domainName : domainNameList) {
-                stmt.setString(1, domainName);
-                try (var rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        retSet.add(rs.getInt(1));
-                    }
+            for (int i = 0; i < domainNameList.size(); i++) {
+                stmt.setString(i + 1, domainNameList.get(i));
+            }
+
+            try (var rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    retSet.add(rs.getInt(1));
                 }
             }
 
@@ -1,5 +1,6 @@
 package nu.marginalia.domainranking.data;
 
+import nu.marginalia.domainranking.csr.CsrGraph;
 import org.jgrapht.Graph;
 
 import java.util.List;
@@ -11,6 +12,18 @@ public interface GraphSource {
     /** Construct the graph */
     Graph<Integer, ?> getGraph();
 
+    /** Construct the graph in compressed sparse row form, which is what the ranking
+     * algorithms operate on.  The default implementation converts the graph from getGraph().
+     */
+    default CsrGraph getCsrGraph() {
+        try {
+            return CsrGraph.fromGraph(getGraph());
+        }
+        catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
     /** Return a list of domain ids for the given domain names.
      *  The function will also accept SQL-style wildcards,
      *  e.g. "%marginalia.nu" will match "marginalia.nu" and "memex.marginalia.nu".
@@ -3,6 +3,7 @@ package nu.marginalia.domainranking.data;
 import com.google.inject.Inject;
 import com.zaxxer.hikari.HikariDataSource;
 import nu.marginalia.api.linkgraph.AggregateLinkGraphClient;
+import nu.marginalia.domainranking.csr.CsrGraph;
 import org.jgrapht.Graph;
 import org.jgrapht.graph.DefaultDirectedGraph;
 import org.jgrapht.graph.DefaultEdge;
@@ -47,4 +48,22 @@ public class InvertedLinkGraphSource extends AbstractGraphSource {
             throw new RuntimeException(ex);
         }
     }
+
+    @Override
+    public CsrGraph getCsrGraph() {
+        try {
+            var allLinks = graphClient.getAllDomainLinks();
+
+            return CsrGraph.build(getVertexIds(), false, consumer -> {
+                var iter = allLinks.iterator();
+                while (iter.advance()) {
+                    // Invert the edge
+                    consumer.accept(iter.dest(), iter.source(), 1.);
+                }
+            });
+        }
+        catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
 }
@@ -3,6 +3,7 @@ package nu.marginalia.domainranking.data;
 import com.google.inject.Inject;
 import com.zaxxer.hikari.HikariDataSource;
 import nu.marginalia.api.linkgraph.AggregateLinkGraphClient;
+import nu.marginalia.domainranking.csr.CsrGraph;
 import org.jgrapht.Graph;
 import org.jgrapht.graph.DefaultDirectedGraph;
 import org.jgrapht.graph.DefaultEdge;
@@ -44,4 +45,21 @@ public class LinkGraphSource extends AbstractGraphSource {
             throw new RuntimeException(ex);
         }
     }
+
+    @Override
+    public CsrGraph getCsrGraph() {
+        try {
+            var allLinks = graphClient.getAllDomainLinks();
+
+            return CsrGraph.build(getVertexIds(), false, consumer -> {
+                var iter = allLinks.iterator();
+                while (iter.advance()) {
+                    consumer.accept(iter.source(), iter.dest(), 1.);
+                }
+            });
+        }
+        catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
 }
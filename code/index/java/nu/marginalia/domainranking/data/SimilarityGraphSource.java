@@ -2,6 +2,9 @@ package nu.marginalia.domainranking.data;
 
 import com.google.inject.Inject;
 import com.zaxxer.hikari.HikariDataSource;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import nu.marginalia.domainranking.csr.CsrGraph;
 import org.jgrapht.Graph;
 import org.jgrapht.graph.DefaultUndirectedWeightedGraph;
 import org.jgrapht.graph.DefaultWeightedEdge;
@@ -71,4 +74,44 @@ public class SimilarityGraphSource extends AbstractGraphSource {
 
         return graph;
     }
+
+    @Override
+    public CsrGraph getCsrGraph() {
+        IntArrayList sources = new IntArrayList();
+        IntArrayList dests = new IntArrayList();
+        FloatArrayList weights = new FloatArrayList();
+
+        try (var conn = dataSource.getConnection();
+             var stmt = conn.prepareStatement("""
+                SELECT DOMAIN_ID, NEIGHBOR_ID, RELATEDNESS
+                FROM EC_DOMAIN_NEIGHBORS_2
+                """))
+        {
+            var rs = stmt.executeQuery();
+            while (rs.next()) {
+                sources.add(rs.getInt(1));
+                dests.add(rs.getInt(2));
+                weights.add(rs.getFloat(3));
+            }
+
+            // The similarity graph is undirected, so each edge is added in both directions.
+            // Similarity data may contain domain ids that we don't have indexed, these are
+            // omitted from the graph by CsrGraph.
+            return CsrGraph.build(getVertexIds(), true, consumer -> {
+                for (int i = 0; i < sources.size(); i++) {
+                    int src = sources.getInt(i);
+                    int dest = dests.getInt(i);
+                    float weight = weights.getFloat(i);
+
+                    consumer.accept(src, dest, weight);
+                    if (src != dest) {
+                        consumer.accept(dest, src, weight);
+                    }
+                }
+            });
+        }
+        catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package nu.marginalia.index;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.longs.*;
 import nu.marginalia.api.searchquery.model.compiled.aggregate.CompiledQueryAggregates;
@@ -28,6 +29,7 @@ import javax.annotation.CheckReturnValue;
 import java.io.IOException;
 import java.lang.foreign.Arena;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
@@ -84,6 +86,12 @@ public class CombinedIndexReader {
     }
 
     public List<IndexQuery> createQueries(SearchContext context) {
+        return createQueries(context, IntList.of());
+    }
+
+    /** Create the queries for the search context, rejecting any documents from the
+     * tombstoned domains, whose documents have been replaced by a delta index */
+    public List<IndexQuery> createQueries(SearchContext context, IntList tombstonedDomains) {
 
         if (!isLoaded()) {
             logger.warn("Index reader not ready");
@@ -108,8 +116,14 @@ public class CombinedIndexReader {
         @Nullable
         SkipListValueRanges mandatoryDocumentRanges = context.mandatoryDomainIds.isEmpty() ? null : getDocumentRangesForDomains(context.mandatoryDomainIds);
 
+        IntList excludedDomainIds = context.excludedDomainIds;
+        if (!tombstonedDomains.isEmpty()) {
+            excludedDomainIds = new IntArrayList(excludedDomainIds);
+            excludedDomainIds.addAll(tombstonedDomains);
+        }
+
         @Nullable
-        SkipListValueRanges excludedDocumentRanges = context.excludedDomainIds.isEmpty() ? null : getDocumentRangesForDomains(context.excludedDomainIds);
+        SkipListValueRanges excludedDocumentRanges = excludedDomainIds.isEmpty() ? null : getDocumentRangesForDomains(excludedDomainIds);
 
         List<String> domainTerms = new ArrayList<>(context.termIdsDomain.size());
         for (long id : context.termIdsDomain) {
@@ -254,10 +268,25 @@ public class CombinedIndexReader {
 
     private SkipListValueRanges getDocumentRangesForDomains(@NotNull IntList domainIds) {
         long[] rangesStarts = new long[domainIds.size()];
-        long[] rangesEnds = new long[domainIds.size()];
 
         for (int i = 0; i < domainIds.size(); i++) {
             rangesStarts[i] = forwardIndexReader.getRankEncodedDocumentIdBase(domainIds.getInt(i));
+        }
+
+        // The ranges must be sorted and distinct, the rank encoding means the
+        // order of the ranges is not the order of the domain ids
+        Arrays.sort(rangesStarts);
+
+        int n = 0;
+        for (int i = 0; i < rangesStarts.length; i++) {
+            if (n == 0 || rangesStarts[i] != rangesStarts[n - 1]) {
+                rangesStarts[n++] = rangesStarts[i];
+            }
+        }
+        rangesStarts = Arrays.copyOf(rangesStarts, n);
+
+        long[] rangesEnds = new long[n];
+        for (int i = 0; i < n; i++) {
             rangesEnds[i] = rangesStarts[i] + UrlIdCodec.DOCORD_COUNT;
         }
 
@@ -281,6 +310,11 @@ public class CombinedIndexReader {
         return reverseIndexFullReader.getValuePresence(searchContext, termId, keys);
     }
 
+    /** Mark which of the keys are present for the termId in ret, reusing the bit set */
+    public BitSet getValuePresence(SearchContext searchContext, long termId, CombinedDocIdList keys, BitSet ret) {
+        return reverseIndexFullReader.getValuePresence(searchContext, termId, keys, ret);
+    }
+
     /** Retrieves the document metadata for the specified document */
     public long getDocumentMetadata(long docId) {
         return forwardIndexReader.getDocMeta(docId);
@@ -308,10 +342,20 @@ public class CombinedIndexReader {
         return forwardIndexReader.getDocumentSpans(arena, documentId);
     }
 
+    /** Retrieves the document spans for a batch of documents */
+    public DecodableDocumentSpans[] getDocumentSpans(Arena arena, long[] documentIds) {
+        return forwardIndexReader.getDocumentSpans(arena, documentIds);
+    }
+
     public CodedSequence[] getTermPositions(Arena arena, long[] codedOffsets) {
         return reverseIndexFullReader.getTermPositions(arena, codedOffsets);
     }
 
+    /** Retrieves the term positions for the first count coded offsets in a flat array */
+    public CodedSequence[] getTermPositions(Arena arena, long[] codedOffsets, int count) {
+        return reverseIndexFullReader.getTermPositions(arena, codedOffsets, count);
+    }
+
     /** Close the indexes.  This blocks the calling thread until all users are finished.
      * */
     public void close() {
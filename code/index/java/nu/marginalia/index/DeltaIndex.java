@@ -0,0 +1,115 @@
+package nu.marginalia.index;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import nu.marginalia.api.searchquery.RpcDecoratedResultItem;
+import nu.marginalia.array.LongArray;
+import nu.marginalia.array.LongArrayFactory;
+import nu.marginalia.linkdb.docs.DocumentDbReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/** A small index of the documents loaded since the main index was constructed,
+ * which lets new documents become searchable without reconstructing the main index.
+ * <p></p>
+ * The delta index is a complete index of its own, with forward and reverse indexes and
+ * a document database, and is queried alongside the main index.  Documents are loaded
+ * a domain at a time, so a domain present in the delta index has all of its documents
+ * in the main index replaced.  These domains are the tombstones, and are rejected
+ * when querying the main index.
+ * <p></p>
+ * The delta index is folded into the main index by the next full index construction,
+ * which runs in the background, after which the delta is discarded.
+ * <p></p>
+ * This class does not deal with the lifecycle of the index,
+ * that is the responsibility of {@link StatefulIndex}.
+ */
+public class DeltaIndex {
+    private static final Logger logger = LoggerFactory.getLogger(DeltaIndex.class);
+
+    private static final Comparator<RpcDecoratedResultItem> resultOrder =
+            Comparator.comparing(RpcDecoratedResultItem::getRankingScore);
+
+    private final CombinedIndexReader index;
+    private final IntList tombstonedDomains;
+    private final DocumentDbReader documentDbReader;
+
+    public DeltaIndex(CombinedIndexReader index,
+                      IntList tombstonedDomains,
+                      DocumentDbReader documentDbReader) {
+        this.index = index;
+        this.tombstonedDomains = tombstonedDomains;
+        this.documentDbReader = documentDbReader;
+    }
+
+    public CombinedIndexReader index() {
+        return index;
+    }
+
+    /** Returns the domains whose documents in the main index have been replaced by the delta index */
+    public IntList tombstonedDomains() {
+        return tombstonedDomains;
+    }
+
+    /** Returns the document database for the documents in the delta index */
+    public DocumentDbReader documentDbReader() {
+        return documentDbReader;
+    }
+
+    public boolean isLoaded() {
+        return index.isLoaded();
+    }
+
+    /** Close the index.  This blocks the calling thread until all users are finished. */
+    public void close() {
+        index.close();
+
+        try {
+            documentDbReader.close();
+        }
+        catch (Throwable t) {
+            logger.error("Failed to close delta document database", t);
+        }
+    }
+
+    /** Read the tombstones file, which holds the sorted domain ids of the delta index */
+    public static IntList readTombstones(Path tombstonesFile) throws IOException {
+        try (LongArray array = LongArrayFactory.mmapForReadingConfined(tombstonesFile)) {
+            IntList ret = new IntArrayList((int) array.size());
+
+            for (long i = 0; i < array.size(); i++) {
+                ret.add((int) array.get(i));
+            }
+
+            return ret;
+        }
+    }
+
+    /** Merge the results of querying the delta index and the main index, keeping the
+     * limit best results.  The two result sets can not contain the same domain, so the
+     * per-domain limits that are applied to each result set still hold. */
+    public static List<RpcDecoratedResultItem> mergeResults(List<RpcDecoratedResultItem> deltaResults,
+                                                            List<RpcDecoratedResultItem> mainResults,
+                                                            int limit)
+    {
+        if (deltaResults.isEmpty())
+            return mainResults;
+
+        List<RpcDecoratedResultItem> merged = new ArrayList<>(deltaResults.size() + mainResults.size());
+        merged.addAll(deltaResults);
+        merged.addAll(mainResults);
+        merged.sort(resultOrder);
+
+        if (merged.size() > limit) {
+            return new ArrayList<>(merged.subList(0, Math.max(0, limit)));
+        }
+
+        return merged;
+    }
+}
@@ -0,0 +1,132 @@
+package nu.marginalia.index;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Thread safe set of seen document ids, used to deduplicate the output of the
+ * index lookups for a query.
+ * <p></p>
+ * The ids are partitioned by hash over a number of independently locked shards, so that
+ * several deduplication threads can work at the same time.  A batch of ids locks each shard
+ * at most once, and the batch order is preserved, as the downstream stages require the
+ * ids to remain sorted.
+ * <p></p>
+ * The shards start out sized from an estimate of the number of documents the query will
+ * produce, and grow if the estimate is exceeded.
+ * */
+public class DocIdDeduplicator {
+    private static final int SHARD_COUNT = 16;
+    private static final int MIN_SHARD_CAPACITY = 64;
+
+    private final LongOpenHashSet[] shards = new LongOpenHashSet[SHARD_COUNT];
+    private final ReentrantLock[] locks = new ReentrantLock[SHARD_COUNT];
+
+    /**
+     * @param expectedSize the expected number of distinct ids
+     */
+    public DocIdDeduplicator(int expectedSize) {
+        int shardCapacity = Math.max(MIN_SHARD_CAPACITY, expectedSize / SHARD_COUNT);
+
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards[i] = new LongOpenHashSet(shardCapacity);
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /** Remove the ids in items[0...n) that have been seen before, including duplicates within the batch,
+     * and mark the remaining ids as seen.  The retained ids are moved to the start of the array,
+     * in their original order.
+     *
+     * @return the number of retained ids
+     */
+    public int retainUnseen(long[] items, int n) {
+        if (n == 0)
+            return 0;
+
+        // Bucket the ids by shard, as a linked list through the next array
+        int[] head = new int[SHARD_COUNT];
+        int[] next = new int[n];
+        Arrays.fill(head, -1);
+
+        for (int i = n - 1; i >= 0; i--) {
+            int shard = shardFor(items[i]);
+            next[i] = head[shard];
+            head[shard] = i;
+        }
+
+        boolean[] keep = new boolean[n];
+
+        // Start at a different shard depending on the batch, so that concurrent
+        // callers don't all queue up on the same lock
+        int start = shardFor(items[0]);
+
+        int remaining = 0;
+        for (int shard = 0; shard < SHARD_COUNT; shard++) {
+            if (head[shard] >= 0) remaining++;
+        }
+
+        boolean[] done = new boolean[SHARD_COUNT];
+
+        // First pass takes the shards that are uncontended, the second pass waits for the rest
+        for (int pass = 0; remaining > 0; pass++) {
+            for (int j = 0; j < SHARD_COUNT; j++) {
+                int shard = (start + j) & (SHARD_COUNT - 1);
+                if (done[shard] || head[shard] < 0)
+                    continue;
+
+                ReentrantLock lock = locks[shard];
+                if (pass == 0) {
+                    if (!lock.tryLock())
+                        continue;
+                }
+                else {
+                    lock.lock();
+                }
+
+                try {
+                    LongOpenHashSet set = shards[shard];
+                    for (int i = head[shard]; i >= 0; i = next[i]) {
+                        keep[i] = set.add(items[i]);
+                    }
+                }
+                finally {
+                    lock.unlock();
+                }
+
+                done[shard] = true;
+                remaining--;
+            }
+        }
+
+        int retained = 0;
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                items[retained++] = items[i];
+            }
+        }
+
+        return retained;
+    }
+
+    /** Returns the number of distinct ids seen so far */
+    public int size() {
+        int sum = 0;
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            locks[i].lock();
+            try {
+                sum += shards[i].size();
+            }
+            finally {
+                locks[i].unlock();
+            }
+        }
+        return sum;
+    }
+
+    private static int shardFor(long id) {
+        return (int) (HashCommon.murmurHash3(id) >>> 60) & (SHARD_COUNT - 1);
+    }
+}
@@ -2,14 +2,21 @@ package nu.marginalia.index;
 
 import com.google.inject.Guice;
 import com.google.inject.Inject;
+import it.unimi.dsi.fastutil.ints.IntAVLTreeSet;
+import it.unimi.dsi.fastutil.ints.IntSortedSet;
 import nu.marginalia.IndexLocations;
+import nu.marginalia.array.LongArray;
+import nu.marginalia.array.LongArrayFactory;
 import nu.marginalia.index.config.IndexFileName;
 import nu.marginalia.index.forward.construction.ForwardIndexConverter;
 import nu.marginalia.index.journal.IndexJournal;
+import nu.marginalia.index.journal.IndexJournalLoads;
 import nu.marginalia.index.reverse.construction.full.FullIndexConstructor;
 import nu.marginalia.index.reverse.construction.prio.PrioIndexConstructor;
 import nu.marginalia.index.searchset.DomainRankings;
 import nu.marginalia.language.config.LanguageConfiguration;
+import nu.marginalia.linkdb.LinkdbFileNames;
+import nu.marginalia.linkdb.docs.DocumentDbWriter;
 import nu.marginalia.model.gson.GsonFactory;
 import nu.marginalia.model.id.UrlIdCodec;
 import nu.marginalia.mq.MessageQueueFactory;
@@ -28,6 +35,10 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -85,13 +96,20 @@ public class IndexConstructorMain extends ProcessMainClass {
         this.domainRankings = domainRankings;
     }
 
-    private void run(CreateIndexRequest instructions) throws IOException {
+    private void run(CreateIndexRequest instructions) throws IOException, SQLException {
         heartbeat.start();
 
+        Path currentIndex = IndexLocations.getCurrentIndex(fileStorageService);
+
         switch (instructions.indexName()) {
-            case IndexName.FORWARD      -> createForwardIndex();
-            case IndexName.REVERSE_FULL -> createFullReverseIndex();
-            case IndexName.REVERSE_PRIO -> createPrioReverseIndex();
+            case IndexName.FORWARD      -> {
+                Map<String, IndexJournal> journals = findJournals();
+                createForwardIndex(currentIndex, journals);
+                writeJournalPages(currentIndex, journals);
+            }
+            case IndexName.REVERSE_FULL -> createFullReverseIndex(currentIndex, findJournals());
+            case IndexName.REVERSE_PRIO -> createPrioReverseIndex(currentIndex, findJournals());
+            case IndexName.DELTA        -> createDeltaIndex();
         }
 
         heartbeat.shutDown();
@@ -112,11 +130,17 @@ public class IndexConstructorMain extends ProcessMainClass {
         }
     }
 
-    private void createFullReverseIndex() throws IOException {
+    private Map<String, IndexJournal> findJournals() {
+        Path workDir = IndexLocations.getIndexConstructionArea(fileStorageService);
+
+        return IndexJournal.findJournals(workDir, languageConfiguration.languages());
+    }
 
-        Path outputFileDocs = findNextFile(new IndexFileName.FullDocs());
-        Path outputFileDocsValues = findNextFile(new IndexFileName.FullDocsValues());
-        Path outputFilePositions = findNextFile(new IndexFileName.FullPositions());
+    private void createFullReverseIndex(Path outputDir, Map<String, IndexJournal> journalsByLanguage) throws IOException {
+
+        Path outputFileDocs = findNextFile(outputDir, new IndexFileName.FullDocs());
+        Path outputFileDocsValues = findNextFile(outputDir, new IndexFileName.FullDocsValues());
+        Path outputFilePositions = findNextFile(outputDir, new IndexFileName.FullPositions());
 
         Files.deleteIfExists(outputFileDocs);
         Files.deleteIfExists(outputFileDocsValues);
@@ -128,12 +152,10 @@ public class IndexConstructorMain extends ProcessMainClass {
         if (!Files.isDirectory(tmpDir)) Files.createDirectories(tmpDir);
         else cleanWorkDir(tmpDir);
 
-        Map<String, IndexJournal> journalsByLanguage = IndexJournal.findJournals(workDir, languageConfiguration.languages());
-
         for (Map.Entry<String, IndexJournal> entry : journalsByLanguage.entrySet()) {
             String languageIsoCode = entry.getKey();
 
-            Path outputFileWords = findNextFile(new IndexFileName.FullWords(languageIsoCode));
+            Path outputFileWords = findNextFile(outputDir, new IndexFileName.FullWords(languageIsoCode));
 
             FullIndexConstructor constructor = new FullIndexConstructor(
                     outputFileDocs,
@@ -151,9 +173,9 @@ public class IndexConstructorMain extends ProcessMainClass {
         cleanWorkDir(tmpDir);
     }
 
-    private void createPrioReverseIndex() throws IOException {
+    private void createPrioReverseIndex(Path outputDir, Map<String, IndexJournal> journalsByLanguage) throws IOException {
 
-        Path outputFileDocs = findNextFile(new IndexFileName.PrioDocs());
+        Path outputFileDocs = findNextFile(outputDir, new IndexFileName.PrioDocs());
         Files.deleteIfExists(outputFileDocs);
 
         Path workDir = IndexLocations.getIndexConstructionArea(fileStorageService);
@@ -162,12 +184,10 @@ public class IndexConstructorMain extends ProcessMainClass {
         if (!Files.isDirectory(tmpDir)) Files.createDirectories(tmpDir);
         else cleanWorkDir(tmpDir);
 
-        Map<String, IndexJournal> journalsByLanguage = IndexJournal.findJournals(workDir, languageConfiguration.languages());
-
         for (Map.Entry<String, IndexJournal> entry : journalsByLanguage.entrySet()) {
             String languageIsoCode = entry.getKey();
 
-            Path outputFileWords = findNextFile(new IndexFileName.PrioWords(languageIsoCode));
+            Path outputFileWords = findNextFile(outputDir, new IndexFileName.PrioWords(languageIsoCode));
             Files.deleteIfExists(outputFileWords);
 
             PrioIndexConstructor constructor = new PrioIndexConstructor(
@@ -184,27 +204,176 @@ public class IndexConstructorMain extends ProcessMainClass {
         cleanWorkDir(tmpDir);
     }
 
-    private void createForwardIndex() throws IOException {
+    private void createForwardIndex(Path outputDir, Map<String, IndexJournal> journalsByLanguage) throws IOException {
 
-        Path workDir = IndexLocations.getIndexConstructionArea(fileStorageService);
-
-        Path outputFileDocsId = findNextFile(new IndexFileName.ForwardDocIds());
-        Path outputFileDocsData = findNextFile(new IndexFileName.ForwardDocData());
-        Path outputFileSpansData = findNextFile(new IndexFileName.ForwardSpansData());
+        Path outputFileDocsId = findNextFile(outputDir, new IndexFileName.ForwardDocIds());
+        Path outputFileDocsIdHash = findNextFile(outputDir, new IndexFileName.ForwardDocIdsHash());
+        Path outputFileDocsData = findNextFile(outputDir, new IndexFileName.ForwardDocData());
+        Path outputFileSpansData = findNextFile(outputDir, new IndexFileName.ForwardSpansData());
 
         ForwardIndexConverter converter = new ForwardIndexConverter(heartbeat,
                 outputFileDocsId,
+                outputFileDocsIdHash,
                 outputFileDocsData,
                 outputFileSpansData,
-                IndexJournal.findJournals(workDir, languageConfiguration.languages()).values(),
+                journalsByLanguage.values(),
                 domainRankings
         );
 
         converter.convert();
     }
 
-    private Path findNextFile(IndexFileName fileName) {
-        return IndexFileName.resolve(IndexLocations.getCurrentIndex(fileStorageService), fileName, IndexFileName.Version.NEXT);
+    /** Record which journal pages went into the index, so that a delta index can
+     * later be constructed from the pages loaded after this point */
+    private void writeJournalPages(Path outputDir, Map<String, IndexJournal> journalsByLanguage) throws IOException {
+        IndexJournalLoads.of(journalsByLanguage).write(findNextFile(outputDir, new IndexFileName.JournalPages()));
+    }
+
+    /** Construct a delta index from the journal pages that were loaded after the
+     * current index was constructed.
+     * <p></p>
+     * The delta index has its own forward and reverse indexes, as well as a copy of the
+     * document database for its documents.  The domains of its documents are recorded as
+     * tombstones, as the documents they had in the current index have been replaced.
+     * <p></p>
+     * The delta index covers all pages loaded since the current index was constructed, not
+     * just the latest load, so any previous delta index is replaced rather than added to.
+     * The delta index records where each of these loads ends in the journal, and when a domain
+     * is loaded again, its documents from the earlier loads are left out.
+     */
+    private void createDeltaIndex() throws IOException, SQLException {
+        Path currentIndex = IndexLocations.getCurrentIndex(fileStorageService);
+        Path deltaIndex = IndexLocations.getDeltaIndex(fileStorageService);
+
+        Path journalPagesFile = IndexFileName.resolve(currentIndex, new IndexFileName.JournalPages(), IndexFileName.Version.CURRENT);
+        if (!Files.exists(journalPagesFile)) {
+            throw new IllegalStateException("The current index does not record its journal pages, a full reconstruction is needed before a delta can be constructed");
+        }
+
+        IndexJournalLoads indexLoads = IndexJournalLoads.read(journalPagesFile);
+        Map<String, Integer> firstPages = indexLoads.lastLoadEnd();
+
+        // The loads of the previous delta index, which start with the loads of the current index,
+        // unless the delta was constructed on top of an index that has since been replaced
+        IndexJournalLoads loads = indexLoads;
+        Path previousLoadsFile = IndexFileName.resolve(deltaIndex, new IndexFileName.JournalPages(), IndexFileName.Version.CURRENT);
+        if (Files.exists(previousLoadsFile)) {
+            IndexJournalLoads previousLoads = IndexJournalLoads.read(previousLoadsFile);
+            if (previousLoads.startsWith(indexLoads)) {
+                loads = previousLoads;
+            }
+        }
+
+        Map<String, IndexJournal> journals = findJournals();
+        loads = loads.withLoad(journals);
+
+        Map<String, IndexJournal> deltaJournals = new HashMap<>();
+        for (var entry : journals.entrySet()) {
+            IndexJournal journal = entry.getValue().fromPage(firstPages.getOrDefault(entry.getKey(), 0));
+
+            if (!journal.pages().isEmpty()) {
+                deltaJournals.put(entry.getKey(), journal);
+            }
+        }
+
+        if (deltaJournals.isEmpty()) {
+            logger.warn("No journal pages have been loaded since the current index was constructed, not creating a delta");
+            return;
+        }
+
+        Files.createDirectories(deltaIndex);
+        Files.deleteIfExists(findNextFile(deltaIndex, new IndexFileName.DeltaTombstones()));
+
+        Path latestJournalsDir = IndexLocations.getIndexConstructionArea(fileStorageService).resolve("delta-journal");
+        deleteJournals(latestJournalsDir);
+        Files.createDirectories(latestJournalsDir);
+
+        try {
+            Map<String, IndexJournal> latestJournals = loads.copyLatest(deltaJournals, latestJournalsDir);
+
+            createForwardIndex(deltaIndex, latestJournals);
+            createFullReverseIndex(deltaIndex, latestJournals);
+            createPrioReverseIndex(deltaIndex, latestJournals);
+        }
+        finally {
+            deleteJournals(latestJournalsDir);
+        }
+
+        loads.write(findNextFile(deltaIndex, new IndexFileName.JournalPages()));
+
+        createDeltaDocDb(deltaIndex);
+
+        // The tombstones are written last, as their presence marks the delta index as complete
+        createDeltaTombstones(deltaIndex);
+    }
+
+    /** Write the sorted distinct domain ids of the documents in the delta index */
+    private void createDeltaTombstones(Path deltaIndex) throws IOException {
+        IntSortedSet domainIds = new IntAVLTreeSet();
+
+        try (LongArray docIds = LongArrayFactory.mmapForReadingConfined(findNextFile(deltaIndex, new IndexFileName.ForwardDocIds()))) {
+            for (long i = 0; i < docIds.size(); i++) {
+                domainIds.add(UrlIdCodec.getDomainId(docIds.get(i)));
+            }
+        }
+
+        Path outputFile = findNextFile(deltaIndex, new IndexFileName.DeltaTombstones());
+        Files.deleteIfExists(outputFile);
+
+        try (LongArray tombstones = LongArrayFactory.mmapForWritingConfined(outputFile, domainIds.size())) {
+            long i = 0;
+            for (int domainId : domainIds) {
+                tombstones.set(i++, domainId);
+            }
+        }
+
+        logger.info("Delta index replaces {} domains", domainIds.size());
+    }
+
+    /** The loader writes a new document database for each load, so the delta index's
+     * document database is the previous delta's database with the latest load added */
+    private void createDeltaDocDb(Path deltaIndex) throws IOException, SQLException {
+        Path loadedDocDb = IndexLocations.getLinkdbWritePath(fileStorageService).resolve(LinkdbFileNames.DOCDB_FILE_NAME);
+        if (!Files.exists(loadedDocDb)) {
+            throw new IllegalStateException("No document database found in " + loadedDocDb);
+        }
+
+        Path previousDocDb = IndexFileName.resolve(deltaIndex, new IndexFileName.DeltaDocDb(), IndexFileName.Version.CURRENT);
+        Path outputDocDb = findNextFile(deltaIndex, new IndexFileName.DeltaDocDb());
+        Path outputColumnar = findNextFile(deltaIndex, new IndexFileName.DeltaDocDbColumnar());
+
+        if (Files.exists(previousDocDb)) {
+            Files.copy(previousDocDb, outputDocDb, StandardCopyOption.REPLACE_EXISTING);
+        }
+        else {
+            Files.deleteIfExists(outputDocDb);
+        }
+
+        DocumentDbWriter writer = new DocumentDbWriter(outputDocDb);
+        try {
+            writer.addAll(loadedDocDb);
+            writer.writeColumnar(outputColumnar);
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    /** Delete a directory of journals written during construction */
+    private void deleteJournals(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+
+        try (var pathsStream = Files.walk(dir)) {
+            for (Path path : pathsStream.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private Path findNextFile(Path outputDir, IndexFileName fileName) {
+        return IndexFileName.resolve(outputDir, fileName, IndexFileName.Version.NEXT);
     }
 
     /** Append the domain's ranking to the high bits of a document ID
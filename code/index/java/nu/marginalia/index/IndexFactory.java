@@ -10,7 +10,9 @@ import nu.marginalia.index.reverse.PrioReverseIndexReader;
 import nu.marginalia.index.reverse.WordLexicon;
 import nu.marginalia.language.config.LanguageConfiguration;
 import nu.marginalia.language.model.LanguageDefinition;
+import nu.marginalia.linkdb.docs.DocumentDbReader;
 import nu.marginalia.storage.FileStorageService;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,6 +20,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,6 +28,7 @@ import java.util.List;
 public class IndexFactory {
     private final FileStorageService fileStorageService;
     private final Path liveStorage;
+    private final Path deltaStorage;
     private final LanguageConfiguration languageConfiguration;
     private static final Logger logger = LoggerFactory.getLogger(IndexFactory.class);
 
@@ -33,6 +37,7 @@ public class IndexFactory {
 
         this.fileStorageService = fileStorageService;
         this.liveStorage = IndexLocations.getCurrentIndex(fileStorageService);
+        this.deltaStorage = IndexLocations.getDeltaIndex(fileStorageService);
         this.languageConfiguration = languageConfiguration;
     }
 
@@ -44,27 +49,59 @@ public class IndexFactory {
         );
     }
 
+    /** Returns the delta index, or null if there is none */
+    @Nullable
+    public DeltaIndex getDeltaIndex() throws IOException, SQLException {
+        Path tombstonesFile = IndexFileName.resolve(deltaStorage, new IndexFileName.DeltaTombstones(), IndexFileName.Version.CURRENT);
+
+        if (!Files.exists(tombstonesFile)) {
+            return null;
+        }
+
+        CombinedIndexReader index = new CombinedIndexReader(
+                getForwardIndexReader(deltaStorage),
+                getReverseIndexReader(deltaStorage),
+                getReverseIndexPrioReader(deltaStorage)
+        );
+
+        if (!index.isLoaded()) {
+            logger.warn("Delta index in {} is incomplete, ignoring it", deltaStorage);
+            index.close();
+            return null;
+        }
+
+        Path docDbFile = IndexFileName.resolve(deltaStorage, new IndexFileName.DeltaDocDb(), IndexFileName.Version.CURRENT);
+
+        return new DeltaIndex(index,
+                DeltaIndex.readTombstones(tombstonesFile),
+                new DocumentDbReader(docDbFile, true));
+    }
+
     public Path getSearchSetsBase() {
         return IndexLocations.getSearchSetsPath(fileStorageService);
     }
 
     public FullReverseIndexReader getReverseIndexReader() throws IOException {
+        return getReverseIndexReader(liveStorage);
+    }
 
-        Path docsFile = getCurrentPath(new IndexFileName.FullDocs());
-        Path docsValuesFile = getCurrentPath(new IndexFileName.FullDocsValues());
-        Path positionsFile = getCurrentPath(new IndexFileName.FullPositions());
+    private FullReverseIndexReader getReverseIndexReader(Path storage) throws IOException {
+
+        Path docsFile = getCurrentPath(storage, new IndexFileName.FullDocs());
+        Path docsValuesFile = getCurrentPath(storage, new IndexFileName.FullDocsValues());
+        Path positionsFile = getCurrentPath(storage, new IndexFileName.FullPositions());
 
         List<WordLexicon> wordLexicons = new ArrayList<>();
 
         for (LanguageDefinition languageDefinition : languageConfiguration.languages()) {
             String languageIsoCode = languageDefinition.isoCode();
-            Path wordsFile = getCurrentPath(new IndexFileName.FullWords(languageIsoCode));
+            Path wordsFile = getCurrentPath(storage, new IndexFileName.FullWords(languageIsoCode));
             if (Files.exists(wordsFile)) {
                 wordLexicons.add(new WordLexicon(languageIsoCode, wordsFile));
             }
             else if ("en".equalsIgnoreCase(languageIsoCode)) {
                 // FIXME:  Backward compatibility, remove after ~ dec 2025
-                wordsFile = liveStorage.resolve("rev-words.dat");
+                wordsFile = storage.resolve("rev-words.dat");
                 wordLexicons.add(new WordLexicon("en", wordsFile));
             }
         }
@@ -79,37 +116,46 @@ public class IndexFactory {
     }
 
     public PrioReverseIndexReader getReverseIndexPrioReader() throws IOException {
+        return getReverseIndexPrioReader(liveStorage);
+    }
+
+    private PrioReverseIndexReader getReverseIndexPrioReader(Path storage) throws IOException {
 
         List<WordLexicon> wordLexicons = new ArrayList<>();
 
         for (LanguageDefinition languageDefinition : languageConfiguration.languages()) {
             String languageIsoCode = languageDefinition.isoCode();
-            Path wordsFile = getCurrentPath(new IndexFileName.PrioWords(languageIsoCode));
+            Path wordsFile = getCurrentPath(storage, new IndexFileName.PrioWords(languageIsoCode));
             if (Files.exists(wordsFile)) {
                 wordLexicons.add(new WordLexicon(languageIsoCode, wordsFile));
             }
             else if ("en".equalsIgnoreCase(languageIsoCode)) {
                 // FIXME:  Backward compatibility, remove after ~ dec 2025
-                wordsFile = liveStorage.resolve("rev-prio-words.dat");
+                wordsFile = storage.resolve("rev-prio-words.dat");
                 wordLexicons.add(new WordLexicon("en", wordsFile));
             }
         }
 
-        Path docsFile = getCurrentPath(new IndexFileName.PrioDocs());
+        Path docsFile = getCurrentPath(storage, new IndexFileName.PrioDocs());
 
         return new PrioReverseIndexReader("prio", wordLexicons, docsFile);
     }
 
     public ForwardIndexReader getForwardIndexReader() throws IOException {
-        Path docIdsFile = getCurrentPath(new IndexFileName.ForwardDocIds());
-        Path docDataFile = getCurrentPath(new IndexFileName.ForwardDocData());
-        Path spansFile = getCurrentPath(new IndexFileName.ForwardSpansData());
+        return getForwardIndexReader(liveStorage);
+    }
+
+    private ForwardIndexReader getForwardIndexReader(Path storage) throws IOException {
+        Path docIdsFile = getCurrentPath(storage, new IndexFileName.ForwardDocIds());
+        Path docIdsHashFile = getCurrentPath(storage, new IndexFileName.ForwardDocIdsHash());
+        Path docDataFile = getCurrentPath(storage, new IndexFileName.ForwardDocData());
+        Path spansFile = getCurrentPath(storage, new IndexFileName.ForwardSpansData());
 
-        return new ForwardIndexReader(docIdsFile, docDataFile, spansFile);
+        return new ForwardIndexReader(docIdsFile, docIdsHashFile, docDataFile, spansFile);
     }
 
-    private Path getCurrentPath(IndexFileName fileName) {
-        return IndexFileName.resolve(liveStorage, fileName, IndexFileName.Version.CURRENT);
+    private Path getCurrentPath(Path storage, IndexFileName fileName) {
+        return IndexFileName.resolve(storage, fileName, IndexFileName.Version.CURRENT);
     }
 
     /** Switches the current index to the next index */
@@ -137,6 +183,35 @@ public class IndexFactory {
         }
     }
 
+    /** Switches the current delta index to the next delta index, if a complete one has been constructed
+     *
+     * @return true if the delta index was switched
+     */
+    public boolean switchDeltaFiles() throws IOException {
+        // The tombstones are written last, so their presence means the next delta index is complete
+        if (!Files.exists(IndexFileName.resolve(deltaStorage, new IndexFileName.DeltaTombstones(), IndexFileName.Version.NEXT))) {
+            return false;
+        }
+
+        for (IndexFileName file : IndexFileName.deltaIndexFiles(languageConfiguration)) {
+            switchFile(
+                    IndexFileName.resolve(deltaStorage, file, IndexFileName.Version.NEXT),
+                    IndexFileName.resolve(deltaStorage, file, IndexFileName.Version.CURRENT)
+            );
+        }
+
+        return true;
+    }
+
+    /** Removes the delta index, which is done when a new main index is installed, as the
+     * main index is constructed from a full load of the data.  Readers of the old delta
+     * index keep their already opened files. */
+    public void deleteDeltaFiles() throws IOException {
+        for (IndexFileName file : IndexFileName.deltaIndexFiles(languageConfiguration)) {
+            Files.deleteIfExists(IndexFileName.resolve(deltaStorage, file, IndexFileName.Version.CURRENT));
+        }
+    }
+
     public void switchFile(Path from, Path to) throws IOException {
         if (Files.exists(from)) {
             logger.info("Switching {} -> {} ({}b)", from.getFileName(), to.getFileName(), Files.size(from));
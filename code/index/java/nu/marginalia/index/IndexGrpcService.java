@@ -23,14 +23,18 @@ import nu.marginalia.language.model.LanguageDefinition;
 import nu.marginalia.linkdb.docs.DocumentDbReader;
 import nu.marginalia.service.module.ServiceConfiguration;
 import nu.marginalia.service.server.DiscoverableService;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
 import org.slf4j.MarkerFactory;
 
+import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 @Singleton
 public class IndexGrpcService
@@ -65,6 +69,7 @@ public class IndexGrpcService
     private final int nodeId;
     private final DocumentDbReader documentDbReader;
     private final ConnectivitySets connectivitySets;
+    private final IndexResultCache resultCache;
 
     @Inject
     public IndexGrpcService(ServiceConfiguration serviceConfiguration,
@@ -73,7 +78,8 @@ public class IndexGrpcService
                             DocumentDbReader documentDbReader,
                             ConnectivitySets connectivitySets,
                             SearchSetsService searchSetsService,
-                            IndexResultRankingService rankingService)
+                            IndexResultRankingService rankingService,
+                            IndexResultCache resultCache)
     {
         this.nodeId = serviceConfiguration.node();
         this.documentDbReader = documentDbReader;
@@ -82,6 +88,7 @@ public class IndexGrpcService
         this.statefulIndex = statefulIndex;
         this.searchSetsService = searchSetsService;
         this.rankingService = rankingService;
+        this.resultCache = resultCache;
         this.keywordHasherByLangIso = new HashMap<>();
 
         for (LanguageDefinition definition : languageConfiguration.languages()) {
@@ -108,6 +115,12 @@ public class IndexGrpcService
                             }
 
                             CombinedIndexReader index = indexReference.get();
+                            DeltaIndex delta = indexReference.delta();
+
+                            List<RpcDecoratedResultItem> cachedResults = resultCache.get(index, delta, request);
+                            if (cachedResults != null) {
+                                return cachedResults;
+                            }
 
                             final SearchSet set = getSearchSet(request);
                             final ConnectivityView connectivityView;
@@ -122,11 +135,14 @@ public class IndexGrpcService
                                 connectivityView = ConnectivityView.empty();
                             }
 
-                            SearchContext rankingContext = SearchContext.create(index, hasher, request, set, connectivityView);
+                            QueryResults queryResults = execute(index, delta, hasher, request, set, connectivityView);
 
-                            IndexQueryExecution queryExecution = new IndexQueryExecution(index, documentDbReader, rankingService, rankingContext, nodeId);
+                            // Results from a query that was cut short by its time budget may be incomplete, don't cache them
+                            if (queryResults.complete()) {
+                                resultCache.put(index, delta, request, queryResults.results());
+                            }
 
-                            return queryExecution.run();
+                            return queryResults.results();
                         }
                         catch (IndexQueryExecution.TooManySimultaneousQueriesException ex) {
                             logger.error("Rejected request execution due to overload");
@@ -156,6 +172,66 @@ public class IndexGrpcService
         }
     }
 
+    /** The results of a query, and whether every execution ran to completion within its time budget */
+    private record QueryResults(List<RpcDecoratedResultItem> results, boolean complete) {}
+
+    /** Run the query against the index, and the delta index if there is one.
+     * <p></p>
+     * The delta index is queried concurrently with the main index, which is queried with the
+     * domains replaced by the delta index rejected.  Both executions run until the deadline of
+     * the request, and the main execution's permit covers both.
+     */
+    private QueryResults execute(CombinedIndexReader index,
+                                 @Nullable DeltaIndex delta,
+                                 KeywordHasher hasher,
+                                 RpcIndexQuery request,
+                                 SearchSet set,
+                                 ConnectivityView connectivityView)
+            throws InterruptedException, SQLException, IndexQueryExecution.TooManySimultaneousQueriesException
+    {
+        SearchContext rankingContext = SearchContext.create(index, hasher, request, set, connectivityView);
+
+        if (delta == null) {
+            var execution = new IndexQueryExecution(index, documentDbReader, rankingService, rankingContext, nodeId);
+            var results = execution.run();
+
+            return new QueryResults(results, execution.isComplete());
+        }
+
+        SearchContext deltaContext = SearchContext.create(delta.index(), hasher, request, set, connectivityView);
+
+        var deltaExecution = new IndexQueryExecution(delta.index(), delta.documentDbReader(), rankingService, deltaContext, nodeId);
+        var mainExecution = new IndexQueryExecution(index, documentDbReader, rankingService, rankingContext, nodeId, delta.tombstonedDomains());
+
+        Future<List<RpcDecoratedResultItem>> deltaRun = deltaExecution.runAlongside();
+        List<RpcDecoratedResultItem> mainResults;
+
+        try {
+            mainResults = mainExecution.run();
+        }
+        catch (Exception ex) {
+            deltaRun.cancel(true);
+            throw ex;
+        }
+
+        List<RpcDecoratedResultItem> deltaResults;
+        boolean deltaComplete;
+
+        try {
+            deltaResults = deltaRun.get();
+            deltaComplete = deltaExecution.isComplete();
+        }
+        catch (ExecutionException ex) {
+            // The results of the main index are still returned, but they are incomplete
+            logger.error("Error in querying the delta index", ex.getCause());
+            deltaResults = List.of();
+            deltaComplete = false;
+        }
+
+        return new QueryResults(DeltaIndex.mergeResults(deltaResults, mainResults, rankingContext.limitTotal),
+                deltaComplete && mainExecution.isComplete());
+    }
+
     private boolean hasSiteTerm(RpcIndexQuery request) {
         for (var term : request.getTerms().getTermsRequireList()) {
             if (term.startsWith("site:"))
@@ -186,14 +262,10 @@ public class IndexGrpcService
             if (!indexReference.isAvailable())
                 return List.of();
 
-            CombinedIndexReader currentIndex = indexReference.get();
-
-            SearchContext context = SearchContext.create(currentIndex,
+            return execute(indexReference.get(), indexReference.delta(),
                     keywordHasherByLangIso.get("en"), request, getSearchSet(request),
                     ConnectivityView.empty()
-                    );
-
-            return new IndexQueryExecution(currentIndex, documentDbReader, rankingService, context, 1).run();
+                    ).results();
         }
         catch (Exception ex) {
             logger.error("Error in handling request", ex);
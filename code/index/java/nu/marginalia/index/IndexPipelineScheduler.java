@@ -0,0 +1,189 @@
+package nu.marginalia.index;
+
+import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.Gauge;
+import nu.marginalia.piping.PipeStageStats;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Decides how many threads each stage of the query execution pipe gets.
+ * <p></p>
+ * The number of threads handed out to a query shrinks as more queries run at the same time,
+ * so that the total number of pipe threads stays around a multiple of the number of cores,
+ * rather than every query claiming the same fixed number of threads.
+ * <p></p>
+ * The budget is divided between the stages in proportion to how much time each stage has
+ * spent processing items in recent queries, with a boost for stages whose input queue has been
+ * filling up.  The shares start out from the historical fixed stage widths.
+ * */
+public class IndexPipelineScheduler {
+
+    public enum Stage {
+        LOOKUP("Lookup", 32, 8., Integer.MAX_VALUE),
+        DEDUPLICATE("Deduplicate", 16, 1., 4),
+        PROCESSING("Processing", 16, 4., Integer.MAX_VALUE),
+        RANKING("Ranking", 16, 8., Integer.MAX_VALUE);
+
+        public final String stageName;
+        final int minQueueSize;
+        final double initialShare;
+        final int maxThreads;
+
+        Stage(String stageName, int minQueueSize, double initialShare, int maxThreads) {
+            this.stageName = stageName;
+            this.minQueueSize = minQueueSize;
+            this.initialShare = initialShare;
+            this.maxThreads = maxThreads;
+        }
+    }
+
+    /** The stage widths and queue sizes for a single query */
+    public record Sizing(int[] threads, int[] queueSizes) {
+        public int threads(Stage stage) {
+            return threads[stage.ordinal()];
+        }
+        public int queueSize(Stage stage) {
+            return queueSizes[stage.ordinal()];
+        }
+    }
+
+    private static final Counter metric_stage_items = Counter.builder()
+            .name("wmsa_index_exec_stage_items")
+            .help("Number of items processed by each query execution stage")
+            .labelNames("node", "stage")
+            .register();
+    private static final Counter metric_stage_busy = Counter.builder()
+            .name("wmsa_index_exec_stage_busy_seconds")
+            .help("Time spent processing items in each query execution stage")
+            .labelNames("node", "stage")
+            .register();
+    private static final Counter metric_stage_blocked = Counter.builder()
+            .name("wmsa_index_exec_stage_blocked_seconds")
+            .help("Time spent waiting for room in the input queue of each query execution stage")
+            .labelNames("node", "stage")
+            .register();
+    private static final Gauge metric_stage_threads = Gauge.builder()
+            .name("wmsa_index_exec_stage_threads")
+            .help("Number of threads assigned to each query execution stage in the most recent query")
+            .labelNames("node", "stage")
+            .register();
+    private static final Gauge metric_queries_in_flight = Gauge.builder()
+            .name("wmsa_index_exec_queries_in_flight")
+            .help("Number of queries currently executing")
+            .labelNames("node")
+            .register();
+
+    /** Weight of the most recent query in the moving average of the stage shares */
+    private static final double ALPHA = 0.1;
+
+    /** A stage whose input queue was at least this full gets a larger share */
+    private static final double CONGESTED_FILL = 0.9;
+    private static final double CONGESTION_BOOST = 1.5;
+
+    private static final int MIN_THREAD_BUDGET = Stage.values().length;
+
+    private final int cores;
+    private final double oversubscription;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final double[] shares = new double[Stage.values().length];
+
+    public IndexPipelineScheduler(int cores, double oversubscription) {
+        this.cores = cores;
+        this.oversubscription = oversubscription;
+
+        double sum = 0;
+        for (Stage stage : Stage.values()) {
+            sum += stage.initialShare;
+        }
+        for (Stage stage : Stage.values()) {
+            shares[stage.ordinal()] = stage.initialShare / sum;
+        }
+    }
+
+    /** Register the start of a query, and return the stage widths it should use.
+     * Must be paired with a call to {@link #end(String, List)}.
+     *
+     * @param lookupQueries the number of index queries that are fed into the lookup stage
+     */
+    public Sizing begin(String nodeName, int lookupQueries) {
+        int queriesInFlight = inFlight.incrementAndGet();
+        metric_queries_in_flight.labelValues(nodeName).set(queriesInFlight);
+
+        Sizing sizing = size(queriesInFlight, lookupQueries);
+
+        for (Stage stage : Stage.values()) {
+            metric_stage_threads.labelValues(nodeName, stage.stageName).set(sizing.threads(stage));
+        }
+
+        return sizing;
+    }
+
+    /** Register the end of a query, feeding its stage statistics back into the stage shares.
+     *
+     * @param stats the stage statistics from the query's pipe, in stage order
+     */
+    public void end(String nodeName, List<PipeStageStats> stats) {
+        metric_queries_in_flight.labelValues(nodeName).set(inFlight.decrementAndGet());
+
+        double[] demand = new double[shares.length];
+        double totalDemand = 0;
+
+        for (int i = 0; i < stats.size() && i < demand.length; i++) {
+            PipeStageStats stageStats = stats.get(i);
+            String stageName = Stage.values()[i].stageName;
+
+            metric_stage_items.labelValues(nodeName, stageName).inc(stageStats.itemsProcessed());
+            metric_stage_busy.labelValues(nodeName, stageName).inc(stageStats.busyNanos() / 1e9);
+            metric_stage_blocked.labelValues(nodeName, stageName).inc(stageStats.blockedNanos() / 1e9);
+
+            demand[i] = stageStats.busyNanos();
+            if (stageStats.maxQueueFill() >= CONGESTED_FILL) {
+                demand[i] *= CONGESTION_BOOST;
+            }
+            totalDemand += demand[i];
+        }
+
+        // Queries that did next to no work say little about where the time goes
+        if (totalDemand < 1_000_000)
+            return;
+
+        synchronized (shares) {
+            for (int i = 0; i < shares.length; i++) {
+                shares[i] = (1 - ALPHA) * shares[i] + ALPHA * demand[i] / totalDemand;
+            }
+        }
+    }
+
+    Sizing size(int queriesInFlight, int lookupQueries) {
+        int budget = Math.max(MIN_THREAD_BUDGET, (int) Math.ceil(cores * oversubscription / Math.max(1, queriesInFlight)));
+
+        double[] currentShares;
+        synchronized (shares) {
+            currentShares = shares.clone();
+        }
+
+        int[] threads = new int[shares.length];
+        int[] queueSizes = new int[shares.length];
+
+        for (Stage stage : Stage.values()) {
+            int i = stage.ordinal();
+
+            int maxThreads = stage.maxThreads;
+            if (stage == Stage.LOOKUP) {
+                // Each lookup thread works on a separate index query, more threads than queries is pointless
+                maxThreads = Math.max(1, lookupQueries);
+            }
+
+            threads[i] = Math.clamp(Math.round(budget * currentShares[i]), 1, maxThreads);
+            queueSizes[i] = Math.max(stage.minQueueSize, 2 * threads[i]);
+        }
+
+        return new Sizing(threads, queueSizes);
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+}
@@ -15,10 +15,11 @@ import nu.marginalia.api.searchquery.model.results.SearchResultItem;
 import nu.marginalia.api.searchquery.model.results.debug.DebugRankingFactors;
 import nu.marginalia.array.page.LongQueryBuffer;
 import nu.marginalia.index.forward.spans.DecodableDocumentSpans;
-import nu.marginalia.index.forward.spans.DocumentSpans;
 import nu.marginalia.index.model.CombinedDocIdList;
 import nu.marginalia.index.model.DocIdList;
 import nu.marginalia.index.model.RankableDocument;
+import nu.marginalia.index.model.RankableDocumentBatch;
+import nu.marginalia.index.model.RankableDocumentBatchPool;
 import nu.marginalia.index.model.SearchContext;
 import nu.marginalia.index.results.IndexResultRankingService;
 import nu.marginalia.index.reverse.query.IndexQuery;
@@ -31,7 +32,6 @@ import nu.marginalia.piping.*;
 import nu.marginalia.sequence.CodedSequence;
 import nu.marginalia.skiplist.SkipListConstants;
 import nu.marginalia.skiplist.SkipListReader;
-import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,6 +44,8 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.Lock;
 
+import static nu.marginalia.index.IndexPipelineScheduler.Stage.*;
+
 /** Performs an index query */
 public class IndexQueryExecution {
 
@@ -59,6 +61,13 @@ public class IndexQueryExecution {
 
     private static final ExecutorService threadPool = Executors.newCachedThreadPool();
 
+    /** Batches passed from the preparation stage to the ranking stage are recycled between queries */
+    private static final RankableDocumentBatchPool batchPool = new RankableDocumentBatchPool(Integer.getInteger("index.rankingBatchPoolSize", 256));
+
+    private static final IndexPipelineScheduler pipelineScheduler = new IndexPipelineScheduler(
+            Runtime.getRuntime().availableProcessors(),
+            Double.parseDouble(System.getProperty("index.pipelineOversubscription", "2.0")));
+
     private static final Logger log = LoggerFactory.getLogger(IndexQueryExecution.class);
 
     private final DocumentDbReader documentDbReader;
@@ -71,10 +80,15 @@ public class IndexQueryExecution {
     private final List<IndexQuery> queries;
     private final IndexSearchBudget budget;
     private final ResultPriorityQueue resultHeap;
+    private final DocIdDeduplicator deduplicator;
 
     private final int limitTotal;
     private final int limitByDomain;
 
+    /** Set when the lookups are cut short by the time budget or the pipe is stopped before
+     * all input is processed, meaning the results may be missing documents */
+    private volatile boolean truncated = false;
+
     private static final Gauge metric_index_documents_ranked = Gauge.builder()
             .labelNames("node")
             .name("index_exec_documents_ranked")
@@ -99,6 +113,19 @@ public class IndexQueryExecution {
                                IndexResultRankingService rankingService,
                                SearchContext rankingContext,
                                int serviceNode) {
+        this(currentIndex, documentDbReader, rankingService, rankingContext, serviceNode, IntList.of());
+    }
+
+    /**
+     * @param tombstonedDomains domains whose documents in currentIndex have been replaced by a delta index,
+     *                          and are not to be returned
+     */
+    public IndexQueryExecution(CombinedIndexReader currentIndex,
+                               DocumentDbReader documentDbReader,
+                               IndexResultRankingService rankingService,
+                               SearchContext rankingContext,
+                               int serviceNode,
+                               IntList tombstonedDomains) {
         this.currentIndex = currentIndex;
         this.documentDbReader = documentDbReader;
         this.nodeName = Integer.toString(serviceNode);
@@ -111,38 +138,80 @@ public class IndexQueryExecution {
         limitByDomain = rankingContext.limitByDomain;
         limitTotal = rankingContext.limitTotal;
 
-        queries = currentIndex.createQueries(rankingContext);
+        queries = currentIndex.createQueries(rankingContext, tombstonedDomains);
 
+        deduplicator = new DocIdDeduplicator(estimateResultCount(rankingContext));
+    }
+
+    /** Estimate the number of documents the lookups will produce, from the
+     * number of documents matching the rarest term in each path of the query */
+    private static int estimateResultCount(SearchContext rankingContext) {
+        long estimate = 0;
+
+        for (IntList path : rankingContext.compiledQueryIds.paths) {
+            int pathEstimate = Integer.MAX_VALUE;
+            for (int idx : path) {
+                pathEstimate = Math.min(pathEstimate, rankingContext.fullCounts.get(idx));
+            }
+            if (pathEstimate != Integer.MAX_VALUE) {
+                estimate += pathEstimate;
+            }
+        }
+
+        // The lookups are cut off by the time budget, so very large estimates are not meaningful
+        return (int) Math.min(estimate, 1_000_000);
     }
 
     public List<RpcDecoratedResultItem> run() throws InterruptedException, SQLException, TooManySimultaneousQueriesException {
+        return run(true);
+    }
+
+    /** Start the execution in the background, alongside another execution of the same request,
+     * such as that of the delta index next to the main index.  The execution does not take a
+     * permit of its own, as it is counted by the permit of the other execution. */
+    public Future<List<RpcDecoratedResultItem>> runAlongside() {
+        return threadPool.submit(() -> run(false));
+    }
+
+    private List<RpcDecoratedResultItem> run(boolean takePermit) throws InterruptedException, SQLException, TooManySimultaneousQueriesException {
 
-        if (!simultaneousRequests.tryAcquire(budget.timeLeft() / 2, TimeUnit.MILLISECONDS)) {
+        if (takePermit && !simultaneousRequests.tryAcquire(budget.timeLeft() / 2, TimeUnit.MILLISECONDS)) {
             index_execution_rejected_queries
                     .labelValues(nodeName)
                     .inc();
             throw new TooManySimultaneousQueriesException();
         }
 
+        IndexPipelineScheduler.Sizing sizing = pipelineScheduler.begin(nodeName, queries.size());
+        List<PipeStageStats> stageStats = List.of();
+
         try (BufferPipe<IndexQuery> processingPipe = BufferPipe.<IndexQuery>builder(threadPool, Duration.ofSeconds(1))
-                .addStage("Lookup", 32, queries.size(), LookupStage::new)
-                .addStage("Deduplicate", 16, 1, DeduplicateStage::new)
-                .addStage("Processing", 16, 4, PreparationStage::new)
-                .finalStage("Ranking", 16, 8, RankingStage::new))
+                .addStage(LOOKUP.stageName, sizing.queueSize(LOOKUP), sizing.threads(LOOKUP), LookupStage::new)
+                .addStage(DEDUPLICATE.stageName, sizing.queueSize(DEDUPLICATE), sizing.threads(DEDUPLICATE), DeduplicateStage::new)
+                .addStage(PROCESSING.stageName, sizing.queueSize(PROCESSING), sizing.threads(PROCESSING), PreparationStage::new)
+                .finalStage(RANKING.stageName, sizing.queueSize(RANKING), sizing.threads(RANKING), RankingStage::new))
         {
 
             for (IndexQuery query : queries) {
-                processingPipe.offer(query, Duration.ofMillis(budget.timeLeft()));
+                if (!processingPipe.offer(query, Duration.ofMillis(budget.timeLeft()))) {
+                    truncated = true;
+                }
             }
 
             processingPipe.stopFeeding();
 
             if (!processingPipe.join(budget.timeLeft())) {
+                truncated = true;
                 processingPipe.stop();
             }
+
+            stageStats = processingPipe.stageStats();
         }
         finally {
-            simultaneousRequests.release();
+            pipelineScheduler.end(nodeName, stageStats);
+            if (takePermit) {
+                simultaneousRequests.release();
+            }
         }
 
         if (printDebugSummary) {
@@ -211,6 +280,12 @@ public class IndexQueryExecution {
 
 
 
+    /** Returns true if run() processed all matching documents, and false if the execution
+     * was cut short by its time budget, in which case the results may be incomplete */
+    public boolean isComplete() {
+        return !truncated;
+    }
+
     private class LookupStage implements BufferPipe.IntermediateFunction<IndexQuery, CombinedDocIdList> {
         final LongQueryBuffer buffer = new LongQueryBuffer(lookupBatchSize);
         final Lock indexLock = currentIndex.useLock();
@@ -232,8 +307,14 @@ public class IndexQueryExecution {
                 if (buffer.isEmpty())
                     continue;
 
-                if (!output.accept(new CombinedDocIdList(buffer)))
+                if (!output.accept(new CombinedDocIdList(buffer))) {
+                    truncated = true;
                     break;
+                }
+            }
+
+            if (query.hasMore()) {
+                truncated = true;
             }
         }
 
@@ -250,9 +331,6 @@ public class IndexQueryExecution {
 
 
     private class DeduplicateStage implements BufferPipe.IntermediateFunction<CombinedDocIdList, CombinedDocIdList> {
-        // we generally expect at most about 100k items per partition per query, so this should avoid resizing
-        // while not using too much memory (~11MB at the default load factor)
-        private final LongOpenHashSet seen = new LongOpenHashSet(1_000_000);
 
         @Override
         public void process(CombinedDocIdList input, PipeDrain<CombinedDocIdList> output) {
@@ -261,48 +339,47 @@ public class IndexQueryExecution {
                 return;
 
             long[] items = input.array();
-            int n = 0;
-            for (int in = 0; in < items.length; in++) {
-                long id = items[in];
-                if (seen.add(id)) {
-                    items[n++] = id;
-                }
-            }
+            int n = deduplicator.retainUnseen(items, items.length);
 
-            output.accept(new CombinedDocIdList(items, 0, n));
+            if (n > 0) {
+                output.accept(new CombinedDocIdList(items, 0, n));
+            }
         }
 
     }
 
 
-    private class PreparationStage implements BufferPipe.IntermediateFunction<CombinedDocIdList, RankableDocument> {
+    private class PreparationStage implements BufferPipe.IntermediateFunction<CombinedDocIdList, RankableDocumentBatch> {
 
         private final Lock indexLock = currentIndex.useLock();
 
+        // per-thread instances, reused between batches
+        private final long[] termIds = rankingContext.termIdsAll.array;
+        private final SkipListReader.ValueReader[] readers = new SkipListReader.ValueReader[termIds.length];
+        private final BitSet[] priorityTermsPresentDocWise = new BitSet[rankingContext.termIdsPriority.size()];
+
         public PreparationStage() {
             if (!indexLock.tryLock()) {
                 throw new IllegalStateException("Index lock could not be acquired");
             }
+
+            for (int i = 0; i < priorityTermsPresentDocWise.length; i++) {
+                priorityTermsPresentDocWise[i] = new BitSet(lookupBatchSize);
+            }
         }
 
 
         @Override
-        public void process(CombinedDocIdList docIds, PipeDrain<RankableDocument> output) throws IOException {
+        public void process(CombinedDocIdList docIds, PipeDrain<RankableDocumentBatch> output) throws IOException {
 
+            /** Find the priority terms present in each document */
 
-            /** Create bit sets for the priority terms */
-
-            BitSet[] priorityTermsPresentDocWise = new BitSet[rankingContext.termIdsPriority.size()];
-            for (int i = 0; i < rankingContext.termIdsPriority.size(); i++) {
-                priorityTermsPresentDocWise[i] = currentIndex
-                        .getValuePresence(rankingContext, rankingContext.termIdsPriority.getLong(i), docIds);
+            for (int i = 0; i < priorityTermsPresentDocWise.length; i++) {
+                currentIndex.getValuePresence(rankingContext, rankingContext.termIdsPriority.getLong(i), docIds, priorityTermsPresentDocWise[i]);
             }
 
-            long[] termIds = rankingContext.termIdsAll.array;
-
             /** Create value readers for the regular terms */
 
-            SkipListReader.ValueReader[] readers = new SkipListReader.ValueReader[termIds.length];
             SkipListReader.ValueReader firstViableReader = null;
 
             for (int i = 0; i < termIds.length; i++) {
@@ -316,59 +393,57 @@ public class IndexQueryExecution {
                 return;
             }
 
-            for (;;) {
-                /** Fetch data */
+            // Documents are passed on to ranking as a batch, so that their positions can be fetched together
+            RankableDocumentBatch batch = batchPool.acquire(docIds.size(), termIds.length, priorityTermsPresentDocWise.length);
 
-                long[] positionOffsets = new long[termIds.length];
-                long[] metadata = new long[termIds.length];
+            long[] positionOffsets = batch.positionOffsets();
+            long[] termFlags = batch.termFlags();
+            boolean[] priorityTermsPresent = batch.priorityTermsPresent();
 
+            while (batch.size() < batch.capacity()) {
+                /** Fetch data directly into the next slot of the batch */
+
+                int termOffset = batch.termOffset(batch.size());
                 boolean hasViableReader = false;
 
                 for (int i = 0; i < readers.length; i++) {
                     if (readers[i] == null || !readers[i].advance()) {
-                        positionOffsets[i] = metadata[i] = 0L;
+                        positionOffsets[termOffset + i] = termFlags[termOffset + i] = 0L;
                         continue;
                     }
 
                     hasViableReader = true;
-                    positionOffsets[i] = readers[i].getValue(0);
-                    metadata[i] = readers[i].getValue(1);
+                    positionOffsets[termOffset + i] = readers[i].getValue(0);
+                    termFlags[termOffset + i] = readers[i].getValue(1);
                 }
 
                 if (!hasViableReader) break;
 
                 int docIdx = firstViableReader.getIndex();
-                long docId = docIds.at(docIdx);
 
-                if (!isViable(metadata))
+                if (!isViable(termFlags, termOffset))
                     continue;
 
-                /** Create rankable document */
-
-                RankableDocument item = new RankableDocument(docId);
-
                 // strip to term flags
-                for (int i = 0; i < metadata.length; i++) {
-                    metadata[i] &= 0xFFL;
+                for (int i = 0; i < termIds.length; i++) {
+                    termFlags[termOffset + i] &= 0xFFL;
                 }
 
-                item.positionOffsets = positionOffsets;
-                item.termFlags = metadata;
-                item.priorityTermsPresent = new boolean[rankingContext.termIdsPriority.size()];
-
-                for (int i = 0; i < rankingContext.termIdsPriority.size(); i++) {
-                    if (priorityTermsPresentDocWise[i].get(docIdx))
-                        item.priorityTermsPresent[i] = true;
+                int priorityOffset = batch.priorityTermOffset(batch.size());
+                for (int i = 0; i < priorityTermsPresentDocWise.length; i++) {
+                    priorityTermsPresent[priorityOffset + i] = priorityTermsPresentDocWise[i].get(docIdx);
                 }
 
-                if (!output.accept(item))
-                    break;
+                batch.add(docIds.at(docIdx));
             }
 
+            if (batch.isEmpty() || !output.accept(batch)) {
+                batchPool.release(batch);
+            }
         }
 
 
-        private boolean isViable(long[] metadata) {
+        private boolean isViable(long[] termFlags, int termOffset) {
             if (disableViabilityPrecheck)
                 return true;
 
@@ -380,7 +455,7 @@ public class IndexQueryExecution {
                 long minFlagCount = Integer.MAX_VALUE;
 
                 for (int pathIdx : path) {
-                    long value = metadata[pathIdx];
+                    long value = termFlags[termOffset + pathIdx];
 
                     minFlagCount = Math.min(minFlagCount, Long.bitCount((value & 0xFF)));
 
@@ -404,16 +479,23 @@ public class IndexQueryExecution {
 
         @Override
         public void cleanUp() {
+            Arrays.fill(readers, null);
             indexLock.unlock();
         }
     }
 
-    private class RankingStage implements BufferPipe.FinalFunction<RankableDocument> {
+    private class RankingStage implements BufferPipe.FinalFunction<RankableDocumentBatch> {
 
         // per-thread instances
-        private final ScratchIntListPool pool = new ScratchIntListPool(64);
+        private final ScratchIntListPool pool = new ScratchIntListPool(128);
         private final ResultPriorityQueue localResults = new ResultPriorityQueue(rankingContext.limitTotal);
 
+        /** Each document in a batch is loaded into this instance in turn, and only copied
+         * if it makes it into the results */
+        private final RankableDocument scratchDocument = new RankableDocument(
+                rankingContext.termIdsAll.array.length,
+                rankingContext.termIdsPriority.size());
+
         private final Lock indexLock = currentIndex.useLock();
 
         public RankingStage() {
@@ -423,51 +505,45 @@ public class IndexQueryExecution {
         }
 
         @Override
-        public void process(RankableDocument rankableDocument) {
+        public void process(RankableDocumentBatch batch) {
             try (var arena = Arena.ofConfined()) {
-                IntList[] positions = getPositions(arena, rankableDocument.positionOffsets);
-                @Nullable
-                DocumentSpans spans = getSpans(arena, rankableDocument.combinedDocumentId);
+                int n = batch.size();
 
-                if (null == spans) return;
+                // Fetch the spans and positions for the entire batch up front, so that the I/O
+                // is done in a few large submissions rather than per document
+                DecodableDocumentSpans[] codedSpans = currentIndex.getDocumentSpans(arena, Arrays.copyOf(batch.documentIds(), n));
+                CodedSequence[] codedPositions = currentIndex.getTermPositions(arena, batch.positionOffsets(), batch.termOffset(n));
 
-                rankableDocument.documentSpans = spans;
-                rankableDocument.positions = positions;
+                for (int i = 0; i < n; i++) {
+                    batch.copyTo(i, scratchDocument);
+                    process(scratchDocument, codedSpans[i], codedPositions, batch.termOffset(i));
+                }
             }
-
-            SearchResultItem resultItem = rankingService.calculateScore(
-                    null, pool, currentIndex, rankingContext, rankableDocument);
-
-            if (null != resultItem) {
-                rankableDocument.item = resultItem;
-                localResults.add(rankableDocument);
+            finally {
+                batchPool.release(batch);
             }
         }
 
-        @Nullable
-        private DocumentSpans getSpans(Arena arena, long combinedDocumentId) {
-            DecodableDocumentSpans codedSpans = currentIndex.getDocumentSpans(arena, combinedDocumentId);
+        private void process(RankableDocument rankableDocument,
+                             @Nullable DecodableDocumentSpans codedSpans,
+                             CodedSequence[] codedPositions,
+                             int positionsOffset) {
+            if (null == codedSpans) return;
 
-            if (codedSpans == null)
-                return null;
+            // The lists from the previous document are no longer referenced at this point
+            pool.reset();
 
-            return codedSpans.decode(pool::get);
-        }
+            rankableDocument.item = null;
+            rankableDocument.documentSpans = codedSpans.decode(pool::get);
+            decodePositions(pool, codedPositions, positionsOffset, rankableDocument.positions);
 
-        @NotNull
-        private IntList[] getPositions(Arena arena, long[] positionOffsets) {
-            CodedSequence[] codedPositions = currentIndex.getTermPositions(arena, positionOffsets);
-            IntList[] ret = new IntList[codedPositions.length];
+            SearchResultItem resultItem = rankingService.calculateScore(
+                    null, pool, currentIndex, rankingContext, rankableDocument);
 
-            for (int i = 0; i < ret.length; i++) {
-                if (codedPositions[i] != null) {
-                    ret[i] = codedPositions[i].values(pool::get);
-                }
-                else {
-                    ret[i] = IntList.of();
-                }
+            if (null != resultItem) {
+                rankableDocument.item = resultItem;
+                localResults.addCopyOf(rankableDocument);
             }
-            return ret;
         }
 
         @Override
@@ -484,6 +560,23 @@ public class IndexQueryExecution {
         }
     }
 
+    /** Decode the positions in codedPositions[offset...offset+positions.length) into positions */
+    private static void decodePositions(ScratchIntListPool pool,
+                                        CodedSequence[] codedPositions,
+                                        int offset,
+                                        IntList[] positions) {
+        for (int i = 0; i < positions.length; i++) {
+            CodedSequence coded = codedPositions[offset + i];
+
+            if (coded != null) {
+                positions[i] = coded.values(pool::get);
+            }
+            else {
+                positions[i] = IntList.of();
+            }
+        }
+    }
+
 
     public int itemsProcessed() {
         return resultHeap.getItemsProcessed();
@@ -494,16 +587,29 @@ public class IndexQueryExecution {
     /** Rank the results again, gathering detailed ranking information */
     private void performDebugRanking(SearchContext searchContext, List<RankableDocument> results) {
 
-        // Iterate over documents by their index in the combinedDocIds, as we need the index for the
-        // term data arrays as well
+        // The decoded spans and positions are not kept for the results, as they are backed by
+        // the ranking stage's scratch lists, so they are fetched again here
 
         ScratchIntListPool pool = new ScratchIntListPool(128);
-        for (var doc : results) {
-            pool.reset();
-            SearchResultItem score = rankingService.calculateScore(new DebugRankingFactors(), pool, currentIndex, searchContext, doc);
+        try (var arena = Arena.ofConfined()) {
+            for (var doc : results) {
+                DecodableDocumentSpans codedSpans = currentIndex.getDocumentSpans(arena, doc.combinedDocumentId);
+                if (codedSpans == null)
+                    continue;
+
+                CodedSequence[] codedPositions = currentIndex.getTermPositions(arena, doc.positionOffsets);
 
-            if (score != null) {
-                doc.item = score;
+                pool.reset();
+
+                doc.documentSpans = codedSpans.decode(pool::get);
+                doc.positions = new IntList[codedPositions.length];
+                decodePositions(pool, codedPositions, 0, doc.positions);
+
+                SearchResultItem score = rankingService.calculateScore(new DebugRankingFactors(), pool, currentIndex, searchContext, doc);
+
+                if (score != null) {
+                    doc.item = score;
+                }
             }
         }
     }
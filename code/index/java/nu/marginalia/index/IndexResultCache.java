@@ -0,0 +1,196 @@
+package nu.marginalia.index;
+
+import com.google.inject.Singleton;
+import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.Gauge;
+import nu.marginalia.api.searchquery.RpcDecoratedResultItem;
+import nu.marginalia.api.searchquery.RpcIndexQuery;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Cache of final query results, for the head of identical queries that dominate the traffic.
+ * <p></p>
+ * Entries are keyed on the query with the parts that don't affect the result,
+ * such as the timeout, removed.  Each entry remembers which {@link CombinedIndexReader}
+ * and {@link DeltaIndex} it was computed from, and is only served to queries running against the same readers,
+ * so that results from a previous index are never returned once a new index is installed,
+ * even if a slow query against the old index stores its results after the switch.
+ * <p></p>
+ * The cache is bounded by the approximate serialized size of the results, and evicts in
+ * least recently used order.  Entries also expire after a fixed time, as the results depend
+ * on state outside the index, such as the search sets.
+ * */
+@Singleton
+public class IndexResultCache {
+    private static final Counter metric_result_cache_hits = Counter.builder()
+            .name("wmsa_index_result_cache_hits")
+            .help("Index result cache hits")
+            .register();
+    private static final Counter metric_result_cache_misses = Counter.builder()
+            .name("wmsa_index_result_cache_misses")
+            .help("Index result cache misses")
+            .register();
+    private static final Counter metric_result_cache_evictions = Counter.builder()
+            .name("wmsa_index_result_cache_evictions")
+            .help("Index result cache evictions, including expired and invalidated entries")
+            .register();
+    private static final Gauge metric_result_cache_size = Gauge.builder()
+            .name("wmsa_index_result_cache_size_bytes")
+            .help("Approximate size of the index result cache")
+            .register();
+
+    /** Approximate overhead per entry from the map, the entry and the list objects */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final long maxSizeBytes;
+    private final long ttlNanos;
+
+    private record Entry(CombinedIndexReader index, @Nullable DeltaIndex delta, List<RpcDecoratedResultItem> results, long createdNanos, long size) {}
+
+    // Access ordered, guarded by this
+    private final LinkedHashMap<RpcIndexQuery, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long sizeBytes = 0;
+
+    public IndexResultCache() {
+        this(Long.getLong("index.resultCacheSizeMb", 64) * 1024 * 1024,
+             Duration.ofSeconds(Long.getLong("index.resultCacheTtlSeconds", 300)));
+    }
+
+    public IndexResultCache(long maxSizeBytes, Duration ttl) {
+        this.maxSizeBytes = maxSizeBytes;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    public boolean isEnabled() {
+        return maxSizeBytes > 0;
+    }
+
+    /** Returns true if the results for the query may be cached */
+    public boolean isCacheable(RpcIndexQuery request) {
+        return isEnabled() && !request.getParameters().getExportDebugData();
+    }
+
+    /** Look up the results for the query, as computed from the given index
+     *
+     * @return the cached results, or null if there are none
+     */
+    @Nullable
+    public List<RpcDecoratedResultItem> get(CombinedIndexReader index, RpcIndexQuery request) {
+        return get(index, null, request);
+    }
+
+    /** Look up the results for the query, as computed from the given index and delta index
+     *
+     * @return the cached results, or null if there are none
+     */
+    @Nullable
+    public List<RpcDecoratedResultItem> get(CombinedIndexReader index, @Nullable DeltaIndex delta, RpcIndexQuery request) {
+        if (!isCacheable(request))
+            return null;
+
+        RpcIndexQuery key = normalize(request);
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+
+            if (entry != null && (entry.index != index || entry.delta != delta || System.nanoTime() - entry.createdNanos > ttlNanos)) {
+                remove(key, entry);
+                entry = null;
+            }
+
+            if (entry == null) {
+                metric_result_cache_misses.inc();
+                return null;
+            }
+
+            metric_result_cache_hits.inc();
+            return entry.results;
+        }
+    }
+
+    /** Store the results for the query, as computed from the given index */
+    public void put(CombinedIndexReader index, RpcIndexQuery request, List<RpcDecoratedResultItem> results) {
+        put(index, null, request, results);
+    }
+
+    /** Store the results for the query, as computed from the given index and delta index */
+    public void put(CombinedIndexReader index, @Nullable DeltaIndex delta, RpcIndexQuery request, List<RpcDecoratedResultItem> results) {
+        if (!isCacheable(request))
+            return;
+
+        RpcIndexQuery key = normalize(request);
+
+        long size = ENTRY_OVERHEAD + key.getSerializedSize();
+        for (var item : results) {
+            size += item.getSerializedSize();
+        }
+
+        // Don't let a single huge result set flush the cache
+        if (size > maxSizeBytes / 16)
+            return;
+
+        Entry entry = new Entry(index, delta, List.copyOf(results), System.nanoTime(), size);
+
+        synchronized (this) {
+            Entry old = entries.put(key, entry);
+            if (old != null) {
+                sizeBytes -= old.size;
+            }
+            sizeBytes += size;
+
+            evict();
+            metric_result_cache_size.set(sizeBytes);
+        }
+    }
+
+    /** Remove all entries, called when a new index is installed */
+    public void invalidateAll() {
+        synchronized (this) {
+            metric_result_cache_evictions.inc(entries.size());
+            entries.clear();
+            sizeBytes = 0;
+            metric_result_cache_size.set(0);
+        }
+    }
+
+    /** Evict entries in least recently used order until the cache is within its size bound,
+     * must be called while holding the lock */
+    private void evict() {
+        Iterator<Map.Entry<RpcIndexQuery, Entry>> iter = entries.entrySet().iterator();
+
+        while (sizeBytes > maxSizeBytes && iter.hasNext()) {
+            var entry = iter.next();
+            sizeBytes -= entry.getValue().size;
+            iter.remove();
+            metric_result_cache_evictions.inc();
+        }
+    }
+
+    private void remove(RpcIndexQuery key, Entry entry) {
+        entries.remove(key);
+        sizeBytes -= entry.size;
+        metric_result_cache_evictions.inc();
+        metric_result_cache_size.set(sizeBytes);
+    }
+
+    /** Strip the parts of the request that don't affect the results */
+    static RpcIndexQuery normalize(RpcIndexQuery request) {
+        var builder = request.toBuilder();
+
+        builder.clearHumanQuery();
+        if (builder.hasQueryLimits()) {
+            builder.setQueryLimits(builder.getQueryLimits().toBuilder().clearTimeoutMs());
+        }
+
+        return builder.build();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
@@ -13,11 +13,13 @@ import java.util.*;
  */
 public class ResultPriorityQueue implements Iterable<RankableDocument> {
     private final MinMaxPriorityQueue<RankableDocument> queue;
+    private final int limit;
     private final Int2IntOpenHashMap resultsPerDomain = new Int2IntOpenHashMap(10_000);
 
     private int itemsProcessed = 0;
 
     public ResultPriorityQueue(int limit) {
+        this.limit = limit;
         this.queue = MinMaxPriorityQueue.<RankableDocument>orderedBy(Comparator.naturalOrder()).maximumSize(limit).create();
     }
 
@@ -48,6 +50,25 @@ public class ResultPriorityQueue implements Iterable<RankableDocument> {
         return true;
     }
 
+    /** Add a scratch document that will be reused by the caller.  The document is only copied
+     * if it makes it into the queue, which most documents don't once the queue has filled up.
+     */
+    public boolean addCopyOf(@NotNull RankableDocument document) {
+        if (document.item == null)
+            return false;
+
+        int domainId = UrlIdCodec.getDomainId(document.combinedDocumentId);
+
+        itemsProcessed++;
+        resultsPerDomain.addTo(domainId, 1);
+
+        if (queue.size() < limit || document.compareTo(queue.peekLast()) < 0) {
+            queue.add(document.retain());
+        }
+
+        return true;
+    }
+
     public int numResultsFromDomain(int domainId) {
         return resultsPerDomain.get(domainId);
     }
@@ -9,6 +9,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -16,6 +17,10 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /** This class holds {@link CombinedIndexReader} and deals with the stateful nature of the index,
  * i.e. it may be possible to reconstruct the index and load a new set of data.
+ * <p></p>
+ * It also holds the {@link DeltaIndex} with documents loaded since the index was constructed,
+ * if there is one.  The delta index is replaced when a new delta is constructed, and discarded
+ * when a new index is installed, as the new index is constructed from a full load of the data.
  */
 @Singleton
 public class StatefulIndex {
@@ -26,14 +31,19 @@ public class StatefulIndex {
     @NotNull
     private final IndexFactory servicesFactory;
     private final ServiceEventLog eventLog;
+    private final IndexResultCache resultCache;
 
     private volatile CombinedIndexReader combinedIndexReader;
+    @Nullable
+    private volatile DeltaIndex deltaIndex;
 
     @Inject
     public StatefulIndex(@NotNull IndexFactory servicesFactory,
-                         ServiceEventLog eventLog) {
+                         ServiceEventLog eventLog,
+                         IndexResultCache resultCache) {
         this.servicesFactory = servicesFactory;
         this.eventLog = eventLog;
+        this.resultCache = resultCache;
     }
 
     /** For use in testing only */
@@ -41,6 +51,7 @@ public class StatefulIndex {
         this.combinedIndexReader = combinedIndexReader;
         this.servicesFactory = null;
         this.eventLog = null;
+        this.resultCache = new IndexResultCache(0, Duration.ZERO);
     }
 
     public void init() {
@@ -53,6 +64,11 @@ public class StatefulIndex {
             if (combinedIndexReader == null) {
                 combinedIndexReader = servicesFactory.getCombinedIndexReader();
                 eventLog.logEvent("INDEX-INIT", "Index loaded");
+
+                deltaIndex = servicesFactory.getDeltaIndex();
+                if (deltaIndex != null) {
+                    eventLog.logEvent("INDEX-INIT", "Delta index loaded");
+                }
             }
             else {
                 eventLog.logEvent("INDEX-INIT", "No index loaded");
@@ -73,6 +89,7 @@ public class StatefulIndex {
             lock.lock();
 
             CombinedIndexReader oldIndex = combinedIndexReader;
+            DeltaIndex oldDelta = deltaIndex;
 
             servicesFactory.switchFiles();
 
@@ -83,12 +100,26 @@ public class StatefulIndex {
             }
             combinedIndexReader = nextIndex;
 
+            // The new index is constructed from all loaded data, including that of the delta index
+            deltaIndex = null;
+            servicesFactory.deleteDeltaFiles();
+
+            // Cached results are tagged with the index they were computed from and would no longer
+            // be served, but clear them out so they don't keep the old index reachable
+            resultCache.invalidateAll();
+
             if (oldIndex != null) {
                 Thread.ofPlatform()
                         .name("IndexCloser")
                         .start(oldIndex::close);
             }
 
+            if (oldDelta != null) {
+                Thread.ofPlatform()
+                        .name("DeltaIndexCloser")
+                        .start(oldDelta::close);
+            }
+
             eventLog.logEvent("INDEX-SWITCH-OK", "");
         }
         catch (Exception ex) {
@@ -102,6 +133,44 @@ public class StatefulIndex {
         return true;
     }
 
+    /** Replace the delta index with a newly constructed one, leaving the main index as it is */
+    public boolean switchDelta() {
+        eventLog.logEvent("INDEX-SWITCH-DELTA-BEGIN", "");
+        Lock lock = indexReplacementLock.writeLock();
+        try {
+            lock.lock();
+
+            DeltaIndex oldDelta = deltaIndex;
+
+            if (!servicesFactory.switchDeltaFiles()) {
+                eventLog.logEvent("INDEX-SWITCH-DELTA-ERR", "No delta index constructed");
+                return false;
+            }
+
+            DeltaIndex nextDelta = servicesFactory.getDeltaIndex();
+            deltaIndex = nextDelta;
+
+            resultCache.invalidateAll();
+
+            if (oldDelta != null) {
+                Thread.ofPlatform()
+                        .name("DeltaIndexCloser")
+                        .start(oldDelta::close);
+            }
+
+            eventLog.logEvent("INDEX-SWITCH-DELTA-OK", "");
+        }
+        catch (Exception ex) {
+            eventLog.logEvent("INDEX-SWITCH-DELTA-ERR", "");
+            logger.error("Uncaught exception", ex);
+        }
+        finally {
+            lock.unlock();
+        }
+
+        return true;
+    }
+
 
     /** Returns true if the service has initialized */
     public boolean isAvailable() {
@@ -126,11 +195,25 @@ public class StatefulIndex {
         for (;;) {
             // grab a reference to avoid TOCTOU scenario
             var currentCIR = combinedIndexReader;
+            var currentDelta = deltaIndex;
 
             Lock useLock = currentCIR.useLock();
-            if (useLock.tryLock()) {
+            if (!useLock.tryLock()) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            if (currentDelta == null) {
                 return new IndexReference(currentCIR, useLock);
             }
+
+            Lock deltaUseLock = currentDelta.index().useLock();
+            if (deltaUseLock.tryLock()) {
+                return new IndexReference(currentCIR, useLock, currentDelta, deltaUseLock);
+            }
+
+            // The delta index is being closed, and has been replaced
+            useLock.unlock();
             Thread.onSpinWait();
         }
 
@@ -141,12 +224,26 @@ public class StatefulIndex {
         private final CombinedIndexReader index;
         @Nullable
         private final Lock useLock;
+        @Nullable
+        private final DeltaIndex delta;
+        @Nullable
+        private final Lock deltaUseLock;
 
         public IndexReference(
                 @Nullable CombinedIndexReader index,
                 @Nullable Lock useLock) {
+            this(index, useLock, null, null);
+        }
+
+        public IndexReference(
+                @Nullable CombinedIndexReader index,
+                @Nullable Lock useLock,
+                @Nullable DeltaIndex delta,
+                @Nullable Lock deltaUseLock) {
             this.index = index;
             this.useLock = useLock;
+            this.delta = delta;
+            this.deltaUseLock = deltaUseLock;
         }
 
         public boolean isAvailable() {
@@ -161,7 +258,19 @@ public class StatefulIndex {
             return index;
         }
 
+        /** Returns the delta index to query along with the index, or null if there is none */
+        @Nullable
+        public DeltaIndex delta() {
+            if (delta == null || !delta.isLoaded())
+                return null;
+
+            return delta;
+        }
+
         public void close() {
+            if (deltaUseLock != null) {
+                deltaUseLock.unlock();
+            }
             if (useLock != null) {
                 useLock.unlock();
             }
@@ -21,9 +21,19 @@ public sealed interface IndexFileName {
     record PrioDocs() implements IndexFileName {}
 
     record ForwardDocIds() implements IndexFileName { }
+    record ForwardDocIdsHash() implements IndexFileName { }
     record ForwardDocData() implements IndexFileName { }
     record ForwardSpansData() implements IndexFileName { }
 
+    /** The journal pages per language that went into the index, as the first page after each load */
+    record JournalPages() implements IndexFileName { }
+
+    /** The domains of a delta index, whose documents in the main index are superseded */
+    record DeltaTombstones() implements IndexFileName { }
+    /** The document database for the documents of a delta index */
+    record DeltaDocDb() implements IndexFileName { }
+    record DeltaDocDbColumnar() implements IndexFileName { }
+
     static List<IndexFileName> revFullIndexFiles(LanguageConfiguration languageConfiguration) {
         List<IndexFileName> ret = new ArrayList<>();
 
@@ -54,10 +64,28 @@ public sealed interface IndexFileName {
         return List.of(
                 new ForwardDocData(),
                 new ForwardDocIds(),
-                new ForwardSpansData()
+                new ForwardDocIdsHash(),
+                new ForwardSpansData(),
+                new JournalPages()
         );
     }
 
+    /** All files of a delta index, which has a forward index, both reverse indexes,
+     * and its own tombstones and document database */
+    static List<IndexFileName> deltaIndexFiles(LanguageConfiguration languageConfiguration) {
+        List<IndexFileName> ret = new ArrayList<>();
+
+        ret.addAll(forwardIndexFiles());
+        ret.addAll(revFullIndexFiles(languageConfiguration));
+        ret.addAll(revPrioIndexFiles(languageConfiguration));
+
+        ret.add(new DeltaTombstones());
+        ret.add(new DeltaDocDb());
+        ret.add(new DeltaDocDbColumnar());
+
+        return ret;
+    }
+
     static Path resolve(Path basePath, IndexFileName fileName, Version version) {
         return switch (fileName) {
             case FullWords(String isoCode) -> switch (version) {
@@ -88,6 +116,10 @@ public sealed interface IndexFileName {
                 case CURRENT -> basePath.resolve("fwd-doc-id.dat");
                 case NEXT -> basePath.resolve("fwd-doc-id.dat.next");
             };
+            case ForwardDocIdsHash() -> switch (version) {
+                case CURRENT -> basePath.resolve("fwd-doc-id-hash.dat");
+                case NEXT -> basePath.resolve("fwd-doc-id-hash.dat.next");
+            };
             case ForwardDocData() -> switch (version) {
                 case CURRENT -> basePath.resolve("fwd-doc-data.dat");
                 case NEXT -> basePath.resolve("fwd-doc-data.dat.next");
@@ -96,6 +128,23 @@ public sealed interface IndexFileName {
                 case CURRENT -> basePath.resolve("fwd-spans.dat");
                 case NEXT -> basePath.resolve("fwd-spans.dat.next");
             };
+            case JournalPages() -> switch (version) {
+                case CURRENT -> basePath.resolve("journal-pages.properties");
+                case NEXT -> basePath.resolve("journal-pages.properties.next");
+            };
+            case DeltaTombstones() -> switch (version) {
+                case CURRENT -> basePath.resolve("delta-tombstones.dat");
+                case NEXT -> basePath.resolve("delta-tombstones.dat.next");
+            };
+            // The document database names must match what DocumentDbReader expects of its files
+            case DeltaDocDb() -> switch (version) {
+                case CURRENT -> basePath.resolve("documents.db");
+                case NEXT -> basePath.resolve("documents.db.next");
+            };
+            case DeltaDocDbColumnar() -> switch (version) {
+                case CURRENT -> basePath.resolve("documents.dat");
+                case NEXT -> basePath.resolve("documents.dat.next");
+            };
         };
     }
 
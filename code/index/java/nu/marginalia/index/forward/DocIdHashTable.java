@@ -0,0 +1,124 @@
+package nu.marginalia.index.forward;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import nu.marginalia.array.LongArray;
+import nu.marginalia.array.LongArrayFactory;
+import nu.marginalia.ffi.LinuxSystemCalls;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/** Static on-disk hash table mapping document ids to their index in the forward index ids file.
+ * <p></p>
+ * The table is built once by the forward index converter and memory mapped by the reader,
+ * so lookups are constant time from the first query, without building a map on the heap.
+ * <p></p>
+ * The table is a linear probing table with a load factor of at most 0.75.  Each slot is a long
+ * holding the upper 32 bits of the key's hash as a fingerprint, and the ids file index plus one,
+ * with zero marking an empty slot.  The document id itself is not stored, instead the candidate
+ * is verified against the ids file, so that unknown ids are reliably rejected.
+ * */
+public class DocIdHashTable implements AutoCloseable {
+    private static final long MAGIC = 0x4449_4448_5442_4C31L; // DIDHTBL1
+
+    private static final int HEADER_SIZE = 4;
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_COUNT = 1;
+    private static final int HEADER_CAPACITY = 2;
+
+    private final LongArray table;
+    private final LongArray ids;
+    private final long mask;
+
+    private DocIdHashTable(LongArray table, LongArray ids) {
+        this.table = table;
+        this.ids = ids;
+        this.mask = table.get(HEADER_CAPACITY) - 1;
+    }
+
+    /** Build the table for the ids in the ids array and write it to tableFile */
+    public static void build(Path tableFile, LongArray ids) throws IOException {
+        long capacity = capacityFor(ids.size());
+
+        try (LongArray table = LongArrayFactory.mmapForWritingConfined(tableFile, HEADER_SIZE + capacity)) {
+            table.set(HEADER_MAGIC, MAGIC);
+            table.set(HEADER_COUNT, ids.size());
+            table.set(HEADER_CAPACITY, capacity);
+
+            long mask = capacity - 1;
+
+            for (long idx = 0; idx < ids.size(); idx++) {
+                long hash = hash(ids.get(idx));
+                long slot = hash & mask;
+
+                while (table.get(HEADER_SIZE + slot) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+
+                table.set(HEADER_SIZE + slot, encodeSlot(hash, idx));
+            }
+
+            table.force();
+        }
+    }
+
+    /** Open a table for reading, verifying it against the ids array.
+     *
+     * @return the table, or null if the table is not valid for the ids array
+     */
+    public static DocIdHashTable open(Path tableFile, LongArray ids) throws IOException {
+        LongArray table = LongArrayFactory.mmapForReadingShared(tableFile);
+
+        if (table.size() < HEADER_SIZE
+            || table.get(HEADER_MAGIC) != MAGIC
+            || table.get(HEADER_COUNT) != ids.size()
+            || table.size() != HEADER_SIZE + table.get(HEADER_CAPACITY))
+        {
+            table.close();
+            return null;
+        }
+
+        LinuxSystemCalls.madviseRandom(table.getMemorySegment());
+
+        return new DocIdHashTable(table, ids);
+    }
+
+    /** Returns the index of the document id in the ids array, or -1 if it is absent */
+    public long get(long documentId) {
+        long hash = hash(documentId);
+        int fingerprint = (int) (hash >>> 32);
+
+        for (long slot = hash & mask;; slot = (slot + 1) & mask) {
+            long value = table.get(HEADER_SIZE + slot);
+
+            if (value == 0)
+                return -1;
+
+            if ((int) (value >>> 32) != fingerprint)
+                continue;
+
+            long idx = (value & 0xFFFF_FFFFL) - 1;
+            if (ids.get(idx) == documentId)
+                return idx;
+        }
+    }
+
+    static long capacityFor(long count) {
+        long minCapacity = Math.max(2, (count * 4 + 2) / 3);
+        long capacity = Long.highestOneBit(minCapacity);
+        return capacity < minCapacity ? capacity * 2 : capacity;
+    }
+
+    private static long encodeSlot(long hash, long idx) {
+        return (hash & 0xFFFF_FFFF_0000_0000L) | (idx + 1);
+    }
+
+    private static long hash(long key) {
+        return HashCommon.murmurHash3(key);
+    }
+
+    @Override
+    public void close() {
+        table.close();
+    }
+}
@@ -3,8 +3,10 @@ package nu.marginalia.index.forward;
 import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import nu.marginalia.array.LongArray;
 import nu.marginalia.array.LongArrayFactory;
+import nu.marginalia.asyncio.UringBatchReader;
 import nu.marginalia.ffi.LinuxSystemCalls;
 import nu.marginalia.index.forward.spans.DecodableDocumentSpans;
+import nu.marginalia.index.forward.spans.DocumentSpansCache;
 import nu.marginalia.index.forward.spans.SpansCodec;
 import nu.marginalia.index.searchset.DomainRankings;
 import nu.marginalia.model.id.UrlIdCodec;
@@ -33,39 +35,58 @@ public class ForwardIndexReader {
     private final LongArray ids;
     private final LongArray data;
 
+    @Nullable
+    private final DocIdHashTable idsTable;
+
+    /** Fallback for indexes constructed without an ids hash table */
     private volatile Long2IntOpenHashMap idsMap;
 
     private final DomainRankings domainRankings;
 
     private final int spansFd;
 
+    @Nullable
+    private final UringBatchReader spansReader;
+    @Nullable
+    private final DocumentSpansCache spansCache;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     public ForwardIndexReader(Path idsFile,
+                              Path idsHashFile,
                               Path dataFile,
                               Path spansFile) throws IOException {
         if (!Files.exists(dataFile)) {
             logger.warn("Failed to create ForwardIndexReader, {} is absent", dataFile);
             ids = null;
+            idsTable = null;
             data = null;
             domainRankings = null;
             spansFd = -1;
+            spansReader = null;
+            spansCache = null;
             return;
         }
         else if (!Files.exists(idsFile)) {
             logger.warn("Failed to create ForwardIndexReader, {} is absent", idsFile);
             ids = null;
+            idsTable = null;
             data = null;
             domainRankings = null;
             spansFd = -1;
+            spansReader = null;
+            spansCache = null;
             return;
         }
         else if (!Files.exists(spansFile)) {
             logger.warn("Failed to create ForwardIndexReader, {} is absent", spansFile);
             ids = null;
+            idsTable = null;
             data = null;
             domainRankings = null;
             spansFd = -1;
+            spansReader = null;
+            spansCache = null;
             return;
         }
 
@@ -83,7 +104,18 @@ public class ForwardIndexReader {
         spansFd = LinuxSystemCalls.openBuffered(spansFile);
         LinuxSystemCalls.fadviseWillneed(spansFd);
 
-        Thread.ofPlatform().start(this::createIdsMap);
+        spansReader = new UringBatchReader(spansFd, 512, 64, 64 * 1024,
+                !Boolean.getBoolean("index.disableBatchedSpansReads"));
+
+        long spansCacheSize = Long.getLong("index.spansCacheSize", 0);
+        spansCache = spansCacheSize > 0 ? new DocumentSpansCache(spansCacheSize) : null;
+
+        idsTable = Files.exists(idsHashFile) ? DocIdHashTable.open(idsHashFile, ids) : null;
+
+        if (idsTable == null) {
+            logger.warn("No valid ids hash table in {}, building map in RAM", idsHashFile);
+            Thread.ofPlatform().start(this::createIdsMap);
+        }
     }
 
     private void createIdsMap() {
@@ -150,6 +182,20 @@ public class ForwardIndexReader {
 
         final long strippedId = UrlIdCodec.removeRank(combinedDocId);
 
+        if (idsTable != null) {
+            long ret = idsTable.get(strippedId);
+
+            if (ret < 0) {
+                logger.warn("Could not find offset for doc {} ({}:{}:{})", combinedDocId,
+                        UrlIdCodec.getRank(combinedDocId),
+                        UrlIdCodec.getDomainId(combinedDocId),
+                        UrlIdCodec.getDocumentOrdinal(combinedDocId));
+                return -1;
+            }
+
+            return (int) ret;
+        }
+
         if (idsMap != null) {
             int ret = idsMap.getOrDefault(strippedId, -1);
 
@@ -181,6 +227,13 @@ public class ForwardIndexReader {
     @Nullable
     public DecodableDocumentSpans getDocumentSpans(Arena arena, long documentId) {
 
+        if (spansCache != null) {
+            MemorySegment cached = spansCache.get(arena, documentId);
+            if (cached != null) {
+                return new DecodableDocumentSpans(cached);
+            }
+        }
+
         long fwdIdxOffset = idxForDoc(documentId);
         if (fwdIdxOffset < 0) {
             return null;
@@ -195,17 +248,82 @@ public class ForwardIndexReader {
 
         LinuxSystemCalls.readAt(spansFd, segment, readOffset);
 
+        if (spansCache != null) {
+            spansCache.offer(documentId, segment);
+        }
+
         return new DecodableDocumentSpans(segment);
     }
 
+    /** Retrieve the document spans for a batch of documents.
+     * <p></p>
+     * Documents that are not in the spans cache are read together in a single
+     * batch, rather than with one pread per document.
+     *
+     * @return the spans for each document, null for documents that are not in the index
+     */
+    public DecodableDocumentSpans[] getDocumentSpans(Arena arena, long[] documentIds) {
+        DecodableDocumentSpans[] ret = new DecodableDocumentSpans[documentIds.length];
+
+        long[] readOffsets = new long[documentIds.length];
+        int[] readSizes = new int[documentIds.length];
+        int misses = 0;
+
+        for (int i = 0; i < documentIds.length; i++) {
+            if (spansCache != null) {
+                MemorySegment cached = spansCache.get(arena, documentIds[i]);
+                if (cached != null) {
+                    ret[i] = new DecodableDocumentSpans(cached);
+                    continue;
+                }
+            }
+
+            long fwdIdxOffset = idxForDoc(documentIds[i]);
+            if (fwdIdxOffset < 0) {
+                continue;
+            }
+
+            long encodedOffset = data.get(ENTRY_SIZE * fwdIdxOffset + SPANS_OFFSET);
+
+            readOffsets[i] = SpansCodec.decodeStartOffset(encodedOffset);
+            readSizes[i] = SpansCodec.decodeSize(encodedOffset);
+            misses++;
+        }
+
+        if (misses == 0)
+            return ret;
+
+        MemorySegment[] segments = spansReader.read(arena, readOffsets, readSizes, documentIds.length);
+
+        for (int i = 0; i < documentIds.length; i++) {
+            if (segments[i] == null)
+                continue;
+
+            if (spansCache != null) {
+                spansCache.offer(documentIds[i], segments[i]);
+            }
+
+            ret[i] = new DecodableDocumentSpans(segments[i]);
+        }
+
+        return ret;
+    }
+
     public int totalDocCount() {
         return (int) ids.size();
     }
 
     public void close() {
+        if (spansReader != null)
+            spansReader.close();
+        if (spansCache != null)
+            spansCache.close();
+
         if (spansFd >= 0)
             LinuxSystemCalls.closeFd(spansFd);
 
+        if (idsTable != null)
+            idsTable.close();
         if (data != null)
             data.close();
         if (ids != null)
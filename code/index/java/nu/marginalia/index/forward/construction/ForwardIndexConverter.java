@@ -1,9 +1,9 @@
 package nu.marginalia.index.forward.construction;
 
-import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import nu.marginalia.array.LongArray;
 import nu.marginalia.array.LongArrayFactory;
 import nu.marginalia.index.config.ForwardIndexParameters;
+import nu.marginalia.index.forward.DocIdHashTable;
 import nu.marginalia.index.forward.spans.IndexSpansWriter;
 import nu.marginalia.index.journal.IndexJournal;
 import nu.marginalia.index.journal.IndexJournalPage;
@@ -32,6 +32,7 @@ public class ForwardIndexConverter {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final Path outputFileDocsId;
+    private final Path outputFileDocsIdHash;
     private final Path outputFileDocsData;
     private final Collection<IndexJournal> journals;
     private final DomainRankings domainRankings;
@@ -40,6 +41,7 @@ public class ForwardIndexConverter {
 
     public ForwardIndexConverter(ProcessHeartbeat heartbeat,
                                  Path outputFileDocsId,
+                                 Path outputFileDocsIdHash,
                                  Path outputFileDocsData,
                                  Path outputFileSpansData,
                                  Collection<IndexJournal> journals,
@@ -47,6 +49,7 @@ public class ForwardIndexConverter {
                                  ) {
         this.heartbeat = heartbeat;
         this.outputFileDocsId = outputFileDocsId;
+        this.outputFileDocsIdHash = outputFileDocsIdHash;
         this.outputFileDocsData = outputFileDocsData;
         this.outputFileSpansData = outputFileSpansData;
         this.journals = journals;
@@ -78,8 +81,8 @@ public class ForwardIndexConverter {
 
             // doc ids -> sorted list of ids
 
-            Long2IntOpenHashMap docIdToIdx = new Long2IntOpenHashMap((int) docsFileId.size());
-            docsFileId.forEach(0, docsFileId.size(), (pos, val) -> docIdToIdx.put(val, (int) pos));
+            DocIdHashTable.build(outputFileDocsIdHash, docsFileId);
+            DocIdHashTable docIdToIdx = DocIdHashTable.open(outputFileDocsIdHash, docsFileId);
 
             progress.progress(TaskSteps.SUPPLEMENTAL_INDEXES);
 
@@ -141,6 +144,7 @@ public class ForwardIndexConverter {
             docFileData.force();
             docsFileId.force();
 
+            docIdToIdx.close();
             docFileData.close();
             docsFileId.close();
 
@@ -186,6 +190,7 @@ public class ForwardIndexConverter {
 
     private void deleteOldFiles() throws IOException {
         Files.deleteIfExists(outputFileDocsId);
+        Files.deleteIfExists(outputFileDocsIdHash);
         Files.deleteIfExists(outputFileDocsData);
     }
 
@@ -0,0 +1,202 @@
+package nu.marginalia.index.forward.spans;
+
+import io.prometheus.metrics.core.metrics.Counter;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+
+import javax.annotation.Nullable;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Bounded off-heap cache of the raw span data for frequently ranked documents.
+ * <p></p>
+ * The cache is split into shards by document id, each shard is a log structured
+ * ring buffer where new entries are appended at the head and the oldest entries
+ * are evicted from the tail, which keeps the bookkeeping down to a single
+ * id to position map per shard.
+ * <p></p>
+ * To keep one-off documents from flushing out the hot set, a document is only
+ * admitted into the cache the second time it's offered.
+ * */
+public class DocumentSpansCache implements AutoCloseable {
+    private static final Counter metric_spans_cache_hits = Counter.builder()
+            .name("wmsa_index_spans_cache_hits")
+            .help("Document spans cache hits")
+            .register();
+    private static final Counter metric_spans_cache_misses = Counter.builder()
+            .name("wmsa_index_spans_cache_misses")
+            .help("Document spans cache misses")
+            .register();
+    private static final Counter metric_spans_cache_evictions = Counter.builder()
+            .name("wmsa_index_spans_cache_evictions")
+            .help("Document spans cache evictions")
+            .register();
+
+    private static final int SHARD_COUNT = 16;
+    private static final int DOORKEEPER_SIZE = 4096;
+
+    /** Entry layout: [long docId][int size][int padding][data ...], aligned to 16 bytes */
+    private static final int HEADER_SIZE = 16;
+    private static final long PADDING_MARKER = -1L;
+
+    private final Arena arena = Arena.ofShared();
+    private final Shard[] shards = new Shard[SHARD_COUNT];
+
+    /** Create a new cache
+     *
+     * @param sizeBytes the total amount of off-heap memory used by the cache
+     */
+    public DocumentSpansCache(long sizeBytes) {
+        long shardSize = alignEntry(sizeBytes / SHARD_COUNT - 15);
+
+        if (shardSize < 4 * HEADER_SIZE) {
+            throw new IllegalArgumentException("Cache size too small: " + sizeBytes);
+        }
+
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards[i] = new Shard(arena.allocate(shardSize, 16));
+        }
+    }
+
+    /** Look up the spans for a document, copying them into the provided arena.
+     *
+     * @return the spans, or null if the document is not in the cache
+     */
+    @Nullable
+    public MemorySegment get(Arena arena, long documentId) {
+        MemorySegment ret = shardFor(documentId).get(arena, documentId);
+
+        if (ret == null) metric_spans_cache_misses.inc();
+        else metric_spans_cache_hits.inc();
+
+        return ret;
+    }
+
+    /** Offer the spans for a document that was missing from the cache.
+     * The data is copied into the cache if the document is admitted.
+     */
+    public void offer(long documentId, MemorySegment data) {
+        shardFor(documentId).offer(documentId, data);
+    }
+
+    private Shard shardFor(long documentId) {
+        return shards[(int) (HashCommon.murmurHash3(documentId) >>> 60) & (SHARD_COUNT - 1)];
+    }
+
+    private static long alignEntry(long size) {
+        return (size + 15) & ~15L;
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    private static class Shard {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final MemorySegment ring;
+        private final long capacity;
+
+        /** Document id to logical position of its entry */
+        private final Long2LongOpenHashMap index = new Long2LongOpenHashMap();
+
+        /** Document ids that have been offered once, by hash slot */
+        private final long[] doorkeeper = new long[DOORKEEPER_SIZE];
+
+        /** Logical positions, the physical position in the ring is the logical position modulo the capacity */
+        private long head = 0;
+        private long tail = 0;
+
+        Shard(MemorySegment ring) {
+            this.ring = ring;
+            this.capacity = ring.byteSize();
+
+            index.defaultReturnValue(-1);
+        }
+
+        @Nullable
+        MemorySegment get(Arena arena, long documentId) {
+            lock.lock();
+            try {
+                long pos = index.get(documentId);
+                if (pos < 0)
+                    return null;
+
+                long physical = pos % capacity;
+                int size = ring.get(ValueLayout.JAVA_INT, physical + 8);
+
+                MemorySegment ret = arena.allocate(size, 8);
+                MemorySegment.copy(ring, physical + HEADER_SIZE, ret, 0, size);
+                return ret;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        void offer(long documentId, MemorySegment data) {
+            long entrySize = alignEntry(HEADER_SIZE + data.byteSize());
+
+            // Don't let a single oversized entry wipe out a large part of the shard
+            if (entrySize > capacity / 4)
+                return;
+
+            lock.lock();
+            try {
+                if (index.containsKey(documentId))
+                    return;
+
+                int doorkeeperSlot = (int) (HashCommon.murmurHash3(documentId) & (DOORKEEPER_SIZE - 1));
+                if (doorkeeper[doorkeeperSlot] != documentId) {
+                    doorkeeper[doorkeeperSlot] = documentId;
+                    return;
+                }
+
+                long physical = head % capacity;
+
+                // Entries are never split across the end of the ring, skip to the start instead
+                long padding = (physical + entrySize > capacity) ? capacity - physical : 0;
+
+                while (head + padding + entrySize - tail > capacity) {
+                    evictTail();
+                }
+
+                if (padding > 0) {
+                    ring.set(ValueLayout.JAVA_LONG, physical, PADDING_MARKER);
+                    head += padding;
+                    physical = 0;
+                }
+
+                ring.set(ValueLayout.JAVA_LONG, physical, documentId);
+                ring.set(ValueLayout.JAVA_INT, physical + 8, (int) data.byteSize());
+                MemorySegment.copy(data, 0, ring, physical + HEADER_SIZE, data.byteSize());
+
+                index.put(documentId, head);
+                head += entrySize;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        private void evictTail() {
+            long physical = tail % capacity;
+            long documentId = ring.get(ValueLayout.JAVA_LONG, physical);
+
+            if (documentId == PADDING_MARKER) {
+                tail += capacity - physical;
+                return;
+            }
+
+            int size = ring.get(ValueLayout.JAVA_INT, physical + 8);
+            if (index.get(documentId) == tail) {
+                index.remove(documentId);
+                metric_spans_cache_evictions.inc();
+            }
+
+            tail += alignEntry(HEADER_SIZE + size);
+        }
+    }
+}
@@ -8,7 +8,9 @@ import nu.marginalia.sequence.CodedSequence;
 import org.jetbrains.annotations.NotNull;
 
 public class RankableDocument implements Comparable<RankableDocument> {
-    public final long combinedDocumentId;
+    /** Not final, as the ranking stage reuses a scratch instance for each document it ranks,
+     * see {@link RankableDocumentBatch#copyTo(int, RankableDocument)} */
+    public long combinedDocumentId;
 
     public long[] termFlags;
     public boolean[] priorityTermsPresent;
@@ -29,6 +31,29 @@ public class RankableDocument implements Comparable<RankableDocument> {
         this.combinedDocumentId = combinedDocumentId;
     }
 
+    /** Create a scratch document with term arrays for the given number of terms */
+    public RankableDocument(int termCount, int priorityTermCount) {
+        this.termFlags = new long[termCount];
+        this.positionOffsets = new long[termCount];
+        this.priorityTermsPresent = new boolean[priorityTermCount];
+        this.positions = new IntList[termCount];
+    }
+
+    /** Create a copy of this document that is safe to retain after the scratch document is reused.
+     * The decoded positions and spans are not copied, as they are backed by pooled lists.
+     */
+    public RankableDocument retain() {
+        RankableDocument copy = new RankableDocument(combinedDocumentId);
+
+        copy.termFlags = termFlags.clone();
+        copy.positionOffsets = positionOffsets.clone();
+        copy.priorityTermsPresent = priorityTermsPresent.clone();
+        copy.item = item;
+        copy.resultsFromDomain = resultsFromDomain;
+
+        return copy;
+    }
+
     @Override
     public int compareTo(@NotNull RankableDocument document) {
         int test = Boolean.compare(item == null, document.item == null);
@@ -0,0 +1,116 @@
+package nu.marginalia.index.model;
+
+/** The term data for a batch of documents, as passed from the preparation stage
+ * to the ranking stage of a query.
+ * <p></p>
+ * The data is kept as a structure of arrays rather than one object per document.  The term data
+ * for the i:th document is found at [i * termCount, (i+1) * termCount) in the position offsets and
+ * term flags arrays, and the priority term presence at [i * priorityTermCount, (i+1) * priorityTermCount).
+ * <p></p>
+ * Batches are recycled through a {@link RankableDocumentBatchPool}, across queries with different
+ * numbers of terms, so the arrays are typically larger than the data they hold.
+ */
+public class RankableDocumentBatch {
+    private int capacity;
+    private int termCount;
+    private int priorityTermCount;
+    private int size;
+
+    private long[] documentIds = new long[0];
+    private long[] positionOffsets = new long[0];
+    private long[] termFlags = new long[0];
+    private boolean[] priorityTermsPresent = new boolean[0];
+
+    /** Empty the batch and make room for up to capacity documents with the given number of terms */
+    public void reset(int capacity, int termCount, int priorityTermCount) {
+        this.capacity = capacity;
+        this.termCount = termCount;
+        this.priorityTermCount = priorityTermCount;
+        this.size = 0;
+
+        if (documentIds.length < capacity) {
+            documentIds = new long[capacity];
+        }
+        if (positionOffsets.length < capacity * termCount) {
+            positionOffsets = new long[capacity * termCount];
+            termFlags = new long[capacity * termCount];
+        }
+        if (priorityTermsPresent.length < capacity * priorityTermCount) {
+            priorityTermsPresent = new boolean[capacity * priorityTermCount];
+        }
+    }
+
+    /** Returns the maximum number of documents the batch can hold without being reset */
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int termCount() {
+        return termCount;
+    }
+
+    public int priorityTermCount() {
+        return priorityTermCount;
+    }
+
+    /** Returns the offset of the term data for the i:th document in
+     * {@link #positionOffsets()} and {@link #termFlags()} */
+    public int termOffset(int i) {
+        return i * termCount;
+    }
+
+    /** Returns the offset of the priority term data for the i:th document in {@link #priorityTermsPresent()} */
+    public int priorityTermOffset(int i) {
+        return i * priorityTermCount;
+    }
+
+    /** Add a document to the batch.  The term data for the document is expected to have been
+     * written to the arrays at {@link #termOffset(int)} and {@link #priorityTermOffset(int)}
+     * of the current size before this is called.  Anything written past the current size
+     * without calling add is overwritten by the next document.
+     */
+    public void add(long combinedDocumentId) {
+        documentIds[size++] = combinedDocumentId;
+    }
+
+    public long documentId(int i) {
+        return documentIds[i];
+    }
+
+    /** Returns the backing array of document ids, which may be longer than the size of the batch */
+    public long[] documentIds() {
+        return documentIds;
+    }
+
+    /** Returns the backing array of position offsets, which may be longer than the batch data */
+    public long[] positionOffsets() {
+        return positionOffsets;
+    }
+
+    /** Returns the backing array of term flags, which may be longer than the batch data */
+    public long[] termFlags() {
+        return termFlags;
+    }
+
+    /** Returns the backing array of priority term presence, which may be longer than the batch data */
+    public boolean[] priorityTermsPresent() {
+        return priorityTermsPresent;
+    }
+
+    /** Load the i:th document of the batch into a reusable document */
+    public void copyTo(int i, RankableDocument document) {
+        document.combinedDocumentId = documentIds[i];
+
+        System.arraycopy(positionOffsets, termOffset(i), document.positionOffsets, 0, termCount);
+        System.arraycopy(termFlags, termOffset(i), document.termFlags, 0, termCount);
+        System.arraycopy(priorityTermsPresent, priorityTermOffset(i), document.priorityTermsPresent, 0, priorityTermCount);
+    }
+}
@@ -0,0 +1,42 @@
+package nu.marginalia.index.model;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/** Pool of {@link RankableDocumentBatch} instances, shared between queries.
+ * <p></p>
+ * Batches that are not returned, e.g. because a query was cut short while
+ * they were queued in the pipe, are simply left to the garbage collector.
+ */
+public class RankableDocumentBatchPool {
+    private final ArrayBlockingQueue<RankableDocumentBatch> freeBatches;
+
+    /**
+     * @param size the maximum number of idle batches to hold on to, zero disables pooling
+     */
+    public RankableDocumentBatchPool(int size) {
+        freeBatches = size > 0 ? new ArrayBlockingQueue<>(size) : null;
+    }
+
+    /** Fetch an empty batch with room for capacity documents with the given number of terms */
+    public RankableDocumentBatch acquire(int capacity, int termCount, int priorityTermCount) {
+        RankableDocumentBatch batch = null;
+
+        if (freeBatches != null) {
+            batch = freeBatches.poll();
+        }
+        if (batch == null) {
+            batch = new RankableDocumentBatch();
+        }
+
+        batch.reset(capacity, termCount, priorityTermCount);
+
+        return batch;
+    }
+
+    /** Return a batch to the pool.  The batch must not be used by the caller afterwards. */
+    public void release(RankableDocumentBatch batch) {
+        if (freeBatches != null) {
+            freeBatches.offer(batch);
+        }
+    }
+}
@@ -9,18 +9,31 @@ public class FullIndexEntrySource implements EntrySource {
 
     private final String term;
     private final SkipListReader reader;
+    private final int prefetchBlocks;
     private int readEntries = 0;
 
     public FullIndexEntrySource(String name,
                                 String term,
                                 SkipListReader reader) {
+        this(name, term, reader, 0);
+    }
+
+    /**
+     * @param prefetchBlocks number of blocks ahead of the reader to prefetch asynchronously, 0 to disable
+     */
+    public FullIndexEntrySource(String name,
+                                String term,
+                                SkipListReader reader,
+                                int prefetchBlocks) {
         this.name = name;
         this.term = term;
         this.reader = reader;
+        this.prefetchBlocks = prefetchBlocks;
     }
 
     @Override
     public void read(LongQueryBuffer buffer) {
+        reader.prefetch(prefetchBlocks);
         readEntries += reader.getKeys(buffer);
     }
 
@@ -4,6 +4,7 @@ import it.unimi.dsi.fastutil.longs.LongList;
 import nu.marginalia.array.LongArray;
 import nu.marginalia.array.LongArrayFactory;
 import nu.marginalia.array.pool.BufferPool;
+import nu.marginalia.asyncio.UringBatchReader;
 import nu.marginalia.ffi.LinuxSystemCalls;
 import nu.marginalia.index.model.*;
 import nu.marginalia.index.reverse.positions.PositionCodec;
@@ -31,10 +32,15 @@ import java.util.stream.Collectors;
 public class FullReverseIndexReader {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
+    /** Number of forward-pointer blocks to prefetch asynchronously ahead of the skip list readers,
+     * 0 disables prefetching */
+    private static final int prefetchBlocks = Integer.getInteger("index.skiplistPrefetchBlocks", 0);
+
     private final Map<String, WordLexicon> wordLexiconMap;
 
     private final LongArray documents;
     private final int positionsFileFd;
+    private final UringBatchReader positionsReader;
     private final BufferPool dataPool;
     private final SkipListValueReader valueReader;
     private final String name;
@@ -53,6 +59,7 @@ public class FullReverseIndexReader {
             this.dataPool = null;
             this.valueReader = null;
             this.positionsFileFd = -1;
+            this.positionsReader = null;
             this.wordLexiconMap = Map.of();
 
             wordLexicons.forEach(WordLexicon::close);
@@ -62,6 +69,8 @@ public class FullReverseIndexReader {
 
         this.wordLexiconMap = wordLexicons.stream().collect(Collectors.toUnmodifiableMap(lexicon -> lexicon.languageIsoCode, v->v));
         this.positionsFileFd = LinuxSystemCalls.openBuffered(positionsFile);
+        this.positionsReader = new UringBatchReader(positionsFileFd, 512, 256, 64 * 1024,
+                !Boolean.getBoolean("index.disableBatchedPositionReads"));
 
         logger.info("Switching reverse index");
 
@@ -72,7 +81,8 @@ public class FullReverseIndexReader {
         valueReader = new SkipListValueReader(documentValues);
 
         dataPool = new BufferPool(documents, SkipListConstants.BLOCK_SIZE,
-                (int) (Long.getLong("index.bufferPoolSize", 512*1024*1024L) / SkipListConstants.BLOCK_SIZE)
+                (int) (Long.getLong("index.bufferPoolSize", 512*1024*1024L) / SkipListConstants.BLOCK_SIZE),
+                prefetchBlocks > 0
         );
 
     }
@@ -108,12 +118,12 @@ public class FullReverseIndexReader {
             return new EmptyEntrySource("full", term);
         }
 
-        long offset = languageContext.wordLexiconFull.wordOffset(termId);
+        long offset = languageContext.wordOffsetFull(termId);
 
         if (offset < 0) // No documents
             return new EmptyEntrySource("full", term);
 
-        return new FullIndexEntrySource(name, term, getReader(offset));
+        return new FullIndexEntrySource(name, term, getReader(offset), prefetchBlocks);
     }
 
     public EntrySource documents(IndexLanguageContext languageContext, SkipListValueRanges ranges, String term, long termId) {
@@ -122,7 +132,7 @@ public class FullReverseIndexReader {
             return new EmptyEntrySource("full", term);
         }
 
-        long offset = languageContext.wordLexiconFull.wordOffset(termId);
+        long offset = languageContext.wordOffsetFull(termId);
 
         if (offset < 0) // No documents
             return new EmptyEntrySource("full", term);
@@ -132,21 +142,19 @@ public class FullReverseIndexReader {
 
     /** Create a filter step requiring the specified termId to exist in the documents */
     public QueryFilterStepIf also(IndexLanguageContext languageContext, String term, long termId, IndexSearchBudget budget) {
-        var lexicon = languageContext.wordLexiconFull;
-        if (null == lexicon)
+        if (null == languageContext.wordLexiconFull)
             return new QueryFilterNoPass();
 
-        long offset = lexicon.wordOffset(termId);
+        long offset = languageContext.wordOffsetFull(termId);
         if (offset < 0) // No documents
             return new QueryFilterNoPass();
 
-        return new ReverseIndexRetainFilter(getReader(offset), name, term, budget);
+        return new ReverseIndexRetainFilter(getReader(offset), name, term, budget, prefetchBlocks);
     }
 
     /** Create a filter step requiring the specified termId to exist in the documents */
     public QueryFilterStepIf any(IndexLanguageContext languageContext, List<String> terms, LongList termIds, IndexSearchBudget budget) {
-        var lexicon = languageContext.wordLexiconFull;
-        if (null == lexicon)
+        if (null == languageContext.wordLexiconFull)
             return new QueryFilterNoPass();
 
         List<SkipListReader> ranges = new ArrayList<>(terms.size());
@@ -154,7 +162,7 @@ public class FullReverseIndexReader {
 
         for (int i = 0; i < termIds.size(); i++) {
             long termId = termIds.getLong(i);
-            long offset = lexicon.wordOffset(termId);
+            long offset = languageContext.wordOffsetFull(termId);
             if (offset < 0) // No documents
                 continue;
             ranges.add(getReader(offset));
@@ -170,11 +178,10 @@ public class FullReverseIndexReader {
 
     /** Create a filter step requiring the specified termId to be absent from the documents */
     public QueryFilterStepIf not(IndexLanguageContext languageContext, String term, long termId, IndexSearchBudget budget) {
-        var lexicon = languageContext.wordLexiconFull;
-        if (null == lexicon)
+        if (null == languageContext.wordLexiconFull)
             return new QueryFilterLetThrough();
 
-        long offset = lexicon.wordOffset(termId);
+        long offset = languageContext.wordOffsetFull(termId);
 
         if (offset < 0) // No documents
             return new QueryFilterLetThrough();
@@ -184,11 +191,10 @@ public class FullReverseIndexReader {
 
     /** Return the number of documents with the termId in the index */
     public int numDocuments(IndexLanguageContext languageContext, long termId) {
-        var lexicon = languageContext.wordLexiconFull;
-        if (null == lexicon)
+        if (null == languageContext.wordLexiconFull)
             return 0;
 
-        long offset = lexicon.wordOffset(termId);
+        long offset = languageContext.wordOffsetFull(termId);
 
         if (offset < 0)
             return 0;
@@ -206,12 +212,11 @@ public class FullReverseIndexReader {
     public SkipListReader.ValueReader getValueReader(SearchContext searchContext,
                                                                long termId,
                                                                CombinedDocIdList keys) {
-        WordLexicon lexicon = searchContext.languageContext.wordLexiconFull;
-        if (null == lexicon) {
+        if (null == searchContext.languageContext.wordLexiconFull) {
             return null;
         }
 
-        long offset = lexicon.wordOffset(termId);
+        long offset = searchContext.languageContext.wordOffsetFull(termId);
         if (offset < 0)
             return null;
 
@@ -219,13 +224,26 @@ public class FullReverseIndexReader {
     }
 
     public BitSet getValuePresence(SearchContext searchContext, long termId, CombinedDocIdList keys) {
-        WordLexicon lexicon = searchContext.languageContext.wordLexiconFull;
-        if (null == lexicon) return new BitSet(keys.size());
+        return getValuePresence(searchContext, termId, keys, new BitSet(keys.size()));
+    }
+
+    /** Mark which of the keys are present for the termId in ret, which is cleared first
+     *
+     * @return ret
+     */
+    public BitSet getValuePresence(SearchContext searchContext, long termId, CombinedDocIdList keys, BitSet ret) {
+        if (null == searchContext.languageContext.wordLexiconFull) {
+            ret.clear();
+            return ret;
+        }
 
-        long offset = lexicon.wordOffset(termId);
-        if (offset < 0) return new BitSet(keys.size());
+        long offset = searchContext.languageContext.wordOffsetFull(termId);
+        if (offset < 0) {
+            ret.clear();
+            return ret;
+        }
 
-        return getReader(offset).getAllPresentValues(keys.array());
+        return getReader(offset).getAllPresentValues(keys.array(), ret);
     }
 
     public void close() {
@@ -245,6 +263,10 @@ public class FullReverseIndexReader {
 
         wordLexiconMap.values().forEach(WordLexicon::close);
 
+        if (positionsReader != null) {
+            positionsReader.close();
+        }
+
         if (positionsFileFd > 0) {
             LinuxSystemCalls.closeFd(positionsFileFd);
         }
@@ -280,4 +302,38 @@ public class FullReverseIndexReader {
         }
         return ret;
     }
+
+    /** Fetch the term positions for the first count position offsets in a flat array,
+     * as laid out by RankableDocumentBatch.
+     * <p></p>
+     * All position offsets are read together through a UringBatchReader, which merges
+     * adjacent reads and submits them as a few large batches rather than one pread
+     * per term per document.
+     *
+     * @return coded position sequences for offsets[0...count), null where there are no positions
+     */
+    public CodedSequence[] getTermPositions(Arena arena, long[] offsets, int count) {
+        long[] fileOffsets = new long[count];
+        int[] sizes = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            long encodedOffset = offsets[i];
+            if (encodedOffset != 0) {
+                fileOffsets[i] = PositionCodec.decodeOffset(encodedOffset);
+                sizes[i] = PositionCodec.decodeSize(encodedOffset);
+            }
+        }
+
+        MemorySegment[] segments = positionsReader.read(arena, fileOffsets, sizes, count);
+
+        CodedSequence[] ret = new CodedSequence[count];
+        for (int i = 0; i < count; i++) {
+            if (segments[i] != null) {
+                ByteBuffer buffer = segments[i].asByteBuffer();
+                ret[i] = new VarintCodedSequence(buffer, 0, buffer.capacity());
+            }
+        }
+
+        return ret;
+    }
 }
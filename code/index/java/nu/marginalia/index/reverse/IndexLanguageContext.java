@@ -1,7 +1,15 @@
 package nu.marginalia.index.reverse;
 
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+
 import javax.annotation.Nullable;
 
+/** Per-query view of the word lexicons for a language.
+ * <p></p>
+ * Word offsets are memoized for the lifetime of the context, since the
+ * same terms are looked up repeatedly while a query is being constructed
+ * and evaluated.
+ * */
 public class IndexLanguageContext {
     public final String languageIsoCode;
 
@@ -11,9 +19,32 @@ public class IndexLanguageContext {
     @Nullable
     final WordLexicon wordLexiconPrio;
 
+    private final Long2LongOpenHashMap wordOffsetsFull = new Long2LongOpenHashMap();
+    private final Long2LongOpenHashMap wordOffsetsPrio = new Long2LongOpenHashMap();
+
     public IndexLanguageContext(String languageIsoCode, WordLexicon wordLexiconFull, WordLexicon wordLexiconPrio) {
         this.languageIsoCode = languageIsoCode;
         this.wordLexiconFull = wordLexiconFull;
         this.wordLexiconPrio = wordLexiconPrio;
     }
+
+    /** Word offset of the term in the full index, negative if absent.
+     * The full index lexicon must not be null. */
+    long wordOffsetFull(long termId) {
+        return wordOffset(wordLexiconFull, wordOffsetsFull, termId);
+    }
+
+    /** Word offset of the term in the priority index, negative if absent.
+     * The priority index lexicon must not be null. */
+    long wordOffsetPrio(long termId) {
+        return wordOffset(wordLexiconPrio, wordOffsetsPrio, termId);
+    }
+
+    private static long wordOffset(WordLexicon lexicon, Long2LongOpenHashMap memo, long termId) {
+        // The context is shared between the query execution threads,
+        // contention is low since each term is only resolved once
+        synchronized (memo) {
+            return memo.computeIfAbsent(termId, lexicon::wordOffset);
+        }
+    }
 }
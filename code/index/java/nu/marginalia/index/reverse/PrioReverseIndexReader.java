@@ -47,7 +47,7 @@ public class PrioReverseIndexReader {
             return new EmptyEntrySource("prio", term);
         }
 
-        long offset = languageContext.wordLexiconPrio.wordOffset(termId);
+        long offset = languageContext.wordOffsetPrio(termId);
 
         if (offset < 0) // No documents
             return new EmptyEntrySource("prio", term);
@@ -63,11 +63,10 @@ public class PrioReverseIndexReader {
      */
     public int numDocuments(IndexLanguageContext languageContext, long termId) {
 
-        var lexicon = languageContext.wordLexiconPrio;
-        if (null == lexicon)
+        if (null == languageContext.wordLexiconPrio)
             return 0;
 
-        long offset = lexicon.wordOffset(termId);
+        long offset = languageContext.wordOffsetPrio(termId);
 
         if (offset < 0) // No documents
             return 0;
@@ -6,6 +6,7 @@ import nu.marginalia.btree.BTreeReader;
 import nu.marginalia.ffi.LinuxSystemCalls;
 import nu.marginalia.index.config.ReverseIndexParameters;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.nio.file.Path;
 
@@ -15,6 +16,11 @@ public class WordLexicon {
     private final BTreeReader wordsBTreeReader;
     private final long wordsDataOffset;
 
+    @Nullable
+    private final WordOffsetCache cache;
+
+    private static final int CACHE_SIZE = Integer.getInteger("index.lexiconCacheSize", 65536);
+
     public WordLexicon(String languageIsoCode, Path fileName) throws IOException {
         this.languageIsoCode = languageIsoCode;
 
@@ -25,6 +31,8 @@ public class WordLexicon {
 
         this.wordsBTreeReader = new BTreeReader(this.words, ReverseIndexParameters.wordsBTreeContext, 0);
         this.wordsDataOffset = wordsBTreeReader.getHeader().dataOffsetLongs();
+
+        this.cache = CACHE_SIZE > 0 ? new WordOffsetCache(fileName.getFileName().toString(), CACHE_SIZE) : null;
     }
 
     /** Calculate the offset of the word in the documents.
@@ -32,6 +40,13 @@ public class WordLexicon {
      * in the index.
      */
     public long wordOffset(long termId) {
+        if (cache != null)
+            return cache.get(termId, this::findWordOffset);
+
+        return findWordOffset(termId);
+    }
+
+    private long findWordOffset(long termId) {
         long idx = wordsBTreeReader.findEntry(termId);
 
         if (idx < 0)
@@ -0,0 +1,160 @@
+package nu.marginalia.index.reverse;
+
+import io.prometheus.metrics.core.datapoints.CounterDataPoint;
+import io.prometheus.metrics.core.metrics.Counter;
+import it.unimi.dsi.fastutil.HashCommon;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongUnaryOperator;
+
+/** Bounded cache of termId to word offset lookups in front of a WordLexicon.
+ * <p></p>
+ * The cache is a 4-way set associative table of primitive arrays, so it never
+ * grows past its initial size and does not box.  Each entry carries a small
+ * saturating use counter, and when a set is full the entry with the lowest count
+ * is replaced, while the others are aged.  This keeps the terms at the head of the
+ * query distribution resident while rare terms cycle through.
+ * <p></p>
+ * Negative lookups are cached as well, since a missing term is just as expensive
+ * to look up in the B-tree as a present one.
+ * */
+public class WordOffsetCache {
+    private static final Counter metric_lexicon_cache_hits = Counter.builder()
+            .name("wmsa_index_lexicon_cache_hits")
+            .help("Word lexicon cache hits")
+            .labelNames("lexicon")
+            .register();
+    private static final Counter metric_lexicon_cache_misses = Counter.builder()
+            .name("wmsa_index_lexicon_cache_misses")
+            .help("Word lexicon cache misses")
+            .labelNames("lexicon")
+            .register();
+
+    private static final int WAYS = 4;
+    private static final int LOCK_COUNT = 64;
+    private static final byte MAX_USES = 127;
+
+    private final long[] keys;
+    private final long[] values;
+
+    /** Use counter for each entry, zero means the entry is empty */
+    private final byte[] uses;
+
+    private final int setMask;
+    private final StampedLock[] locks = new StampedLock[LOCK_COUNT];
+
+    private final CounterDataPoint hits;
+    private final CounterDataPoint misses;
+
+    /** Create a new cache
+     *
+     * @param name the name of the lexicon, used to label the metrics
+     * @param size the number of entries, rounded up to a power of two
+     */
+    public WordOffsetCache(String name, int size) {
+        int sets = Integer.highestOneBit(Math.max(1, (size + WAYS - 1) / WAYS));
+        if (sets * WAYS < size) sets *= 2;
+
+        keys = new long[sets * WAYS];
+        values = new long[sets * WAYS];
+        uses = new byte[sets * WAYS];
+        setMask = sets - 1;
+
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new StampedLock();
+        }
+
+        hits = metric_lexicon_cache_hits.labelValues(name);
+        misses = metric_lexicon_cache_misses.labelValues(name);
+    }
+
+    /** Return the cached word offset for the termId, or invoke lookup and cache its result */
+    public long get(long termId, LongUnaryOperator lookup) {
+        final int set = (int) hash(termId) & setMask;
+        final int base = set * WAYS;
+        final StampedLock lock = locks[set & (LOCK_COUNT - 1)];
+
+        int way;
+        long value;
+
+        long stamp = lock.tryOptimisticRead();
+        way = find(base, termId);
+        value = way >= 0 ? values[base + way] : 0;
+
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                way = find(base, termId);
+                value = way >= 0 ? values[base + way] : 0;
+            }
+            finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        if (way >= 0) {
+            // The use counter is only a replacement heuristic, a lost update is harmless
+            int u = uses[base + way];
+            if (u > 0 && u < MAX_USES) {
+                uses[base + way] = (byte) (u + 1);
+            }
+            hits.inc();
+            return value;
+        }
+
+        misses.inc();
+        value = lookup.applyAsLong(termId);
+
+        stamp = lock.writeLock();
+        try {
+            if (find(base, termId) < 0) {
+                insert(base, termId, value);
+            }
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+
+        return value;
+    }
+
+    private int find(int base, long termId) {
+        for (int i = 0; i < WAYS; i++) {
+            if (keys[base + i] == termId && uses[base + i] != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Must be called with the write lock held */
+    private void insert(int base, long termId, long value) {
+        int victim = 0;
+
+        for (int i = 0; i < WAYS; i++) {
+            int uses = this.uses[base + i];
+            if (uses == 0) {
+                victim = i;
+                break;
+            }
+            if (uses < this.uses[base + victim]) {
+                victim = i;
+            }
+        }
+
+        // Age the surviving entries, so that formerly hot terms eventually make room
+        for (int i = 0; i < WAYS; i++) {
+            if (i != victim && uses[base + i] > 1) {
+                uses[base + i] >>= 1;
+            }
+        }
+
+        keys[base + victim] = termId;
+        values[base + victim] = value;
+        uses[base + victim] = 1;
+    }
+
+    private static long hash(long key) {
+        return HashCommon.murmurHash3(key);
+    }
+}
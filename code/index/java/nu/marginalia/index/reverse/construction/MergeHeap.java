@@ -0,0 +1,153 @@
+package nu.marginalia.index.reverse.construction;
+
+import nu.marginalia.array.LongArray;
+
+import java.util.List;
+
+/** A binary min-heap of source indexes, ordered by the current key of each source,
+ * for merging any number of sorted sources in a single pass.
+ * <p></p>
+ * Ties are broken by the source index, so that when the same key is present in
+ * several sources, the source with the lowest index is taken first.
+ * <p></p>
+ * This class is not thread-safe.
+ */
+public class MergeHeap {
+    private final long[] keys;
+    private final int[] heap;
+    private int size = 0;
+
+    public MergeHeap(int sourceCount) {
+        this.keys = new long[sourceCount];
+        this.heap = new int[sourceCount];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /** Add a source that is not already in the heap */
+    public void add(int source, long key) {
+        keys[source] = key;
+        heap[size] = source;
+        siftUp(size++);
+    }
+
+    /** Returns the source with the lowest key */
+    public int top() {
+        return heap[0];
+    }
+
+    /** Returns the lowest key */
+    public long topKey() {
+        return keys[heap[0]];
+    }
+
+    /** Replace the key of the top source, which must not be lower than the old key */
+    public void updateTop(long key) {
+        keys[heap[0]] = key;
+        siftDown(0);
+    }
+
+    /** Remove the top source from the heap */
+    public void removeTop() {
+        heap[0] = heap[--size];
+        if (size > 0) {
+            siftDown(0);
+        }
+    }
+
+    private boolean less(int a, int b) {
+        long ka = keys[a];
+        long kb = keys[b];
+
+        return ka < kb || (ka == kb && a < b);
+    }
+
+    private void siftUp(int pos) {
+        int source = heap[pos];
+
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (!less(source, heap[parent]))
+                break;
+
+            heap[pos] = heap[parent];
+            pos = parent;
+        }
+
+        heap[pos] = source;
+    }
+
+    private void siftDown(int pos) {
+        int source = heap[pos];
+
+        for (;;) {
+            int child = 2 * pos + 1;
+            if (child >= size)
+                break;
+
+            if (child + 1 < size && less(heap[child + 1], heap[child]))
+                child++;
+
+            if (!less(heap[child], source))
+                break;
+
+            heap[pos] = heap[child];
+            pos = child;
+        }
+
+        heap[pos] = source;
+    }
+
+    /** Count the distinct values in the union of several sorted arrays */
+    public static long countDistinct(List<LongArray> sources) {
+        return mergeDistinct(sources, null);
+    }
+
+    /** Write the distinct values in the union of several sorted arrays into <code>out</code>,
+     * which may be null to only count them.
+     *
+     * @return the number of distinct values
+     */
+    public static long mergeDistinct(List<LongArray> sources, LongArray out) {
+        MergeHeap heap = new MergeHeap(sources.size());
+        long[] pos = new long[sources.size()];
+
+        for (int i = 0; i < sources.size(); i++) {
+            if (sources.get(i).size() > 0) {
+                heap.add(i, sources.get(i).get(0));
+            }
+        }
+
+        long n = 0;
+        long last = 0;
+
+        while (!heap.isEmpty()) {
+            int source = heap.top();
+            long value = heap.topKey();
+
+            if (n == 0 || value != last) {
+                if (out != null) {
+                    out.set(n, value);
+                }
+                n++;
+                last = value;
+            }
+
+            LongArray array = sources.get(source);
+            if (++pos[source] < array.size()) {
+                heap.updateTop(array.get(pos[source]));
+            }
+            else {
+                heap.removeTop();
+            }
+        }
+
+        return n;
+    }
+}
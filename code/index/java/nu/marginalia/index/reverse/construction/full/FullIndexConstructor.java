@@ -4,12 +4,15 @@ import nu.marginalia.index.journal.IndexJournal;
 import nu.marginalia.index.journal.IndexJournalPage;
 import nu.marginalia.index.reverse.construction.DocIdRewriter;
 import nu.marginalia.index.reverse.construction.PositionsFileConstructor;
+import nu.marginalia.process.control.ProcessAdHocTaskHeartbeat;
 import nu.marginalia.process.control.ProcessHeartbeat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class FullIndexConstructor {
@@ -18,6 +21,7 @@ public class FullIndexConstructor {
 
     public enum CreateReverseIndexSteps {
         CONSTRUCT,
+        MERGE,
         FINALIZE,
         FINISHED
     }
@@ -57,18 +61,21 @@ public class FullIndexConstructor {
 
             var journalVersions = journal.pages();
 
-            journalVersions
+            List<FullPreindexReference> preindexes = journalVersions
                 .parallelStream()
                 .map(in -> {
-                    preindexHeartbeat.progress("PREINDEX/MERGE", progress.incrementAndGet(), journalVersions.size());
+                    preindexHeartbeat.progress("PREINDEX", progress.incrementAndGet(), journalVersions.size());
                     return construct(in, posConstructor);
                 })
-                .reduce(this::merge)
-                .ifPresent((index) -> {
-                    heartbeat.progress(CreateReverseIndexSteps.FINALIZE);
-                    finalizeIndex(index);
-                    heartbeat.progress(CreateReverseIndexSteps.FINISHED);
-                });
+                .toList();
+
+            if (!preindexes.isEmpty()) {
+                heartbeat.progress(CreateReverseIndexSteps.MERGE);
+                FullPreindexReference index = merge(preindexes, preindexHeartbeat);
+
+                heartbeat.progress(CreateReverseIndexSteps.FINALIZE);
+                finalizeIndex(index);
+            }
 
             heartbeat.progress(CreateReverseIndexSteps.FINISHED);
         }
@@ -86,24 +93,30 @@ public class FullIndexConstructor {
         }
     }
 
-    private FullPreindexReference merge(FullPreindexReference leftR, FullPreindexReference rightR) {
+    /** Merge the preindexes of all journal pages in a single pass, deleting the sources */
+    private FullPreindexReference merge(List<FullPreindexReference> references, ProcessAdHocTaskHeartbeat preindexHeartbeat) {
+        if (references.size() == 1) {
+            return references.getFirst();
+        }
+
         try {
-            var left = leftR.open();
-            var right = rightR.open();
+            List<FullPreindex> sources = new ArrayList<>(references.size());
+            for (var reference : references) {
+                sources.add(reference.open());
+            }
 
             try {
-                return FullPreindex.merge(tmpDir, left, right).closeToReference();
+                return FullPreindex.merge(tmpDir, sources, preindexHeartbeat).closeToReference();
             } finally {
-                left.delete();
-                right.delete();
+                for (var source : sources) {
+                    source.delete();
+                }
             }
         }
         catch (IOException e) {
             logger.error("Error merging preindex", e);
             throw new RuntimeException(e);
         }
-
-
     }
 
     private void finalizeIndex(FullPreindexReference finalPR) {
@@ -7,8 +7,11 @@ import nu.marginalia.index.config.ReverseIndexParameters;
 import nu.marginalia.index.journal.IndexJournalPage;
 import nu.marginalia.index.reverse.construction.CountToOffsetTransformer;
 import nu.marginalia.index.reverse.construction.DocIdRewriter;
+import nu.marginalia.index.reverse.construction.MergeHeap;
 import nu.marginalia.index.reverse.construction.PositionsFileConstructor;
+import nu.marginalia.process.control.ProcessAdHocTaskHeartbeat;
 import nu.marginalia.skiplist.SkipListWriter;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,17 +19,17 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-
-import static nu.marginalia.array.algo.TwoArrayOperations.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /** Contains the data that would go into a reverse index,
  * that is, a mapping from words to documents, minus the actual
  * index structure that makes the data quick to access while
  * searching.
  * <p>
- * Two preindexes can be merged into a third preindex containing
+ * Any number of preindexes can be merged into a new preindex containing
  * the union of their data.  This operation requires no additional
- * RAM.
+ * RAM beyond a few words per source.
  */
 public class FullPreindex {
     final FullPreindexWordSegments segments;
@@ -128,71 +131,117 @@ public class FullPreindex {
         documents.delete();
     }
 
+    /** Merge any number of preindexes into a new preindex containing the union of their data,
+     * in a single pass.
+     * <p></p>
+     * A heap over the current word of each source yields the words in order.  A word present in
+     * only one source has its documents copied as-is, otherwise the documents of the sources with
+     * that word are merged through a second heap, keeping the first record of any document id present
+     * in several sources.  The merged documents are written sequentially to the output.  The
+     * positions data is not rewritten, as the records only refer to it by offset.
+     *
+     * @param heartbeat receives progress updates over the merged words, may be null
+     */
     public static FullPreindex merge(Path destDir,
-                                     FullPreindex left,
-                                     FullPreindex right) throws IOException {
+                                     List<FullPreindex> sources,
+                                     @Nullable ProcessAdHocTaskHeartbeat heartbeat) throws IOException {
+        final int k = sources.size();
+        final int recordSize = FullPreindexDocuments.RECORD_SIZE_LONGS;
 
-        FullPreindexWordSegments mergingSegment =
-                createMergedSegmentWordFile(destDir, left.segments, right.segments);
-
-        var mergingIter = mergingSegment.constructionIterator(FullPreindexDocuments.RECORD_SIZE_LONGS);
-        var leftIter = left.segments.iterator(FullPreindexDocuments.RECORD_SIZE_LONGS);
-        var rightIter = right.segments.iterator(FullPreindexDocuments.RECORD_SIZE_LONGS);
+        FullPreindexWordSegments mergingSegment = createMergedSegmentWordFile(destDir, sources);
+        final long wordCount = mergingSegment.wordIds.size();
 
         Path docsFile = Files.createTempFile(destDir, "docs", ".dat");
 
-        LongArray mergedDocuments = LongArrayFactory.mmapForWritingConfined(docsFile, left.documents.size() + right.documents.size());
+        long totalDocumentsSize = 0;
+        for (var source : sources) {
+            totalDocumentsSize += source.documents.size();
+        }
 
-        leftIter.next();
-        rightIter.next();
+        LongArray mergedDocuments = LongArrayFactory.mmapForWritingConfined(docsFile, totalDocumentsSize);
 
-        while (mergingIter.canPutMore()
-                && leftIter.isPositionBeforeEnd()
-                && rightIter.isPositionBeforeEnd())
-        {
-            final long currentWord = mergingIter.wordId;
-
-            if (leftIter.wordId == currentWord && rightIter.wordId == currentWord)
-            {
-                // both inputs have documents for the current word
-                mergeSegments(leftIter, rightIter,
-                        left.documents, right.documents,
-                        mergedDocuments, mergingIter);
+        var sourceIters = new FullPreindexWordSegments.SegmentIterator[k];
+        var wordHeap = new MergeHeap(k);
+
+        for (int i = 0; i < k; i++) {
+            sourceIters[i] = sources.get(i).segments.iterator(recordSize);
+            if (sourceIters[i].next()) {
+                wordHeap.add(i, sourceIters[i].wordId);
+            }
+        }
+
+        var docHeap = new MergeHeap(k);
+        long[] docPos = new long[k];
+        long[] docEnd = new long[k];
+        int[] wordSources = new int[k];
+
+        long outPos = 0;
+        long wordIdx = 0;
+
+        while (!wordHeap.isEmpty()) {
+            final long currentWord = wordHeap.topKey();
+
+            if (mergingSegment.wordIds.get(wordIdx) != currentWord)
+                throw new IllegalStateException("Merged word segments out of sync with sources");
+
+            // Gather every source with documents for the current word
+            int n = 0;
+            while (!wordHeap.isEmpty() && wordHeap.topKey() == currentWord) {
+                wordSources[n++] = wordHeap.top();
+                wordHeap.removeTop();
             }
-            else if (leftIter.wordId == currentWord) {
-                if (!copySegment(leftIter, left.documents,  mergingIter, mergedDocuments))
-                    break;
+
+            long written;
+
+            if (n == 1) {
+                var iter = sourceIters[wordSources[0]];
+                written = iter.endOffset - iter.startOffset;
+
+                mergedDocuments.transferFrom(sources.get(wordSources[0]).documents.documents,
+                        iter.startOffset,
+                        outPos,
+                        outPos + written);
             }
-            else if (rightIter.wordId == currentWord) {
-                if (!copySegment(rightIter, right.documents,  mergingIter, mergedDocuments))
-                    break;
+            else {
+                docHeap.clear();
+
+                for (int j = 0; j < n; j++) {
+                    int source = wordSources[j];
+                    docPos[source] = sourceIters[source].startOffset;
+                    docEnd[source] = sourceIters[source].endOffset;
+
+                    if (docPos[source] < docEnd[source]) {
+                        docHeap.add(source, sources.get(source).documents.documents.get(docPos[source]));
+                    }
+                }
+
+                written = mergeDocuments(sources, docHeap, docPos, docEnd, mergedDocuments, outPos);
             }
-            else assert false : "This should never happen"; // the helvetica scenario
-        }
 
-        if (leftIter.isPositionBeforeEnd()) {
-            while (copySegment(leftIter, left.documents,  mergingIter, mergedDocuments));
-        }
+            mergingSegment.counts.set(wordIdx++, written / recordSize);
+            outPos += written;
 
-        if (rightIter.isPositionBeforeEnd()) {
-            while (copySegment(rightIter, right.documents,  mergingIter, mergedDocuments));
+            for (int j = 0; j < n; j++) {
+                int source = wordSources[j];
+                if (sourceIters[source].next()) {
+                    wordHeap.add(source, sourceIters[source].wordId);
+                }
+            }
+
+            if (heartbeat != null && (wordIdx & 0xFFFF) == 0) {
+                heartbeat.progress("MERGE", (int) wordIdx, (int) wordCount);
+            }
         }
 
-        if (leftIter.isPositionBeforeEnd())
-            throw new IllegalStateException("Left has more to go");
-        if (rightIter.isPositionBeforeEnd())
-            throw new IllegalStateException("Right has more to go");
-        if (mergingIter.canPutMore())
+        if (wordIdx != wordCount)
             throw new IllegalStateException("Source iters ran dry before merging iter");
 
-
         mergingSegment.force();
 
         // We may have overestimated the size of the merged docs size in the case there were
         // duplicates in the data, so we need to shrink it to the actual size we wrote.
 
-        mergedDocuments = shrinkMergedDocuments(mergedDocuments,
-                docsFile, FullPreindexDocuments.RECORD_SIZE_LONGS * mergingSegment.totalSize());
+        mergedDocuments = shrinkMergedDocuments(mergedDocuments, docsFile, outPos);
 
         return new FullPreindex(
                 mergingSegment,
@@ -200,27 +249,69 @@ public class FullPreindex {
         );
     }
 
-    /** Create a segment word file with each word from both inputs, with zero counts for all the data.
+    /** Merge the documents of the sources in the heap into dest, removing duplicate document ids
+     *
+     * @return the number of longs written
+     */
+    private static long mergeDocuments(List<FullPreindex> sources,
+                                       MergeHeap docHeap,
+                                       long[] docPos,
+                                       long[] docEnd,
+                                       LongArray dest,
+                                       long outStart)
+    {
+        final int recordSize = FullPreindexDocuments.RECORD_SIZE_LONGS;
+
+        long outPos = outStart;
+        long lastDocId = 0;
+
+        while (!docHeap.isEmpty()) {
+            final int source = docHeap.top();
+            final long docId = docHeap.topKey();
+            final LongArray src = sources.get(source).documents.documents;
+            final long pos = docPos[source];
+
+            if (outPos == outStart || docId != lastDocId) {
+                dest.set(outPos, docId);
+                dest.set(outPos + 1, src.get(pos + 1));
+                dest.set(outPos + 2, src.get(pos + 2));
+                outPos += recordSize;
+
+                lastDocId = docId;
+            }
+
+            docPos[source] = pos + recordSize;
+
+            if (docPos[source] < docEnd[source]) {
+                docHeap.updateTop(src.get(docPos[source]));
+            }
+            else {
+                docHeap.removeTop();
+            }
+        }
+
+        return outPos - outStart;
+    }
+
+    /** Create a segment word file with each word from all inputs, with zero counts for all the data.
      * This is an intermediate product in merging.
      */
     static FullPreindexWordSegments createMergedSegmentWordFile(Path destDir,
-                                                                FullPreindexWordSegments left,
-                                                                FullPreindexWordSegments right) throws IOException {
+                                                                List<FullPreindex> sources) throws IOException {
         Path segmentWordsFile = Files.createTempFile(destDir, "segment_words", ".dat");
         Path segmentCountsFile = Files.createTempFile(destDir, "segment_counts", ".dat");
 
+        List<LongArray> wordIds = new ArrayList<>(sources.size());
+        for (var source : sources) {
+            wordIds.add(source.segments.wordIds);
+        }
+
         // We need total size to request a direct LongArray range.  Seems slower, but is faster.
         // ... see LongArray.directRangeIfPossible(long start, long end)
-        long segmentsSize = countDistinctElements(left.wordIds, right.wordIds,
-                0,  left.wordIds.size(),
-                0,  right.wordIds.size());
+        long segmentsSize = MergeHeap.countDistinct(wordIds);
 
         LongArray wordIdsFile = LongArrayFactory.mmapForWritingConfined(segmentWordsFile, segmentsSize);
-
-        mergeArraysN(1, wordIdsFile, left.wordIds, right.wordIds,
-                0,
-                0, left.wordIds.size(),
-                0, right.wordIds.size());
+        MergeHeap.mergeDistinct(wordIds, wordIdsFile);
 
         LongArray counts = LongArrayFactory.mmapForWritingConfined(segmentCountsFile, segmentsSize);
 
@@ -249,55 +340,4 @@ public class FullPreindex {
         return mergedDocuments;
     }
 
-    /** Merge contents of the segments indicated by leftIter and rightIter into the destionation
-     * segment, and advance the construction iterator with the appropriate size.
-     */
-    private static void mergeSegments(FullPreindexWordSegments.SegmentIterator leftIter,
-                                      FullPreindexWordSegments.SegmentIterator rightIter,
-                                      FullPreindexDocuments left,
-                                      FullPreindexDocuments right,
-                                      LongArray dest,
-                                      FullPreindexWordSegments.SegmentConstructionIterator destIter)
-    {
-        long segSize = mergeArraysN(FullPreindexDocuments.RECORD_SIZE_LONGS,
-                dest,
-                left.documents,
-                right.documents,
-                destIter.startOffset,
-                leftIter.startOffset, leftIter.endOffset,
-                rightIter.startOffset, rightIter.endOffset);
-
-        long distinct = segSize / FullPreindexDocuments.RECORD_SIZE_LONGS;
-        destIter.putNext(distinct);
-        leftIter.next();
-        rightIter.next();
-    }
-
-    /** Copy the data from the source segment at the position and length indicated by sourceIter,
-     * into the destination segment, and advance the construction iterator.
-     */
-    private static boolean copySegment(FullPreindexWordSegments.SegmentIterator sourceIter,
-                                       FullPreindexDocuments srcDocuments,
-                                       FullPreindexWordSegments.SegmentConstructionIterator mergingIter,
-                                       LongArray dest) throws IOException {
-
-        long size = sourceIter.endOffset - sourceIter.startOffset;
-        long start = mergingIter.startOffset;
-        long end = start + size;
-
-        dest.transferFrom(srcDocuments.documents,
-                sourceIter.startOffset,
-                mergingIter.startOffset,
-                end);
-
-        boolean putNext = mergingIter.putNext(size / FullPreindexDocuments.RECORD_SIZE_LONGS);
-        boolean iterNext = sourceIter.next();
-
-        if (!putNext && iterNext)
-            throw new IllegalStateException("Source iterator ran out before dest iterator?!");
-
-        return iterNext;
-    }
-
-
 }
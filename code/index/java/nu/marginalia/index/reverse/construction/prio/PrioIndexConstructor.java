@@ -3,12 +3,15 @@ package nu.marginalia.index.reverse.construction.prio;
 import nu.marginalia.index.journal.IndexJournal;
 import nu.marginalia.index.journal.IndexJournalPage;
 import nu.marginalia.index.reverse.construction.DocIdRewriter;
+import nu.marginalia.process.control.ProcessAdHocTaskHeartbeat;
 import nu.marginalia.process.control.ProcessHeartbeat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class PrioIndexConstructor {
@@ -17,6 +20,7 @@ public class PrioIndexConstructor {
 
     public enum CreateReverseIndexSteps {
         CONSTRUCT,
+        MERGE,
         FINALIZE,
         FINISHED
     }
@@ -50,18 +54,21 @@ public class PrioIndexConstructor {
 
             var journalVersions = journal.pages();
 
-            journalVersions
+            List<PrioPreindexReference> preindexes = journalVersions
                 .parallelStream()
                 .map(in -> {
-                    preindexHeartbeat.progress("PREINDEX/MERGE", progress.incrementAndGet(), journalVersions.size());
+                    preindexHeartbeat.progress("PREINDEX", progress.incrementAndGet(), journalVersions.size());
                     return construct(in);
                 })
-                .reduce(this::merge)
-                .ifPresent((index) -> {
-                    heartbeat.progress(CreateReverseIndexSteps.FINALIZE);
-                    finalizeIndex(index);
-                    heartbeat.progress(CreateReverseIndexSteps.FINISHED);
-                });
+                .toList();
+
+            if (!preindexes.isEmpty()) {
+                heartbeat.progress(CreateReverseIndexSteps.MERGE);
+                PrioPreindexReference index = merge(preindexes, preindexHeartbeat);
+
+                heartbeat.progress(CreateReverseIndexSteps.FINALIZE);
+                finalizeIndex(index);
+            }
 
             heartbeat.progress(CreateReverseIndexSteps.FINISHED);
         }
@@ -79,23 +86,30 @@ public class PrioIndexConstructor {
         }
     }
 
-    private PrioPreindexReference merge(PrioPreindexReference leftR, PrioPreindexReference rightR) {
+    /** Merge the preindexes of all journal pages in a single pass, deleting the sources */
+    private PrioPreindexReference merge(List<PrioPreindexReference> references, ProcessAdHocTaskHeartbeat preindexHeartbeat) {
+        if (references.size() == 1) {
+            return references.getFirst();
+        }
+
         try {
-            var left = leftR.open();
-            var right = rightR.open();
+            List<PrioPreindex> sources = new ArrayList<>(references.size());
+            for (var reference : references) {
+                sources.add(reference.open());
+            }
 
             try {
-                return PrioPreindex.merge(tmpDir, left, right).closeToReference();
+                return PrioPreindex.merge(tmpDir, sources, preindexHeartbeat).closeToReference();
             } finally {
-                left.delete();
-                right.delete();
+                for (var source : sources) {
+                    source.delete();
+                }
             }
         }
         catch (IOException ex) {
             logger.error("Failed to merge preindex", ex);
             throw new RuntimeException(ex);
         }
-
     }
 
     private void finalizeIndex(PrioPreindexReference finalPR) {
@@ -7,6 +7,9 @@ import nu.marginalia.index.config.ReverseIndexParameters;
 import nu.marginalia.index.journal.IndexJournalPage;
 import nu.marginalia.index.reverse.construction.CountToOffsetTransformer;
 import nu.marginalia.index.reverse.construction.DocIdRewriter;
+import nu.marginalia.index.reverse.construction.MergeHeap;
+import nu.marginalia.process.control.ProcessAdHocTaskHeartbeat;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,17 +18,17 @@ import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-
-import static nu.marginalia.array.algo.TwoArrayOperations.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /** Contains the data that would go into a reverse index,
  * that is, a mapping from words to documents, minus the actual
  * index structure that makes the data quick to access while
  * searching.
  * <p>
- * Two preindexes can be merged into a third preindex containing
+ * Any number of preindexes can be merged into a new preindex containing
  * the union of their data.  This operation requires no additional
- * RAM.
+ * RAM beyond a few words per source.
  */
 public class PrioPreindex {
     final PrioPreindexWordSegments segments;
@@ -120,72 +123,111 @@ public class PrioPreindex {
         documents.delete();
     }
 
+    /** Merge any number of preindexes into a new preindex containing the union of their data,
+     * in a single pass.  See {@link nu.marginalia.index.reverse.construction.full.FullPreindex#merge}
+     * for details.
+     *
+     * @param heartbeat receives progress updates over the merged words, may be null
+     */
     public static PrioPreindex merge(Path destDir,
-                                     PrioPreindex left,
-                                     PrioPreindex right) throws IOException {
+                                     List<PrioPreindex> sources,
+                                     @Nullable ProcessAdHocTaskHeartbeat heartbeat) throws IOException {
+        final int k = sources.size();
 
-        PrioPreindexWordSegments mergingSegment =
-                createMergedSegmentWordFile(destDir, left.segments, right.segments);
-
-        var mergingIter = mergingSegment.constructionIterator(1);
-        var leftIter = left.segments.iterator(1);
-        var rightIter = right.segments.iterator(1);
+        PrioPreindexWordSegments mergingSegment = createMergedSegmentWordFile(destDir, sources);
+        final long wordCount = mergingSegment.wordIds.size();
 
         Path docsFile = Files.createTempFile(destDir, "docs", ".dat");
 
-        LongArray mergedDocuments = LongArrayFactory.mmapForWritingConfined(docsFile, left.documents.size() + right.documents.size());
+        long totalDocumentsSize = 0;
+        for (var source : sources) {
+            totalDocumentsSize += source.documents.size();
+        }
 
-        leftIter.next();
-        rightIter.next();
+        LongArray mergedDocuments = LongArrayFactory.mmapForWritingConfined(docsFile, totalDocumentsSize);
 
-        while (mergingIter.canPutMore()
-                && leftIter.isPositionBeforeEnd()
-                && rightIter.isPositionBeforeEnd())
-        {
-            final long currentWord = mergingIter.wordId;
+        var sourceIters = new PrioPreindexWordSegments.SegmentIterator[k];
+        var wordHeap = new MergeHeap(k);
 
-            if (leftIter.wordId == currentWord && rightIter.wordId == currentWord)
-            {
-                // both inputs have documents for the current word
-                mergeSegments(leftIter, rightIter,
-                        left.documents, right.documents,
-                        mergedDocuments, mergingIter);
+        for (int i = 0; i < k; i++) {
+            sourceIters[i] = sources.get(i).segments.iterator(1);
+            if (sourceIters[i].next()) {
+                wordHeap.add(i, sourceIters[i].wordId);
             }
-            else if (leftIter.wordId == currentWord) {
-                if (!copySegment(leftIter, left.documents,  mergingIter, mergedDocuments))
-                    break;
+        }
+
+        var docHeap = new MergeHeap(k);
+        long[] docPos = new long[k];
+        long[] docEnd = new long[k];
+        int[] wordSources = new int[k];
+
+        long outPos = 0;
+        long wordIdx = 0;
+
+        while (!wordHeap.isEmpty()) {
+            final long currentWord = wordHeap.topKey();
+
+            if (mergingSegment.wordIds.get(wordIdx) != currentWord)
+                throw new IllegalStateException("Merged word segments out of sync with sources");
+
+            // Gather every source with documents for the current word
+            int n = 0;
+            while (!wordHeap.isEmpty() && wordHeap.topKey() == currentWord) {
+                wordSources[n++] = wordHeap.top();
+                wordHeap.removeTop();
             }
-            else if (rightIter.wordId == currentWord) {
-                if (!copySegment(rightIter, right.documents,  mergingIter, mergedDocuments))
-                    break;
+
+            long written;
+
+            if (n == 1) {
+                var iter = sourceIters[wordSources[0]];
+                written = iter.endOffset - iter.startOffset;
+
+                mergedDocuments.transferFrom(sources.get(wordSources[0]).documents.documents,
+                        iter.startOffset,
+                        outPos,
+                        outPos + written);
             }
-            else assert false : "This should never happen"; // the helvetica scenario
-        }
+            else {
+                docHeap.clear();
 
-        if (leftIter.isPositionBeforeEnd()) {
-            while (copySegment(leftIter, left.documents,  mergingIter, mergedDocuments));
-        }
+                for (int j = 0; j < n; j++) {
+                    int source = wordSources[j];
+                    docPos[source] = sourceIters[source].startOffset;
+                    docEnd[source] = sourceIters[source].endOffset;
 
-        if (rightIter.isPositionBeforeEnd()) {
-            while (copySegment(rightIter, right.documents,  mergingIter, mergedDocuments));
-        }
+                    if (docPos[source] < docEnd[source]) {
+                        docHeap.add(source, sources.get(source).documents.documents.get(docPos[source]));
+                    }
+                }
 
+                written = mergeDocuments(sources, docHeap, docPos, docEnd, mergedDocuments, outPos);
+            }
 
-        if (leftIter.isPositionBeforeEnd())
-            throw new IllegalStateException("Left has more to go");
-        if (rightIter.isPositionBeforeEnd())
-            throw new IllegalStateException("Right has more to go");
-        if (mergingIter.canPutMore())
-            throw new IllegalStateException("Source iters ran dry before merging iter");
+            mergingSegment.counts.set(wordIdx++, written);
+            outPos += written;
 
+            for (int j = 0; j < n; j++) {
+                int source = wordSources[j];
+                if (sourceIters[source].next()) {
+                    wordHeap.add(source, sourceIters[source].wordId);
+                }
+            }
+
+            if (heartbeat != null && (wordIdx & 0xFFFF) == 0) {
+                heartbeat.progress("MERGE", (int) wordIdx, (int) wordCount);
+            }
+        }
+
+        if (wordIdx != wordCount)
+            throw new IllegalStateException("Source iters ran dry before merging iter");
 
         mergingSegment.force();
 
         // We may have overestimated the size of the merged docs size in the case there were
         // duplicates in the data, so we need to shrink it to the actual size we wrote.
 
-        mergedDocuments = shrinkMergedDocuments(mergedDocuments,
-                docsFile, mergingSegment.totalSize());
+        mergedDocuments = shrinkMergedDocuments(mergedDocuments, docsFile, outPos);
 
         return new PrioPreindex(
                 mergingSegment,
@@ -193,27 +235,59 @@ public class PrioPreindex {
         );
     }
 
-    /** Create a segment word file with each word from both inputs, with zero counts for all the data.
+    /** Merge the document ids of the sources in the heap into dest, removing duplicates
+     *
+     * @return the number of longs written
+     */
+    private static long mergeDocuments(List<PrioPreindex> sources,
+                                       MergeHeap docHeap,
+                                       long[] docPos,
+                                       long[] docEnd,
+                                       LongArray dest,
+                                       long outStart)
+    {
+        long outPos = outStart;
+        long lastDocId = 0;
+
+        while (!docHeap.isEmpty()) {
+            final int source = docHeap.top();
+            final long docId = docHeap.topKey();
+
+            if (outPos == outStart || docId != lastDocId) {
+                dest.set(outPos++, docId);
+                lastDocId = docId;
+            }
+
+            if (++docPos[source] < docEnd[source]) {
+                docHeap.updateTop(sources.get(source).documents.documents.get(docPos[source]));
+            }
+            else {
+                docHeap.removeTop();
+            }
+        }
+
+        return outPos - outStart;
+    }
+
+    /** Create a segment word file with each word from all inputs, with zero counts for all the data.
      * This is an intermediate product in merging.
      */
     static PrioPreindexWordSegments createMergedSegmentWordFile(Path destDir,
-                                                                PrioPreindexWordSegments left,
-                                                                PrioPreindexWordSegments right) throws IOException {
+                                                                List<PrioPreindex> sources) throws IOException {
         Path segmentWordsFile = Files.createTempFile(destDir, "segment_words", ".dat");
         Path segmentCountsFile = Files.createTempFile(destDir, "segment_counts", ".dat");
 
+        List<LongArray> wordIds = new ArrayList<>(sources.size());
+        for (var source : sources) {
+            wordIds.add(source.segments.wordIds);
+        }
+
         // We need total size to request a direct LongArray range.  Seems slower, but is faster.
         // ... see LongArray.directRangeIfPossible(long start, long end)
-        long segmentsSize = countDistinctElements(left.wordIds, right.wordIds,
-                0,  left.wordIds.size(),
-                0,  right.wordIds.size());
+        long segmentsSize = MergeHeap.countDistinct(wordIds);
 
         LongArray wordIdsFile = LongArrayFactory.mmapForWritingConfined(segmentWordsFile, segmentsSize);
-
-        mergeArraysN(1, wordIdsFile, left.wordIds, right.wordIds,
-                0,
-                0, left.wordIds.size(),
-                0, right.wordIds.size());
+        MergeHeap.mergeDistinct(wordIds, wordIdsFile);
 
         LongArray counts = LongArrayFactory.mmapForWritingConfined(segmentCountsFile, segmentsSize);
 
@@ -242,56 +316,4 @@ public class PrioPreindex {
         return mergedDocuments;
     }
 
-    /** Merge contents of the segments indicated by leftIter and rightIter into the destionation
-     * segment, and advance the construction iterator with the appropriate size.
-     */
-    private static void mergeSegments(PrioPreindexWordSegments.SegmentIterator leftIter,
-                                      PrioPreindexWordSegments.SegmentIterator rightIter,
-                                      PrioPreindexDocuments left,
-                                      PrioPreindexDocuments right,
-                                      LongArray dest,
-                                      PrioPreindexWordSegments.SegmentConstructionIterator destIter)
-    {
-        long segSize = mergeArraysN(1, dest,
-                left.documents,
-                right.documents,
-                destIter.startOffset,
-                leftIter.startOffset, leftIter.endOffset,
-                rightIter.startOffset, rightIter.endOffset);
-
-        destIter.putNext(segSize);
-        leftIter.next();
-        rightIter.next();
-    }
-
-    /** Copy the data from the source segment at the position and length indicated by sourceIter,
-     * into the destination segment, and advance the construction iterator.
-     */
-    /** Copy the data from the source segment at the position and length indicated by sourceIter,
-     * into the destination segment, and advance the construction iterator.
-     */
-    private static boolean copySegment(PrioPreindexWordSegments.SegmentIterator sourceIter,
-                                       PrioPreindexDocuments srcDocuments,
-                                       PrioPreindexWordSegments.SegmentConstructionIterator mergingIter,
-                                       LongArray dest) throws IOException {
-
-        long size = sourceIter.endOffset - sourceIter.startOffset;
-        long start = mergingIter.startOffset;
-        long end = start + size;
-
-        dest.transferFrom(srcDocuments.documents,
-                sourceIter.startOffset,
-                mergingIter.startOffset,
-                end);
-
-        boolean putNext = mergingIter.putNext(size);
-        boolean iterNext = sourceIter.next();
-
-        if (!putNext && iterNext)
-            throw new IllegalStateException("Source iterator ran out before dest iterator?!");
-
-        return iterNext;
-    }
-
-
 }
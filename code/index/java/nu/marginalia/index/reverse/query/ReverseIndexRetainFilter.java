@@ -4,11 +4,20 @@ import nu.marginalia.array.page.LongQueryBuffer;
 import nu.marginalia.index.reverse.query.filter.QueryFilterStepIf;
 import nu.marginalia.skiplist.SkipListReader;
 
-public record ReverseIndexRetainFilter(SkipListReader range, String name, String term, IndexSearchBudget budget) implements QueryFilterStepIf {
+public record ReverseIndexRetainFilter(SkipListReader range, String name, String term, IndexSearchBudget budget, int prefetchBlocks) implements QueryFilterStepIf {
+
+    public ReverseIndexRetainFilter(SkipListReader range, String name, String term, IndexSearchBudget budget) {
+        this(range, name, term, budget, 0);
+    }
 
     @Override
     public void apply(LongQueryBuffer buffer) {
-        while (budget.hasTimeLeft() && range.tryRetainData(buffer));
+        while (budget.hasTimeLeft()) {
+            range.prefetch(prefetchBlocks);
+
+            if (!range.tryRetainData(buffer))
+                break;
+        }
 
         buffer.finalizeFiltering();
     }
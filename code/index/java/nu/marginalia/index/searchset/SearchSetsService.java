@@ -10,6 +10,8 @@ import nu.marginalia.db.DomainTypes;
 import nu.marginalia.domainranking.PageRankDomainRanker;
 import nu.marginalia.domainranking.accumulator.RankingResultHashMapAccumulator;
 import nu.marginalia.domainranking.accumulator.RankingResultHashSetAccumulator;
+import nu.marginalia.domainranking.csr.CsrGraph;
+import nu.marginalia.domainranking.csr.CsrPageRank;
 import nu.marginalia.domainranking.data.GraphSource;
 import nu.marginalia.domainranking.data.LinkGraphSource;
 import nu.marginalia.domainranking.data.SimilarityGraphSource;
@@ -23,6 +25,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
@@ -119,20 +122,24 @@ public class SearchSetsService {
     }
 
     public void recalculateSecondary() {
+        List<DomainRankingSetsService.DomainRankingSet> normalSets = new ArrayList<>();
+
         for (var rankingSet : domainRankingSetsService.getAll()) {
             if (primaryRankingSet.equals(rankingSet.name())) { // Skip the primary ranking set
                 continue;
             }
 
+            if (!rankingSet.isSpecial()) {
+                // These are calculated together below
+                normalSets.add(rankingSet);
+                continue;
+            }
+
             try {
-                if (rankingSet.isSpecial()) {
-                    switch (rankingSet.name()) {
-                        case "BLOGS" -> recalculateSpecialSetSet(rankingSet, DomainTypes.Type.BLOG);
-                        case "SMALL" -> recalculateSpecialSetSet(rankingSet, DomainTypes.Type.SMALL);
-                        case "NONE" -> {} // No-op
-                    }
-                } else {
-                    recalculateNormal(rankingSet);
+                switch (rankingSet.name()) {
+                    case "BLOGS" -> recalculateSpecialSetSet(rankingSet, DomainTypes.Type.BLOG);
+                    case "SMALL" -> recalculateSpecialSetSet(rankingSet, DomainTypes.Type.SMALL);
+                    case "NONE" -> {} // No-op
                 }
             }
             catch (Exception ex) {
@@ -141,20 +148,109 @@ public class SearchSetsService {
             eventLog.logEvent("RANKING-SET-RECALCULATED", rankingSet.name());
         }
 
+        recalculateNormal(normalSets);
     }
 
-    private void recalculateNormal(DomainRankingSetsService.DomainRankingSet rankingSet) {
-        List<String> domains = List.of(rankingSet.domains());
+    /** Recalculate the ranking sets that are based on PageRank.  Each graph is constructed
+     * once and shared by all sets, and the Personalized PageRank of all sets is calculated in
+     * a single batched calculation, so the cost is about that of a single set. */
+    private void recalculateNormal(List<DomainRankingSetsService.DomainRankingSet> normalSets) {
+        List<DomainRankingSetsService.DomainRankingSet> globalSets = new ArrayList<>();
+        List<DomainRankingSetsService.DomainRankingSet> personalizedSets = new ArrayList<>();
+        List<List<Integer>> influenceSets = new ArrayList<>();
+        List<DomainRankingSetsService.DomainRankingSet> recalculatedSets = new ArrayList<>();
+
+        CsrGraph similarityGraph = null;
+        if (normalSets.stream().anyMatch(rankingSet -> rankingSet.domains().length > 0)) {
+            try {
+                similarityGraph = similarityDomains.getCsrGraph();
+            }
+            catch (Exception ex) {
+                logger.warn("Failed to load the similarity graph", ex);
+            }
+        }
 
-        GraphSource source;
+        for (var rankingSet : normalSets) {
+            List<Integer> influence = List.of();
 
-        // Similarity ranking does not behave well with an empty set of domains
-        if (domains.isEmpty()) source = linksDomains;
-        else source = similarityDomains;
+            if (rankingSet.domains().length > 0) {
+                if (similarityGraph == null) {
+                    // Keep the previous data of the set rather than replacing it with the regular PageRank
+                    logger.warn("Not recalculating ranking set {} without the similarity graph", rankingSet.name());
+                    continue;
+                }
 
-        var data = PageRankDomainRanker
-                .forDomainNames(source, domains)
-                .calculate(rankingSet.depth(), RankingResultHashSetAccumulator::new);
+                influence = influenceSet(rankingSet, similarityGraph, similarityDomains);
+            }
+
+            // Similarity ranking does not behave well with an empty set of domains, which would
+            // give all domains a zero score, so such sets fall back on the regular PageRank
+            if (influence.isEmpty()) {
+                globalSets.add(rankingSet);
+            }
+            else {
+                personalizedSets.add(rankingSet);
+                influenceSets.add(influence);
+            }
+            recalculatedSets.add(rankingSet);
+        }
+
+        if (!globalSets.isEmpty()) {
+            try {
+                CsrGraph linkGraph = linksDomains.getCsrGraph();
+
+                // The regular PageRank doesn't depend on the ranking set, so it's calculated once
+                double[] scores = new CsrPageRank(linkGraph).pageRank();
+
+                for (var rankingSet : globalSets) {
+                    updateNormalSet(rankingSet, linkGraph, scores);
+                }
+            }
+            catch (Exception ex) {
+                logger.warn("Failed to recalculate ranking sets {}", globalSets, ex);
+            }
+        }
+
+        if (!personalizedSets.isEmpty()) {
+            try {
+                double[][] scores = PageRankDomainRanker.calculateScores(similarityGraph, influenceSets);
+
+                for (int i = 0; i < personalizedSets.size(); i++) {
+                    updateNormalSet(personalizedSets.get(i), similarityGraph, scores[i]);
+                }
+            }
+            catch (Exception ex) {
+                logger.warn("Failed to recalculate ranking sets {}", personalizedSets, ex);
+            }
+        }
+
+        for (var rankingSet : recalculatedSets) {
+            eventLog.logEvent("RANKING-SET-RECALCULATED", rankingSet.name());
+        }
+    }
+
+    /** Returns the domain ids of the ranking set that are in the similarity graph, which is empty
+     * if the set has no domains or its patterns match no domains in the graph */
+    static List<Integer> influenceSet(DomainRankingSetsService.DomainRankingSet rankingSet,
+                                      CsrGraph similarityGraph,
+                                      GraphSource similarityDomains)
+    {
+        String[] domains = rankingSet.domains();
+
+        if (domains.length == 0)
+            return List.of();
+
+        List<Integer> ret = new ArrayList<>();
+        for (int domainId : similarityDomains.domainIds(List.of(domains))) {
+            if (similarityGraph.vertexOf(domainId) >= 0) {
+                ret.add(domainId);
+            }
+        }
+        return ret;
+    }
+
+    private void updateNormalSet(DomainRankingSetsService.DomainRankingSet rankingSet, CsrGraph graph, double[] scores) {
+        var data = PageRankDomainRanker.accumulate(graph, scores, rankingSet.depth(), RankingResultHashSetAccumulator::new);
 
         var set = new RankingSearchSet(rankingSet.name(), rankingSet.fileName(indexFactory.getSearchSetsBase()), data);
         rankingSets.put(rankingSet.name(), set);
@@ -167,8 +263,6 @@ public class SearchSetsService {
         }
     }
 
-
-
     private void recalculateSpecialSetSet(DomainRankingSetsService.DomainRankingSet rankingSet, DomainTypes.Type type) throws SQLException, IOException {
         TIntList knownDomains = domainTypes.getKnownDomainsByType(type);
 
@@ -0,0 +1,138 @@
+package nu.marginalia.domainranking;
+
+import nu.marginalia.domainranking.csr.CsrGraph;
+import nu.marginalia.domainranking.csr.CsrPageRank;
+import nu.marginalia.domainranking.csr.TopScores;
+import nu.marginalia.domainranking.jgrapht.PersonalizedPageRank;
+import org.jgrapht.Graph;
+import org.jgrapht.alg.scoring.PageRank;
+import org.jgrapht.graph.DefaultDirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Compares the CSR PageRank with the JGraphT PageRank it replaces, on synthetic link graphs
+ * with a skewed in-degree distribution.  The small graph is about the size of the SmallAdjacency
+ * test data, the large graph is closer to the real link graph, and needs a large heap for the
+ * JGraphT variants.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16G")
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class PageRankBenchmark {
+
+    private static final int RESULT_COUNT = 1000;
+
+    @State(Scope.Benchmark)
+    public static class BenchState {
+
+        @Param({"10000", "1000000"})
+        int vertexCount;
+
+        @Param({"10"})
+        int averageDegree;
+
+        int[] vertexIds;
+        int[] sources;
+        int[] dests;
+
+        CsrGraph csrGraph;
+        Graph<Integer, DefaultEdge> jgraphtGraph;
+        List<Integer> influenceSet;
+
+        @Setup(Level.Trial)
+        public void doSetup() throws Exception {
+            Random r = new Random(4711);
+
+            vertexIds = new int[vertexCount];
+            for (int i = 0; i < vertexCount; i++) {
+                // Sparse ids, like domain ids
+                vertexIds[i] = 3 * i + 1;
+            }
+
+            int edgeCount = vertexCount * averageDegree;
+            sources = new int[edgeCount];
+            dests = new int[edgeCount];
+
+            for (int i = 0; i < edgeCount; i++) {
+                sources[i] = vertexIds[r.nextInt(vertexCount)];
+                // A few vertices get most of the links
+                dests[i] = vertexIds[(int) (vertexCount * Math.pow(r.nextDouble(), 3))];
+            }
+
+            csrGraph = buildCsr();
+            jgraphtGraph = buildJGraphT();
+            influenceSet = List.of(vertexIds[0], vertexIds[vertexCount / 2], vertexIds[vertexCount - 1]);
+        }
+
+        CsrGraph buildCsr() throws Exception {
+            return CsrGraph.build(vertexIds, false, consumer -> {
+                for (int i = 0; i < sources.length; i++) {
+                    consumer.accept(sources[i], dests[i], 1.);
+                }
+            });
+        }
+
+        Graph<Integer, DefaultEdge> buildJGraphT() {
+            Graph<Integer, DefaultEdge> graph = new DefaultDirectedGraph<>(DefaultEdge.class);
+
+            for (int id : vertexIds) {
+                graph.addVertex(id);
+            }
+            for (int i = 0; i < sources.length; i++) {
+                graph.addEdge(sources[i], dests[i]);
+            }
+
+            return graph;
+        }
+    }
+
+    @Benchmark
+    public CsrGraph csrBuild(BenchState state) throws Exception {
+        return state.buildCsr();
+    }
+
+    @Benchmark
+    public Graph<Integer, DefaultEdge> jgraphtBuild(BenchState state) {
+        return state.buildJGraphT();
+    }
+
+    @Benchmark
+    public int[] csrPageRank(BenchState state) {
+        double[] scores = new CsrPageRank(state.csrGraph).pageRank();
+        return TopScores.topK(scores, RESULT_COUNT);
+    }
+
+    @Benchmark
+    public List<Integer> jgraphtPageRank(BenchState state) {
+        return topK(new PageRank<>(state.jgraphtGraph).getScores());
+    }
+
+    @Benchmark
+    public int[] csrPersonalizedPageRank(BenchState state) {
+        double[] scores = new CsrPageRank(state.csrGraph).personalizedPageRank(state.influenceSet);
+        return TopScores.topK(scores, RESULT_COUNT);
+    }
+
+    @Benchmark
+    public List<Integer> jgraphtPersonalizedPageRank(BenchState state) {
+        return topK(new PersonalizedPageRank<>(state.jgraphtGraph, state.influenceSet).getScores());
+    }
+
+    /** The top-k selection as PageRankDomainRanker did it before the CSR graph */
+    private static List<Integer> topK(Map<Integer, Double> scores) {
+        return scores.entrySet()
+                .stream()
+                .sorted(Comparator.comparing((Map.Entry<Integer, Double> e) -> -e.getValue()))
+                .limit(RESULT_COUNT)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+}
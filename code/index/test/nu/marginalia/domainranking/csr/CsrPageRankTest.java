@@ -0,0 +1,123 @@
+package nu.marginalia.domainranking.csr;
+
+import nu.marginalia.domainranking.jgrapht.PersonalizedPageRank;
+import org.jgrapht.Graph;
+import org.jgrapht.alg.scoring.PageRank;
+import org.jgrapht.graph.DefaultDirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+import org.jgrapht.graph.DefaultUndirectedWeightedGraph;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CsrPageRankTest {
+
+    @Test
+    void testBuildDropsUnknownVerticesAndDuplicates() throws Exception {
+        var graph = CsrGraph.build(new int[] { 30, 10, 20 }, false, consumer -> {
+            consumer.accept(10, 20, 1.);
+            consumer.accept(10, 20, 1.);
+            consumer.accept(20, 30, 1.);
+            consumer.accept(30, 10, 1.);
+            consumer.accept(40, 10, 1.);
+        });
+
+        assertEquals(3, graph.vertexCount());
+        assertEquals(3, graph.edgeCount());
+
+        assertEquals(10, graph.vertexId(0));
+        assertEquals(2, graph.vertexOf(30));
+        assertEquals(1., graph.outWeight(graph.vertexOf(10)));
+    }
+
+    @Test
+    void testPageRankMatchesJGraphT() throws Exception {
+        var graph = randomGraph(500, 3000);
+        var csrGraph = CsrGraph.fromGraph(graph);
+
+        assertScoresEqual(csrGraph,
+                new PageRank<>(graph).getScores(),
+                new CsrPageRank(csrGraph).pageRank());
+    }
+
+    @Test
+    void testPersonalizedPageRankMatchesJGraphT() throws Exception {
+        var graph = randomGraph(500, 3000);
+        var csrGraph = CsrGraph.fromGraph(graph);
+        var influenceSet = List.of(3, 17, 255);
+
+        assertScoresEqual(csrGraph,
+                new PersonalizedPageRank<>(graph, influenceSet).getScores(),
+                new CsrPageRank(csrGraph).personalizedPageRank(influenceSet));
+    }
+
+    @Test
+    void testBatchedPersonalizedPageRankMatchesSingle() throws Exception {
+        var csrGraph = CsrGraph.fromGraph(randomGraph(500, 3000));
+        var pageRank = new CsrPageRank(csrGraph);
+
+        List<List<Integer>> influenceSets = List.of(
+                List.of(3, 17, 255),
+                List.of(1),
+                List.of(),
+                List.of(400, 401, 402, 403));
+
+        double[][] batched = pageRank.personalizedPageRanks(influenceSets);
+        assertEquals(influenceSets.size(), batched.length);
+
+        for (int i = 0; i < influenceSets.size(); i++) {
+            assertArrayEquals(pageRank.personalizedPageRank(influenceSets.get(i)), batched[i], 1e-12);
+        }
+    }
+
+    @Test
+    void testWeightedUndirectedPageRankMatchesJGraphT() throws Exception {
+        Graph<Integer, DefaultWeightedEdge> graph = new DefaultUndirectedWeightedGraph<>(DefaultWeightedEdge.class);
+        Random r = new Random(1);
+
+        for (int i = 0; i < 200; i++) {
+            graph.addVertex(i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            int src = r.nextInt(200);
+            int dest = r.nextInt(200);
+            if (src != dest && graph.addEdge(src, dest) != null) {
+                graph.setEdgeWeight(src, dest, r.nextDouble());
+            }
+        }
+
+        var csrGraph = CsrGraph.fromGraph(graph);
+
+        assertScoresEqual(csrGraph,
+                new PageRank<>(graph).getScores(),
+                new CsrPageRank(csrGraph).pageRank());
+    }
+
+    private Graph<Integer, DefaultEdge> randomGraph(int vertices, int edges) {
+        Graph<Integer, DefaultEdge> graph = new DefaultDirectedGraph<>(DefaultEdge.class);
+        Random r = new Random(0);
+
+        for (int i = 0; i < vertices; i++) {
+            graph.addVertex(i);
+        }
+        for (int i = 0; i < edges; i++) {
+            graph.addEdge(r.nextInt(vertices), (int) (vertices * Math.pow(r.nextDouble(), 2)));
+        }
+
+        return graph;
+    }
+
+    private void assertScoresEqual(CsrGraph csrGraph, Map<Integer, Double> expected, double[] actual) {
+        assertEquals(expected.size(), actual.length);
+
+        for (int v = 0; v < actual.length; v++) {
+            assertEquals(expected.get(csrGraph.vertexId(v)), actual[v], 1e-6);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package nu.marginalia.domainranking.csr;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TopScoresTest {
+
+    @Test
+    void testTopK() {
+        double[] scores = { 0.1, 0.5, 0.3, 0.9, 0.2 };
+
+        assertArrayEquals(new int[] { 3, 1, 2 }, TopScores.topK(scores, 3));
+    }
+
+    @Test
+    void testTopKLargerThanInput() {
+        double[] scores = { 0.1, 0.5 };
+
+        assertArrayEquals(new int[] { 1, 0 }, TopScores.topK(scores, 10));
+        assertEquals(0, TopScores.topK(scores, 0).length);
+    }
+
+    @Test
+    void testTopKRandom() {
+        Random r = new Random(0);
+        double[] scores = r.doubles(10_000).toArray();
+
+        int[] expected = IntStream.range(0, scores.length)
+                .boxed()
+                .sorted(Comparator.comparingDouble((Integer i) -> scores[i]).reversed())
+                .limit(100)
+                .mapToInt(Integer::intValue)
+                .toArray();
+
+        assertArrayEquals(expected, TopScores.topK(scores, 100));
+    }
+}
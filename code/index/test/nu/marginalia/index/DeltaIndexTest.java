@@ -0,0 +1,64 @@
+package nu.marginalia.index;
+
+import it.unimi.dsi.fastutil.ints.IntList;
+import nu.marginalia.api.searchquery.RpcDecoratedResultItem;
+import nu.marginalia.array.LongArrayFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class DeltaIndexTest {
+    Path tombstonesFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tombstonesFile = Files.createTempFile("delta-tombstones", ".dat");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(tombstonesFile);
+    }
+
+    @Test
+    void testReadTombstones() throws IOException {
+        Files.delete(tombstonesFile);
+
+        try (var array = LongArrayFactory.mmapForWritingConfined(tombstonesFile, 3)) {
+            array.set(0, 5);
+            array.set(1, 17);
+            array.set(2, 1_000_000);
+        }
+
+        assertEquals(IntList.of(5, 17, 1_000_000), DeltaIndex.readTombstones(tombstonesFile));
+    }
+
+    @Test
+    void testMergeResults() {
+        var deltaResults = List.of(result(1.0), result(4.0));
+        var mainResults = List.of(result(2.0), result(3.0), result(5.0));
+
+        var merged = DeltaIndex.mergeResults(deltaResults, mainResults, 4);
+
+        assertEquals(List.of(1.0, 2.0, 3.0, 4.0), merged.stream().map(RpcDecoratedResultItem::getRankingScore).toList());
+    }
+
+    @Test
+    void testMergeResultsNoDeltaResults() {
+        var mainResults = List.of(result(2.0), result(3.0));
+
+        assertSame(mainResults, DeltaIndex.mergeResults(List.of(), mainResults, 10));
+    }
+
+    private RpcDecoratedResultItem result(double score) {
+        return RpcDecoratedResultItem.newBuilder().setRankingScore(score).build();
+    }
+}
@@ -0,0 +1,61 @@
+package nu.marginalia.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocIdDeduplicatorTest {
+
+    @Test
+    void testRetainsFirstOccurrenceInOrder() {
+        var dedup = new DocIdDeduplicator(0);
+
+        long[] first = new long[] { 1, 5, 9, 13, 17 };
+        assertEquals(5, dedup.retainUnseen(first, first.length));
+        assertArrayEquals(new long[] { 1, 5, 9, 13, 17 }, first);
+
+        long[] second = new long[] { 2, 5, 6, 6, 17, 20 };
+        int n = dedup.retainUnseen(second, second.length);
+        assertArrayEquals(new long[] { 2, 6, 20 }, Arrays.copyOf(second, n));
+
+        assertEquals(0, dedup.retainUnseen(new long[0], 0));
+        assertEquals(8, dedup.size());
+    }
+
+    @Test
+    void testConcurrentBatches() throws Exception {
+        var dedup = new DocIdDeduplicator(1000);
+
+        try (var executor = Executors.newFixedThreadPool(8)) {
+            List<Future<Integer>> results = new ArrayList<>();
+
+            // Overlapping sorted batches, every id in [0, 20000) appears in several of them
+            for (int batch = 0; batch < 64; batch++) {
+                long start = batch * 250L;
+                results.add(executor.submit(() -> {
+                    long[] items = LongStream.range(start, start + 5000).toArray();
+                    int n = dedup.retainUnseen(items, items.length);
+                    for (int i = 1; i < n; i++) {
+                        assertTrue(items[i - 1] < items[i]);
+                    }
+                    return n;
+                }));
+            }
+
+            int total = 0;
+            for (var result : results) {
+                total += result.get();
+            }
+
+            assertEquals(63 * 250 + 5000, total);
+            assertEquals(total, dedup.size());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package nu.marginalia.index;
+
+import nu.marginalia.piping.PipeStageStats;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static nu.marginalia.index.IndexPipelineScheduler.Stage.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexPipelineSchedulerTest {
+
+    private static int totalThreads(IndexPipelineScheduler.Sizing sizing) {
+        int sum = 0;
+        for (var stage : IndexPipelineScheduler.Stage.values()) {
+            sum += sizing.threads(stage);
+        }
+        return sum;
+    }
+
+    @Test
+    void testBudgetShrinksWithConcurrency() {
+        var scheduler = new IndexPipelineScheduler(16, 2.0);
+
+        var alone = scheduler.size(1, 100);
+        var crowded = scheduler.size(16, 100);
+
+        assertTrue(totalThreads(alone) > totalThreads(crowded));
+
+        for (var stage : IndexPipelineScheduler.Stage.values()) {
+            assertTrue(crowded.threads(stage) >= 1);
+            assertTrue(crowded.queueSize(stage) >= 16);
+        }
+    }
+
+    @Test
+    void testLookupLimitedByQueryCount() {
+        var scheduler = new IndexPipelineScheduler(64, 2.0);
+
+        assertEquals(2, scheduler.size(1, 2).threads(LOOKUP));
+        assertEquals(1, scheduler.size(1, 0).threads(LOOKUP));
+        assertEquals(4, scheduler.size(1, 100).threads(DEDUPLICATE));
+    }
+
+    @Test
+    void testSharesFollowObservedLoad() {
+        var scheduler = new IndexPipelineScheduler(16, 2.0);
+
+        int rankingBefore = scheduler.size(1, 100).threads(RANKING);
+
+        for (int i = 0; i < 50; i++) {
+            scheduler.begin("0", 100);
+            scheduler.end("0", List.of(
+                    new PipeStageStats("Lookup", 8, 100, 1_000_000, 0, 0.1),
+                    new PipeStageStats("Deduplicate", 1, 100, 1_000_000, 0, 0.1),
+                    new PipeStageStats("Processing", 4, 100, 1_000_000, 0, 0.1),
+                    new PipeStageStats("Ranking", 8, 100, 100_000_000, 0, 1.0)
+            ));
+        }
+
+        assertEquals(0, scheduler.inFlight());
+        assertTrue(scheduler.size(1, 100).threads(RANKING) > rankingBefore);
+    }
+}
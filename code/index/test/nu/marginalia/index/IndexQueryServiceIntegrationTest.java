@@ -2,6 +2,7 @@ package nu.marginalia.index;
 
 import com.google.inject.Guice;
 import com.google.inject.Inject;
+import io.grpc.stub.StreamObserver;
 import it.unimi.dsi.fastutil.floats.FloatList;
 import it.unimi.dsi.fastutil.ints.IntList;
 import nu.marginalia.IndexLocations;
@@ -84,6 +85,8 @@ public class IndexQueryServiceIntegrationTest {
     ProcessHeartbeat processHeartbeat;
     @Inject
     DocumentDbReader documentDbReader;
+    @Inject
+    IndexResultCache resultCache;
 
     @BeforeEach
     public void setUp() throws IOException {
@@ -300,6 +303,57 @@ public class IndexQueryServiceIntegrationTest {
                 .expectDocumentsInOrder(d(1,1));
     }
 
+    @Test
+    public void testTruncatedResultsAreNotCached() throws Exception {
+        new MockData().add(
+                d(1, 1),
+                new MockDocumentMeta(0, new DocumentMetadata(2, 0, 14, EnumSet.noneOf(DocumentFlags.class))),
+                w("hello", WordFlags.Title),
+                w("world", WordFlags.Title)
+        ).load();
+
+        // A 1 ms timeout leaves the query no search budget at all, so the lookups are
+        // cut short even though the request itself may well finish within its timeout
+        var truncatedQuery = basicQuery(builder -> builder
+                .setTerms(justInclude("hello", "world"))
+                .setQueryLimits(RpcQueryLimits.newBuilder()
+                        .setResultsByDomain(10)
+                        .setResultsTotal(10)
+                        .setTimeoutMs(1)
+                        .build()));
+
+        grpcQuery(truncatedQuery);
+        assertEquals(0, resultCache.size());
+
+        // The same query with time to run to completion is cached
+        var completeQuery = basicQuery(builder -> builder.setTerms(justInclude("hello", "world")));
+
+        assertEquals(1, grpcQuery(completeQuery).size());
+        assertEquals(1, resultCache.size());
+    }
+
+    /** Run the query through the gRPC endpoint, which unlike justQuery() uses the result cache */
+    private List<RpcDecoratedResultItem> grpcQuery(RpcIndexQuery query) {
+        List<RpcDecoratedResultItem> results = new ArrayList<>();
+
+        queryService.query(query, new StreamObserver<>() {
+            @Override
+            public void onNext(RpcIndexQueryResponse value) {
+                results.addAll(value.getResultsList());
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                throw new RuntimeException(t);
+            }
+
+            @Override
+            public void onCompleted() {}
+        });
+
+        return results;
+    }
+
     static class ResultWrapper {
         private final List<MockDataDocument> actual;
 
@@ -492,11 +546,13 @@ public class IndexQueryServiceIntegrationTest {
 
         Path workDir = IndexLocations.getIndexConstructionArea(fileStorageService);
         Path outputFileDocsId = IndexFileName.resolve(IndexLocations.getCurrentIndex(fileStorageService), new IndexFileName.ForwardDocIds(), IndexFileName.Version.NEXT);
+        Path outputFileDocsIdHash = IndexFileName.resolve(IndexLocations.getCurrentIndex(fileStorageService), new IndexFileName.ForwardDocIdsHash(), IndexFileName.Version.NEXT);
         Path outputFileDocsData = IndexFileName.resolve(IndexLocations.getCurrentIndex(fileStorageService), new IndexFileName.ForwardDocData(), IndexFileName.Version.NEXT);
         Path outputFileSpansData = IndexFileName.resolve(IndexLocations.getCurrentIndex(fileStorageService), new IndexFileName.ForwardSpansData(), IndexFileName.Version.NEXT);
 
         ForwardIndexConverter converter = new ForwardIndexConverter(new FakeProcessHeartbeat(),
                 outputFileDocsId,
+                outputFileDocsIdHash,
                 outputFileDocsData,
                 outputFileSpansData,
                 IndexJournal.findJournal(workDir, "en").stream().toList(),
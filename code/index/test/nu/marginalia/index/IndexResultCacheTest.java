@@ -0,0 +1,107 @@
+package nu.marginalia.index;
+
+import nu.marginalia.api.searchquery.*;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexResultCacheTest {
+    private final CombinedIndexReader index = Mockito.mock(CombinedIndexReader.class);
+    private final CombinedIndexReader otherIndex = Mockito.mock(CombinedIndexReader.class);
+
+    private final List<RpcDecoratedResultItem> results = List.of(
+            RpcDecoratedResultItem.newBuilder().setUrl("https://www.example.com/").build(),
+            RpcDecoratedResultItem.newBuilder().setUrl("https://www.example.com/foo").build()
+    );
+
+    @Test
+    void testHitIgnoresTimeoutAndHumanQuery() {
+        var cache = new IndexResultCache(1024 * 1024, Duration.ofMinutes(5));
+
+        cache.put(index, query("hello", 100), results);
+
+        assertEquals(results, cache.get(index, query("hello", 250)));
+        assertNull(cache.get(index, query("world", 100)));
+    }
+
+    @Test
+    void testMissOnOtherIndex() {
+        var cache = new IndexResultCache(1024 * 1024, Duration.ofMinutes(5));
+
+        cache.put(index, query("hello", 100), results);
+
+        assertNull(cache.get(otherIndex, query("hello", 100)));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testInvalidateAll() {
+        var cache = new IndexResultCache(1024 * 1024, Duration.ofMinutes(5));
+
+        cache.put(index, query("hello", 100), results);
+        cache.invalidateAll();
+
+        assertNull(cache.get(index, query("hello", 100)));
+    }
+
+    @Test
+    void testExpiry() {
+        var cache = new IndexResultCache(1024 * 1024, Duration.ZERO);
+
+        cache.put(index, query("hello", 100), results);
+
+        assertNull(cache.get(index, query("hello", 100)));
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed() {
+        var cache = new IndexResultCache(16 * 1024, Duration.ofMinutes(5));
+
+        for (int i = 0; i < 100; i++) {
+            cache.put(index, query("term" + i, 100), results);
+            // Keep the first entry warm
+            assertNotNull(cache.get(index, query("term0", 100)));
+        }
+
+        assertTrue(cache.size() < 100);
+        assertNull(cache.get(index, query("term1", 100)));
+        assertNotNull(cache.get(index, query("term99", 100)));
+    }
+
+    @Test
+    void testDebugQueriesNotCached() {
+        var cache = new IndexResultCache(1024 * 1024, Duration.ofMinutes(5));
+
+        var request = query("hello", 100).toBuilder()
+                .setParameters(RpcResultRankingParameters.newBuilder().setExportDebugData(true))
+                .build();
+
+        cache.put(index, request, results);
+
+        assertNull(cache.get(index, request));
+    }
+
+    @Test
+    void testDisabled() {
+        var cache = new IndexResultCache(0, Duration.ofMinutes(5));
+
+        cache.put(index, query("hello", 100), results);
+
+        assertNull(cache.get(index, query("hello", 100)));
+    }
+
+    private RpcIndexQuery query(String term, int timeoutMs) {
+        return RpcIndexQuery.newBuilder()
+                .setHumanQuery(term + " " + timeoutMs)
+                .setTerms(RpcQueryTerms.newBuilder().addTermsQuery(term))
+                .setQueryLimits(RpcQueryLimits.newBuilder()
+                        .setResultsTotal(10)
+                        .setResultsByDomain(1)
+                        .setTimeoutMs(timeoutMs))
+                .build();
+    }
+}
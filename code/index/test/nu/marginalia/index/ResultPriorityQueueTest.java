@@ -0,0 +1,51 @@
+package nu.marginalia.index;
+
+import nu.marginalia.api.searchquery.model.results.SearchResultItem;
+import nu.marginalia.index.model.RankableDocument;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultPriorityQueueTest {
+
+    @Test
+    void testAddCopyOfMatchesAdd() {
+        var queue = new ResultPriorityQueue(10);
+        var copyingQueue = new ResultPriorityQueue(10);
+
+        var scratch = new RankableDocument(2, 0);
+        Random r = new Random(1);
+
+        for (int i = 0; i < 1000; i++) {
+            long id = i;
+            double score = r.nextDouble();
+
+            var document = new RankableDocument(id);
+            document.item = new SearchResultItem(id, 0, 0, score, 0);
+            queue.add(document);
+
+            scratch.combinedDocumentId = id;
+            scratch.item = new SearchResultItem(id, 0, 0, score, 0);
+            copyingQueue.addCopyOf(scratch);
+        }
+
+        assertEquals(queue.getItemsProcessed(), copyingQueue.getItemsProcessed());
+        assertEquals(ids(queue), ids(copyingQueue));
+
+        for (var document : copyingQueue) {
+            assertNotSame(scratch, document);
+        }
+    }
+
+    private List<Long> ids(ResultPriorityQueue queue) {
+        List<Long> ret = new ArrayList<>();
+        for (var document : queue) {
+            ret.add(document.combinedDocumentId);
+        }
+        return ret;
+    }
+}
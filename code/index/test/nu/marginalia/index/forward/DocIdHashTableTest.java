@@ -0,0 +1,62 @@
+package nu.marginalia.index.forward;
+
+import nu.marginalia.array.LongArray;
+import nu.marginalia.array.LongArrayFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocIdHashTableTest {
+    Path tableFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tableFile = Files.createTempFile(getClass().getSimpleName(), ".dat");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(tableFile);
+    }
+
+    @Test
+    void testCapacity() {
+        assertEquals(2, DocIdHashTable.capacityFor(0));
+        assertEquals(4, DocIdHashTable.capacityFor(3));
+        assertEquals(8, DocIdHashTable.capacityFor(4));
+        assertEquals(2048, DocIdHashTable.capacityFor(1000));
+    }
+
+    @Test
+    void testLookup() throws IOException {
+        long[] values = new Random(1).longs(10_000, 0, Long.MAX_VALUE).sorted().distinct().toArray();
+        LongArray ids = LongArrayFactory.onHeapShared(values);
+
+        DocIdHashTable.build(tableFile, ids);
+
+        try (var table = DocIdHashTable.open(tableFile, ids)) {
+            assertNotNull(table);
+
+            for (int i = 0; i < values.length; i++) {
+                assertEquals(i, table.get(values[i]));
+            }
+
+            assertEquals(-1, table.get(-5));
+            assertEquals(-1, table.get(values[0] + 1));
+        }
+    }
+
+    @Test
+    void testRejectsMismatchedIds() throws IOException {
+        DocIdHashTable.build(tableFile, LongArrayFactory.onHeapShared(new long[] { 1, 2, 3 }));
+
+        assertNull(DocIdHashTable.open(tableFile, LongArrayFactory.onHeapShared(new long[] { 1, 2, 3, 4 })));
+    }
+}
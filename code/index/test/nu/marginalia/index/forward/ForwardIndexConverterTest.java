@@ -1,10 +1,12 @@
 package nu.marginalia.index.forward;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import nu.marginalia.index.forward.construction.ForwardIndexConverter;
 import nu.marginalia.index.journal.IndexJournal;
 import nu.marginalia.index.journal.IndexJournalSlopWriter;
 import nu.marginalia.index.searchset.DomainRankings;
 import nu.marginalia.language.keywords.KeywordHasher;
+import nu.marginalia.language.sentence.tag.HtmlTag;
 import nu.marginalia.model.id.UrlIdCodec;
 import nu.marginalia.model.processed.SlopDocumentRecord;
 import nu.marginalia.process.control.FakeProcessHeartbeat;
@@ -16,11 +18,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.lang.foreign.Arena;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 class ForwardIndexConverterTest {
 
@@ -34,6 +38,7 @@ class ForwardIndexConverterTest {
 
     Path dataDir;
     private Path docsFileId;
+    private Path docsFileIdHash;
     private Path docsFileData;
     private Path docsSpanData;
 
@@ -59,6 +64,7 @@ class ForwardIndexConverterTest {
         }
 
         docsFileId = dataDir.resolve("docs-i.dat");
+        docsFileIdHash = dataDir.resolve("docs-ih.dat");
         docsFileData = dataDir.resolve("docs-d.dat");
         docsSpanData = dataDir.resolve("docs-s.dat");
     }
@@ -99,12 +105,13 @@ class ForwardIndexConverterTest {
 
         new ForwardIndexConverter(new FakeProcessHeartbeat(),
                 docsFileId,
+                docsFileIdHash,
                 docsFileData,
                 docsSpanData,
                 IndexJournal.findJournal(workDir, "en").stream().toList(),
                 new DomainRankings()).convert();
 
-        var forwardReader = new ForwardIndexReader(docsFileId, docsFileData, docsSpanData);
+        var forwardReader = new ForwardIndexReader(docsFileId, docsFileIdHash, docsFileData, docsSpanData);
 
         for (int i = 36; i < workSetSize; i++) {
             long docId = createId(i, i/20);
@@ -113,4 +120,70 @@ class ForwardIndexConverterTest {
             assertEquals(i/20, UrlIdCodec.getDomainId(docId));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void testForwardIndexWithoutIdsHash() throws IOException {
+
+        new ForwardIndexConverter(new FakeProcessHeartbeat(),
+                docsFileId,
+                docsFileIdHash,
+                docsFileData,
+                docsSpanData,
+                IndexJournal.findJournal(workDir, "en").stream().toList(),
+                new DomainRankings()).convert();
+
+        // Indexes constructed before the ids hash table was introduced lack the file,
+        // the reader should still be able to find the documents
+        Files.delete(docsFileIdHash);
+
+        var forwardReader = new ForwardIndexReader(docsFileId, docsFileIdHash, docsFileData, docsSpanData);
+
+        for (int i = 36; i < workSetSize; i++) {
+            long docId = createId(i, i/20);
+            assertEquals(0x00FF000000000000L | (i % 5), forwardReader.getDocMeta(docId));
+            assertEquals((i % 3), forwardReader.getHtmlFeatures(docId));
+        }
+
+        forwardReader.close();
+    }
+
+    @Test
+    void testBatchedDocumentSpans() throws IOException {
+
+        new ForwardIndexConverter(new FakeProcessHeartbeat(),
+                docsFileId,
+                docsFileIdHash,
+                docsFileData,
+                docsSpanData,
+                IndexJournal.findJournal(workDir, "en").stream().toList(),
+                new DomainRankings()).convert();
+
+        var forwardReader = new ForwardIndexReader(docsFileId, docsFileIdHash, docsFileData, docsSpanData);
+
+        long[] docIds = new long[workSetSize - 36];
+        for (int i = 36; i < workSetSize; i++) {
+            docIds[i - 36] = createId(i, i/20);
+        }
+
+        try (var arena = Arena.ofConfined()) {
+            var batched = forwardReader.getDocumentSpans(arena, docIds);
+
+            assertEquals(docIds.length, batched.length);
+            for (int i = 0; i < docIds.length; i++) {
+                var single = forwardReader.getDocumentSpans(arena, docIds[i]);
+
+                assertNotNull(single);
+                assertNotNull(batched[i]);
+
+                var singleSpans = single.decode(IntArrayList::new);
+                var batchedSpans = batched[i].decode(IntArrayList::new);
+                for (HtmlTag tag : HtmlTag.values()) {
+                    assertEquals(singleSpans.getSpan(tag).positionValues(), batchedSpans.getSpan(tag).positionValues());
+                }
+            }
+        }
+        finally {
+            forwardReader.close();
+        }
+    }
+}
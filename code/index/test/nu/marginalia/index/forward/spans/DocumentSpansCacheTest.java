@@ -0,0 +1,82 @@
+package nu.marginalia.index.forward.spans;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentSpansCacheTest {
+    Arena arena;
+    DocumentSpansCache cache;
+
+    @BeforeEach
+    void setUp() {
+        arena = Arena.ofConfined();
+        cache = new DocumentSpansCache(16 * 4096);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.close();
+        arena.close();
+    }
+
+    private MemorySegment data(long documentId, int size) {
+        MemorySegment segment = arena.allocate(size, 8);
+        for (int i = 0; i < size; i++) {
+            segment.set(ValueLayout.JAVA_BYTE, i, (byte) (documentId + i));
+        }
+        return segment;
+    }
+
+    @Test
+    void admittedOnSecondOffer() {
+        var segment = data(5, 100);
+
+        cache.offer(5, segment);
+        assertNull(cache.get(arena, 5));
+
+        cache.offer(5, segment);
+        var cached = cache.get(arena, 5);
+        assertNotNull(cached);
+        assertEquals(-1, segment.mismatch(cached));
+    }
+
+    @Test
+    void evictsOldestEntries() {
+        // Each shard is 4096 bytes, offering this much data means every shard wraps around several times
+        for (long documentId = 1; documentId <= 2000; documentId++) {
+            var segment = data(documentId, 200);
+            cache.offer(documentId, segment);
+            cache.offer(documentId, segment);
+        }
+
+        assertNull(cache.get(arena, 1));
+
+        for (long documentId = 1; documentId <= 2000; documentId++) {
+            var cached = cache.get(arena, documentId);
+            if (cached != null) {
+                assertEquals(-1, data(documentId, 200).mismatch(cached));
+            }
+        }
+
+        var last = cache.get(arena, 2000);
+        assertNotNull(last);
+        assertEquals(-1, data(2000, 200).mismatch(last));
+    }
+
+    @Test
+    void rejectsOversizedEntries() {
+        var segment = data(7, 2048);
+
+        cache.offer(7, segment);
+        cache.offer(7, segment);
+
+        assertNull(cache.get(arena, 7));
+    }
+}
@@ -0,0 +1,74 @@
+package nu.marginalia.index.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RankableDocumentBatchTest {
+
+    @Test
+    void testAddAndCopy() {
+        var pool = new RankableDocumentBatchPool(4);
+        var batch = pool.acquire(8, 3, 2);
+
+        for (int doc = 0; doc < 5; doc++) {
+            int termOffset = batch.termOffset(batch.size());
+            for (int term = 0; term < 3; term++) {
+                batch.positionOffsets()[termOffset + term] = 100L * doc + term;
+                batch.termFlags()[termOffset + term] = doc + term;
+            }
+            int priorityOffset = batch.priorityTermOffset(batch.size());
+            batch.priorityTermsPresent()[priorityOffset] = (doc % 2) == 0;
+            batch.priorityTermsPresent()[priorityOffset + 1] = (doc % 2) == 1;
+
+            batch.add(1000 + doc);
+        }
+
+        assertEquals(5, batch.size());
+
+        var scratch = new RankableDocument(3, 2);
+        for (int doc = 0; doc < 5; doc++) {
+            batch.copyTo(doc, scratch);
+
+            assertEquals(1000 + doc, scratch.combinedDocumentId);
+            assertArrayEquals(new long[] { 100L * doc, 100L * doc + 1, 100L * doc + 2 }, scratch.positionOffsets);
+            assertArrayEquals(new long[] { doc, doc + 1, doc + 2 }, scratch.termFlags);
+            assertArrayEquals(new boolean[] { (doc % 2) == 0, (doc % 2) == 1 }, scratch.priorityTermsPresent);
+        }
+
+        // The retained copy must not change when the scratch document is reused
+        batch.copyTo(0, scratch);
+        var retained = scratch.retain();
+        batch.copyTo(1, scratch);
+
+        assertEquals(1000, retained.combinedDocumentId);
+        assertArrayEquals(new long[] { 0, 1, 2 }, retained.positionOffsets);
+    }
+
+    @Test
+    void testPoolReusesAndResizes() {
+        var pool = new RankableDocumentBatchPool(4);
+
+        var batch = pool.acquire(8, 2, 0);
+        batch.add(1);
+        pool.release(batch);
+
+        var reused = pool.acquire(16, 4, 1);
+        assertSame(batch, reused);
+        assertTrue(reused.isEmpty());
+        assertEquals(16, reused.capacity());
+        assertTrue(reused.positionOffsets().length >= 16 * 4);
+        assertTrue(reused.termFlags().length >= 16 * 4);
+        assertTrue(reused.priorityTermsPresent().length >= 16);
+    }
+
+    @Test
+    void testPoolDisabled() {
+        var pool = new RankableDocumentBatchPool(0);
+
+        var batch = pool.acquire(8, 2, 0);
+        pool.release(batch);
+
+        assertNotSame(batch, pool.acquire(8, 2, 0));
+    }
+}
@@ -7,11 +7,14 @@ import nu.marginalia.index.reverse.construction.PositionsFileConstructor;
 import nu.marginalia.index.reverse.construction.full.FullPreindex;
 import nu.marginalia.index.reverse.construction.full.TestJournalFactory;
 import nu.marginalia.index.reverse.construction.full.TestJournalFactory.EntryDataWithWordMeta;
+import nu.marginalia.sequence.CodedSequence;
+import nu.marginalia.sequence.VarintCodedSequence;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.lang.foreign.Arena;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -80,6 +83,57 @@ class FullReverseIndexReaderTest {
 
     }
 
+    @Test
+    public void testBatchedTermPositions() throws IOException {
+        var indexReader = createIndex(
+                new EntryDataWithWordMeta(100, 101, wm(50, 51))
+        );
+
+        // Append position data for a batch of documents to the positions file
+        long[][] offsets = new long[64][];
+        try (var constructor = new PositionsFileConstructor(tempDir.resolve("positions.dat"))) {
+            var block = constructor.getBlock();
+            for (int doc = 0; doc < offsets.length; doc++) {
+                offsets[doc] = new long[3];
+                for (int term = 0; term < offsets[doc].length; term++) {
+                    // leave some gaps to exercise documents without positions for a term
+                    if ((doc + term) % 5 == 0)
+                        continue;
+                    var sequence = VarintCodedSequence.generate(doc + 1, doc + term + 2, 1000 + doc);
+                    offsets[doc][term] = constructor.add(block, sequence.buffer());
+                }
+            }
+            block.commit();
+        }
+
+        // Lay the offsets out flat like RankableDocumentBatch, with unused trailing space
+        int count = offsets.length * 3;
+        long[] flatOffsets = new long[count + 16];
+        for (int doc = 0; doc < offsets.length; doc++) {
+            System.arraycopy(offsets[doc], 0, flatOffsets, 3 * doc, 3);
+        }
+
+        try (var arena = Arena.ofConfined()) {
+            CodedSequence[] batched = indexReader.getTermPositions(arena, flatOffsets, count);
+
+            assertEquals(count, batched.length);
+            for (int doc = 0; doc < offsets.length; doc++) {
+                CodedSequence[] single = indexReader.getTermPositions(arena, offsets[doc]);
+                for (int term = 0; term < offsets[doc].length; term++) {
+                    if (offsets[doc][term] == 0) {
+                        assertNull(batched[3 * doc + term]);
+                    }
+                    else {
+                        assertEquals(single[term].values(), batched[3 * doc + term].values());
+                    }
+                }
+            }
+        }
+        finally {
+            indexReader.close();
+        }
+    }
+
     private long[] readEntries(FullReverseIndexReader reader, long wordId) {
         IndexLanguageContext languageContext = new IndexLanguageContext("en", reader.getWordLexicon("en"), null);
         var es = reader.documents(languageContext, Long.toString(wordId), wordId);
@@ -0,0 +1,39 @@
+package nu.marginalia.index.reverse;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WordOffsetCacheTest {
+
+    @Test
+    void testCachesLookups() {
+        var cache = new WordOffsetCache("test", 64);
+        AtomicInteger lookups = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(50, cache.get(5, id -> { lookups.incrementAndGet(); return id * 10; }));
+            assertEquals(-1, cache.get(6, id -> { lookups.incrementAndGet(); return -1; }));
+        }
+
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    void testEvictionKeepsHotTerms() {
+        var cache = new WordOffsetCache("test", 64);
+        AtomicInteger hotLookups = new AtomicInteger();
+
+        for (long cold = 1000; cold < 100_000; cold++) {
+            assertEquals(7, cache.get(7, id -> { hotLookups.incrementAndGet(); return id; }));
+            assertEquals(cold, cache.get(cold, id -> id));
+        }
+
+        // The hot term may be evicted now and then before it has built up
+        // a use count, but should mostly be served from the cache
+        assertTrue(hotLookups.get() < 10, "hot term looked up " + hotLookups.get() + " times");
+    }
+}
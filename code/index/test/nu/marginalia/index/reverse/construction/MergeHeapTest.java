@@ -0,0 +1,69 @@
+package nu.marginalia.index.reverse.construction;
+
+import nu.marginalia.array.LongArray;
+import nu.marginalia.array.LongArrayFactory;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MergeHeapTest {
+
+    @Test
+    public void testTiesPreferLowerSource() {
+        MergeHeap heap = new MergeHeap(3);
+        heap.add(2, 5);
+        heap.add(0, 5);
+        heap.add(1, 3);
+
+        assertEquals(1, heap.top());
+        heap.removeTop();
+
+        assertEquals(0, heap.top());
+        heap.updateTop(10);
+
+        assertEquals(2, heap.top());
+        heap.removeTop();
+
+        assertEquals(0, heap.top());
+        assertEquals(10, heap.topKey());
+    }
+
+    @Test
+    public void testMergeDistinct() {
+        Random r = new Random(1);
+        TreeSet<Long> expected = new TreeSet<>();
+        List<LongArray> sources = new ArrayList<>();
+
+        for (int i = 0; i < 7; i++) {
+            TreeSet<Long> values = new TreeSet<>();
+            int n = r.nextInt(0, 100);
+            for (int j = 0; j < n; j++) {
+                values.add(r.nextLong(-500, 500));
+            }
+            expected.addAll(values);
+
+            LongArray array = LongArrayFactory.onHeapConfined(values.size());
+            int j = 0;
+            for (long v : values) {
+                array.set(j++, v);
+            }
+            sources.add(array);
+        }
+
+        assertEquals(expected.size(), MergeHeap.countDistinct(sources));
+
+        LongArray out = LongArrayFactory.onHeapConfined(expected.size());
+        MergeHeap.mergeDistinct(sources, out);
+
+        long[] actual = new long[expected.size()];
+        out.get(0, actual);
+
+        assertArrayEquals(expected.stream().mapToLong(Long::longValue).toArray(), actual);
+    }
+}
@@ -0,0 +1,108 @@
+package nu.marginalia.index.reverse.construction.full;
+
+import nu.marginalia.index.reverse.construction.DocIdRewriter;
+import nu.marginalia.index.reverse.construction.PositionsFileConstructor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static nu.marginalia.index.reverse.construction.full.TestJournalFactory.EntryData;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FullPreindexMergeTest {
+    Path tempDir;
+    Path positionsFile;
+
+    TestJournalFactory journalFactory;
+
+    @BeforeEach
+    public void setUp() throws IOException  {
+        journalFactory = new TestJournalFactory();
+
+        tempDir = Files.createTempDirectory("merge");
+        positionsFile = tempDir.resolve("positions.dat");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        journalFactory.clear();
+
+        List<Path> contents = new ArrayList<>();
+        Files.list(tempDir).forEach(contents::add);
+        for (var tempFile : contents) {
+            Files.delete(tempFile);
+        }
+        Files.delete(tempDir);
+    }
+
+    @Test
+    public void testMergeMatchesSinglePage() throws IOException {
+        List<EntryData[]> pages = List.of(
+                new EntryData[] {
+                        new EntryData(100, 0, 1, 2, 3),
+                        new EntryData(105, 0, 2, 4),
+                },
+                new EntryData[] {
+                        new EntryData(101, 0, 1, 5),
+                        new EntryData(110, 0, 3),
+                },
+                new EntryData[] {
+                        new EntryData(99, 0, 2, 3, 6),
+                        new EntryData(105, 0, 2, 4), // duplicate of a document in the first page
+                        new EntryData(120, 0, 7),
+                }
+        );
+
+        try (var positions = new PositionsFileConstructor(positionsFile)) {
+            List<FullPreindex> sources = new ArrayList<>();
+            for (var page : pages) {
+                sources.add(FullPreindex.constructPreindex(journalFactory.createReader(page), positions, DocIdRewriter.identity(), tempDir));
+            }
+
+            var merged = FullPreindex.merge(tempDir, sources, null);
+            for (var source : sources) {
+                source.delete();
+            }
+
+            var expected = FullPreindex.constructPreindex(journalFactory.createReader(
+                    new EntryData(99, 0, 2, 3, 6),
+                    new EntryData(100, 0, 1, 2, 3),
+                    new EntryData(101, 0, 1, 5),
+                    new EntryData(105, 0, 2, 4),
+                    new EntryData(110, 0, 3),
+                    new EntryData(120, 0, 7)
+            ), positions, DocIdRewriter.identity(), tempDir);
+
+            assertEquals(documentsByWord(expected), documentsByWord(merged));
+            assertEquals(expected.documents.size(), merged.documents.size());
+
+            merged.delete();
+            expected.delete();
+        }
+    }
+
+    /** Returns the document ids of each word, leaving out the positions offsets
+     * as they depend on the order the preindexes were constructed */
+    private Map<Long, List<Long>> documentsByWord(FullPreindex preindex) {
+        Map<Long, List<Long>> ret = new LinkedHashMap<>();
+
+        var iter = preindex.segments.iterator(FullPreindexDocuments.RECORD_SIZE_LONGS);
+        while (iter.next()) {
+            List<Long> docIds = new ArrayList<>();
+            for (long pos = iter.startOffset; pos < iter.endOffset; pos += FullPreindexDocuments.RECORD_SIZE_LONGS) {
+                docIds.add(preindex.documents.documents.get(pos));
+            }
+            ret.put(iter.wordId, docIds);
+        }
+
+        return ret;
+    }
+}
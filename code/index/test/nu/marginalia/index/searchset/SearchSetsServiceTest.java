@@ -0,0 +1,55 @@
+package nu.marginalia.index.searchset;
+
+import nu.marginalia.db.DomainRankingSetsService.DomainRankingSet;
+import nu.marginalia.domainranking.csr.CsrGraph;
+import nu.marginalia.domainranking.data.GraphSource;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.when;
+
+class SearchSetsServiceTest {
+
+    private final GraphSource similarityDomains = Mockito.mock(GraphSource.class);
+
+    private CsrGraph graph() throws Exception {
+        return CsrGraph.build(new int[] { 1, 2, 3 }, false, consumer -> {
+            consumer.accept(1, 2, 1.);
+            consumer.accept(2, 3, 1.);
+        });
+    }
+
+    @Test
+    void testInfluenceSetKeepsDomainsInGraph() throws Exception {
+        when(similarityDomains.domainIds(List.of("a.com", "%.b.com"))).thenReturn(List.of(2, 3, 40));
+
+        var rankingSet = new DomainRankingSet("TEST", "", 100, "a.com\n%.b.com");
+
+        assertEquals(List.of(2, 3), SearchSetsService.influenceSet(rankingSet, graph(), similarityDomains));
+    }
+
+    @Test
+    void testInfluenceSetEmptyWhenNothingInGraph() throws Exception {
+        // Patterns that match no domains
+        when(similarityDomains.domainIds(List.of("nothing.com"))).thenReturn(List.of());
+        // Domains that aren't in the graph
+        when(similarityDomains.domainIds(List.of("isolated.com"))).thenReturn(List.of(40, 50));
+
+        var noMatches = new DomainRankingSet("TEST", "", 100, "nothing.com");
+        var notInGraph = new DomainRankingSet("TEST", "", 100, "isolated.com");
+
+        // Both should get the regular PageRank rather than an all-zero personalized vector
+        assertEquals(List.of(), SearchSetsService.influenceSet(noMatches, graph(), similarityDomains));
+        assertEquals(List.of(), SearchSetsService.influenceSet(notInGraph, graph(), similarityDomains));
+    }
+
+    @Test
+    void testInfluenceSetEmptyWithoutDomains() throws Exception {
+        var noDomains = new DomainRankingSet("TEST", "", 100, "# just a comment\n");
+
+        assertEquals(List.of(), SearchSetsService.influenceSet(noDomains, graph(), similarityDomains));
+    }
+}
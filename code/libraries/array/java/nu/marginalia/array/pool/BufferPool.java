@@ -1,5 +1,7 @@
 package nu.marginalia.array.pool;
 
+import nu.marginalia.asyncio.AsyncReadRequest;
+import nu.marginalia.asyncio.UringExecutionQueue;
 import nu.marginalia.ffi.LinuxSystemCalls;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,6 +13,8 @@ import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -27,8 +31,14 @@ public class BufferPool implements AutoCloseable {
     private final int pageSizeBytes;
     private PoolLru poolLru;
 
+    /** Queue for asynchronous prefetch reads, null if prefetching is disabled */
+    @Nullable
+    private final UringExecutionQueue prefetchQueue;
+    private static final int PREFETCH_QUEUE_SIZE = 256;
+
     private final AtomicLong diskReadCount = new AtomicLong();
     private final AtomicLong cacheReadCount = new AtomicLong();
+    private final AtomicLong prefetchReadCount = new AtomicLong();
 
     private volatile boolean running = true;
 
@@ -42,11 +52,19 @@ public class BufferPool implements AutoCloseable {
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
-        poolLru = new PoolLru(pages);
+        poolLru = PoolLru.create(pages);
     }
 
 
     public BufferPool(Path filename, int pageSizeBytes, int poolSize) {
+        this(filename, pageSizeBytes, poolSize, false);
+    }
+
+    /**
+     * @param asyncPrefetch if true, an io_uring queue is set up to serve {@link #prefetch(long[], int)} requests,
+     *                      otherwise prefetch requests are ignored
+     */
+    public BufferPool(Path filename, int pageSizeBytes, int poolSize, boolean asyncPrefetch) {
         this.fd = LinuxSystemCalls.openDirect(filename);
         this.pageSizeBytes = pageSizeBytes;
         try {
@@ -67,7 +85,18 @@ public class BufferPool implements AutoCloseable {
             }
         }
 
-        this.poolLru = new PoolLru(pages);
+        this.poolLru = PoolLru.create(pages);
+
+        UringExecutionQueue queue = null;
+        if (asyncPrefetch) {
+            try {
+                queue = new UringExecutionQueue(PREFETCH_QUEUE_SIZE);
+            }
+            catch (IOException ex) {
+                logger.error("Failed to set up io_uring queue, prefetching disabled", ex);
+            }
+        }
+        this.prefetchQueue = queue;
 
         monitorThread = Thread.ofPlatform().start(() -> {
             int diskReadOld = 0;
@@ -91,9 +120,9 @@ public class BufferPool implements AutoCloseable {
                 }
 
                 if (diskRead != diskReadOld || cacheRead != cacheReadOld) {
-                    logger.info("[#{}:{}] Disk/Cached: {}/{}, heldCount={}/{}, fqs={}, rcc={}",
+                    logger.info("[#{}:{}] Disk/Prefetch/Cached: {}/{}/{}, heldCount={}/{}, fqs={}, rcc={}",
                             hashCode(), pageSizeBytes,
-                            diskRead, cacheRead,
+                            diskRead, prefetchReadCount.get(), cacheRead,
                             heldCount, pages.length,
                             poolLru.getFreeQueueSize(), poolLru.getReclaimCycles());
                 }
@@ -106,6 +135,9 @@ public class BufferPool implements AutoCloseable {
         running = false;
 
         try {
+            if (prefetchQueue != null) {
+                prefetchQueue.close();
+            }
             poolLru.stop();
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
@@ -184,9 +216,85 @@ public class BufferPool implements AutoCloseable {
         return buffer;
     }
 
+    /** Request that the pages at the given addresses be read into the pool in the background,
+     * if they are not already present.  This method does not block on I/O.  A reader that asks for
+     * a page while its read is still in flight will wait for it the same way it would wait for
+     * a page being read by another thread.
+     * <p></p>
+     * The reads are submitted as a single io_uring batch.  At most a quarter of the pool
+     * is claimed per call, and invalid addresses are ignored.  Does nothing if the
+     * pool was not constructed with prefetching enabled.
+     *
+     * @param addresses the page addresses to prefetch
+     * @param n the number of addresses to consider from the start of the array
+     */
+    public void prefetch(long[] addresses, int n) {
+        if (prefetchQueue == null || !running)
+            return;
+
+        n = Math.min(n, Math.min(pages.length / 4, PREFETCH_QUEUE_SIZE));
+
+        List<AsyncReadRequest> requests = new ArrayList<>(n);
+        List<MemoryPage> pagesToFill = new ArrayList<>(n);
+
+        for (int i = 0; i < n; i++) {
+            long address = addresses[i];
+
+            if (address < 0 || address + pageSizeBytes > fileSize || (address & 511) != 0)
+                continue;
+
+            var existing = poolLru.get(address);
+            if (existing != null && existing.pageAddress() == address)
+                continue;
+
+            MemoryPage buffer = acquireFreePage(address);
+            poolLru.register(buffer);
+
+            requests.add(new AsyncReadRequest(fd, buffer.getMemorySegment(), address));
+            pagesToFill.add(buffer);
+        }
+
+        if (requests.isEmpty())
+            return;
+
+        try {
+            prefetchQueue.submit(pagesToFill, requests).whenComplete((filledPages, ex) -> {
+                if (ex == null) {
+                    for (var page : pagesToFill) {
+                        releasePrefetchedPage(page);
+                    }
+                    prefetchReadCount.addAndGet(pagesToFill.size());
+                }
+                else {
+                    pagesToFill.forEach(this::abandonPrefetchedPage);
+                }
+            });
+        }
+        catch (InterruptedException ex) {
+            pagesToFill.forEach(this::abandonPrefetchedPage);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Make a successfully prefetched page available to readers */
+    private void releasePrefetchedPage(MemoryPage page) {
+        page.dirty(false);
+        if (!page.pinCount().compareAndSet(-1, 0)) {
+            throw new IllegalStateException("Panic! Write lock was not held during prefetch!");
+        }
+    }
+
+    /** Disassociate a page whose prefetch read failed from its address and return it to the pool */
+    private void abandonPrefetchedPage(MemoryPage page) {
+        poolLru.deregister(page);
+        page.pageAddress(-1);
+        page.dirty(false);
+        page.pinCount().compareAndSet(-1, 0);
+    }
+
     private MemoryPage acquireFreePage(long address) {
         for (;;) {
-            var free = poolLru.getFree();
+            var free = poolLru.getFree(address);
             if (free != null && free.acquireForWriting(address)) {
                 return free;
             }
@@ -0,0 +1,185 @@
+package nu.marginalia.array.pool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+
+/** LRU for pool buffers, backed by a LinkedHashMap guarded by a single lock
+ * */
+public class LinkedHashPoolLru implements PoolLru {
+    private static final Logger logger = LoggerFactory.getLogger(LinkedHashPoolLru.class);
+
+    private final int maxSize;
+    private final LinkedHashMap<Long, MemoryPage> backingMap;
+    private final MemoryPage[] pages;
+
+    private final int[] freeQueue;
+    private final AtomicLong reclaimCycles;
+    private final AtomicLong clockWriteIdx;
+    private final AtomicLong clockReadIdx;
+
+    private final StampedLock lock = new StampedLock();
+    private final Thread reclaimThread;
+
+    private volatile boolean running = true;
+
+    public LinkedHashPoolLru(MemoryPage[] pages) {
+        backingMap = new LinkedHashMap<>(pages.length, 0.75f);
+        this.pages = pages;
+        // Pre-assign all entries with nonsense memory locations
+        for (int i = 0; i < pages.length; i++) {
+            backingMap.put(-i-1L, pages[i]);
+        }
+        maxSize = backingMap.size();
+
+        freeQueue = new int[pages.length];
+
+        for (int i = 0; i < freeQueue.length; i++) {
+            freeQueue[i] = i;
+        }
+
+        clockReadIdx = new AtomicLong();
+        clockWriteIdx = new AtomicLong(freeQueue.length);
+        reclaimCycles = new AtomicLong();
+
+        reclaimThread = Thread.ofPlatform().start(this::reclaimThread);
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        running = false;
+        reclaimThread.interrupt();
+        reclaimThread.join();
+    }
+    @Override
+    public MemoryPage get(long address) {
+        var res = getAssociatedItem(address);
+        if (res != null) {
+            res.increaseClock(1);
+        }
+        return res;
+    }
+
+    private MemoryPage getAssociatedItem(long address) {
+        long stamp = lock.tryOptimisticRead();
+        MemoryPage res = backingMap.get(address);
+        if (lock.validate(stamp)) {
+            return res;
+        }
+        stamp = lock.readLock();
+        try {
+            return backingMap.get(address);
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void register(MemoryPage buffer) {
+        long stamp = lock.writeLock();
+        try {
+            backingMap.put(buffer.pageAddress(), buffer);
+            buffer.touchClock(1);
+            // Evict the last entry if we've exceeded the
+            while (backingMap.size() >= maxSize) {
+                backingMap.pollFirstEntry();
+            }
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void deregister(MemoryPage buffer) {
+        long stamp = lock.writeLock();
+        try {
+            backingMap.remove(buffer.pageAddress(), buffer);
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public MemoryPage getFree(long address) {
+        for (int iter = 0;; iter++) {
+            var readIdx = clockReadIdx.get();
+            var writeIdx = clockWriteIdx.get();
+
+            if (writeIdx - readIdx == freeQueue.length / 4) {
+                LockSupport.unpark(reclaimThread);
+            } else if (readIdx == writeIdx) {
+                if ((iter % 10000) == 0) {
+                    LockSupport.unpark(reclaimThread);
+                }
+
+                Thread.yield();
+                continue;
+            }
+
+            if (clockReadIdx.compareAndSet(readIdx, readIdx + 1)) {
+                return pages[freeQueue[(int) (readIdx % freeQueue.length)]];
+            }
+        }
+    }
+
+    private void reclaimThread() {
+        int pageIdx = 0;
+
+        int targetQueueSize = freeQueue.length / 2;
+
+        while (running && !Thread.interrupted()) {
+            long readIdx = clockReadIdx.get();
+            long writeIdx = clockWriteIdx.get();
+
+            int queueSize = (int) (writeIdx - readIdx);
+
+            if (queueSize >= targetQueueSize) {
+                LockSupport.parkNanos(10_000);
+                continue;
+            }
+
+            int toClaim = targetQueueSize - queueSize;
+            if (toClaim < 0)
+                continue;
+
+            reclaimCycles.incrementAndGet();
+
+            do {
+                if (++pageIdx >= pages.length) {
+                    pageIdx = 0;
+                }
+                var currentPage = pages[pageIdx];
+
+                if (currentPage.decreaseClock()) {
+                    if (!currentPage.isHeld()) {
+                        deregister(pages[pageIdx]);
+                        freeQueue[(int) (clockWriteIdx.get() % freeQueue.length)] = pageIdx;
+                        clockWriteIdx.incrementAndGet();
+                        toClaim--;
+                    }
+                    else {
+                        currentPage.touchClock(1);
+                    }
+                }
+
+            } while (running && toClaim >= 0);
+        }
+    }
+
+    @Override
+    public int getFreeQueueSize() {
+        return (int) (clockWriteIdx.get() - clockReadIdx.get());
+    }
+
+    @Override
+    public long getReclaimCycles() {
+        return reclaimCycles.get();
+    }
+}
@@ -6,6 +6,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 public interface MemoryPage extends AutoCloseable {
     boolean isHeld();
 
+    /** The index of the page within its pool */
+    int ord();
+
     MemorySegment getMemorySegment();
 
     byte getByte(int offset);
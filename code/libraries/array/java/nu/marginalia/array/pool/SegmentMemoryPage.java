@@ -30,6 +30,11 @@ public class SegmentMemoryPage implements MemoryPage, AutoCloseable {
         this.ord = ord;
     }
 
+    @Override
+    public int ord() {
+        return ord;
+    }
+
     public int hashCode() {
         return (int) segment.address();
     }
@@ -0,0 +1,356 @@
+package nu.marginalia.array.pool;
+
+import it.unimi.dsi.fastutil.HashCommon;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+
+/** LRU for pool buffers that shards the address to page mapping by address hash.
+ * <p></p>
+ * Each shard owns a primitive open-addressing table (no boxing), a slice of the pages,
+ * its own free queue and its own CLOCK hand, so that cache misses only contend with
+ * other misses that land in the same shard.
+ * <p></p>
+ * Pages are always drawn from the shard the address hashes to, which means a shard's
+ * table never holds more entries than the shard has pages, and never needs to grow.
+ * */
+public class ShardedPoolLru implements PoolLru {
+    private static final long EMPTY = -1L;
+    private static final int MIN_PAGES_PER_SHARD = 64;
+
+    private final MemoryPage[] pages;
+    private final Shard[] shards;
+    private final int shardMask;
+
+    private final AtomicLong reclaimCycles = new AtomicLong();
+    private final Thread reclaimThread;
+
+    private volatile boolean running = true;
+
+    static int defaultShardCount() {
+        return 2 * Integer.highestOneBit(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ShardedPoolLru(MemoryPage[] pages, int shardCount) {
+        this.pages = pages;
+
+        for (int i = 0; i < pages.length; i++) {
+            if (pages[i].ord() != i) {
+                throw new IllegalArgumentException("Page ord " + pages[i].ord() + " does not match its position " + i);
+            }
+        }
+
+        // Round the shard count down to a power of two, and make sure
+        // each shard gets enough pages for the CLOCK to be meaningful
+        int numShards = Integer.highestOneBit(Math.max(1, shardCount));
+        while (numShards > 1 && pages.length / numShards < MIN_PAGES_PER_SHARD) {
+            numShards /= 2;
+        }
+
+        shards = new Shard[numShards];
+        shardMask = numShards - 1;
+
+        for (int i = 0; i < numShards; i++) {
+            int start = (int) ((long) i * pages.length / numShards);
+            int end = (int) ((long) (i + 1) * pages.length / numShards);
+            shards[i] = new Shard(start, end);
+        }
+
+        reclaimThread = Thread.ofPlatform().start(this::reclaimThread);
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        running = false;
+        reclaimThread.interrupt();
+        reclaimThread.join();
+    }
+
+    @Override
+    public MemoryPage get(long address) {
+        final long hash = hash(address);
+        final Shard shard = shardFor(hash);
+
+        int pageIdx;
+
+        long stamp = shard.lock.tryOptimisticRead();
+        pageIdx = shard.find(address, hash);
+
+        if (!shard.lock.validate(stamp)) {
+            stamp = shard.lock.readLock();
+            try {
+                pageIdx = shard.find(address, hash);
+            }
+            finally {
+                shard.lock.unlockRead(stamp);
+            }
+        }
+
+        if (pageIdx < 0)
+            return null;
+
+        MemoryPage res = pages[pageIdx];
+        res.increaseClock(1);
+        return res;
+    }
+
+    @Override
+    public void register(MemoryPage buffer) {
+        final long address = buffer.pageAddress();
+        final long hash = hash(address);
+        final Shard shard = shardFor(hash);
+
+        long stamp = shard.lock.writeLock();
+        try {
+            shard.put(address, hash, buffer.ord());
+            buffer.touchClock(1);
+        }
+        finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void deregister(MemoryPage buffer) {
+        final long address = buffer.pageAddress();
+        if (address < 0)
+            return;
+
+        final long hash = hash(address);
+        final Shard shard = shardFor(hash);
+
+        long stamp = shard.lock.writeLock();
+        try {
+            shard.remove(address, hash, buffer.ord());
+        }
+        finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public MemoryPage getFree(long address) {
+        final Shard shard = shardFor(hash(address));
+
+        for (int iter = 0;; iter++) {
+            var readIdx = shard.clockReadIdx.get();
+            var writeIdx = shard.clockWriteIdx.get();
+
+            if (writeIdx - readIdx == shard.freeQueue.length / 4) {
+                LockSupport.unpark(reclaimThread);
+            } else if (readIdx == writeIdx) {
+                if ((iter % 10000) == 0) {
+                    LockSupport.unpark(reclaimThread);
+                }
+
+                Thread.yield();
+                continue;
+            }
+
+            if (shard.clockReadIdx.compareAndSet(readIdx, readIdx + 1)) {
+                return pages[shard.freeQueue[(int) (readIdx % shard.freeQueue.length)]];
+            }
+        }
+    }
+
+    private void reclaimThread() {
+        while (running && !Thread.interrupted()) {
+            boolean anyReclaimed = false;
+
+            for (var shard : shards) {
+                int toClaim = shard.freeQueue.length / 2 - shard.freeQueueSize();
+                if (toClaim <= 0)
+                    continue;
+
+                reclaimCycles.incrementAndGet();
+                reclaim(shard, toClaim);
+                anyReclaimed = true;
+            }
+
+            if (!anyReclaimed) {
+                LockSupport.parkNanos(10_000);
+            }
+        }
+    }
+
+    /** Sweep the shard's CLOCK hand until toClaim pages have been freed, or two full
+     * revolutions have passed without success, so that a shard where every page is held
+     * does not starve the others.
+     */
+    private void reclaim(Shard shard, int toClaim) {
+        for (int steps = 2 * shard.size(); running && toClaim > 0 && steps > 0; steps--) {
+            int pageIdx = shard.advanceClockHand();
+            var currentPage = pages[pageIdx];
+
+            if (currentPage.decreaseClock()) {
+                if (!currentPage.isHeld()) {
+                    deregister(currentPage);
+                    shard.freeQueue[(int) (shard.clockWriteIdx.get() % shard.freeQueue.length)] = pageIdx;
+                    shard.clockWriteIdx.incrementAndGet();
+                    toClaim--;
+                }
+                else {
+                    currentPage.touchClock(1);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getFreeQueueSize() {
+        int sum = 0;
+        for (var shard : shards) {
+            sum += shard.freeQueueSize();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getReclaimCycles() {
+        return reclaimCycles.get();
+    }
+
+    int shardCount() {
+        return shards.length;
+    }
+
+    private Shard shardFor(long hash) {
+        return shards[(int) (hash >>> 40) & shardMask];
+    }
+
+    /** Page addresses are aligned, so the low bits carry no information; mix them with
+     * the murmur3 finalizer before using them for shard and slot selection */
+    private static long hash(long address) {
+        return HashCommon.murmurHash3(address);
+    }
+
+    private static final class Shard {
+        final StampedLock lock = new StampedLock();
+
+        /** Open addressing table with linear probing, address to page index */
+        final long[] keys;
+        final int[] values;
+        final int mask;
+
+        final int pagesStart;
+        final int pagesEnd;
+        int clockHand;
+
+        final int[] freeQueue;
+        final AtomicLong clockReadIdx;
+        final AtomicLong clockWriteIdx;
+
+        Shard(int pagesStart, int pagesEnd) {
+            this.pagesStart = pagesStart;
+            this.pagesEnd = pagesEnd;
+            this.clockHand = pagesStart;
+
+            int size = pagesEnd - pagesStart;
+
+            // Keep the load factor at or below 0.5
+            int capacity = Integer.highestOneBit(Math.max(2, size) * 2 - 1) * 2;
+            keys = new long[capacity];
+            values = new int[capacity];
+            mask = capacity - 1;
+            Arrays.fill(keys, EMPTY);
+
+            freeQueue = new int[size];
+            for (int i = 0; i < size; i++) {
+                freeQueue[i] = pagesStart + i;
+            }
+
+            clockReadIdx = new AtomicLong();
+            clockWriteIdx = new AtomicLong(size);
+        }
+
+        int size() {
+            return pagesEnd - pagesStart;
+        }
+
+        int freeQueueSize() {
+            return (int) (clockWriteIdx.get() - clockReadIdx.get());
+        }
+
+        /** Only called from the reclaim thread */
+        int advanceClockHand() {
+            if (++clockHand >= pagesEnd) {
+                clockHand = pagesStart;
+            }
+            return clockHand;
+        }
+
+        /** Find the page index associated with the address, or -1.
+         * <p></p>
+         * May be called without holding the lock, in which case the result
+         * must be validated; the probe is bounded so that it always terminates
+         * even if the table is being modified concurrently.
+         * */
+        int find(long address, long hash) {
+            int slot = (int) hash & mask;
+            for (int i = 0; i <= mask; i++) {
+                long key = keys[slot];
+                if (key == address)
+                    return values[slot];
+                if (key == EMPTY)
+                    return -1;
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        /** Must be called with the write lock held */
+        void put(long address, long hash, int pageIdx) {
+            int slot = (int) hash & mask;
+            for (int i = 0; i <= mask; i++) {
+                long key = keys[slot];
+                if (key == address || key == EMPTY) {
+                    values[slot] = pageIdx;
+                    keys[slot] = address;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            throw new IllegalStateException("Page table full");
+        }
+
+        /** Remove the address if it is associated with the page index.
+         * Must be called with the write lock held */
+        void remove(long address, long hash, int pageIdx) {
+            int slot = (int) hash & mask;
+            for (int i = 0; i <= mask; i++) {
+                long key = keys[slot];
+                if (key == EMPTY)
+                    return;
+                if (key == address) {
+                    if (values[slot] == pageIdx) {
+                        removeSlot(slot);
+                    }
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        /** Backward shift deletion, keeps probe sequences intact without tombstones */
+        private void removeSlot(int hole) {
+            int next = (hole + 1) & mask;
+
+            while (keys[next] != EMPTY) {
+                int home = (int) hash(keys[next]) & mask;
+
+                // Move the entry into the hole unless its home slot lies cyclically in (hole, next]
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    hole = next;
+                }
+
+                next = (next + 1) & mask;
+            }
+
+            keys[hole] = EMPTY;
+        }
+    }
+}
@@ -34,6 +34,11 @@ public class UnsafeMemoryPage implements MemoryPage, AutoCloseable {
         this.ord = ord;
     }
 
+    @Override
+    public int ord() {
+        return ord;
+    }
+
     public int hashCode() {
         return (int) segment.address();
     }
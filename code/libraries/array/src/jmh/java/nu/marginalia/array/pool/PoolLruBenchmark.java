@@ -0,0 +1,105 @@
+package nu.marginalia.array.pool;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** This benchmark simulates the page lookups BufferPool makes when many
+ * queries walk skiplist blocks concurrently, comparing the PoolLru implementations.
+ * <p></p>
+ * The working set is larger than the pool, and skewed toward low addresses,
+ * so that the mix of hits and misses resembles a warm index.
+ * */
+public class PoolLruBenchmark {
+    private static final int PAGE_SIZE = 4096;
+    private static final int POOL_SIZE = 16384;
+    private static final long WORKING_SET_PAGES = 4L * POOL_SIZE;
+
+    @State(Scope.Benchmark)
+    public static class PoolState {
+        @Param({"linked-hash", "sharded"})
+        public String impl;
+
+        Arena arena;
+        PoolLru lru;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            arena = Arena.ofShared();
+            MemorySegment memoryArea = arena.allocate((long) PAGE_SIZE * POOL_SIZE, 4096);
+
+            MemoryPage[] pages = new MemoryPage[POOL_SIZE];
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = new UnsafeMemoryPage(memoryArea.asSlice((long) i * PAGE_SIZE, PAGE_SIZE), i);
+            }
+
+            lru = switch (impl) {
+                case "sharded" -> new ShardedPoolLru(pages, ShardedPoolLru.defaultShardCount());
+                default -> new LinkedHashPoolLru(pages);
+            };
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException {
+            lru.stop();
+            arena.close();
+        }
+    }
+
+    @Fork(value = 1, warmups = 1)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    @Threads(1)
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public long readers1(PoolState state) {
+        return access(state.lru);
+    }
+
+    @Fork(value = 1, warmups = 1)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    @Threads(8)
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public long readers8(PoolState state) {
+        return access(state.lru);
+    }
+
+    @Fork(value = 1, warmups = 1)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    @Threads(32)
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public long readers32(PoolState state) {
+        return access(state.lru);
+    }
+
+    /** Mirrors BufferPool.get(): look up the page, and on a miss claim a free page and register it */
+    private static long access(PoolLru lru) {
+        double r = ThreadLocalRandom.current().nextDouble();
+        long address = PAGE_SIZE * (long) (r * r * WORKING_SET_PAGES);
+
+        MemoryPage page = lru.get(address);
+        if (page != null && page.pageAddress() == address && page.acquireAsReader(address)) {
+            page.close();
+            return address;
+        }
+
+        for (;;) {
+            page = lru.getFree(address);
+            if (page != null && page.acquireForWriting(address))
+                break;
+        }
+
+        lru.register(page);
+        page.dirty(false);
+        page.pinCount().compareAndSet(-1, 1);
+        page.close();
+
+        return -address;
+    }
+}
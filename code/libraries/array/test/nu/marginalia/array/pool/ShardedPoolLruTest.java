@@ -0,0 +1,121 @@
+package nu.marginalia.array.pool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.HashSet;
+import java.util.Set;
+
+class ShardedPoolLruTest {
+    private static final int PAGE_SIZE = 512;
+    private static final int POOL_SIZE = 1024;
+
+    Arena arena;
+    MemoryPage[] pages;
+    ShardedPoolLru lru;
+
+    @BeforeEach
+    void setUp() {
+        arena = Arena.ofShared();
+        MemorySegment memoryArea = arena.allocate((long) PAGE_SIZE * POOL_SIZE, 4096);
+        pages = new MemoryPage[POOL_SIZE];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = new UnsafeMemoryPage(memoryArea.asSlice((long) i * PAGE_SIZE, PAGE_SIZE), i);
+        }
+        lru = new ShardedPoolLru(pages, 8);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        lru.stop();
+        arena.close();
+    }
+
+    @Test
+    void shardCountIsBoundedByPoolSize() throws InterruptedException {
+        var small = new ShardedPoolLru(pages, 1024);
+        try {
+            Assertions.assertEquals(POOL_SIZE / 64, small.shardCount());
+        }
+        finally {
+            small.stop();
+        }
+    }
+
+    @Test
+    void registerGetDeregister() {
+        Set<MemoryPage> seen = new HashSet<>();
+
+        for (long address = 0; address < 64L * PAGE_SIZE; address += PAGE_SIZE) {
+            Assertions.assertNull(lru.get(address));
+
+            MemoryPage page = lru.getFree(address);
+            Assertions.assertTrue(page.acquireForWriting(address));
+            lru.register(page);
+            page.dirty(false);
+            page.pinCount().set(0);
+
+            Assertions.assertSame(page, lru.get(address));
+            seen.add(page);
+        }
+
+        Assertions.assertEquals(64, seen.size());
+
+        for (long address = 0; address < 64L * PAGE_SIZE; address += 2 * PAGE_SIZE) {
+            lru.deregister(lru.get(address));
+        }
+
+        for (long address = 0; address < 64L * PAGE_SIZE; address += PAGE_SIZE) {
+            if ((address / PAGE_SIZE) % 2 == 0) {
+                Assertions.assertNull(lru.get(address));
+            }
+            else {
+                Assertions.assertNotNull(lru.get(address));
+                Assertions.assertEquals(address, lru.get(address).pageAddress());
+            }
+        }
+    }
+
+    @Test
+    void deregisterStalePageDoesNotRemoveMapping() {
+        MemoryPage first = lru.getFree(0);
+        MemoryPage second = lru.getFree(0);
+        Assertions.assertNotSame(first, second);
+
+        first.pageAddress(0);
+        second.pageAddress(0);
+
+        lru.register(first);
+        lru.register(second);
+
+        lru.deregister(first);
+        Assertions.assertSame(second, lru.get(0));
+    }
+
+    @Test
+    void reclaimsReleasedPages() {
+        // Cycle through many more addresses than there are pages, which
+        // requires the reclaim thread to keep the free queues replenished
+        for (long address = 0; address < 16L * POOL_SIZE * PAGE_SIZE; address += PAGE_SIZE) {
+            MemoryPage page = lru.get(address);
+            if (page != null && page.acquireAsReader(address)) {
+                page.close();
+                continue;
+            }
+
+            do {
+                page = lru.getFree(address);
+            } while (!page.acquireForWriting(address));
+
+            lru.register(page);
+            page.dirty(false);
+            Assertions.assertTrue(page.pinCount().compareAndSet(-1, 0));
+        }
+
+        Assertions.assertTrue(lru.getReclaimCycles() > 0);
+    }
+}
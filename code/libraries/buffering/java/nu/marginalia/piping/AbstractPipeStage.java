@@ -14,12 +14,14 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.LockSupport;
 
 public abstract class AbstractPipeStage<T> implements PipeStage<T> {
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
     public final String stageName;
+    private final int threads;
 
     private final RingBuffer<T> inputBuffer;
     private final ExecutorService executorService;
@@ -35,6 +37,11 @@ public abstract class AbstractPipeStage<T> implements PipeStage<T> {
 
     private final CountDownLatch countdown;
 
+    private final LongAdder itemsProcessed = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private final AtomicInteger maxQueueFillPermille = new AtomicInteger();
+
     protected AbstractPipeStage(String stageName,
                                 int size,
                                 int threads,
@@ -45,6 +52,7 @@ public abstract class AbstractPipeStage<T> implements PipeStage<T> {
         maxRunDurationNanos = maxRunDuration.toNanos();
 
         this.stageName = stageName;
+        this.threads = threads;
         this.inputBuffer = new RingBuffer<>(size);
         this.executorService = executorService;
 
@@ -95,6 +103,22 @@ public abstract class AbstractPipeStage<T> implements PipeStage<T> {
             return false;
         }
 
+        if (inputBuffer.putNP(val)) {
+            sampleQueueFill();
+            return true;
+        }
+
+        long start = System.nanoTime();
+        try {
+            return offerBlocking(val);
+        }
+        finally {
+            blockedNanos.add(System.nanoTime() - start);
+            sampleQueueFill();
+        }
+    }
+
+    private boolean offerBlocking(T val) {
         for (int iter = 0; iter < 128; iter++) {
             if (inputBuffer.putNP(val)) {
                 return true;
@@ -134,8 +158,22 @@ public abstract class AbstractPipeStage<T> implements PipeStage<T> {
 
     @Override
     public boolean offer(T val, Duration timeout) {
+        if (inputBuffer.putNP(val)) {
+            sampleQueueFill();
+            return true;
+        }
+
         long start = System.nanoTime();
+        try {
+            return offerBlocking(val, start, timeout);
+        }
+        finally {
+            blockedNanos.add(System.nanoTime() - start);
+            sampleQueueFill();
+        }
+    }
 
+    private boolean offerBlocking(T val, long start, Duration timeout) {
         for (int iter = 0; iter < 128; iter++) {
             if (inputBuffer.putNP(val)) {
                 return true;
@@ -175,8 +213,40 @@ public abstract class AbstractPipeStage<T> implements PipeStage<T> {
         }
     }
 
+    /** Record the fill ratio of the input queue, which is done from the producer side */
+    private void sampleQueueFill() {
+        int fill = (int) (1000 * (1 - inputBuffer.capacityHint()));
+
+        if (fill > maxQueueFillPermille.getPlain()) {
+            maxQueueFillPermille.accumulateAndGet(fill, Math::max);
+        }
+    }
+
+    @Override
+    public PipeStageStats stats() {
+        return new PipeStageStats(stageName,
+                threads,
+                itemsProcessed.sum(),
+                busyNanos.sum(),
+                blockedNanos.sum(),
+                maxQueueFillPermille.get() / 1000.);
+    }
+
     abstract StageExecution<T> createStage();
 
+    private void process(StageExecution<T> stage, T val) {
+        rouseSubmitter();
+
+        long start = System.nanoTime();
+        try {
+            stage.accept(val);
+        }
+        finally {
+            busyNanos.add(System.nanoTime() - start);
+            itemsProcessed.increment();
+        }
+    }
+
     void run() {
         String originalThreadName = Thread.currentThread().getName();
         StageExecution<T> stage = null;
@@ -195,8 +265,7 @@ public abstract class AbstractPipeStage<T> implements PipeStage<T> {
                 for (int iter = 0; iter < 128; iter++) {
                     T val = inputBuffer.tryTakeNC();
                     if (val != null) {
-                        rouseSubmitter();
-                        stage.accept(val);
+                        process(stage, val);
                         continue outer;
                     }
                     Thread.onSpinWait();
@@ -207,8 +276,7 @@ public abstract class AbstractPipeStage<T> implements PipeStage<T> {
                 for (int iter = 0; iter < 1024; iter++) {
                     T val = inputBuffer.tryTakeNC();
                     if (val != null) {
-                        rouseSubmitter();
-                        stage.accept(val);
+                        process(stage, val);
                         continue outer;
                     }
                     Thread.yield();
@@ -221,8 +289,7 @@ public abstract class AbstractPipeStage<T> implements PipeStage<T> {
                     for (; ; ) {
                         T val = inputBuffer.tryTakeNC();
                         if (val != null) {
-                            rouseSubmitter();
-                            stage.accept(val);
+                            process(stage, val);
                             continue outer;
                         }
 
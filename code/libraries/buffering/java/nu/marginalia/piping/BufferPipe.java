@@ -106,6 +106,15 @@ public class BufferPipe<T> implements AutoCloseable {
     }
 
 
+    /** Returns the throughput and backpressure counters for each stage, in pipe order */
+    public List<PipeStageStats> stageStats() {
+        List<PipeStageStats> ret = new ArrayList<>(stages.size());
+        for (var stage : stages) {
+            ret.add(stage.stats());
+        }
+        return ret;
+    }
+
     @Override
     public void close() {
         stop();
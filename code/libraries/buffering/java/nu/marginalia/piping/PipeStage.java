@@ -25,4 +25,7 @@ public interface PipeStage<T> {
 
     boolean offer(T val);
     boolean offer(T val, Duration timeout);
+
+    /** Returns the stage's throughput and backpressure counters */
+    PipeStageStats stats();
 }
@@ -0,0 +1,19 @@
+package nu.marginalia.piping;
+
+/** Counters for a pipe stage, accumulated over the lifetime of the stage.
+ *
+ * @param stageName the name of the stage
+ * @param threads the number of runner threads the stage was started with
+ * @param itemsProcessed the number of items taken from the input queue and processed
+ * @param busyNanos the total time the runners spent processing items
+ * @param blockedNanos the total time producers spent waiting for room in the input queue
+ * @param maxQueueFill the highest observed fill ratio of the input queue, between 0 and 1
+ */
+public record PipeStageStats(String stageName,
+                             int threads,
+                             long itemsProcessed,
+                             long busyNanos,
+                             long blockedNanos,
+                             double maxQueueFill)
+{
+}
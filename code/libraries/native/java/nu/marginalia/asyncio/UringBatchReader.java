@@ -0,0 +1,186 @@
+package nu.marginalia.asyncio;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import nu.marginalia.ffi.LinuxSystemCalls;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/** Reads many small, scattered ranges of a file in one go.
+ * <p></p>
+ * The requested ranges are sorted by file offset, ranges that are adjacent or nearly so
+ * are merged into a single read, and all data is read into one allocation.  The reads
+ * are submitted through a UringExecutionQueue in queue-sized batches, falling back to
+ * pread if io_uring is not available.
+ * <p></p>
+ * The reader does not own the file descriptor, the caller is responsible for closing it
+ * after the reader is closed.
+ * */
+public class UringBatchReader implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(UringBatchReader.class);
+
+    private final int fd;
+    private final int queueSize;
+    private final int mergeGap;
+    private final int maxReadSize;
+
+    @Nullable
+    private final UringExecutionQueue queue;
+
+    /**
+     * @param fd the file to read from, opened in buffered mode
+     * @param queueSize the io_uring queue size, also the largest number of reads per submission
+     * @param mergeGap ranges that are at most this many bytes apart are merged into a single read
+     * @param maxReadSize ranges are not merged into reads larger than this
+     * @param useUring if false, all reads are done with pread
+     */
+    public UringBatchReader(int fd, int queueSize, int mergeGap, int maxReadSize, boolean useUring) {
+        this.fd = fd;
+        this.queueSize = queueSize;
+        this.mergeGap = mergeGap;
+        this.maxReadSize = maxReadSize;
+
+        UringExecutionQueue queue = null;
+        if (useUring) {
+            try {
+                queue = new UringExecutionQueue(queueSize);
+            }
+            catch (IOException | RuntimeException ex) {
+                logger.warn("Could not set up io_uring, falling back to pread", ex);
+            }
+        }
+        this.queue = queue;
+    }
+
+    /** Read the ranges given by offsets and sizes.
+     *
+     * @param arena the arena to allocate the memory for the data from
+     * @param offsets file offsets of the ranges
+     * @param sizes sizes of the ranges, a size of zero means the range is skipped
+     * @param n the number of ranges to read from the start of the arrays
+     * @return segments with the data for each range, null for skipped ranges
+     */
+    public MemorySegment[] read(Arena arena, long[] offsets, int[] sizes, int n) {
+        MemorySegment[] ret = new MemorySegment[n];
+
+        int count = 0;
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            if (sizes[i] > 0) {
+                order[count++] = i;
+            }
+        }
+
+        if (count == 0)
+            return ret;
+
+        IntArrays.quickSort(order, 0, count, (a, b) -> Long.compare(offsets[a], offsets[b]));
+
+        // Merge adjacent reads into runs
+
+        long[] runStarts = new long[count];
+        int[] runSizes = new int[count];
+        int[] runOfEntry = new int[n];
+        int runs = 0;
+
+        for (int i = 0; i < count; i++) {
+            int entry = order[i];
+            long start = offsets[entry];
+            long end = start + sizes[entry];
+
+            if (runs > 0) {
+                long runStart = runStarts[runs - 1];
+                long runEnd = runStart + runSizes[runs - 1];
+
+                if (start <= runEnd + mergeGap && Math.max(end, runEnd) - runStart <= maxReadSize) {
+                    runSizes[runs - 1] = (int) (Math.max(end, runEnd) - runStart);
+                    runOfEntry[entry] = runs - 1;
+                    continue;
+                }
+            }
+
+            runStarts[runs] = start;
+            runSizes[runs] = sizes[entry];
+            runOfEntry[entry] = runs;
+            runs++;
+        }
+
+        // Lay out the runs in a single buffer and read them
+
+        long[] runBufferOffsets = new long[runs];
+        long totalSize = 0;
+        for (int run = 0; run < runs; run++) {
+            runBufferOffsets[run] = totalSize;
+            totalSize += runSizes[run];
+        }
+
+        MemorySegment buffer = arena.allocate(totalSize, 8);
+        readRuns(buffer, runStarts, runSizes, runBufferOffsets, runs);
+
+        // Slice the buffer into the requested ranges
+
+        for (int i = 0; i < count; i++) {
+            int entry = order[i];
+            int run = runOfEntry[entry];
+
+            ret[entry] = buffer.asSlice(runBufferOffsets[run] + offsets[entry] - runStarts[run], sizes[entry]);
+        }
+
+        return ret;
+    }
+
+    private void readRuns(MemorySegment buffer, long[] runStarts, int[] runSizes, long[] runBufferOffsets, int runs) {
+        if (queue != null) {
+            try {
+                List<CompletableFuture<?>> futures = new ArrayList<>(1 + runs / queueSize);
+
+                for (int batchStart = 0; batchStart < runs; batchStart += queueSize) {
+                    int batchEnd = Math.min(runs, batchStart + queueSize);
+
+                    List<AsyncReadRequest> requests = new ArrayList<>(batchEnd - batchStart);
+                    for (int run = batchStart; run < batchEnd; run++) {
+                        requests.add(new AsyncReadRequest(fd, buffer.asSlice(runBufferOffsets[run], runSizes[run]), runStarts[run]));
+                    }
+
+                    futures.add(queue.submit(requests, requests));
+                }
+
+                CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get();
+                return;
+            }
+            catch (ExecutionException ex) {
+                logger.warn("Batched read failed, retrying with pread", ex);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ex);
+            }
+        }
+
+        for (int run = 0; run < runs; run++) {
+            LinuxSystemCalls.readAt(fd, buffer.asSlice(runBufferOffsets[run], runSizes[run]), runStarts[run]);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (queue == null)
+            return;
+
+        try {
+            queue.close();
+        }
+        catch (InterruptedException ex) {
+            logger.warn("Interrupted while closing io_uring queue", ex);
+            Thread.currentThread().interrupt();
+        }
+    }
+}
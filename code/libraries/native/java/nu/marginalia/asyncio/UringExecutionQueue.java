@@ -86,23 +86,25 @@ public class UringExecutionQueue implements AutoCloseable {
         return future;
     }
 
+    /** Enqueue a request for the executor.  This may be called from multiple threads,
+     * so the multi-producer putNP is used rather than put. */
     private void enqueueRequest(SubmittedReadRequest<?> item) {
         for (int iter = 0; iter < 128; iter++) {
-            if (inputQueue.put(item)) {
+            if (inputQueue.putNP(item)) {
                 LockSupport.unpark(executor);
                 return;
             }
             Thread.onSpinWait();
         }
         for (int iter = 0; iter < 1024; iter++) {
-            if (inputQueue.put(item)) {
+            if (inputQueue.putNP(item)) {
                 LockSupport.unpark(executor);
                 return;
             }
             Thread.yield();
         }
         for (;;) {
-            if (inputQueue.put(item)) {
+            if (inputQueue.putNP(item)) {
                 LockSupport.unpark(executor);
                 return;
             }
@@ -270,6 +272,7 @@ public class UringExecutionQueue implements AutoCloseable {
 
             // recycle between iterations to avoid allocation churn
             List<SubmittedReadRequest<?>> batchesToSend = new ArrayList<>();
+            SubmittedReadRequest<?> deferredRequest = null;
 
             int idleCycles = 0;
 
@@ -280,14 +283,18 @@ public class UringExecutionQueue implements AutoCloseable {
 
                 SubmittedReadRequest<?> request;
 
-                // Find batches to send that will not exceed the queue size
-                while ((request = inputQueue.tryTake1C()) != null) {
+                // Find batches to send that will not exceed the queue size; a batch that
+                // was taken but didn't fit is held over until there is room for it
+                while ((request = deferredRequest != null ? deferredRequest : inputQueue.tryTake1C()) != null) {
+                    deferredRequest = null;
+
                     if (remainingRequests >= request.count()) {
                         remainingRequests -= request.count();
 
                         batchesToSend.add(request);
                     }
                     else {
+                        deferredRequest = request;
                         break;
                     }
                 }
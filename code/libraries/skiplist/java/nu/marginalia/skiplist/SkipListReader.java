@@ -38,6 +38,9 @@ public class SkipListReader {
     private long lastDecompressedBlock = -1;
     private final long[] decompressedData = new long[BLOCK_SIZE];
 
+    private long prefetchHorizon = -1;
+    private long[] prefetchAddresses;
+
     public int[] __stats_match_histo_retain = new int[512];
     public int[] __stats_match_histo_reject = new int[512];
 
@@ -60,6 +63,7 @@ public class SkipListReader {
         currentBlock = blockStart & -BLOCK_SIZE;
         currentBlockOffset = (int) (blockStart & (BLOCK_SIZE - 1));
         currentBlockIdx = 0;
+        prefetchHorizon = -1;
 
         atEnd = false;
     }
@@ -80,6 +84,36 @@ public class SkipListReader {
         }
     }
 
+    /** Ask the buffer pool to asynchronously read the blocks behind the first n forward pointers
+     * of the current block, so that they are likely to be in memory by the time they are needed.
+     * <p></p>
+     * Repeated calls are cheap; new reads are only issued once the reader has advanced past
+     * the middle of the previously prefetched window.
+     */
+    public void prefetch(int n) {
+        if (n <= 0 || atEnd || currentBlock < prefetchHorizon)
+            return;
+
+        n = Math.min(n, POINTER_TARGET_COUNT);
+
+        if (prefetchAddresses == null) {
+            prefetchAddresses = new long[POINTER_TARGET_COUNT];
+        }
+
+        int count;
+        try (var page = indexPool.get(currentBlock)) {
+            count = Math.min(n, headerForwardCount(page, currentBlockOffset));
+        }
+
+        for (int i = 0; i < count; i++) {
+            prefetchAddresses[i] = currentBlock + (long) BLOCK_STRIDE * skipOffsetForPointer(i);
+        }
+
+        prefetchHorizon = currentBlock + (long) BLOCK_STRIDE * skipOffsetForPointer(count / 2);
+
+        indexPool.prefetch(prefetchAddresses, count);
+    }
+
     /** The retain operation keeps all keys in the provided LongQueryBuffer that also
      * exist in the skip list index.  This operation will return after intersecting with
      * a single page, and return true if additional computation is available.
@@ -828,7 +862,16 @@ public class SkipListReader {
     }
 
     public BitSet getAllPresentValues(long[] keys) {
-        BitSet ret = new BitSet(keys.length);
+        return getAllPresentValues(keys, new BitSet(keys.length));
+    }
+
+    /** Mark the positions of the keys that are present in the list in ret,
+     * which is cleared first.  This allows the caller to reuse the bit set between calls.
+     *
+     * @return ret
+     */
+    public BitSet getAllPresentValues(long[] keys, BitSet ret) {
+        ret.clear();
 
         if (getClass().desiredAssertionStatus()) {
             for (int i = 1; i < keys.length; i++) {
@@ -331,6 +331,62 @@ public class SkipListReaderTest {
         }
     }
 
+    @Test
+    public void testTenBlocks__prefetch() throws IOException {
+        long[] keys = LongStream.range(0, 32000).toArray();
+        long[] vals = LongStream.range(0, 32000).map(v -> -v).toArray();
+
+        try (var writer = new SkipListWriter(docsFile, valuesFile)) {
+            writer.writeList(createArray(keys, vals),  keys.length);
+        }
+
+        LongSet actualKeys = new LongArraySet(keys.length);
+        LongSet expectedKeys = new LongArraySet(LongList.of(keys));
+
+        try (var indexPool = new BufferPool(docsFile, SkipListConstants.BLOCK_SIZE, 64, true);
+             var valueReader = new SkipListValueReader(valuesFile)) {
+            var reader = new SkipListReader(indexPool, valueReader,  0);
+            LongQueryBuffer lqb = new LongQueryBuffer(20);
+            while (!reader.atEnd()) {
+                reader.prefetch(8);
+                reader.getKeys(lqb);
+                actualKeys.addAll(LongList.of(lqb.copyData()));
+                if (!lqb.fitsMore()) {
+                    lqb.zero();
+                }
+            }
+        }
+
+        Assertions.assertEquals(expectedKeys, actualKeys);
+    }
+
+    @Test
+    public void testRetainTenBlocks__prefetch() throws IOException {
+        long[] keys = LongStream.range(0, 320000).map(v -> 2*v).toArray();
+        long[] vals = LongStream.range(0, 320000).map(v -> -v).toArray();
+
+        try (var writer = new SkipListWriter(docsFile, valuesFile)) {
+            writer.writeList(createArray(keys, vals),  keys.length);
+        }
+
+        long[] requestKeys = new long[] { 4, 5, 30, 39, 270, 300, 551, 8000, 9981, 16600 };
+        long[] expectedResult = new long[] { 4, 30, 270, 300, 8000, 16600 };
+
+        try (var indexPool = new BufferPool(docsFile, SkipListConstants.BLOCK_SIZE, 64, true);
+             var valueReader = new SkipListValueReader(valuesFile)) {
+            var reader = new SkipListReader(indexPool, valueReader,  0);
+            LongQueryBuffer lqb = new LongQueryBuffer(requestKeys, requestKeys.length);
+
+            do {
+                reader.prefetch(16);
+            } while (reader.tryRetainData(lqb));
+
+            lqb.finalizeFiltering();
+
+            Assertions.assertArrayEquals(expectedResult, lqb.copyData());
+        }
+    }
+
 
     @Test
     public void testRetainBug() throws IOException {
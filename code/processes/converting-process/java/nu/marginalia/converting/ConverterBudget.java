@@ -0,0 +1,93 @@
+package nu.marginalia.converting;
+
+import nu.marginalia.converting.writer.ConverterBatchWritableIf;
+import nu.marginalia.converting.writer.ConverterBatchWriter;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+
+/** Admission control for the converter, which limits the number of documents
+ * in flight between the crawl data being read and the converted data being written.
+ * <p></p>
+ * Each domain is weighed by its size hint, capped to a fraction of the budget, so that
+ * a few large domains can be processed alongside many small ones without
+ * the large domains starving the small ones, or the small domains exhausting the heap.
+ * <p></p>
+ * The budget is set in documents with <code>-Dconverter.documentBudget</code>, and
+ * defaults to a value based on the max heap size.
+ */
+class ConverterBudget {
+    /** Rough estimate of the heap used by a document between processing and writing */
+    private static final long BYTES_PER_DOCUMENT = 128 * 1024;
+
+    /** The largest share of the budget a single domain can hold, as a divisor */
+    private static final int MAX_SHARE = 4;
+
+    private final Semaphore permits;
+    private final int budget;
+
+    ConverterBudget(int budget) {
+        this.budget = Math.max(budget, MAX_SHARE);
+        this.permits = new Semaphore(this.budget);
+    }
+
+    static ConverterBudget fromHeapSize(int minBudget) {
+        int defaultBudget = (int) Math.clamp(Runtime.getRuntime().maxMemory() / BYTES_PER_DOCUMENT, minBudget, Integer.MAX_VALUE);
+
+        return new ConverterBudget(Integer.getInteger("converter.documentBudget", defaultBudget));
+    }
+
+    /** Returns the number of permits a domain with the given size hint is charged */
+    int weight(int sizeHint) {
+        return Math.clamp(sizeHint, 1, budget / MAX_SHARE);
+    }
+
+    /** Wait until there is room for a domain with the given size hint
+     *
+     * @return the weight that was acquired, which must be released with release()
+     */
+    int acquire(int sizeHint) throws InterruptedException {
+        int weight = weight(sizeHint);
+        permits.acquire(weight);
+        return weight;
+    }
+
+    void release(int weight) {
+        permits.release(weight);
+    }
+
+    int available() {
+        return permits.availablePermits();
+    }
+
+    /** Wrap the writable so that the acquired weight is released when it is closed,
+     * which the converter writer does once the domain has been written */
+    ConverterBatchWritableIf releaseOnClose(ConverterBatchWritableIf writable, int weight) {
+        return new ConverterBatchWritableIf() {
+            private boolean released = false;
+
+            @Override
+            public void write(ConverterBatchWriter writer) throws IOException {
+                writable.write(writer);
+            }
+
+            @Override
+            public String id() {
+                return writable.id();
+            }
+
+            @Override
+            public void close() throws Exception {
+                try {
+                    writable.close();
+                }
+                finally {
+                    if (!released) {
+                        released = true;
+                        release(weight);
+                    }
+                }
+            }
+        };
+    }
+}
@@ -29,6 +29,7 @@ import nu.marginalia.util.SimpleBlockingThreadPool;
 import nu.marginalia.worklog.BatchingWorkLog;
 import nu.marginalia.worklog.BatchingWorkLogImpl;
 import org.apache.logging.log4j.util.Strings;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,7 +37,6 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
@@ -205,35 +205,45 @@ public class ConverterMain extends ProcessMainClass {
             processedDomains.set(batchingWorkLog.size());
             heartbeat.setProgress(processedDomains.get() / (double) totalDomains);
 
-            logger.info("Processing small items");
+            // Small and large domains are processed by the same pool, with admission gated by
+            // a budget based on their size hints, so that a few large domains are processed
+            // alongside many small ones, rather than one at a time once the small ones are done
 
-            // We separate the large and small domains to reduce the number of critical sections,
-            // as the large domains have a separate processing track that doesn't store everything
-            // in memory
+            ConverterBudget budget = ConverterBudget.fromHeapSize(SIDELOAD_THRESHOLD);
 
-            final List<Path> bigTasks = new ArrayList<>();
-
-            // First process the small items
             for (var dataPath : WorkLog.iterableMap(crawlDir.getLogFile(),
                     new CrawlDataLocator(crawlDir.getDir(), batchingWorkLog, id -> !converterWriter.isAlreadyProcessed(id))))
             {
-                if (SerializableCrawlDataStream.getSizeHint(dataPath) >= SIDELOAD_THRESHOLD) {
-                    bigTasks.add(dataPath);
-                    continue;
+                final int sizeHint = SerializableCrawlDataStream.getSizeHint(dataPath);
+                final int weight = budget.acquire(sizeHint);
+
+                try {
+                    pool.submit(() -> {
+                        boolean handedOver = false;
+
+                        try {
+                            ConverterBatchWritableIf writable = process(dataPath, sizeHint);
+
+                            if (writable != null) {
+                                converterWriter.accept(budget.releaseOnClose(writable, weight));
+                                handedOver = true;
+                            }
+                        }
+                        catch (Exception ex) {
+                            logger.info("Error in processing", ex);
+                        }
+                        finally {
+                            if (!handedOver) {
+                                budget.release(weight);
+                            }
+                            heartbeat.setProgress(processedDomains.incrementAndGet() / (double) totalDomains);
+                        }
+                    });
+                }
+                catch (Exception ex) {
+                    budget.release(weight);
+                    throw ex;
                 }
-
-                pool.submit(() -> {
-                    try (var dataStream = SerializableCrawlDataStream.openDataStream(dataPath)) {
-                        ConverterBatchWritableIf writable = processor.fullProcessing(dataStream) ;
-                        converterWriter.accept(writable);
-                    }
-                    catch (Exception ex) {
-                        logger.info("Error in processing", ex);
-                    }
-                    finally {
-                        heartbeat.setProgress(processedDomains.incrementAndGet() / (double) totalDomains);
-                    }
-                });
             }
 
             // Grace period in case we're loading like 1 item
@@ -244,35 +254,34 @@ public class ConverterMain extends ProcessMainClass {
                 System.out.println("Waiting for pool to terminate... " + pool.getActiveCount() + " remaining");
             } while (!pool.awaitTermination(60, TimeUnit.SECONDS));
 
-            logger.info("Processing large items");
-
-            try (var hb = heartbeat.createAdHocTaskHeartbeat("Large Domains")) {
-                int bigTaskIdx = 0;
-                // Next the big items domain-by-domain
-                for (var dataPath : bigTasks) {
-                    hb.progress(dataPath.toFile().getName(), bigTaskIdx++, bigTasks.size());
-
-                    try {
-                        // SerializableCrawlDataStream is autocloseable, we can't try-with-resources because then it will be
-                        // closed before it's consumed by the converterWriter.  Instead, the converterWriter guarantees it
-                        // will close it after it's consumed.
-
-                        var stream = SerializableCrawlDataStream.openDataStream(dataPath);
-                        ConverterBatchWritableIf writable = processor.simpleProcessing(stream, SerializableCrawlDataStream.getSizeHint(dataPath));
-
-                        converterWriter.accept(writable);
-                    }
-                    catch (Exception ex) {
-                        logger.info("Error in processing", ex);
-                    }
-                    finally {
-                        heartbeat.setProgress(processedDomains.incrementAndGet() / (double) totalDomains);
-                    }
-                }
+            logger.info("Processing complete");
+        }
+    }
+
+    /** Process the crawl data for a domain.  Large domains are processed on the simple processing
+     * track, which processes the documents in parallel as they are consumed by the converter writer,
+     * instead of keeping the whole domain in memory.
+     */
+    @Nullable
+    private ConverterBatchWritableIf process(Path dataPath, int sizeHint) throws IOException {
+        if (sizeHint < SIDELOAD_THRESHOLD) {
+            try (var dataStream = SerializableCrawlDataStream.openDataStream(dataPath)) {
+                return processor.fullProcessing(dataStream);
             }
+        }
 
-            logger.info("Processing complete");
+        // SerializableCrawlDataStream is autocloseable, we can't try-with-resources because then it will be
+        // closed before it's consumed by the converterWriter.  Instead, the converterWriter guarantees it
+        // will close it after it's consumed.
+
+        var stream = SerializableCrawlDataStream.openDataStream(dataPath);
+        ConverterBatchWritableIf writable = processor.simpleProcessing(stream, sizeHint);
+
+        if (writable == null) {
+            stream.close();
         }
+
+        return writable;
     }
 
     private static class CrawlDataLocator implements Function<WorkLogEntry, Optional<Path>> {
@@ -5,6 +5,7 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
@@ -12,31 +13,67 @@ import java.time.temporal.ChronoUnit;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
-
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/** Writes the converted domains to the processed data directory.
+ * <p></p>
+ * Domains are queued and written by a number of writer shards, each with its own
+ * {@link ConverterBatchWriter}, so that the converter threads don't stall behind
+ * a single writer.  Within a round, shard i writes batch number base + i, and when the round is
+ * switched, all shards are closed and the batches are logged as finished together,
+ * so that the loader sees the same contiguous batch layout as with a single writer.
+ * <p></p>
+ * The number of shards can be set with <code>-Dconverter.writerShards</code>, and
+ * the queue depth with <code>-Dconverter.writerQueueDepth</code>.
+ */
 public class ConverterWriter implements AutoCloseable {
 
     private static final Logger logger = LoggerFactory.getLogger(ConverterWriter.class);
 
+    private static final int shardCount = Integer.getInteger("converter.writerShards",
+            Math.clamp(Runtime.getRuntime().availableProcessors() / 8, 1, 4));
+    private static final int queueDepth = Integer.getInteger("converter.writerQueueDepth",
+            4 * shardCount);
+
     private final BatchingWorkLog workLog;
     private final Path basePath;
 
     private final Duration switchInterval
             = Duration.of(10, ChronoUnit.MINUTES);
     private final ArrayBlockingQueue<ConverterBatchWritableIf> domainData
-            = new ArrayBlockingQueue<>(1);
+            = new ArrayBlockingQueue<>(queueDepth);
+
+    private final IntervalAction switcher = new IntervalAction(this::switchBatch, switchInterval);
 
-    private final Thread workerThread;
+    /** Held for reading while a shard writes, and for writing while the batch is switched */
+    private final ReadWriteLock switchLock = new ReentrantReadWriteLock();
 
-    private ConverterBatchWriter currentWriter;
+    private final ConverterBatchWriter[] currentWriters = new ConverterBatchWriter[shardCount];
+    private final Thread[] workerThreads = new Thread[shardCount];
+
+    // Backpressure statistics
+    private final AtomicLong acceptedCount = new AtomicLong();
+    private final AtomicLong blockedCount = new AtomicLong();
+    private final AtomicLong blockedNanos = new AtomicLong();
 
     volatile boolean running = true;
 
-    public ConverterWriter(BatchingWorkLog workLog, Path basePath) {
+    public ConverterWriter(BatchingWorkLog workLog, Path basePath) throws IOException {
         this.workLog = workLog;
         this.basePath = basePath;
 
-        workerThread = new Thread(this::writerThread, getClass().getSimpleName());
-        workerThread.start();
+        openWriters();
+
+        logger.info("Starting {} writer shards, queue depth {}", shardCount, queueDepth);
+
+        for (int i = 0; i < shardCount; i++) {
+            final int shard = i;
+
+            workerThreads[i] = new Thread(() -> writerThread(shard), getClass().getSimpleName() + "-" + i);
+            workerThreads[i].start();
+        }
     }
 
     /** Queue and eventually write the domain into the converter journal
@@ -46,24 +83,31 @@ public class ConverterWriter implements AutoCloseable {
         if (null == domain)
             return;
 
+        acceptedCount.incrementAndGet();
+
+        if (domainData.offer(domain))
+            return;
+
+        // The queue is full, so the writers are the bottleneck
+        long start = System.nanoTime();
         try {
             domainData.put(domain);
         }
         catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
+        finally {
+            blockedCount.incrementAndGet();
+            blockedNanos.addAndGet(System.nanoTime() - start);
+        }
     }
 
     public boolean isAlreadyProcessed(String id) {
         return workLog.isItemCommitted(id) || workLog.isItemInCurrentBatch(id);
     }
 
-    private void writerThread() {
+    private void writerThread(int shard) {
         try {
-            IntervalAction switcher = new IntervalAction(this::switchBatch, switchInterval);
-
-            currentWriter = new ConverterBatchWriter(basePath, workLog.getBatchNumber());
-
             while (running || !domainData.isEmpty()) {
                 // poll with a timeout so we have an
                 // opportunity to check the running condition
@@ -75,19 +119,14 @@ public class ConverterWriter implements AutoCloseable {
                 if (data == null)
                     continue;
 
-                String id = data.id();
-
-                if (isAlreadyProcessed(id)) {
-                    logger.warn("Skipping already logged item {}", id);
+                try {
+                    write(shard, data);
                 }
-                else {
-                    currentWriter.write(data);
-                    workLog.logItem(id);
+                finally {
                     data.close();
                 }
 
                 switcher.tick();
-                data.close();
             }
         }
         catch (Exception ex) {
@@ -95,35 +134,84 @@ public class ConverterWriter implements AutoCloseable {
         }
     }
 
-    public boolean switchBatch() {
-        if (workLog.isCurrentBatchEmpty()) {
-            // Nothing to commit
-            return false;
-        }
+    private void write(int shard, ConverterBatchWritableIf data) throws IOException {
+        String id = data.id();
 
+        switchLock.readLock().lock();
+        try {
+            if (isAlreadyProcessed(id)) {
+                logger.warn("Skipping already logged item {}", id);
+            }
+            else {
+                currentWriters[shard].write(data);
+                workLog.logItem(id);
+            }
+        }
+        finally {
+            switchLock.readLock().unlock();
+        }
+    }
 
+    public boolean switchBatch() {
+        switchLock.writeLock().lock();
         try {
+            if (workLog.isCurrentBatchEmpty()) {
+                // Nothing to commit
+                return false;
+            }
+
             // order matters here
-            currentWriter.close();
-            workLog.logFinishedBatch();
+            closeWriters();
+            workLog.logFinishedBatches(shardCount);
             logger.info("Switching to batch {}", workLog.getBatchNumber());
-            currentWriter = new ConverterBatchWriter(basePath, workLog.getBatchNumber());
+            logQueueStatistics();
+            openWriters();
 
             return true;
         }
         catch (Exception ex) {
             throw new RuntimeException(ex);
         }
+        finally {
+            switchLock.writeLock().unlock();
+        }
+    }
+
+    /** Open a writer for each shard, numbered consecutively from the current batch number */
+    private void openWriters() throws IOException {
+        int baseBatchNumber = workLog.getBatchNumber();
+
+        for (int i = 0; i < shardCount; i++) {
+            currentWriters[i] = new ConverterBatchWriter(basePath, baseBatchNumber + i);
+        }
+    }
+
+    private void closeWriters() throws Exception {
+        for (var writer : currentWriters) {
+            writer.close();
+        }
+    }
+
+    private void logQueueStatistics() {
+        logger.info("Writer queue: {} accepted, {} blocked for a total of {}s, current depth {}/{}",
+                acceptedCount.get(),
+                blockedCount.get(),
+                TimeUnit.NANOSECONDS.toSeconds(blockedNanos.get()),
+                domainData.size(),
+                queueDepth);
     }
 
     @Override
     public void close() throws Exception {
         running = false;
-        workerThread.join();
+        for (var thread : workerThreads) {
+            thread.join();
+        }
 
         // order matters here
-        currentWriter.close();
-        workLog.logFinishedBatch();
+        closeWriters();
+        workLog.logFinishedBatches(shardCount);
+        logQueueStatistics();
     }
 }
 
@@ -140,7 +228,7 @@ class IntervalAction {
 
     /** Execute the provided action if enough time has passed
      * since the last successful invocation */
-    public void tick() {
+    public synchronized void tick() {
         var now = Instant.now();
         if (nextActionInstant == null) {
             nextActionInstant = now.plus(interval);
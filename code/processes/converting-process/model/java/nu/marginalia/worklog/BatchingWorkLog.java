@@ -35,6 +35,19 @@ public interface BatchingWorkLog extends AutoCloseable {
      */
     void logFinishedBatch() throws IOException;
 
+    /** Mark the current batch as finished, along with count - 1 empty batches
+     * following it, as a single log entry, so that the batches are either all
+     * finished or none are if the process crashes.
+     * <p></p>
+     * This is used when the items of a batch are written to several files in parallel,
+     * each file numbered as its own batch.
+     */
+    default void logFinishedBatches(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            logFinishedBatch();
+        }
+    }
+
     int getBatchNumber();
 
     /** Returns false if logItem has been invoked since last logFinishedBatch */
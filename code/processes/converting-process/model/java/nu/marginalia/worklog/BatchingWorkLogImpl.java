@@ -1,6 +1,8 @@
 package nu.marginalia.worklog;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -8,6 +10,7 @@ import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class BatchingWorkLogImpl implements BatchingWorkLog {
     private int batchNumber = 0;
@@ -26,16 +29,17 @@ public class BatchingWorkLogImpl implements BatchingWorkLog {
      */
     public BatchingWorkLogImpl(Path file) throws IOException  {
         if (Files.exists(file)) {
-            try (var linesStream = Files.lines(file)) {
-                linesStream.map(WorkLogItem::parse).forEach(
-                        item -> item.replay(this)
-                );
+            replayLog(file, item -> item.replay(this));
+
+            // Cut off any line that was only partially written when the process crashed,
+            // it was ignored by the replay, and mustn't be completed by what we append next
+            try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(completeLength(file));
             }
 
             writer = Files.newOutputStream(file, StandardOpenOption.APPEND);
 
-            // This is helpful for debugging, and will also ensure any partially written line
-            // gets a newline at the end
+            // This is helpful for debugging
             writeLogEntry(new CommentLine("Log resumed on " + LocalDateTime.now()));
 
             if (getCurrentBatchSize() > 0) {
@@ -48,18 +52,61 @@ public class BatchingWorkLogImpl implements BatchingWorkLog {
             writeLogEntry(new CommentLine(" Format: "));
             writeLogEntry(new CommentLine(" " + AddItem.MARKER + " ID\tsignifies adding an item to the current batch"));
             writeLogEntry(new CommentLine(" " + FinishBatch.MARKER + "\tsignifies finalizing the current batch and switching to the next"));
+            writeLogEntry(new CommentLine(" " + FinishBatch.MARKER + " N\tsignifies finalizing the current batch along with N - 1 empty batches"));
             writeLogEntry(new CommentLine(" " + CrashMarker.MARKER + "\tdiscard contents from the current batch and start over, written after a crash"));
             writeLogEntry(new CommentLine("Upon a crash, items that have re-process until their batch is finalized"));
         }
     }
 
+    /** Replay the entries of the log file.  A last line that isn't terminated by a newline
+     * was cut short by a crash, and is ignored.
+     */
+    static void replayLog(Path file, Consumer<WorkLogItem> action) throws IOException {
+        boolean terminated = completeLength(file) == Files.size(file);
+
+        // Decode leniently, as a cut short line may end in the middle of a character
+        try (var reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            while (line != null) {
+                String next = reader.readLine();
+                if (next != null || terminated) {
+                    action.accept(WorkLogItem.parse(line));
+                }
+                line = next;
+            }
+        }
+    }
+
+    /** Returns the length of the file up until and including its last newline */
+    private static long completeLength(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+            for (long end = channel.size(); end > 0; ) {
+                int n = (int) Math.min(buffer.capacity(), end);
+                buffer.clear().limit(n);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, end - n + buffer.position()) < 0)
+                        throw new EOFException();
+                }
+
+                for (int i = n - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n')
+                        return end - n + i + 1;
+                }
+                end -= n;
+            }
+
+            return 0;
+        }
+    }
+
     void writeLogEntry(WorkLogItem item) throws IOException {
         item.write(this);
     }
 
-    void writeLine(String line) throws IOException {
-        writer.write(line.getBytes(StandardCharsets.UTF_8));
-        writer.write('\n');
+    synchronized void writeLine(String line) throws IOException {
+        writer.write((line + '\n').getBytes(StandardCharsets.UTF_8));
         writer.flush();
     }
 
@@ -73,17 +120,31 @@ public class BatchingWorkLogImpl implements BatchingWorkLog {
         return currentBatchItems.contains(id);
     }
     @Override
-    public void logItem(String id) throws IOException {
+    public synchronized void logItem(String id) throws IOException {
         writeLogEntry(new AddItem(id));
         addItemToCurrentBatch(id);
     }
 
     @Override
-    public void logFinishedBatch() throws IOException {
-        writeLogEntry(new FinishBatch());
+    public synchronized void logFinishedBatch() throws IOException {
+        writeLogEntry(new FinishBatch(1));
         incrementBatch();
     }
 
+    @Override
+    public synchronized void logFinishedBatches(int count) throws IOException {
+        if (count <= 0)
+            return;
+
+        // A single marker line carries the count; if a crash cuts it short, the replay ignores it,
+        // and none of the batches are finished
+        writeLogEntry(new FinishBatch(count));
+
+        for (int i = 0; i < count; i++) {
+            incrementBatch();
+        }
+    }
+
     void incrementBatch() {
         batchNumber++;
 
@@ -139,7 +200,7 @@ interface WorkLogItem {
         return switch (lineParts.tag()) {
             case CommentLine.MARKER -> new CommentLine(lineParts.arg());
             case AddItem.MARKER -> new AddItem(lineParts.arg());
-            case FinishBatch.MARKER -> new FinishBatch();
+            case FinishBatch.MARKER -> FinishBatch.parse(lineParts.arg());
             case CrashMarker.MARKER -> new CrashMarker();
             default -> throw new WorkLogParseException(line);
         };
@@ -183,19 +244,42 @@ record BlankLine() implements WorkLogItem {
     }
 }
 
-record FinishBatch() implements WorkLogItem {
+/** Finalizes the current batch, along with count - 1 empty batches following it */
+record FinishBatch(int count) implements WorkLogItem {
     final static char MARKER = 'F';
 
+    static FinishBatch parse(String arg) {
+        if (arg.isEmpty())
+            return new FinishBatch(1);
+
+        try {
+            return new FinishBatch(Integer.parseInt(arg));
+        }
+        catch (NumberFormatException ex) {
+            throw new WorkLogParseException(MARKER + " " + arg);
+        }
+    }
+
     @Override
     public void replay(BatchingWorkLogImpl bwl) {
-        bwl.incrementBatch();
+        for (int i = 0; i < count; i++) {
+            bwl.incrementBatch();
+        }
     }
 
     @Override
     public void write(BatchingWorkLogImpl bwl) throws IOException {
+        int batchNumber = bwl.getBatchNumber();
+
         bwl.writeLine("# " + LocalDateTime.now());
-        bwl.writeLine("# finalizing batchNumber = " + bwl.getBatchNumber());
-        bwl.writeLine(Character.toString(MARKER));
+        if (count == 1) {
+            bwl.writeLine("# finalizing batchNumber = " + batchNumber);
+            bwl.writeLine(Character.toString(MARKER));
+        }
+        else {
+            bwl.writeLine("# finalizing batchNumber = " + batchNumber + " to " + (batchNumber + count - 1));
+            bwl.writeLine(MARKER + " " + count);
+        }
     }
 
 
@@ -1,7 +1,6 @@
 package nu.marginalia.worklog;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 
 public class BatchingWorkLogInspector {
@@ -13,10 +12,14 @@ public class BatchingWorkLogInspector {
      * returns the same value as BatchingWorkLog.getBatchNumber()
      */
     public static int getValidBatches(Path file) throws IOException {
-        try (var linesStream = Files.lines(file)) {
-            return (int) linesStream.map(WorkLogItem::parse)
-                    .filter(FinishBatch.class::isInstance)
-                    .count();
-        }
+        int[] validBatches = new int[1];
+
+        BatchingWorkLogImpl.replayLog(file, item -> {
+            if (item instanceof FinishBatch(int count)) {
+                validBatches[0] += count;
+            }
+        });
+
+        return validBatches[0];
     }
 }
@@ -7,6 +7,7 @@ import org.junit.jupiter.api.Test;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -71,4 +72,65 @@ class BatchingWorkLogImplTest {
 
         Files.readAllLines(fileName).forEach(System.out::println);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testLogFinishedBatches() throws IOException {
+        Files.delete(fileName);
+
+        try (var wl = new BatchingWorkLogImpl(fileName)) {
+            wl.logItem("1");
+            wl.logItem("2");
+            wl.logFinishedBatches(3);
+
+            assertEquals(3, wl.getBatchNumber());
+            assertEquals(3, BatchingWorkLogInspector.getValidBatches(fileName));
+
+            wl.logItem("3");
+        }
+
+        try (var wl = new BatchingWorkLogImpl(fileName)) {
+            assertEquals(3, wl.getBatchNumber());
+            assertTrue(wl.isItemCommitted("1"));
+            assertTrue(wl.isItemCommitted("2"));
+            assertFalse(wl.isItemCommitted("3"));
+            assertTrue(wl.isCurrentBatchEmpty());
+        }
+    }
+
+    @Test
+    public void testPartiallyWrittenFinishBatches() throws IOException {
+        Files.delete(fileName);
+
+        try (var wl = new BatchingWorkLogImpl(fileName)) {
+            wl.logItem("1");
+            wl.logFinishedBatch();
+            wl.logItem("2");
+            wl.logItem("3");
+        }
+
+        // Simulate a crash while finishing three batches, where only the start of the marker line made it to disk
+        Files.writeString(fileName, "F", StandardOpenOption.APPEND);
+
+        assertEquals(1, BatchingWorkLogInspector.getValidBatches(fileName));
+
+        try (var wl = new BatchingWorkLogImpl(fileName)) {
+            assertEquals(1, wl.getBatchNumber());
+            assertTrue(wl.isItemCommitted("1"));
+            assertFalse(wl.isItemCommitted("2"));
+            assertFalse(wl.isItemCommitted("3"));
+
+            wl.logItem("2");
+            wl.logItem("3");
+            wl.logFinishedBatches(3);
+        }
+
+        // The cut short line is gone, and the batches are finished the second time around
+        assertEquals(4, BatchingWorkLogInspector.getValidBatches(fileName));
+
+        try (var wl = new BatchingWorkLogImpl(fileName)) {
+            assertEquals(4, wl.getBatchNumber());
+            assertTrue(wl.isItemCommitted("2"));
+            assertTrue(wl.isItemCommitted("3"));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package nu.marginalia.converting;
+
+import nu.marginalia.converting.writer.ConverterBatchWritableIf;
+import nu.marginalia.converting.writer.ConverterBatchWriter;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ConverterBudgetTest {
+
+    @Test
+    void testWeight() {
+        var budget = new ConverterBudget(1000);
+
+        assertEquals(1, budget.weight(0));
+        assertEquals(100, budget.weight(100));
+        assertEquals(250, budget.weight(1_000_000));
+    }
+
+    @Test
+    void testReleaseOnClose() throws Exception {
+        var budget = new ConverterBudget(1000);
+
+        int weight = budget.acquire(100);
+        assertEquals(900, budget.available());
+
+        var writable = budget.releaseOnClose(new ConverterBatchWritableIf() {
+            @Override
+            public void write(ConverterBatchWriter writer) {}
+
+            @Override
+            public String id() {
+                return "test";
+            }
+
+            @Override
+            public void close() {}
+        }, weight);
+
+        assertEquals("test", writable.id());
+
+        writable.close();
+        assertEquals(1000, budget.available());
+
+        // Closing twice must not release the weight twice
+        writable.close();
+        assertEquals(1000, budget.available());
+    }
+}
@@ -40,6 +40,7 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
@@ -72,6 +73,10 @@ public class CrawlerMain extends ProcessMainClass {
     private final ServiceRegistryIf serviceRegistry;
     private final SimpleBlockingThreadPool pool;
 
+    /** Converts the WARC files of finished crawls to slop files, separately from the crawler pool
+     * so that the CPU-heavy conversion doesn't hold up fetching, or the domain locks */
+    private final SimpleBlockingThreadPool warcConversionPool;
+
     private final DomainCoordinator domainCoordinator;
 
     private final Map<EdgeDomain, DomainAvailability> availabilityData = new HashMap<>();
@@ -136,6 +141,9 @@ public class CrawlerMain extends ProcessMainClass {
                 1,
                 threadType);
 
+        warcConversionPool = new SimpleBlockingThreadPool("WarcConversionPool",
+                Integer.getInteger("crawler.warcConversionPoolSize", Math.clamp(Runtime.getRuntime().availableProcessors() / 2, 1, 16)),
+                Integer.getInteger("crawler.warcConversionQueueSize", 16));
 
         // Wait for the blacklist to be loaded before starting the crawl
         blacklist.waitUntilLoaded();
@@ -411,6 +419,7 @@ public class CrawlerMain extends ProcessMainClass {
                 }
             }
 
+            awaitWarcConversion();
         }
         catch (Exception ex) {
             logger.warn("Exception in crawler", ex);
@@ -420,6 +429,16 @@ public class CrawlerMain extends ProcessMainClass {
         }
     }
 
+    /** Wait for the WARC conversion of the crawled domains to finish */
+    private void awaitWarcConversion() throws InterruptedException {
+        logger.info("Waiting for WARC conversion to complete...");
+
+        warcConversionPool.shutDown();
+        while (!warcConversionPool.awaitTermination(1, TimeUnit.HOURS)) {
+            logger.info("Still waiting for WARC conversion, {} remaining", warcConversionPool.getActiveCount());
+        }
+    }
+
     /** Create a comparator that sorts the crawl specs in a way that is beneficial for the crawl,
      * we want to enqueue domains that have common top domains first, but otherwise have a random
      * order.
@@ -482,6 +501,8 @@ public class CrawlerMain extends ProcessMainClass {
             var spec = new CrawlSpecRecord(targetDomainName, 1000, List.of());
             var task = new CrawlTask(spec, anchorTagsSource, outputDir, warcArchiver, domainStateDb, workLog);
             task.run();
+
+            awaitWarcConversion();
         }
         catch (Exception ex) {
             logger.warn("Exception in crawler", ex);
@@ -546,6 +567,10 @@ public class CrawlerMain extends ProcessMainClass {
             }
             DomainLock domainLock = lock.get();
 
+            // Set when the crawl succeeded and the WARC file is to be converted to a slop file,
+            // which is done once the domain lock is released
+            SimpleBlockingThreadPool.Task conversionTask = null;
+
             try (domainLock) {
                 Thread.currentThread().setName("crawling:" + domain);
 
@@ -586,8 +611,7 @@ public class CrawlerMain extends ProcessMainClass {
                         // Success case
                         case CrawlerRetreiver.CrawlerResult.Crawled(int size) -> {
                             reference.delete();
-                            convertWarc(domain, userAgent, newWarcFile, slopFile);
-                            workLog.setJobToFinished(domain, slopFile.toString(), size);
+                            conversionTask = () -> convertWarcAndFinish(newWarcFile, slopFile, size);
                         }
 
                         // Non-Error cases where we have no crawl data
@@ -616,26 +640,71 @@ public class CrawlerMain extends ProcessMainClass {
                         }
                     }
 
-                    // Optionally archive the WARC file if full retention is enabled,
-                    // otherwise delete it:
-                    warcArchiver.consumeWarc(newWarcFile, domain);
-
-                    // Update the progress bar
-                    heartbeat.setProgress(tasksDone.incrementAndGet() / (double) totalTasks);
-
-                    logger.info("Fetched {}", domain);
+                    if (conversionTask == null) {
+                        finish(newWarcFile);
+                    }
                 } catch (Exception e) {
                     logger.error("Error fetching domain " + domain, e);
+                    conversionTask = null;
                 }
                 finally {
-                    // We don't need to double-count these; it's also kept in the workLog
-                    pendingCrawlTasks.remove(domain);
                     Thread.currentThread().setName("[idle]");
 
-                    Files.deleteIfExists(newWarcFile);
+                    // The WARC file is retained until it has been converted,
+                    // and the task remains pending until then so that it isn't run twice
+                    if (conversionTask == null) {
+                        // We don't need to double-count these; it's also kept in the workLog
+                        pendingCrawlTasks.remove(domain);
+                        Files.deleteIfExists(newWarcFile);
+                    }
                     Files.deleteIfExists(tempFile);
                 }
             }
+
+            if (conversionTask != null) {
+                // This blocks when the conversion is backed up, which slows down the crawl
+                // rather than letting the WARC files pile up.  If the submission fails, the
+                // WARC file is left in place and the crawl is resumed from it on the next run.
+                try {
+                    warcConversionPool.submit(conversionTask);
+                }
+                catch (Exception ex) {
+                    pendingCrawlTasks.remove(domain);
+                    throw ex;
+                }
+            }
+        }
+
+        /** Convert the WARC file of a finished crawl to a slop file, and mark the job as finished */
+        private void convertWarcAndFinish(Path warcFile, Path slopFile, int size) throws IOException {
+            try {
+                Thread.currentThread().setName("converting:" + domain);
+
+                convertWarc(domain, userAgent, warcFile, slopFile);
+                workLog.setJobToFinished(domain, slopFile.toString(), size);
+
+                finish(warcFile);
+            }
+            catch (Exception e) {
+                logger.error("Error converting crawl data for " + domain, e);
+            }
+            finally {
+                pendingCrawlTasks.remove(domain);
+                Thread.currentThread().setName("[idle]");
+
+                Files.deleteIfExists(warcFile);
+            }
+        }
+
+        private void finish(Path warcFile) throws IOException {
+            // Optionally archive the WARC file if full retention is enabled,
+            // otherwise delete it:
+            warcArchiver.consumeWarc(warcFile, domain);
+
+            // Update the progress bar
+            heartbeat.setProgress(tasksDone.incrementAndGet() / (double) totalTasks);
+
+            logger.info("Fetched {}", domain);
         }
 
         private CrawlDataReference getReference() {
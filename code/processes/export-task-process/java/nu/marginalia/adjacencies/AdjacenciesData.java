@@ -3,7 +3,6 @@ package nu.marginalia.adjacencies;
 import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TIntObjectHashMap;
-import gnu.trove.set.hash.TIntHashSet;
 import nu.marginalia.api.linkgraph.AggregateLinkGraphClient;
 import org.roaringbitmap.RoaringBitmap;
 import org.slf4j.Logger;
@@ -19,21 +18,6 @@ public class AdjacenciesData {
     private final ArrayList<SparseBitVector> itemsList = new ArrayList<>(100_000);
 
     private final TIntObjectHashMap<SparseBitVector> dToSMap = new TIntObjectHashMap<>(100_000);
-    private final TIntObjectHashMap<RoaringBitmap> sToDMap = new TIntObjectHashMap<>(100_000);
-
-    public TIntHashSet getCandidates(SparseBitVector vec) {
-        TIntHashSet ret = new TIntHashSet();
-
-        var sources = vec.backingList;
-        for (int i = 0; i < sources.size(); i++) {
-            var sToD = sToDMap.get(sources.getQuick(i));
-            if (sToD != null) {
-                ret.addAll(sToD.toArray());
-            }
-        }
-
-        return ret;
-    }
 
     public AdjacenciesData(AggregateLinkGraphClient linksClient,
                            DomainAliases aliases) {
@@ -52,13 +36,6 @@ public class AdjacenciesData {
             int dest = aliases.deAlias(iter.dest());
 
             tmpMapDtoS.computeIfAbsent(dest, this::createBitmapWithSelf).add(source);
-            RoaringBitmap sToDEntry = sToDMap.get(source);
-            if (sToDEntry == null) {
-                sToDEntry = new RoaringBitmap();
-                sToDMap.put(source, sToDEntry);
-                sToDEntry.add(source);
-            }
-            sToDEntry.add(dest);
         }
         logger.info("Links loaded: {}", count);
 
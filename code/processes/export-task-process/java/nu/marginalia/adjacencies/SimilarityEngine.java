@@ -0,0 +1,260 @@
+package nu.marginalia.adjacencies;
+
+import org.jetbrains.annotations.Nullable;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static nu.marginalia.adjacencies.WebsiteAdjacenciesCalculator.DomainSimilarities;
+import static nu.marginalia.adjacencies.WebsiteAdjacenciesCalculator.DomainSimilarity;
+
+/** Finds the most similar domains of each domain, by the same cosine similarity measures
+ * that were previously calculated pairwise with {@link SparseBitVector}.
+ * <p></p>
+ * The vector of a domain is the set of domains linking to it.  Rather than intersecting the
+ * vector of a domain with each candidate in turn, the engine keeps an inverted index from each
+ * linking domain to the vectors it is a member of.  A single sweep over the inverted lists of a
+ * domain's members then accumulates the intersection size and the weighted intersection with
+ * every candidate at once, in tight loops over primitive arrays.  This is the sparse equivalent
+ * of AND-popcounting the domain's bitset against all other bitsets, without materializing bitsets
+ * over the millions of possible linking domains.
+ * <p></p>
+ * The members of each vector are visited in ascending order, so the weighted sums are added up
+ * in the same order as in SparseBitVector, and the similarities are identical.
+ * <p></p>
+ * The engine is immutable once built, and findSimilar() may be called from any number of
+ * threads, each of which gets its own scratch space.
+ */
+public class SimilarityEngine {
+    public static final int MAX_SIMILARITIES = 128;
+
+    /** Domains with fewer linking domains than this are not given any similarities */
+    private static final int MIN_CARDINALITY = 10;
+    private static final double MIN_SIMILARITY = 0.1;
+
+    /** Domain id of each vector */
+    private final int[] vectorIds;
+    private final int[] cardinalities;
+
+    /** The sum of the weights of the members of each vector */
+    private final double[] norms;
+
+    /** memberStart[v]..memberStart[v+1] is the range in members of the members of vector v,
+     * as indexes into the sorted member ids */
+    private final int[] memberStart;
+    private final int[] members;
+    private final float[] memberWeights;
+
+    /** invertedStart[m]..invertedStart[m+1] is the range in inverted of the vectors member m is in */
+    private final int[] invertedStart;
+    private final int[] inverted;
+
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * @param domainIds the domain id of each vector
+     * @param vectors the set of linking domains of each domain
+     * @param weights the weight of each linking domain, by domain id
+     */
+    public SimilarityEngine(int[] domainIds, List<SparseBitVector> vectors, float[] weights) {
+        int n = domainIds.length;
+
+        vectorIds = Arrays.copyOf(domainIds, n);
+        cardinalities = new int[n];
+        memberStart = new int[n + 1];
+
+        RoaringBitmap allMembers = new RoaringBitmap();
+        for (int v = 0; v < n; v++) {
+            var values = vectors.get(v).values();
+
+            cardinalities[v] = values.size();
+            memberStart[v + 1] = Math.addExact(memberStart[v], values.size());
+
+            for (int i = 0; i < values.size(); i++) {
+                allMembers.add(values.getQuick(i));
+            }
+        }
+
+        int[] memberIds = allMembers.toArray();
+        int memberCount = memberIds.length;
+
+        memberWeights = new float[memberCount];
+        for (int m = 0; m < memberCount; m++) {
+            memberWeights[m] = memberIds[m] < weights.length ? weights[memberIds[m]] : 0f;
+        }
+
+        // Translate the vectors to member indexes, which preserves their ascending order
+
+        members = new int[memberStart[n]];
+        norms = new double[n];
+        int[] invertedStart = new int[memberCount + 1];
+
+        for (int v = 0; v < n; v++) {
+            var values = vectors.get(v).values();
+            double norm = 0;
+
+            for (int i = 0, pos = memberStart[v]; i < values.size(); i++, pos++) {
+                int m = Arrays.binarySearch(memberIds, values.getQuick(i));
+
+                members[pos] = m;
+                norm += memberWeights[m];
+                invertedStart[m + 1]++;
+            }
+
+            norms[v] = norm;
+        }
+
+        // Transpose the vectors into the inverted index
+
+        for (int m = 0; m < memberCount; m++) {
+            invertedStart[m + 1] += invertedStart[m];
+        }
+
+        inverted = new int[members.length];
+        int[] fillPos = Arrays.copyOf(invertedStart, memberCount);
+
+        for (int v = 0; v < n; v++) {
+            for (int pos = memberStart[v]; pos < memberStart[v + 1]; pos++) {
+                inverted[fillPos[members[pos]]++] = v;
+            }
+        }
+
+        this.invertedStart = invertedStart;
+    }
+
+    /** Returns the number of vectors */
+    public int size() {
+        return vectorIds.length;
+    }
+
+    /** Returns the domain id of the vector */
+    public int domainId(int vector) {
+        return vectorIds[vector];
+    }
+
+    /** Find the domains most similar to the domain of the vector, or null if it
+     * has too few linking domains for the similarities to be meaningful */
+    @Nullable
+    public DomainSimilarities findSimilar(int vector) {
+        int cardinality = cardinalities[vector];
+
+        if (cardinality < MIN_CARDINALITY) {
+            return null;
+        }
+
+        Scratch s = scratch.get();
+
+        final int[] counts = s.counts;
+        final double[] weightedCounts = s.weightedCounts;
+        final int[] touched = s.touched;
+        int touchedCount = 0;
+
+        // Accumulate the intersections with every vector sharing a member
+
+        for (int pos = memberStart[vector]; pos < memberStart[vector + 1]; pos++) {
+            int m = members[pos];
+            float weight = memberWeights[m];
+
+            for (int i = invertedStart[m]; i < invertedStart[m + 1]; i++) {
+                int other = inverted[i];
+
+                if (counts[other]++ == 0) {
+                    touched[touchedCount++] = other;
+                }
+                weightedCounts[other] += weight;
+            }
+        }
+
+        int cardMin = Math.max(2, (int) (0.01 * cardinality));
+        s.heapSize = 0;
+
+        for (int i = 0; i < touchedCount; i++) {
+            int other = touched[i];
+
+            int count = counts[other];
+            double weightedCount = weightedCounts[other];
+
+            counts[other] = 0;
+            weightedCounts[other] = 0;
+
+            if (other == vector || cardinalities[other] < cardMin)
+                continue;
+
+            double similarity = count;
+            similarity /= Math.sqrt(cardinality);
+            similarity /= Math.sqrt(cardinalities[other]);
+
+            if (similarity <= MIN_SIMILARITY)
+                continue;
+
+            double weightedSimilarity = weightedCount / Math.sqrt(norms[vector] * norms[other]);
+
+            if (weightedSimilarity <= MIN_SIMILARITY)
+                continue;
+
+            s.offer(other, weightedSimilarity);
+        }
+
+        List<DomainSimilarity> similarities = new ArrayList<>(s.heapSize);
+        for (int i = 0; i < s.heapSize; i++) {
+            similarities.add(new DomainSimilarity(vectorIds[s.heapVectors[i]], s.heapValues[i]));
+        }
+
+        return new DomainSimilarities(vectorIds[vector], similarities);
+    }
+
+    /** Per-thread accumulators, which are cleared after each use */
+    private class Scratch {
+        final int[] counts = new int[vectorIds.length];
+        final double[] weightedCounts = new double[vectorIds.length];
+        final int[] touched = new int[vectorIds.length];
+
+        /** Min-heap of the best similarities so far, so that the root is the one to be displaced */
+        final int[] heapVectors = new int[MAX_SIMILARITIES];
+        final double[] heapValues = new double[MAX_SIMILARITIES];
+        int heapSize = 0;
+
+        void offer(int vector, double value) {
+            if (heapSize < MAX_SIMILARITIES) {
+                int pos = heapSize++;
+
+                while (pos > 0) {
+                    int parent = (pos - 1) >>> 1;
+                    if (heapValues[parent] <= value)
+                        break;
+
+                    heapVectors[pos] = heapVectors[parent];
+                    heapValues[pos] = heapValues[parent];
+                    pos = parent;
+                }
+
+                heapVectors[pos] = vector;
+                heapValues[pos] = value;
+            }
+            else if (value > heapValues[0]) {
+                int pos = 0;
+
+                for (;;) {
+                    int child = 2 * pos + 1;
+                    if (child >= heapSize)
+                        break;
+
+                    if (child + 1 < heapSize && heapValues[child + 1] < heapValues[child])
+                        child++;
+
+                    if (value <= heapValues[child])
+                        break;
+
+                    heapVectors[pos] = heapVectors[child];
+                    heapValues[pos] = heapValues[child];
+                    pos = child;
+                }
+
+                heapVectors[pos] = vector;
+                heapValues[pos] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package nu.marginalia.adjacencies;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static nu.marginalia.adjacencies.WebsiteAdjacenciesCalculator.DomainSimilarities;
+import static nu.marginalia.adjacencies.WebsiteAdjacenciesCalculator.DomainSimilarity;
+
+/** Compares the SimilarityEngine with the pairwise SparseBitVector calculation it replaces,
+ * on a synthetic link graph where a few domains get most of the links.  Each invocation finds
+ * the similar domains of a fixed sample of domains, on a single thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16G")
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class SimilarityBenchmark {
+
+    private static final int SAMPLE_SIZE = 1000;
+
+    @State(Scope.Benchmark)
+    public static class BenchState {
+
+        @Param({"10000", "100000"})
+        int domainCount;
+
+        @Param({"20"})
+        int averageDegree;
+
+        int[] domainIds;
+        List<SparseBitVector> vectors;
+        float[] weights;
+        int[] sample;
+
+        SimilarityEngine engine;
+
+        /** The vector of each domain, and the domains each domain is in the vector of,
+         * like AdjacenciesData kept them for the pairwise calculation */
+        TIntObjectHashMap<SparseBitVector> dToSMap;
+        TIntObjectHashMap<RoaringBitmap> sToDMap;
+
+        @Setup(Level.Trial)
+        public void doSetup() {
+            Random r = new Random(4711);
+
+            domainIds = new int[domainCount];
+            for (int i = 0; i < domainCount; i++) {
+                // Sparse ids, like domain ids
+                domainIds[i] = 3 * i + 1;
+            }
+
+            Map<Integer, RoaringBitmap> dToS = new HashMap<>();
+            sToDMap = new TIntObjectHashMap<>();
+
+            for (int i = 0; i < domainCount * averageDegree; i++) {
+                int source = domainIds[r.nextInt(domainCount)];
+                // A few domains get most of the links
+                int dest = domainIds[(int) (domainCount * Math.pow(r.nextDouble(), 3))];
+
+                dToS.computeIfAbsent(dest, d -> { var bm = new RoaringBitmap(); bm.add(d); return bm; }).add(source);
+
+                RoaringBitmap sToD = sToDMap.get(source);
+                if (sToD == null) {
+                    sToD = new RoaringBitmap();
+                    sToD.add(source);
+                    sToDMap.put(source, sToD);
+                }
+                sToD.add(dest);
+            }
+
+            List<Integer> ids = new ArrayList<>();
+            vectors = new ArrayList<>();
+            dToSMap = new TIntObjectHashMap<>();
+
+            dToS.forEach((id, bm) -> {
+                if (bm.getCardinality() < 10000) {
+                    var vector = SparseBitVector.of(bm);
+
+                    ids.add(id);
+                    vectors.add(vector);
+                    dToSMap.put(id, vector);
+                }
+            });
+
+            domainIds = ids.stream().mapToInt(Integer::intValue).toArray();
+
+            weights = new float[3 * domainCount + 1];
+            for (int i = 0; i < domainIds.length; i++) {
+                weights[domainIds[i]] = 1.0f / (float) Math.log(2 + vectors.get(i).getCardinality());
+            }
+
+            sample = new int[SAMPLE_SIZE];
+            for (int i = 0; i < SAMPLE_SIZE; i++) {
+                sample[i] = r.nextInt(domainIds.length);
+            }
+
+            engine = new SimilarityEngine(domainIds, vectors, weights);
+        }
+    }
+
+    @Benchmark
+    public SimilarityEngine engineBuild(BenchState state) {
+        return new SimilarityEngine(state.domainIds, state.vectors, state.weights);
+    }
+
+    @Benchmark
+    public void engine(BenchState state, Blackhole bh) {
+        for (int idx : state.sample) {
+            bh.consume(state.engine.findSimilar(idx));
+        }
+    }
+
+    @Benchmark
+    public void pairwise(BenchState state, Blackhole bh) {
+        for (int idx : state.sample) {
+            bh.consume(pairwise(state, state.domainIds[idx]));
+        }
+    }
+
+    /** The calculation as WebsiteAdjacenciesCalculator did it before the SimilarityEngine */
+    private static DomainSimilarities pairwise(BenchState state, int domainId) {
+        var vector = state.dToSMap.get(domainId);
+
+        if (vector == null || !vector.cardinalityExceeds(10)) {
+            return null;
+        }
+
+        TIntHashSet candidates = new TIntHashSet();
+        for (int i = 0; i < vector.values().size(); i++) {
+            var sToD = state.sToDMap.get(vector.values().getQuick(i));
+            if (sToD != null) {
+                candidates.addAll(sToD.toArray());
+            }
+        }
+
+        List<DomainSimilarity> similarities = new ArrayList<>(1000);
+        int cardMin = Math.max(2, (int) (0.01 * vector.getCardinality()));
+
+        candidates.forEach(id -> {
+            var otherVec = state.dToSMap.get(id);
+
+            if (null == otherVec || otherVec == vector)
+                return true;
+
+            if (otherVec.getCardinality() < cardMin)
+                return true;
+
+            double similarity = SparseBitVector.andCardinality(vector, otherVec);
+            similarity /= Math.sqrt(vector.getCardinality());
+            similarity /= Math.sqrt(otherVec.getCardinality());
+
+            if (similarity > 0.1) {
+                double recalculated = SparseBitVector.weightedProduct(state.weights, vector, otherVec)
+                        / Math.sqrt(vector.mulAndSum(state.weights) * otherVec.mulAndSum(state.weights));
+                if (recalculated > 0.1) {
+                    similarities.add(new DomainSimilarity(id, recalculated));
+                }
+            }
+
+            return true;
+        });
+
+        if (similarities.size() > 128) {
+            similarities.sort(Comparator.comparing(DomainSimilarity::value));
+            similarities.subList(0, similarities.size() - 128).clear();
+        }
+
+        return new DomainSimilarities(domainId, similarities);
+    }
+}
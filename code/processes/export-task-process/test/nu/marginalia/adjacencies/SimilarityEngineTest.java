@@ -0,0 +1,132 @@
+package nu.marginalia.adjacencies;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimilarityEngineTest {
+
+    @Test
+    public void testSmallVectors() {
+        int[] ids = { 1, 2, 3 };
+        List<SparseBitVector> vectors = List.of(
+                SparseBitVector.of(1, 10, 11, 12, 13, 14, 15, 16, 17, 18),
+                SparseBitVector.of(2, 10, 11, 12, 13, 14, 15, 16, 17, 18),
+                SparseBitVector.of(3, 10, 11)
+        );
+        float[] weights = new float[20];
+        Arrays.fill(weights, 1.f);
+
+        var engine = new SimilarityEngine(ids, vectors, weights);
+
+        var similarities = engine.findSimilar(0);
+        assertNotNull(similarities);
+        assertEquals(1, similarities.domainId());
+
+        // The domain itself is not similar to itself
+        assertEquals(List.of(2, 3), similarities.similarities().stream()
+                .map(WebsiteAdjacenciesCalculator.DomainSimilarity::domainId)
+                .sorted()
+                .toList());
+
+        // Too few linking domains
+        assertNull(engine.findSimilar(2));
+    }
+
+    @Test
+    public void testSameAsPairwise() {
+        Random r = new Random(1234);
+
+        int n = 300;
+        int[] ids = new int[n];
+        List<SparseBitVector> vectors = new ArrayList<>(n);
+
+        for (int i = 0; i < n; i++) {
+            ids[i] = 2 * i;
+
+            int[] members = new int[1 + r.nextInt(60)];
+            members[0] = ids[i];
+            for (int j = 1; j < members.length; j++) {
+                // Low ids link to most domains, so that there are many similar domains
+                members[j] = (int) (2 * n * Math.pow(r.nextDouble(), 2));
+            }
+            vectors.add(SparseBitVector.of(members));
+        }
+
+        float[] weights = new float[2 * n];
+        for (int i = 0; i < n; i++) {
+            weights[ids[i]] = 1.0f / (float) Math.log(2 + vectors.get(i).getCardinality());
+        }
+
+        var engine = new SimilarityEngine(ids, vectors, weights);
+
+        int withSimilarities = 0;
+        for (int a = 0; a < n; a++) {
+            var expected = pairwise(a, ids, vectors, weights);
+            var actual = engine.findSimilar(a);
+
+            if (expected == null) {
+                assertNull(actual);
+                continue;
+            }
+
+            assertNotNull(actual);
+            assertEquals(ids[a], actual.domainId());
+            assertEquals(expected.size(), actual.similarities().size());
+
+            var actualSorted = new ArrayList<>(actual.similarities());
+            actualSorted.sort(Comparator.comparing(WebsiteAdjacenciesCalculator.DomainSimilarity::value).reversed());
+
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).value(), actualSorted.get(i).value());
+            }
+
+            if (!expected.isEmpty())
+                withSimilarities++;
+        }
+
+        assertTrue(withSimilarities > n / 2);
+    }
+
+    /** The similarities as WebsiteAdjacenciesCalculator calculated them before the engine,
+     * sorted by descending similarity */
+    private List<WebsiteAdjacenciesCalculator.DomainSimilarity> pairwise(int a, int[] ids, List<SparseBitVector> vectors, float[] weights) {
+        var vector = vectors.get(a);
+
+        if (!vector.cardinalityExceeds(10))
+            return null;
+
+        int cardMin = Math.max(2, (int) (0.01 * vector.getCardinality()));
+
+        List<WebsiteAdjacenciesCalculator.DomainSimilarity> ret = new ArrayList<>();
+        for (int b = 0; b < vectors.size(); b++) {
+            var other = vectors.get(b);
+
+            if (b == a || other.getCardinality() < cardMin)
+                continue;
+
+            double similarity = SparseBitVector.andCardinality(vector, other);
+            similarity /= Math.sqrt(vector.getCardinality());
+            similarity /= Math.sqrt(other.getCardinality());
+
+            if (similarity <= 0.1)
+                continue;
+
+            double recalculated = SparseBitVector.weightedProduct(weights, vector, other)
+                    / Math.sqrt(vector.mulAndSum(weights) * other.mulAndSum(weights));
+
+            if (recalculated > 0.1) {
+                ret.add(new WebsiteAdjacenciesCalculator.DomainSimilarity(ids[b], recalculated));
+            }
+        }
+
+        ret.sort(Comparator.comparing(WebsiteAdjacenciesCalculator.DomainSimilarity::value).reversed());
+        if (ret.size() > SimilarityEngine.MAX_SIMILARITIES) {
+            ret.subList(SimilarityEngine.MAX_SIMILARITIES, ret.size()).clear();
+        }
+
+        return ret;
+    }
+}
@@ -4,6 +4,7 @@ import com.google.gson.Gson;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
+import nu.marginalia.IndexLocations;
 import nu.marginalia.linkdb.docs.DocumentDbWriter;
 import nu.marginalia.linkgraph.io.DomainLinksWriter;
 import nu.marginalia.loading.documents.DocumentLoaderService;
@@ -28,6 +29,7 @@ import java.util.List;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
 
+import static nu.marginalia.linkdb.LinkdbFileNames.DOCDB_COLUMNAR_FILE_NAME;
 import static nu.marginalia.mqapi.ProcessInboxNames.LOADER_INBOX;
 
 public class LoaderMain extends ProcessMainClass {
@@ -120,6 +122,12 @@ public class LoaderMain extends ProcessMainClass {
                 task.get();
             }
 
+            if (!Boolean.getBoolean("loader.disableColumnarDocdb")) {
+                documentDbWriter.writeColumnar(IndexLocations
+                        .getLinkdbWritePath(fileStorageService)
+                        .resolve(DOCDB_COLUMNAR_FILE_NAME));
+            }
+
             executionOk = true;
         }
         catch (Exception ex) {
@@ -19,6 +19,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.SQLException;
 
+import static nu.marginalia.linkdb.LinkdbFileNames.DOCDB_COLUMNAR_FILE_NAME;
 import static nu.marginalia.linkdb.LinkdbFileNames.DOCDB_FILE_NAME;
 import static nu.marginalia.linkdb.LinkdbFileNames.DOMAIN_LINKS_FILE_NAME;
 
@@ -41,6 +42,8 @@ public class LoaderModule extends AbstractModule {
         if (Files.exists(dbPath)) {
             Files.delete(dbPath);
         }
+        Files.deleteIfExists(dbPath.resolveSibling(DOCDB_COLUMNAR_FILE_NAME));
+
         return new DocumentDbWriter(dbPath);
     }
 
@@ -3,5 +3,7 @@ package nu.marginalia.mqapi.index;
 public enum IndexName {
     FORWARD,
     REVERSE_FULL,
-    REVERSE_PRIO
+    REVERSE_PRIO,
+    /** Forward and reverse indexes for the journal pages loaded since the current index was constructed */
+    DELTA
 }
@@ -259,9 +259,22 @@ public class ControlNodeActionsService {
 
         List<FileStorageId> ids = Arrays.stream(values).map(FileStorageId::parse).toList();
 
-        changeActiveStorage(nodeId, FileStorageType.PROCESSED_DATA, ids.toArray(new FileStorageId[0]));
+        boolean isDelta = "on".equalsIgnoreCase(request.queryParams("delta"));
 
-        crawlClient.loadProcessedData(nodeId, ids);
+        if (isDelta) {
+            // The previously loaded data remains searchable, and is to be loaded along with
+            // this data the next time the index is loaded in full
+            for (var id : ids) {
+                fileStorageService.setFileStorageState(id, FileStorageState.ACTIVE);
+            }
+
+            crawlClient.loadProcessedDataAsDelta(nodeId, ids);
+        }
+        else {
+            changeActiveStorage(nodeId, FileStorageType.PROCESSED_DATA, ids.toArray(new FileStorageId[0]));
+
+            crawlClient.loadProcessedData(nodeId, ids);
+        }
 
         return "";
     }
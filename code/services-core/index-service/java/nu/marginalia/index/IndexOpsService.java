@@ -39,6 +39,10 @@ public class IndexOpsService {
         return run(index::switchIndex).isPresent();
     }
 
+    public boolean switchDelta() throws Exception {
+        return run(index::switchDelta).isPresent();
+    }
+
 
     @CheckReturnValue
     public <T> Optional<T> run(Callable<T> c) throws Exception {
@@ -163,6 +163,15 @@ public class IndexService extends JoobyService {
         return "ok";
     }
 
+    @MqRequest(endpoint = IndexMqEndpoints.SWITCH_DELTA)
+    public String switchDelta(String message) throws Exception {
+        if (!opsService.switchDelta()) {
+            throw new IllegalStateException("Ops lock busy");
+        }
+
+        return "ok";
+    }
+
     @MqRequest(endpoint = IndexMqEndpoints.INDEX_IS_BLOCKED)
     public String isBlocked(String message) throws Exception {
         return Boolean.valueOf(opsService.isBusy()).toString();